@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package micro;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import org.cojen.dirmi.Asynchronous;
+import org.cojen.dirmi.Batched;
+import org.cojen.dirmi.CallMode;
+import org.cojen.dirmi.Ordered;
+import org.cojen.dirmi.Pipe;
+
+/**
+ * Remote interface exercised by {@link InvocationBench}, with one method per
+ * calling mode being measured.
+ *
+ * @author Brian S O'Neill
+ */
+public interface BenchRemote extends Remote {
+    void nop() throws RemoteException;
+
+    int echo(int value) throws RemoteException;
+
+    @Asynchronous(CallMode.EVENTUAL)
+    void eventual() throws RemoteException;
+
+    @Asynchronous(CallMode.IMMEDIATE)
+    void immediate() throws RemoteException;
+
+    @Asynchronous(CallMode.ACKNOWLEDGED)
+    void acknowledged() throws RemoteException;
+
+    @Batched
+    void batched(int value) throws RemoteException;
+
+    @Ordered
+    @Asynchronous
+    void ordered(int value) throws RemoteException;
+
+    /**
+     * Returns the sum of all values received by batched and ordered calls,
+     * which also serves as a barrier for those calls.
+     */
+    long sum() throws RemoteException;
+
+    /**
+     * Reads a length prefixed block and replies with the length.
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    Pipe stream(Pipe pipe) throws RemoteException;
+
+    int pass(Token token) throws RemoteException;
+
+    void fail(String message) throws RemoteException, BenchException;
+
+    /**
+     * Remote object passed as a parameter, to measure object export costs.
+     */
+    public static interface Token extends Remote {
+        int id() throws RemoteException;
+    }
+
+    public static class BenchException extends Exception {
+        public BenchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package micro;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cojen.dirmi.core.Identifier;
+
+/**
+ * Measures how Identifier.identify throughput scales with the number of
+ * concurrent threads. Each thread repeatedly identifies a small working set
+ * of objects, replacing one object per iteration to force new identifiers
+ * to be created.
+ *
+ * <p>Usage: IdentifyBench [seconds per run] [max threads]
+ *
+ * @author Brian S O'Neill
+ */
+public class IdentifyBench {
+    private static final int WORKING_SET = 64;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        // Warmup.
+        run(Runtime.getRuntime().availableProcessors(), seconds);
+
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            double rate = run(threads, seconds);
+            System.out.println("threads: " + threads + ", identify per second: " + (long) rate);
+        }
+    }
+
+    private static double run(int threadCount, int seconds) throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threadCount];
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i=0; i<threadCount; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Object[] objects = new Object[WORKING_SET];
+                    for (int j=0; j<objects.length; j++) {
+                        objects[j] = new Object();
+                    }
+
+                    ready.countDown();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long count = 0;
+                    int replace = 0;
+                    while (!stop.get()) {
+                        for (Object obj : objects) {
+                            Identifier.identify(obj);
+                        }
+                        objects[replace] = new Object();
+                        replace = (replace + 1) % objects.length;
+                        count += objects.length;
+                    }
+                    counts[slot] = count;
+                }
+            };
+            threads[i].start();
+        }
+
+        ready.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+
+        long total = 0;
+        for (int i=0; i<threadCount; i++) {
+            threads[i].join();
+            total += counts[i];
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        return total * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package micro;
+
+import java.io.IOException;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.net.InetSocketAddress;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cojen.dirmi.Environment;
+import org.cojen.dirmi.Pipe;
+import org.cojen.dirmi.Session;
+import org.cojen.dirmi.SessionAcceptor;
+
+/**
+ * Measures remote invocation latency through the full session stack, for
+ * each calling mode and transport. Every measured operation is timed
+ * individually, and the report includes latency percentiles, bytes
+ * allocated per operation and garbage collection activity over the run.
+ *
+ * <p>Transports are "piped" for a local session pair, "socket" for
+ * thread-per-socket loopback sessions, "select" for loopback sessions
+ * registered with a socket selector, and "multiplex" for loopback sessions
+ * which multiplex channels over a single socket. Allocation is summed over
+ * all live threads of the process, and so it includes the server side of
+ * each call.
+ *
+ * <p>Usage: InvocationBench [seconds per run] [transport...]
+ *
+ * @author Brian S O'Neill
+ */
+public class InvocationBench {
+    private static final String[] TRANSPORTS = {"piped", "socket", "select", "multiplex"};
+
+    private static final int BATCH_SIZE = 100;
+    private static final int BLOCK_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        String[] transports = TRANSPORTS;
+        if (args.length > 1) {
+            transports = new String[args.length - 1];
+            System.arraycopy(args, 1, transports, 0, transports.length);
+        }
+
+        for (String transport : transports) {
+            Environment env = new Environment();
+            try {
+                BenchRemote remote = open(env, transport);
+                System.out.println("transport: " + transport);
+                for (Op op : ops(remote)) {
+                    // Warmup.
+                    measure(op, seconds);
+                    System.out.println("  " + measure(op, seconds));
+                }
+            } finally {
+                env.close();
+            }
+        }
+    }
+
+    private static BenchRemote open(Environment env, String transport) throws IOException {
+        if ("piped".equals(transport)) {
+            Session[] pair = env.newSessionPair();
+            pair[0].send(new Server());
+            return (BenchRemote) pair[1].receive();
+        }
+
+        if ("select".equals(transport)) {
+            env = env.withSocketSelector();
+        } else if ("multiplex".equals(transport)) {
+            env = env.withMultiplexedChannels();
+        } else if (!"socket".equals(transport)) {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+
+        SessionAcceptor acceptor = env.newSessionAcceptor(new InetSocketAddress("127.0.0.1", 0));
+        acceptor.acceptAll(new Server());
+        Session session = env.newSessionConnector
+            ((InetSocketAddress) acceptor.getLocalAddress()).connect();
+        return (BenchRemote) session.receive();
+    }
+
+    private static Op[] ops(final BenchRemote remote) {
+        final byte[] block = new byte[BLOCK_SIZE];
+
+        return new Op[] {
+            new Op("sync nop") {
+                void run() throws Exception {
+                    remote.nop();
+                }
+            },
+
+            new Op("sync echo") {
+                void run() throws Exception {
+                    remote.echo(1);
+                }
+            },
+
+            new Op("async eventual") {
+                void run() throws Exception {
+                    remote.eventual();
+                }
+            },
+
+            new Op("async immediate") {
+                void run() throws Exception {
+                    remote.immediate();
+                }
+            },
+
+            new Op("async acknowledged") {
+                void run() throws Exception {
+                    remote.acknowledged();
+                }
+            },
+
+            new Op("batched x" + BATCH_SIZE, BATCH_SIZE) {
+                void run() throws Exception {
+                    for (int i=0; i<BATCH_SIZE; i++) {
+                        remote.batched(1);
+                    }
+                    remote.sum();
+                }
+            },
+
+            new Op("ordered x" + BATCH_SIZE, BATCH_SIZE) {
+                void run() throws Exception {
+                    for (int i=0; i<BATCH_SIZE; i++) {
+                        remote.ordered(1);
+                    }
+                    remote.sum();
+                }
+            },
+
+            new Op("pipe " + BLOCK_SIZE + " bytes") {
+                void run() throws Exception {
+                    Pipe pipe = remote.stream(null);
+                    pipe.writeInt(block.length);
+                    pipe.write(block);
+                    pipe.flush();
+                    pipe.readInt();
+                    pipe.close();
+                }
+            },
+
+            new Op("remote object") {
+                void run() throws Exception {
+                    remote.pass(new TokenImpl());
+                }
+            },
+
+            new Op("exception") {
+                void run() throws Exception {
+                    try {
+                        remote.fail("bench");
+                    } catch (BenchRemote.BenchException e) {
+                    }
+                }
+            },
+        };
+    }
+
+    private static Result measure(Op op, int seconds) throws Exception {
+        Histogram histogram = new Histogram();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+
+        long startBytes = allocatedBytes(threads);
+        long startGcCount = gcCount(gcs);
+        long startGcTime = gcTime(gcs);
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long now = start;
+        long count = 0;
+
+        do {
+            op.run();
+            long after = System.nanoTime();
+            histogram.add(after - now);
+            now = after;
+            count++;
+        } while (now < end);
+
+        Result result = new Result();
+        result.mName = op.mName;
+        result.mCalls = count * op.mCallsPerRun;
+        result.mCallsPerSecond = result.mCalls * 1e9 / (now - start);
+        result.mHistogram = histogram;
+
+        long bytes = allocatedBytes(threads);
+        if (bytes >= 0 && startBytes >= 0) {
+            result.mBytesPerCall = (bytes - startBytes) / (double) result.mCalls;
+        } else {
+            result.mBytesPerCall = Double.NaN;
+        }
+        result.mGcCount = gcCount(gcs) - startGcCount;
+        result.mGcTime = gcTime(gcs) - startGcTime;
+
+        return result;
+    }
+
+    /**
+     * @return -1 if not supported
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean ext = (com.sun.management.ThreadMXBean) threads;
+        if (!ext.isThreadAllocatedMemorySupported() || !ext.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ext.getThreadAllocatedBytes(ext.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount(List<GarbageCollectorMXBean> gcs) {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : gcs) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcTime(List<GarbageCollectorMXBean> gcs) {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : gcs) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static abstract class Op {
+        final String mName;
+        final int mCallsPerRun;
+
+        Op(String name) {
+            this(name, 1);
+        }
+
+        Op(String name, int callsPerRun) {
+            mName = name;
+            mCallsPerRun = callsPerRun;
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    private static class Result {
+        String mName;
+        long mCalls;
+        double mCallsPerSecond;
+        Histogram mHistogram;
+        double mBytesPerCall;
+        long mGcCount;
+        long mGcTime;
+
+        @Override
+        public String toString() {
+            Histogram h = mHistogram;
+            return String.format
+                ("%-20s calls/s: %10.0f  latency us p50: %8.1f  p90: %8.1f  p99: %8.1f" +
+                 "  p99.9: %8.1f  max: %9.1f  bytes/call: %8.1f  gc: %d (%d ms)",
+                 mName, mCallsPerSecond,
+                 h.percentile(0.5) / 1000.0, h.percentile(0.9) / 1000.0,
+                 h.percentile(0.99) / 1000.0, h.percentile(0.999) / 1000.0,
+                 h.max() / 1000.0, mBytesPerCall, mGcCount, mGcTime);
+        }
+    }
+
+    /**
+     * Collects nanosecond samples into an array which grows as needed.
+     */
+    private static class Histogram {
+        private long[] mSamples = new long[1024];
+        private int mSize;
+        private boolean mSorted;
+
+        void add(long sample) {
+            if (mSize >= mSamples.length) {
+                mSamples = Arrays.copyOf(mSamples, mSize << 1);
+            }
+            mSamples[mSize++] = sample;
+            mSorted = false;
+        }
+
+        long percentile(double p) {
+            if (mSize == 0) {
+                return 0;
+            }
+            sort();
+            int index = (int) Math.ceil(p * mSize) - 1;
+            return mSamples[Math.max(0, Math.min(mSize - 1, index))];
+        }
+
+        long max() {
+            return percentile(1.0);
+        }
+
+        private void sort() {
+            if (!mSorted) {
+                Arrays.sort(mSamples, 0, mSize);
+                mSorted = true;
+            }
+        }
+    }
+
+    private static class Server implements BenchRemote {
+        private volatile long mSum;
+
+        public void nop() {
+        }
+
+        public int echo(int value) {
+            return value;
+        }
+
+        public void eventual() {
+        }
+
+        public void immediate() {
+        }
+
+        public void acknowledged() {
+        }
+
+        public void batched(int value) {
+            mSum += value;
+        }
+
+        public void ordered(int value) {
+            mSum += value;
+        }
+
+        public long sum() {
+            return mSum;
+        }
+
+        public Pipe stream(Pipe pipe) {
+            try {
+                int length = pipe.readInt();
+                byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+                int remaining = length;
+                while (remaining > 0) {
+                    int amt = pipe.read(block, 0, Math.min(remaining, block.length));
+                    if (amt < 0) {
+                        break;
+                    }
+                    remaining -= amt;
+                }
+                pipe.writeInt(length - remaining);
+                pipe.close();
+            } catch (IOException e) {
+            }
+            return null;
+        }
+
+        public int pass(Token token) {
+            return token == null ? 0 : 1;
+        }
+
+        public void fail(String message) throws BenchException {
+            throw new BenchException(message);
+        }
+    }
+
+    private static class TokenImpl implements BenchRemote.Token {
+        private static final AtomicInteger cNextId = new AtomicInteger();
+
+        private final int mId = cNextId.incrementAndGet();
+
+        public int id() {
+            return mId;
+        }
+    }
+}
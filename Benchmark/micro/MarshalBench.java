@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package micro;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cojen.dirmi.Environment;
+import org.cojen.dirmi.Session;
+
+/**
+ * Measures how remote object marshalling throughput scales with the number of
+ * concurrent threads. Each call passes many remote objects, which are
+ * exported, resolved to stubs by the server, and then passed back. This
+ * stresses the shared type, factory and stub caches.
+ *
+ * <p>Usage: MarshalBench [seconds per run] [objects per call] [max threads]
+ *
+ * @author Brian S O'Neill
+ */
+public class MarshalBench {
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        Environment env = new Environment();
+        try {
+            Session[] pair = env.newSessionPair();
+            pair[0].send(new EchoServer());
+            Echo echo = (Echo) pair[1].receive();
+
+            // Warmup.
+            run(echo, Runtime.getRuntime().availableProcessors(), objects, seconds);
+
+            for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+                double rate = run(echo, threads, objects, seconds);
+                System.out.println("threads: " + threads +
+                                   ", calls per second: " + (long) rate +
+                                   ", objects per second: " + (long) (rate * objects));
+            }
+        } finally {
+            env.close();
+        }
+    }
+
+    private static double run(final Echo echo, int threadCount, final int objectCount,
+                              int seconds)
+        throws Exception
+    {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threadCount];
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i=0; i<threadCount; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Item[] items = new Item[objectCount];
+                    for (int j=0; j<items.length; j++) {
+                        items[j] = new ItemImpl();
+                    }
+
+                    ready.countDown();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long count = 0;
+                    int replace = 0;
+                    try {
+                        while (!stop.get()) {
+                            Item[] result = echo.echo(items);
+                            if (result.length != items.length) {
+                                throw new AssertionError();
+                            }
+                            // Replace one object per call to keep exporting
+                            // new identifiers.
+                            items[replace] = new ItemImpl();
+                            replace = (replace + 1) % items.length;
+                            count++;
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                    counts[slot] = count;
+                }
+            };
+            threads[i].start();
+        }
+
+        ready.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+
+        long total = 0;
+        for (int i=0; i<threadCount; i++) {
+            threads[i].join();
+            total += counts[i];
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new Exception(failure[0]);
+            }
+        }
+
+        return total * 1e9 / elapsed;
+    }
+
+    public static interface Echo extends Remote {
+        Item[] echo(Item[] items) throws RemoteException;
+    }
+
+    public static interface Item extends Remote {
+        void touch() throws RemoteException;
+    }
+
+    private static class EchoServer implements Echo {
+        public Item[] echo(Item[] items) {
+            return items;
+        }
+    }
+
+    private static class ItemImpl implements Item {
+        public void touch() {
+        }
+    }
+}
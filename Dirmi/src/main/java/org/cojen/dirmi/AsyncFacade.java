@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.rmi.Remote;
+
+import org.cojen.dirmi.core.AsyncFacadeGenerator;
+
+/**
+ * Creates facades which call the synchronous methods of a client-side remote
+ * object without blocking the caller. A facade implements a public interface
+ * which mirrors the remote interface, except each method returns a {@link
+ * Completion} or {@link java.util.concurrent.Future Future} of the original
+ * return type. Facade methods are matched to remote methods by name and
+ * parameter types.
+ *
+ * <p><pre>
+ * public interface MyService extends Remote {
+ *     Results performAnalysis(Object params) throws RemoteException;
+ * }
+ *
+ * public interface MyServiceAsync {
+ *     Completion&lt;Results&gt; performAnalysis(Object params);
+ * }
+ *
+ * MyServiceAsync async = AsyncFacade.create(MyServiceAsync.class, service);
+ * Completion&lt;Results&gt; results = async.performAnalysis(params);
+ * </pre>
+ *
+ * The request is written by the calling thread, and the response is read by
+ * a session thread when it arrives. No thread waits for the response, and so
+ * a single thread can have many calls in flight, each over its own channel.
+ * Because of this, calls aren't ordered with respect to each other.
+ * Responses are read most efficiently when the session uses a {@link
+ * Environment#withSocketSelector socket selector}. Any exception thrown by
+ * the remote method, including the remote failure exception, is reported by
+ * the completion as an {@code ExecutionException}. Timeouts are applied just
+ * as they are for the remote method.
+ *
+ * @author Brian S O'Neill
+ * @see Asynchronous
+ */
+public class AsyncFacade {
+    private AsyncFacade() {
+    }
+
+    /**
+     * Returns a new facade for the given client-side remote object.
+     *
+     * @param facadeType public interface whose methods all return a {@code
+     * Completion} or {@code Future}
+     * @param remote client-side remote object stub
+     * @throws IllegalArgumentException if object is not a client-side remote
+     * object stub, or if any facade method doesn't match a synchronous remote
+     * method
+     */
+    public static <F> F create(Class<F> facadeType, Remote remote) {
+        return AsyncFacadeGenerator.createFacade(facadeType, remote);
+    }
+}
@@ -39,6 +39,7 @@ import org.cojen.dirmi.core.StandardSessionAcceptor;
 
 import org.cojen.dirmi.io.BasicChannelBrokerAcceptor;
 import org.cojen.dirmi.io.BasicChannelBrokerConnector;
+import org.cojen.dirmi.io.BufferPool;
 import org.cojen.dirmi.io.BufferedSocketChannelAcceptor;
 import org.cojen.dirmi.io.BufferedSocketChannelConnector;
 import org.cojen.dirmi.io.ChannelAcceptor;
@@ -47,14 +48,19 @@ import org.cojen.dirmi.io.ChannelBrokerAcceptor;
 import org.cojen.dirmi.io.ChannelBrokerConnector;
 import org.cojen.dirmi.io.ChannelConnector;
 import org.cojen.dirmi.io.IOExecutor;
+import org.cojen.dirmi.io.MultiplexedChannelBrokerAcceptor;
+import org.cojen.dirmi.io.MultiplexedChannelBrokerConnector;
 import org.cojen.dirmi.io.PipedChannelBroker;
 import org.cojen.dirmi.io.RecyclableSocketChannelAcceptor;
 import org.cojen.dirmi.io.RecyclableSocketChannelConnector;
 import org.cojen.dirmi.io.RecyclableSocketChannelSelector;
+import org.cojen.dirmi.io.ShardedSocketChannelSelector;
 import org.cojen.dirmi.io.SocketChannelSelector;
 
 import org.cojen.dirmi.util.Cache;
+import org.cojen.dirmi.util.MetricsRegistry;
 import org.cojen.dirmi.util.ThreadPool;
+import org.cojen.dirmi.util.WorkStealingThreadPool;
 import org.cojen.dirmi.util.Timer;
 
 /**
@@ -65,18 +71,32 @@ import org.cojen.dirmi.util.Timer;
  */
 public class Environment implements Closeable {
     private static final boolean RECYCLABLE_SOCKETS;
+    private static final boolean SHARDED_SELECTOR;
+    private static final boolean WORK_STEALING;
 
     static {
         boolean recyclableSockets = true;
+        boolean shardedSelector = true;
+        boolean workStealing = false;
         try {
             String prop = System.getProperty("org.cojen.dirmi.Environment.recyclableSockets");
             if (prop != null && prop.equalsIgnoreCase("false")) {
                 recyclableSockets = false;
             }
+            prop = System.getProperty("org.cojen.dirmi.Environment.shardedSelector");
+            if (prop != null && prop.equalsIgnoreCase("false")) {
+                shardedSelector = false;
+            }
+            prop = System.getProperty("org.cojen.dirmi.Environment.workStealing");
+            if (prop != null && prop.equalsIgnoreCase("true")) {
+                workStealing = true;
+            }
         } catch (SecurityException e) {
         }
 
         RECYCLABLE_SOCKETS = recyclableSockets;
+        SHARDED_SELECTOR = shardedSelector;
+        WORK_STEALING = workStealing;
     }
 
     private final ScheduledExecutorService mExecutor;
@@ -93,6 +113,8 @@ public class Environment implements Closeable {
 
     private final ClassLoader mClassLoader;
 
+    private final boolean mMultiplexed;
+
     /**
      * Construct environment which uses up to 1000 threads.
      */
@@ -113,6 +135,11 @@ public class Environment implements Closeable {
      * Construct environment with the given maximum number of threads, thread
      * name prefix, and uncaught exception handler.
      *
+     * <p>The thread pool is a {@link ThreadPool} by default. A {@link
+     * WorkStealingThreadPool}, which scales better when many threads submit
+     * tasks concurrently, is used instead if the system property
+     * "org.cojen.dirmi.Environment.workStealing" is set to true.
+     *
      * @param maxThreads maximum number of threads in pool
      * @param threadNamePrefix prefix given to thread name; pass null for default
      * @param handler handler for uncaught exceptions; pass null for default
@@ -120,10 +147,26 @@ public class Environment implements Closeable {
     public Environment(int maxThreads, String threadNamePrefix,
                        Thread.UncaughtExceptionHandler handler)
     {
-        this(new ThreadPool(maxThreads,
-                            false,
-                            threadNamePrefix == null ? "dirmi" : threadNamePrefix,
-                            handler));
+        this(maxThreads, threadNamePrefix, handler, WORK_STEALING);
+    }
+
+    /**
+     * Construct environment with the given maximum number of threads, thread
+     * name prefix, and uncaught exception handler.
+     *
+     * @param maxThreads maximum number of threads in pool
+     * @param threadNamePrefix prefix given to thread name; pass null for default
+     * @param handler handler for uncaught exceptions; pass null for default
+     * @param workStealing pass true to use a {@link WorkStealingThreadPool}
+     * instead of a {@link ThreadPool}
+     */
+    public Environment(int maxThreads, String threadNamePrefix,
+                       Thread.UncaughtExceptionHandler handler,
+                       boolean workStealing)
+    {
+        this(newThreadPool(maxThreads,
+                           threadNamePrefix == null ? "dirmi" : threadNamePrefix,
+                           handler, workStealing));
     }
 
     /**
@@ -132,7 +175,18 @@ public class Environment implements Closeable {
      * @see ThreadPool
      */
     public Environment(ScheduledExecutorService executor) {
-        this(executor, null, null, null, null, null, null, null);
+        this(executor, null, null, null, null, null, null, null, false);
+    }
+
+    private static ScheduledExecutorService newThreadPool(int maxThreads, String prefix,
+                                                          Thread.UncaughtExceptionHandler h,
+                                                          boolean workStealing)
+    {
+        if (workStealing) {
+            return new WorkStealingThreadPool(maxThreads, false, prefix, h);
+        } else {
+            return new ThreadPool(maxThreads, false, prefix, h);
+        }
     }
 
     private Environment(ScheduledExecutorService executor,
@@ -142,7 +196,8 @@ public class Environment implements Closeable {
                         SocketFactory sf,
                         ServerSocketFactory ssf,
                         RecyclableSocketChannelSelector selector,
-                        ClassLoader classLoader)
+                        ClassLoader classLoader,
+                        boolean multiplexed)
     {
         if (executor == null) {
             throw new IllegalArgumentException("Must provide an executor");
@@ -158,6 +213,7 @@ public class Environment implements Closeable {
         mServerSocketFactory = ssf;
         mSelector = selector;
         mClassLoader = classLoader;
+        mMultiplexed = multiplexed;
     }
 
     /**
@@ -172,7 +228,7 @@ public class Environment implements Closeable {
             throw new IllegalStateException("Cannot combine socket factory and selector");
         }
         return new Environment(mExecutor, mIOExecutor, mCloseableSet, mClosed,
-                               sf, mServerSocketFactory, null, mClassLoader);
+                               sf, mServerSocketFactory, null, mClassLoader, mMultiplexed);
     }
 
     /**
@@ -187,7 +243,7 @@ public class Environment implements Closeable {
             throw new IllegalStateException("Cannot combine socket factory and selector");
         }
         return new Environment(mExecutor, mIOExecutor, mCloseableSet, mClosed,
-                               mSocketFactory, ssf, null, mClassLoader);
+                               mSocketFactory, ssf, null, mClassLoader, mMultiplexed);
     }
 
     /**
@@ -196,8 +252,11 @@ public class Environment implements Closeable {
      * one, and closing either environment closes both.
      *
      * <p>Overall performance is lower with selectable sockets, but scalability
-     * is improved. Remote call overhead is about 2 to 4 times higher, which is
-     * largely due to the inefficient design of the nio library.
+     * is improved. Sockets remain registered with one of several selector
+     * threads for their lifetime, which keeps the overhead of each remote call
+     * low. The original selector, which registers and cancels a socket for
+     * every call, can be selected by setting the system property
+     * "org.cojen.dirmi.Environment.shardedSelector" to false.
      *
      * @throws IllegalStateException if environment uses a socket factory
      */
@@ -231,8 +290,12 @@ public class Environment implements Closeable {
             }
         }
 
-        final RecyclableSocketChannelSelector selector =
-            new RecyclableSocketChannelSelector(mIOExecutor);
+        final RecyclableSocketChannelSelector selector;
+        if (SHARDED_SELECTOR) {
+            selector = new ShardedSocketChannelSelector(mIOExecutor);
+        } else {
+            selector = new RecyclableSocketChannelSelector(mIOExecutor);
+        }
         addToClosableSet(selector);
 
         mIOExecutor.execute(new Runnable() {
@@ -246,7 +309,7 @@ public class Environment implements Closeable {
         });
 
         return new Environment(mExecutor, mIOExecutor, mCloseableSet, mClosed,
-                               null, null, selector, mClassLoader);
+                               null, null, selector, mClassLoader, mMultiplexed);
     }
 
     /**
@@ -258,7 +321,25 @@ public class Environment implements Closeable {
      */
     public Environment withClassLoader(ClassLoader classLoader) {
         return new Environment(mExecutor, mIOExecutor, mCloseableSet, mClosed,
-                               mSocketFactory, mServerSocketFactory, mSelector, mClassLoader);
+                               mSocketFactory, mServerSocketFactory, mSelector, mClassLoader,
+                               mMultiplexed);
+    }
+
+    /**
+     * Returns an environment instance which multiplexes all channels of a
+     * session over a single socket, instead of using a socket per
+     * channel. Each channel has its own flow control window, and so many
+     * concurrent calls don't require additional sockets or connect round
+     * trips. The returned environment is linked to this one, and closing
+     * either environment closes both.
+     *
+     * <p>Both endpoints must enable multiplexed channels, or else sessions
+     * cannot be established.
+     */
+    public Environment withMultiplexedChannels() {
+        return new Environment(mExecutor, mIOExecutor, mCloseableSet, mClosed,
+                               mSocketFactory, mServerSocketFactory, mSelector, mClassLoader,
+                               true);
     }
 
     /**
@@ -331,8 +412,12 @@ public class Environment implements Closeable {
     {
         checkClosed();
         ChannelAcceptor channelAcceptor = newChannelAcceptor(localAddress);
-        ChannelBrokerAcceptor brokerAcceptor =
-            new BasicChannelBrokerAcceptor(mIOExecutor, channelAcceptor);
+        ChannelBrokerAcceptor brokerAcceptor;
+        if (mMultiplexed) {
+            brokerAcceptor = new MultiplexedChannelBrokerAcceptor(mIOExecutor, channelAcceptor);
+        } else {
+            brokerAcceptor = new BasicChannelBrokerAcceptor(mIOExecutor, channelAcceptor);
+        }
         addToClosableSet(brokerAcceptor);
         return brokerAcceptor;
     }
@@ -454,6 +539,27 @@ public class Environment implements Closeable {
         return mExecutor;
     }
 
+    /**
+     * Returns the pool which supplies stream buffers to the socket channels
+     * of this environment, and which reports the pool hit rate. Linked
+     * environments share the same pool.
+     */
+    public BufferPool bufferPool() {
+        return mIOExecutor.bufferPool();
+    }
+
+    /**
+     * Returns the registry of remote method metrics, which combines the
+     * metrics of all sessions of this environment. Metrics are only recorded
+     * when the system property "org.cojen.dirmi.metrics" is true, and
+     * otherwise this method returns null. Each method is also published as
+     * an MBean with the platform MBeanServer. Linked environments share the
+     * same registry.
+     */
+    public MetricsRegistry metrics() {
+        return mIOExecutor.metrics();
+    }
+
     /**
      * Closes all existing sessions and then shuts down the thread pool. New
      * sessions cannot be established.
@@ -494,6 +600,11 @@ public class Environment implements Closeable {
             // interrupting active threads is undefined. Users may access the
             // executor directly and call shutdownNow on it.
             mExecutor.shutdown();
+
+            MetricsRegistry metrics = mIOExecutor.metrics();
+            if (metrics != null) {
+                metrics.unregister();
+            }
         }
 
         if (exception != null) {
@@ -535,7 +646,8 @@ public class Environment implements Closeable {
         }
         
         ServerSocket ss = ssf.createServerSocket();
-        if (mRecyclableSockets) {
+        // Multiplexed transport channels are never recycled.
+        if (mRecyclableSockets && !mMultiplexed) {
             return new RecyclableSocketChannelAcceptor(mIOExecutor, localAddress, ss);
         } else {
             return new BufferedSocketChannelAcceptor(mIOExecutor, localAddress, ss);
@@ -553,7 +665,7 @@ public class Environment implements Closeable {
             sf = SocketFactory.getDefault();
         }
 
-        if (mRecyclableSockets) {
+        if (mRecyclableSockets && !mMultiplexed) {
             return new RecyclableSocketChannelConnector
                 (mIOExecutor, remoteAddress, localAddress, sf);
         } else {
@@ -571,7 +683,13 @@ public class Environment implements Closeable {
                 throw new IllegalArgumentException("Must provide a remote address");
             }
             mChannelConnector = newChannelConnector(remoteAddress, localAddress);
-            mBrokerConnector = new BasicChannelBrokerConnector(mIOExecutor, mChannelConnector);
+            if (mMultiplexed) {
+                mBrokerConnector = new MultiplexedChannelBrokerConnector
+                    (mIOExecutor, mChannelConnector);
+            } else {
+                mBrokerConnector = new BasicChannelBrokerConnector
+                    (mIOExecutor, mChannelConnector);
+            }
         }
 
         public Session connect() throws IOException {
@@ -24,6 +24,10 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -133,6 +137,46 @@ public interface Pipe extends Flushable, Closeable, ObjectInput, ObjectOutput, L
      */
     OutputStream getOutputStream();
 
+    /**
+     * Writes all remaining bytes of the given buffer as a transfer. Transfers
+     * must be read by {@link #read(ByteBuffer) read(ByteBuffer)} or {@link
+     * #transferTo transferTo}, and not by any other read method. When
+     * possible, the bytes are written directly to the transport without being
+     * copied into intermediate buffers.
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    /**
+     * Writes bytes from the given file as a transfer, starting at the given
+     * file position. The file's own position is not modified. Transfers must
+     * be read by {@link #read(ByteBuffer) read(ByteBuffer)} or {@link
+     * #transferTo transferTo}, and not by any other read method. If the pipe
+     * is backed by a socket channel, the file is sent using {@link
+     * FileChannel#transferTo FileChannel.transferTo}, which avoids copying
+     * file content into the heap.
+     *
+     * @return amount of bytes transferred, which is less than count if the
+     * end of file was reached
+     */
+    long transferFrom(FileChannel src, long position, long count) throws IOException;
+
+    /**
+     * Reads bytes which were written as transfers, blocking until at least
+     * one byte is available. Any amount of bytes can be read, but one read
+     * never spans more than one transfer.
+     *
+     * @return amount of bytes read, which is zero only if buffer has no
+     * remaining space
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Reads exactly count bytes which were written as transfers, and writes
+     * them to the given file at the given position. The file's own position
+     * is not modified.
+     */
+    void transferTo(FileChannel dst, long position, long count) throws IOException;
+
     /**
      * Reads a Throwable which was written via writeThrowable, which may be null.
      */
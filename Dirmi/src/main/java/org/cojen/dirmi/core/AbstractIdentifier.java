@@ -90,6 +90,10 @@ abstract class AbstractIdentifier implements Comparable<AbstractIdentifier>, Ser
         return (byte) mBits;
     }
 
+    long getBits() {
+        return mBits;
+    }
+
     @Override
     public int hashCode() {
         return (int) (mBits ^ (mBits >>> 32));
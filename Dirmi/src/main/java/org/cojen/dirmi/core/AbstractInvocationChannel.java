@@ -17,7 +17,13 @@
 package org.cojen.dirmi.core;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
 
 /**
  * 
@@ -33,6 +39,17 @@ abstract class AbstractInvocationChannel implements InvocationChannel {
         mInvOut = new InvocationOutputStream(this, out);
     }
 
+    /**
+     * @param rawIn stream which in wraps, for reading transfers
+     * @param rawOut stream which out wraps, for writing transfers
+     */
+    AbstractInvocationChannel(ObjectInputStream in, InputStream rawIn,
+                              DrainableObjectOutputStream out, OutputStream rawOut)
+    {
+        mInvIn = new InvocationInputStream(this, in, rawIn);
+        mInvOut = new InvocationOutputStream(this, out, rawOut);
+    }
+
     /**
      * Copy constructor which allows input to be replaced.
      */
@@ -41,6 +58,18 @@ abstract class AbstractInvocationChannel implements InvocationChannel {
         mInvOut = chan.mInvOut;
     }
 
+    /**
+     * Copy constructor which allows input to be replaced.
+     *
+     * @param rawIn stream which in wraps, for reading transfers
+     */
+    AbstractInvocationChannel(AbstractInvocationChannel chan, ObjectInputStream in,
+                              InputStream rawIn)
+    {
+        mInvIn = new InvocationInputStream(this, in, rawIn);
+        mInvOut = chan.mInvOut;
+    }
+
     public final InvocationInputStream getInputStream() {
         return mInvIn;
     }
@@ -133,6 +162,14 @@ abstract class AbstractInvocationChannel implements InvocationChannel {
         return mInvIn.skip(n);
     }
 
+    public int read(ByteBuffer dst) throws IOException {
+        return mInvIn.read(dst);
+    }
+
+    public void transferTo(FileChannel dst, long position, long count) throws IOException {
+        mInvIn.transferTo(dst, position, count);
+    }
+
     public int available() throws IOException {
         return mInvIn.available();
     }
@@ -149,6 +186,14 @@ abstract class AbstractInvocationChannel implements InvocationChannel {
         mInvOut.write(b, off, len);
     }
 
+    public void write(ByteBuffer src) throws IOException {
+        mInvOut.write(src);
+    }
+
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        return mInvOut.transferFrom(src, position, count);
+    }
+
     public void writeBoolean(boolean v) throws IOException {
         mInvOut.writeBoolean(v);
     }
@@ -33,6 +33,8 @@ import org.cojen.dirmi.ClosedException;
 import org.cojen.dirmi.Completion;
 import org.cojen.dirmi.RemoteTimeoutException;
 
+import org.cojen.dirmi.util.MetricsRegistry;
+
 /**
  * 
  *
@@ -55,6 +57,12 @@ abstract class AbstractStubSupport implements StubSupport {
         return new RemoteCompletionServer<V>(stub);
     }
 
+    @Override
+    public void recordCall(MetricsRegistry.Key key, InvocationChannel channel,
+                           long start, boolean failed)
+    {
+    }
+
     @Override
     public <T extends Throwable> T failedAndCancelTimeout(Class<T> remoteFailureEx,
                                                           InvocationChannel channel,
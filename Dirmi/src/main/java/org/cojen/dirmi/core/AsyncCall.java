@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cojen.dirmi.RejectedException;
+
+import org.cojen.dirmi.io.Channel;
+
+/**
+ * Completion for a call made through a generated asynchronous facade. The
+ * request is written by the calling thread, and the response is read by a
+ * channel listener, which completes the call. No thread waits for the
+ * response.
+ *
+ * @author Brian S O'Neill
+ * @see AsyncFacadeGenerator
+ */
+public class AsyncCall<V> extends RemoteCompletionServer<V> implements Channel.Listener {
+    /**
+     * Implemented by generated facades to read method responses.
+     */
+    public static interface Reader {
+        /**
+         * Reads the return value of a facade method, with primitive values
+         * boxed.
+         *
+         * @param methodIndex index of facade method
+         * @return null if method returns void
+         */
+        Object readResponse(int methodIndex, InvocationInputStream in)
+            throws IOException, ClassNotFoundException;
+    }
+
+    private final StubSupport mSupport;
+    private final Class<? extends Throwable> mRemoteFailureEx;
+    private final Reader mReader;
+    private final int mMethodIndex;
+
+    private InvocationChannel mBatchedChannel;
+    private InvocationChannel mChannel;
+
+    // Is null if no timeout applies.
+    private TimeUnit mTimeoutUnit;
+    private long mTimeout;
+    private double mDoubleTimeout;
+    private boolean mIsDoubleTimeout;
+
+    public AsyncCall(StubSupport support, Object stub,
+                     Class<? extends Throwable> remoteFailureEx,
+                     Reader reader, int methodIndex)
+    {
+        super(stub);
+        mSupport = support;
+        mRemoteFailureEx = remoteFailureEx;
+        mReader = reader;
+        mMethodIndex = methodIndex;
+    }
+
+    /**
+     * Writes request header to a free channel, which is not the current
+     * thread-local batch channel.
+     *
+     * @return null if failed, and this call is completed with the exception
+     */
+    public InvocationChannel invoke() {
+        mBatchedChannel = mSupport.unbatch();
+        try {
+            return mChannel = mSupport.invoke(mRemoteFailureEx);
+        } catch (Throwable e) {
+            return invokeFailed(e);
+        }
+    }
+
+    /**
+     * Writes request header to a free channel, which is not the current
+     * thread-local batch channel.
+     *
+     * @return null if failed, and this call is completed with the exception
+     */
+    public InvocationChannel invoke(long timeout, TimeUnit unit) {
+        mTimeoutUnit = unit;
+        mTimeout = timeout;
+        mBatchedChannel = mSupport.unbatch();
+        try {
+            return mChannel = mSupport.invoke(mRemoteFailureEx, timeout, unit);
+        } catch (Throwable e) {
+            return invokeFailed(e);
+        }
+    }
+
+    /**
+     * Writes request header to a free channel, which is not the current
+     * thread-local batch channel.
+     *
+     * @return null if failed, and this call is completed with the exception
+     */
+    public InvocationChannel invoke(double timeout, TimeUnit unit) {
+        mTimeoutUnit = unit;
+        mDoubleTimeout = timeout;
+        mIsDoubleTimeout = true;
+        mBatchedChannel = mSupport.unbatch();
+        try {
+            return mChannel = mSupport.invoke(mRemoteFailureEx, timeout, unit);
+        } catch (Throwable e) {
+            return invokeFailed(e);
+        }
+    }
+
+    /**
+     * Called by the calling thread after the request has been written and
+     * flushed. The response is read when it arrives.
+     */
+    public void sent() {
+        mSupport.rebatch(mBatchedChannel);
+        mChannel.inputNotify(this);
+    }
+
+    /**
+     * Called by the calling thread if the request could not be written.
+     */
+    public void failed(Throwable cause) {
+        mSupport.rebatch(mBatchedChannel);
+        exception(failure(cause));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void ready() {
+        InvocationChannel channel = mChannel;
+
+        Throwable thrown;
+        Object value;
+        try {
+            thrown = channel.getInputStream().readThrowable();
+            value = thrown == null ? mReader.readResponse(mMethodIndex, channel.getInputStream())
+                : null;
+        } catch (Throwable e) {
+            exception(failure(e));
+            return;
+        }
+
+        if (mTimeoutUnit == null) {
+            mSupport.finished(channel, false);
+        } else {
+            mSupport.finishedAndCancelTimeout(channel, false);
+        }
+
+        if (thrown == null) {
+            complete((V) value);
+        } else {
+            exception(thrown);
+        }
+    }
+
+    @Override
+    public void rejected(RejectedException cause) {
+        exception(failure(cause));
+    }
+
+    @Override
+    public void closed(IOException cause) {
+        exception(failure(cause));
+    }
+
+    private InvocationChannel invokeFailed(Throwable e) {
+        // Exception has already been converted by the StubSupport.
+        mSupport.rebatch(mBatchedChannel);
+        exception(e);
+        return null;
+    }
+
+    private Throwable failure(Throwable cause) {
+        TimeUnit unit = mTimeoutUnit;
+        if (unit == null) {
+            return mSupport.failed(mRemoteFailureEx, mChannel, cause);
+        } else if (mIsDoubleTimeout) {
+            return mSupport.failedAndCancelTimeout
+                (mRemoteFailureEx, mChannel, cause, mDoubleTimeout, unit);
+        } else {
+            return mSupport.failedAndCancelTimeout
+                (mRemoteFailureEx, mChannel, cause, mTimeout, unit);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.io.IOException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import java.rmi.RemoteException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import org.cojen.classfile.ClassFile;
+import org.cojen.classfile.CodeBuilder;
+import org.cojen.classfile.Label;
+import org.cojen.classfile.LocalVariable;
+import org.cojen.classfile.MethodInfo;
+import org.cojen.classfile.Modifiers;
+import org.cojen.classfile.RuntimeClassFile;
+import org.cojen.classfile.TypeDesc;
+
+import org.cojen.util.KeyFactory;
+
+import org.cojen.dirmi.Completion;
+
+import org.cojen.dirmi.info.RemoteInfo;
+import org.cojen.dirmi.info.RemoteMethod;
+import org.cojen.dirmi.info.RemoteParameter;
+
+import org.cojen.dirmi.util.ConcurrentCache;
+
+import static org.cojen.dirmi.core.CodeBuilderUtil.*;
+
+/**
+ * Generates asynchronous facades for remote object stubs. A facade method
+ * writes the request from the calling thread and returns a {@link
+ * Completion} immediately. The response is read by a channel listener, which
+ * completes the call.
+ *
+ * @author Brian S O'Neill
+ * @see org.cojen.dirmi.AsyncFacade
+ */
+public class AsyncFacadeGenerator<F> {
+    private static final String STUB_SUPPORT_NAME = "support";
+    private static final String STUB_NAME = "stub";
+
+    private static final TypeDesc ASYNC_CALL_TYPE = TypeDesc.forClass(AsyncCall.class);
+    private static final TypeDesc READER_TYPE = TypeDesc.forClass(AsyncCall.Reader.class);
+
+    private static final ConcurrentCache<Object, Constructor<?>> cCache;
+
+    static {
+        cCache = ConcurrentCache.newSoftValueCache();
+    }
+
+    /**
+     * Returns a new facade for the given stub.
+     *
+     * @param facadeType public interface whose methods all return a
+     * Completion or Future
+     * @param stub client-side remote object stub
+     * @throws IllegalArgumentException if object is not a stub, or if facade
+     * type is malformed or doesn't match the remote methods
+     */
+    public static <F> F createFacade(final Class<F> facadeType, Object stub)
+        throws IllegalArgumentException
+    {
+        if (facadeType == null) {
+            throw new IllegalArgumentException("Facade type is null");
+        }
+
+        final RemoteInfo info;
+        if (!(stub instanceof Stub) ||
+            (info = StubFactoryGenerator.remoteInfo(stub.getClass())) == null)
+        {
+            throw new IllegalArgumentException("Not a remote object stub: " + stub);
+        }
+
+        Object key = KeyFactory.createKey(new Object[] {facadeType, info.getInfoId()});
+
+        Constructor<?> ctor = cCache.get
+            (key, new ConcurrentCache.Factory<Object, Constructor<?>>() {
+                public Constructor<?> create(Object key) {
+                    return new AsyncFacadeGenerator<F>(facadeType, info).generateFacade();
+                }
+            });
+
+        Throwable error;
+        try {
+            return facadeType.cast
+                (ctor.newInstance(StubFactoryGenerator.stubSupport(stub), stub));
+        } catch (InstantiationException e) {
+            error = e;
+        } catch (IllegalAccessException e) {
+            error = e;
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        }
+        InternalError ie = new InternalError();
+        ie.initCause(error);
+        throw ie;
+    }
+
+    private final Class<F> mFacadeType;
+    private final RemoteInfo mRemoteInfo;
+
+    private AsyncFacadeGenerator(Class<F> facadeType, RemoteInfo remoteInfo) {
+        mFacadeType = facadeType;
+        mRemoteInfo = remoteInfo;
+    }
+
+    private Constructor<?> generateFacade() {
+        if (!mFacadeType.isInterface() || !Modifier.isPublic(mFacadeType.getModifiers())) {
+            throw new IllegalArgumentException
+                ("Facade type must be a public interface: " + mFacadeType.getName());
+        }
+
+        // Match facade methods up front, to fail before generating anything.
+        final List<Method> facadeMethods = new ArrayList<Method>();
+        final List<RemoteMethod> remoteMethods = new ArrayList<RemoteMethod>();
+        {
+            Set<String> signatures = new HashSet<String>();
+            for (Method method : mFacadeType.getMethods()) {
+                if (!Modifier.isAbstract(method.getModifiers())) {
+                    continue;
+                }
+                String params = paramDescriptors(toTypeDescs(method.getParameterTypes()));
+                if (signatures.add(method.getName() + params)) {
+                    facadeMethods.add(method);
+                    remoteMethods.add(findRemoteMethod(method, params));
+                }
+            }
+        }
+
+        return AccessController.doPrivileged(new PrivilegedAction<Constructor<?>>() {
+            public Constructor<?> run() {
+                RuntimeClassFile cf = createRuntimeClassFile
+                    (mFacadeType.getName() + "$Async", mFacadeType.getClassLoader());
+                generateFacade(cf, facadeMethods, remoteMethods);
+                try {
+                    return cf.defineClass().getConstructor(StubSupport.class, Object.class);
+                } catch (NoSuchMethodException e) {
+                    NoSuchMethodError nsme = new NoSuchMethodError();
+                    nsme.initCause(e);
+                    throw nsme;
+                }
+            }
+        });
+    }
+
+    private static TypeDesc[] toTypeDescs(Class<?>[] types) {
+        TypeDesc[] descs = new TypeDesc[types.length];
+        for (int i=0; i<types.length; i++) {
+            descs[i] = TypeDesc.forClass(types[i]);
+        }
+        return descs;
+    }
+
+    private static String paramDescriptors(TypeDesc[] descs) {
+        StringBuilder b = new StringBuilder().append('(');
+        for (TypeDesc desc : descs) {
+            b.append(desc.getDescriptor());
+        }
+        return b.append(')').toString();
+    }
+
+    private RemoteMethod findRemoteMethod(Method facadeMethod, String params) {
+        Class<?> returnType = facadeMethod.getReturnType();
+        if (returnType != Completion.class && returnType != Future.class) {
+            throw new IllegalArgumentException
+                ("Facade method must return a Completion or Future: " + facadeMethod);
+        }
+
+        RemoteMethod match = null;
+        for (RemoteMethod method : mRemoteInfo.getRemoteMethods(facadeMethod.getName())) {
+            if (paramDescriptors(getTypeDescs(method.getParameterTypes())).equals(params)) {
+                match = method;
+                break;
+            }
+        }
+
+        if (match == null) {
+            throw new IllegalArgumentException
+                ("No matching remote method in " + mRemoteInfo.getName() + ": " + facadeMethod);
+        }
+
+        if (match.isAsynchronous() || match.isBatched() ||
+            match.isOrdered() || match.isDisposer())
+        {
+            throw new IllegalArgumentException
+                ("Remote method must be synchronous, unordered and not a disposer: " +
+                 facadeMethod);
+        }
+
+        // Check the result type, if declared by class.
+        Type type = facadeMethod.getGenericReturnType();
+        if (type instanceof ParameterizedType) {
+            Type resultType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (resultType instanceof Class) {
+                TypeDesc remoteDesc = getTypeDesc(match.getReturnType());
+                Class<?> remoteType = remoteDesc == null ? Void.class
+                    : remoteDesc.toObjectType().toClass(mFacadeType.getClassLoader());
+                if (remoteType == null || !((Class) resultType).isAssignableFrom(remoteType)) {
+                    throw new IllegalArgumentException
+                        ("Facade method result type doesn't match remote method: " +
+                         facadeMethod);
+                }
+            }
+        }
+
+        return match;
+    }
+
+    private void generateFacade(ClassFile cf,
+                                List<Method> facadeMethods, List<RemoteMethod> remoteMethods)
+    {
+        cf.addInterface(mFacadeType);
+        cf.addInterface(AsyncCall.Reader.class);
+        cf.markSynthetic();
+        cf.setSourceFile(AsyncFacadeGenerator.class.getName());
+        cf.setTarget("1.5");
+
+        cf.addField(Modifiers.PRIVATE.toFinal(true), STUB_SUPPORT_NAME, STUB_SUPPORT_TYPE);
+        cf.addField(Modifiers.PRIVATE.toFinal(true), STUB_NAME, TypeDesc.OBJECT);
+
+        {
+            MethodInfo mi = cf.addConstructor
+                (Modifiers.PUBLIC, new TypeDesc[] {STUB_SUPPORT_TYPE, TypeDesc.OBJECT});
+            CodeBuilder b = new CodeBuilder(mi);
+
+            b.loadThis();
+            b.invokeSuperConstructor(null);
+
+            b.loadThis();
+            b.loadLocal(b.getParameter(0));
+            b.storeField(STUB_SUPPORT_NAME, STUB_SUPPORT_TYPE);
+
+            b.loadThis();
+            b.loadLocal(b.getParameter(1));
+            b.storeField(STUB_NAME, TypeDesc.OBJECT);
+
+            b.returnVoid();
+        }
+
+        for (int i=0; i<facadeMethods.size(); i++) {
+            generateMethod(cf, i, facadeMethods.get(i), remoteMethods.get(i));
+        }
+
+        // Add the Reader method, which is called by AsyncCall.
+        {
+            MethodInfo mi = cf.addMethod
+                (Modifiers.PUBLIC, "readResponse", TypeDesc.OBJECT,
+                 new TypeDesc[] {TypeDesc.INT, INV_IN_TYPE});
+            mi.addException(TypeDesc.forClass(IOException.class));
+            mi.addException(TypeDesc.forClass(ClassNotFoundException.class));
+            CodeBuilder b = new CodeBuilder(mi);
+
+            List<Integer> cases = new ArrayList<Integer>();
+            for (int i=0; i<remoteMethods.size(); i++) {
+                if (remoteMethods.get(i).getReturnType() != null) {
+                    cases.add(i);
+                }
+            }
+
+            Label noValue = b.createLabel();
+
+            if (!cases.isEmpty()) {
+                int[] caseValues = new int[cases.size()];
+                Label[] locations = new Label[cases.size()];
+                for (int i=0; i<caseValues.length; i++) {
+                    caseValues[i] = cases.get(i);
+                    locations[i] = b.createLabel();
+                }
+
+                b.loadLocal(b.getParameter(0));
+                b.switchBranch(caseValues, locations, noValue);
+
+                for (int i=0; i<caseValues.length; i++) {
+                    locations[i].setLocation();
+                    RemoteParameter returnType = remoteMethods.get(caseValues[i]).getReturnType();
+                    readParam(b, returnType, b.getParameter(1));
+                    TypeDesc returnDesc = getTypeDesc(returnType);
+                    b.convert(returnDesc, returnDesc.toObjectType());
+                    b.returnValue(TypeDesc.OBJECT);
+                }
+            }
+
+            noValue.setLocation();
+            b.loadNull();
+            b.returnValue(TypeDesc.OBJECT);
+        }
+    }
+
+    private void generateMethod(ClassFile cf, int methodIndex,
+                                Method facadeMethod, RemoteMethod method)
+    {
+        TypeDesc returnDesc = TypeDesc.forClass(facadeMethod.getReturnType());
+        TypeDesc[] paramDescs = toTypeDescs(facadeMethod.getParameterTypes());
+
+        MethodInfo mi = cf.addMethod
+            (Modifiers.PUBLIC, facadeMethod.getName(), returnDesc, paramDescs);
+        CodeBuilder b = new CodeBuilder(mi);
+
+        TypeDesc remoteFailureExType = getTypeDesc(method.getRemoteFailureException());
+        if (!isKnownType(mFacadeType.getClassLoader(), remoteFailureExType)) {
+            remoteFailureExType = TypeDesc.forClass(RemoteException.class);
+        }
+
+        // Default timeout for remote method invocation.
+        final long timeout = method.getTimeout();
+        final TimeUnit timeoutUnit = method.getTimeoutUnit();
+        TypeDesc timeoutType = TypeDesc.LONG;
+
+        // Try to find any timeout parameters.
+        LocalVariable timeoutVar = null;
+        LocalVariable timeoutUnitVar = null;
+        {
+            int i = 0;
+            for (RemoteParameter paramType : method.getParameterTypes()) {
+                if (paramType.isTimeout()) {
+                    timeoutVar = b.getParameter(i);
+                    TypeDesc desc = timeoutVar.getType().toPrimitiveType();
+                    if (desc == TypeDesc.FLOAT || desc == TypeDesc.DOUBLE) {
+                        timeoutType = TypeDesc.DOUBLE;
+                    }
+                } else if (paramType.isTimeoutUnit()) {
+                    timeoutUnitVar = b.getParameter(i);
+                }
+                i++;
+            }
+        }
+
+        final boolean noTimeout = timeout < 0 && timeoutVar == null;
+        final LocalVariable originalTimeoutVar = timeoutVar;
+
+        b.newObject(ASYNC_CALL_TYPE);
+        b.dup();
+        b.loadThis();
+        b.loadField(STUB_SUPPORT_NAME, STUB_SUPPORT_TYPE);
+        b.loadThis();
+        b.loadField(STUB_NAME, TypeDesc.OBJECT);
+        b.loadConstant(remoteFailureExType);
+        b.loadThis();
+        b.loadConstant(methodIndex);
+        b.invokeConstructor(ASYNC_CALL_TYPE, new TypeDesc[] {
+            STUB_SUPPORT_TYPE, TypeDesc.OBJECT, CLASS_TYPE, READER_TYPE, TypeDesc.INT
+        });
+        LocalVariable callVar = b.createLocalVariable(null, ASYNC_CALL_TYPE);
+        b.storeLocal(callVar);
+
+        // Call invoke to write to a free channel.
+        b.loadLocal(callVar);
+        if (noTimeout) {
+            b.invokeVirtual(ASYNC_CALL_TYPE, "invoke", INV_CHANNEL_TYPE, null);
+        } else {
+            timeoutVar = StubFactoryGenerator.genLoadTimeoutVars
+                (b, true, timeout, timeoutUnit, timeoutType, timeoutVar, timeoutUnitVar);
+            b.invokeVirtual(ASYNC_CALL_TYPE, "invoke", INV_CHANNEL_TYPE,
+                            new TypeDesc[] {timeoutType, TIME_UNIT_TYPE});
+        }
+        LocalVariable channelVar = b.createLocalVariable(null, INV_CHANNEL_TYPE);
+        b.storeLocal(channelVar);
+
+        // Call is already completed if invoke failed.
+        Label done = b.createLabel();
+        b.loadLocal(channelVar);
+        b.ifNullBranch(done, true);
+
+        Label invokeStart = b.createLabel().setLocation();
+
+        // Write method identifier to channel.
+        b.loadLocal(channelVar);
+        b.invokeInterface(INV_CHANNEL_TYPE, "getOutputStream", INV_OUT_TYPE, null);
+        LocalVariable invOutVar = b.createLocalVariable(null, INV_OUT_TYPE);
+        b.storeLocal(invOutVar);
+
+        b.loadLocal(invOutVar);
+        b.loadConstant(method.getMethodId());
+        b.invokeVirtual(INV_OUT_TYPE, "writeInt", null, new TypeDesc[] {TypeDesc.INT});
+
+        boolean anySharedParam = false;
+        {
+            int i = 0;
+            for (RemoteParameter paramType : method.getParameterTypes()) {
+                LocalVariable param = b.getParameter(i);
+                if (param == originalTimeoutVar) {
+                    // Use replacement.
+                    param = timeoutVar;
+                }
+                anySharedParam |= writeParam(b, paramType, invOutVar, param);
+                i++;
+            }
+        }
+
+        b.loadLocal(invOutVar);
+        b.invokeVirtual(INV_OUT_TYPE, "flush", null, null);
+
+        if (anySharedParam) {
+            // Reset the stream to allow request params to be freed. See
+            // StubFactoryGenerator for why this is done after flushing.
+            b.loadLocal(invOutVar);
+            b.invokeVirtual(INV_OUT_TYPE, "reset", null, null);
+        }
+
+        Label invokeEnd = b.createLabel().setLocation();
+
+        // Response is read by the call when it arrives.
+        b.loadLocal(callVar);
+        b.invokeVirtual(ASYNC_CALL_TYPE, "sent", null, null);
+
+        done.setLocation();
+        b.loadLocal(callVar);
+        b.returnValue(returnDesc);
+
+        // If any invocation exception, indicate channel failed.
+        {
+            b.exceptionHandler(invokeStart, invokeEnd, Throwable.class.getName());
+            LocalVariable throwableVar = b.createLocalVariable(null, THROWABLE_TYPE);
+            b.storeLocal(throwableVar);
+            b.loadLocal(callVar);
+            b.loadLocal(throwableVar);
+            b.invokeVirtual(ASYNC_CALL_TYPE, "failed", null, new TypeDesc[] {THROWABLE_TYPE});
+            b.loadLocal(callVar);
+            b.returnValue(returnDesc);
+        }
+    }
+}
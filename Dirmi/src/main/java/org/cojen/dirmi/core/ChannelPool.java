@@ -0,0 +1,381 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cojen.dirmi.util.LatencyHistogram;
+import org.cojen.dirmi.util.SessionChannelPoolMetricsMBean;
+
+/**
+ * Pool of idle channels which is sized from recent demand. Channels are
+ * reused in LIFO order, which keeps the most recently used connections warm
+ * and lets the oldest ones age out. Each time the pool is {@link #adjust
+ * adjusted}, the peak amount of channels out of the pool since the last
+ * adjustment is folded into an exponentially weighted moving average, which
+ * becomes the target amount of idle channels. Channels which are out count
+ * towards the peak until they are {@link #offer offered} back or reported as
+ * {@link #discarded discarded}.
+ *
+ * <p>The bounds of all pools are set by the system properties
+ * "org.cojen.dirmi.channelPool.min" and "org.cojen.dirmi.channelPool.max",
+ * which are 0 and 100 by default.
+ *
+ * @author Brian S O'Neill
+ */
+final class ChannelPool<C> implements SessionChannelPoolMetricsMBean {
+    static final int MIN_IDLE, MAX_IDLE;
+
+    static {
+        int min = intProperty("org.cojen.dirmi.channelPool.min", 0);
+        int max = intProperty("org.cojen.dirmi.channelPool.max", 100);
+        MIN_IDLE = min;
+        MAX_IDLE = Math.max(min, max);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        try {
+            String prop = System.getProperty(name);
+            if (prop != null) {
+                return Math.max(0, Integer.parseInt(prop));
+            }
+        } catch (SecurityException e) {
+        } catch (NumberFormatException e) {
+        }
+        return defaultValue;
+    }
+
+    // Weight of each new demand sample.
+    private static final double ALPHA = 0.25;
+
+    private final int mMin;
+    private final int mMax;
+
+    // Is null unless wait times are recorded.
+    private final LatencyHistogram mWait;
+
+    // Circular buffer of idle channels, oldest first, with idle timestamps.
+    private Object[] mChannels;
+    private int[] mTimestamps;
+    private int mHead;
+    private int mSize;
+
+    private boolean mClosed;
+
+    // Amount of channels polled or connected, and not yet returned.
+    private int mOut;
+    private int mPeak;
+    private double mDemand;
+    private int mTarget;
+    private int mPending;
+
+    private long mHits;
+    private long mMisses;
+    private long mDiscarded;
+    private long mConnects;
+    private long mPreconnects;
+    private long mLastConnects;
+    private double mConnectRate;
+
+    /**
+     * @param recordWait pass true to record wait times
+     */
+    ChannelPool(boolean recordWait) {
+        this(MIN_IDLE, MAX_IDLE, recordWait);
+    }
+
+    ChannelPool(int min, int max, boolean recordWait) {
+        mMin = min;
+        mMax = max;
+        mTarget = min;
+        mWait = recordWait ? new LatencyHistogram() : null;
+        int capacity = Math.max(1, Math.min(max, 8));
+        mChannels = new Object[capacity];
+        mTimestamps = new int[capacity];
+    }
+
+    public synchronized int getIdleCount() {
+        return mSize;
+    }
+
+    public synchronized int getTargetIdleCount() {
+        return mTarget;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getDiscardedCount() {
+        return mDiscarded;
+    }
+
+    public int getMinIdleCount() {
+        return mMin;
+    }
+
+    public int getMaxIdleCount() {
+        return mMax;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    public synchronized long getConnectCount() {
+        return mConnects;
+    }
+
+    public synchronized long getPreconnectCount() {
+        return mPreconnects;
+    }
+
+    public synchronized double getConnectRate() {
+        return mConnectRate;
+    }
+
+    public double getMeanWait() {
+        return mWait == null ? 0.0 : (mWait.getMean() / 1000.0);
+    }
+
+    public double getWait99() {
+        return mWait == null ? 0.0 : (mWait.getPercentile(99) / 1000.0);
+    }
+
+    public double getMaxWait() {
+        return mWait == null ? 0.0 : (mWait.getMax() / 1000.0);
+    }
+
+    /**
+     * Returns the most recently pooled channel, or null if none.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized C poll() {
+        int size = mSize;
+        if (size == 0) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        checkedOut();
+        Object[] channels = mChannels;
+        int index = (mHead + (mSize = size - 1)) % channels.length;
+        Object channel = channels[index];
+        channels[index] = null;
+        return (C) channel;
+    }
+
+    /**
+     * Adds an idle channel to the pool, unless full or closed.
+     *
+     * @param timestamp current clock, in seconds
+     * @param out pass true if channel was polled or {@link #connected
+     * connected}, and it has not been returned yet
+     * @return false if channel must be discarded
+     */
+    synchronized boolean offer(C channel, int timestamp, boolean out) {
+        if (out) {
+            mOut--;
+        }
+        return push(channel, timestamp);
+    }
+
+    /**
+     * Records that a channel which was polled or {@link #connected connected}
+     * was discarded instead of being offered back.
+     */
+    synchronized void discarded() {
+        mOut--;
+    }
+
+    /**
+     * Records that a caller found the pool empty and connected a new channel,
+     * which is now out of the pool.
+     */
+    synchronized void connected() {
+        mConnects++;
+        checkedOut();
+    }
+
+    /**
+     * Records the time taken by a caller to obtain a channel, if enabled.
+     */
+    void waited(long nanos) {
+        if (mWait != null) {
+            mWait.record(nanos);
+        }
+    }
+
+    boolean isWaitRecorded() {
+        return mWait != null;
+    }
+
+    /**
+     * Returns the amount of channels to connect in advance, in order to reach
+     * the target amount of idle channels. Each one must be passed to {@link
+     * #preconnected} or be reported as {@link #preconnectFailed failed}.
+     */
+    synchronized int reserve() {
+        if (mClosed) {
+            return 0;
+        }
+        int amount = mTarget - mSize - mPending;
+        if (amount <= 0) {
+            return 0;
+        }
+        mPending += amount;
+        return amount;
+    }
+
+    /**
+     * Adds a channel which was connected in advance.
+     *
+     * @return false if channel must be discarded
+     */
+    synchronized boolean preconnected(C channel, int timestamp) {
+        mPending--;
+        mPreconnects++;
+        return push(channel, timestamp);
+    }
+
+    synchronized void preconnectFailed() {
+        mPending--;
+    }
+
+    /**
+     * Recomputes the target amount of idle channels, and returns channels to
+     * discard because they exceed the target or they have been idle for too
+     * long. Channels which exceed the target are kept for a short while, to
+     * avoid discarding channels which only sat out a brief pause.
+     *
+     * @param timestamp current clock, in seconds
+     * @param elapsedSeconds time since the last adjustment
+     * @param surplusIdleSeconds idle time after which channels which exceed
+     * the target are discarded
+     * @param maxIdleSeconds idle time after which channels are discarded
+     * unless needed to meet the minimum
+     * @return null if none
+     */
+    synchronized List<C> adjust(int timestamp, int elapsedSeconds,
+                                int surplusIdleSeconds, int maxIdleSeconds)
+    {
+        mDemand += (mPeak - mDemand) * ALPHA;
+        mTarget = Math.max(mMin, Math.min(mMax, (int) Math.round(mDemand)));
+        // Channels which are still out count towards the next peak.
+        mPeak = mOut;
+
+        if (elapsedSeconds > 0) {
+            double rate = ((double) (mConnects + mPreconnects - mLastConnects)) / elapsedSeconds;
+            mConnectRate += (rate - mConnectRate) * ALPHA;
+        }
+        mLastConnects = mConnects + mPreconnects;
+
+        List<C> discard = null;
+        while (mSize > mMin) {
+            // Oldest channel is first.
+            int age = timestamp - mTimestamps[mHead];
+            if (age < maxIdleSeconds && (mSize <= mTarget || age < surplusIdleSeconds)) {
+                break;
+            }
+            if (discard == null) {
+                discard = new ArrayList<C>();
+            }
+            discard.add(removeOldest());
+            mDiscarded++;
+        }
+        return discard;
+    }
+
+    /**
+     * Returns a copy of all the idle channels, which remain in the pool.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<C> copy() {
+        List<C> copy = new ArrayList<C>(mSize);
+        Object[] channels = mChannels;
+        for (int i=0; i<mSize; i++) {
+            copy.add((C) channels[(mHead + i) % channels.length]);
+        }
+        return copy;
+    }
+
+    /**
+     * Closes the pool and returns all the idle channels, which must be
+     * discarded.
+     */
+    synchronized List<C> close() {
+        mClosed = true;
+        List<C> idle = new ArrayList<C>(mSize);
+        while (mSize > 0) {
+            idle.add(removeOldest());
+        }
+        return idle;
+    }
+
+    // Caller must be synchronized.
+    private void checkedOut() {
+        if (++mOut > mPeak) {
+            mPeak = mOut;
+        }
+    }
+
+    // Caller must be synchronized.
+    private boolean push(C channel, int timestamp) {
+        int size = mSize;
+        if (mClosed || size >= mMax) {
+            mDiscarded++;
+            return false;
+        }
+        Object[] channels = mChannels;
+        if (size >= channels.length) {
+            // Grow and unwrap the circular buffer.
+            int capacity = Math.min(mMax, channels.length << 1);
+            Object[] newChannels = new Object[capacity];
+            int[] newTimestamps = new int[capacity];
+            for (int i=0; i<size; i++) {
+                int index = (mHead + i) % channels.length;
+                newChannels[i] = channels[index];
+                newTimestamps[i] = mTimestamps[index];
+            }
+            mChannels = channels = newChannels;
+            mTimestamps = newTimestamps;
+            mHead = 0;
+        }
+        int index = (mHead + size) % channels.length;
+        channels[index] = channel;
+        mTimestamps[index] = timestamp;
+        mSize = size + 1;
+        return true;
+    }
+
+    // Caller must be synchronized.
+    @SuppressWarnings("unchecked")
+    private C removeOldest() {
+        Object[] channels = mChannels;
+        int head = mHead;
+        Object channel = channels[head];
+        channels[head] = null;
+        mHead = (head + 1) % channels.length;
+        mSize--;
+        return (C) channel;
+    }
+}
@@ -142,6 +142,10 @@ class CodeBuilderUtil {
             methodName = "readUnsharedString";
             methodType = type;
             castType = null;
+        } else if (isValueType(type)) {
+            methodName = "readUnsharedValue";
+            methodType = TypeDesc.OBJECT;
+            castType = type;
         } else {
             methodName = "readUnshared";
             methodType = TypeDesc.OBJECT;
@@ -226,6 +230,9 @@ class CodeBuilderUtil {
         if (TypeDesc.STRING == type) {
             methodName = "writeUnsharedString";
             methodType = type;
+        } else if (isValueType(type)) {
+            methodName = "writeUnsharedValue";
+            methodType = TypeDesc.OBJECT;
         } else {
             methodName = "writeUnshared";
             methodType = TypeDesc.OBJECT;
@@ -294,6 +301,17 @@ class CodeBuilderUtil {
         return shared;
     }
 
+    /**
+     * Returns true if type is a boxed primitive or a primitive array, which
+     * can be written directly instead of with Java serialization.
+     */
+    static boolean isValueType(TypeDesc type) {
+        if (type.isArray()) {
+            return type.getComponentType().isPrimitive();
+        }
+        return !type.isPrimitive() && type.toPrimitiveType() != null;
+    }
+
     static TypeDesc getTypeDesc(RemoteParameter param) {
         if (param == null) {
             return null;
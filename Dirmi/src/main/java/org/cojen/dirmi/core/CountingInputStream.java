@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes read from a channel, for method metrics. Counts are updated
+ * only by the thread which owns the channel.
+ *
+ * @author Brian S O'Neill
+ * @see CountingOutputStream
+ */
+class CountingInputStream extends FilterInputStream {
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int amt = in.read(b, off, len);
+        if (amt > 0) {
+            mCount += amt;
+        }
+        return amt;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long amt = in.skip(n);
+        if (amt > 0) {
+            mCount += amt;
+        }
+        return amt;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import org.cojen.dirmi.io.TransferOutput;
+
+/**
+ * Counts bytes written to a channel, for method metrics. Counts are updated
+ * only by the thread which owns the channel.
+ *
+ * @author Brian S O'Neill
+ * @see CountingInputStream
+ */
+class CountingOutputStream extends FilterOutputStream implements TransferOutput {
+    private long mCount;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        mCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        mCount += len;
+    }
+
+    public void write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        InvocationOutputStream.transfer(out, src);
+        mCount += len;
+    }
+
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        InvocationOutputStream.transfer(out, src, position, count);
+        mCount += count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.core;
+
+import java.io.ByteArrayOutputStream;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Collects the identifiers of reclaimed stubs for adaptive distributed
+ * garbage collection. Identifiers are held for a short lease, to account for
+ * race conditions with concurrent remote invocations, and then all expired
+ * identifiers are sent to the peer in a single compact frame. The lease is
+ * lengthened whenever the peer reports that a frame arrived before the
+ * object versions caught up, and it is shortened again otherwise.
+ *
+ * <p>Frames consist of a count followed by the identifiers in sorted order,
+ * each encoded as a variable-length delta from the previous identifier and
+ * followed by its local and remote versions.
+ *
+ * @author Brian S O'Neill
+ */
+class Disposer {
+    static final int MIN_LEASE_SECONDS = 1;
+    static final int MAX_LEASE_SECONDS = 10;
+
+    private static final int MAX_FRAME_SIZE = 10000;
+    private static final int MAX_FAILURES = 3;
+
+    // Set when peer doesn't support frames.
+    volatile boolean mLegacyPeer;
+
+    private final ArrayDeque<Entry> mPending;
+
+    private int mLeaseSeconds;
+    private boolean mFlushing;
+    private int mFailures;
+    private long mDisposedCount;
+
+    Disposer() {
+        mPending = new ArrayDeque<Entry>();
+        mLeaseSeconds = MIN_LEASE_SECONDS;
+    }
+
+    /**
+     * Adds the identifier of a reclaimed stub, capturing its current versions.
+     *
+     * @param now current clock seconds
+     */
+    synchronized void add(VersionedIdentifier id, int now) {
+        mPending.add(new Entry(id, id.localVersion(), id.remoteVersion(), now));
+    }
+
+    /**
+     * Returns true if a flush is not in progress and any identifiers have an
+     * expired lease.
+     */
+    synchronized boolean isFlushable(int now) {
+        if (mFlushing) {
+            return false;
+        }
+        Entry first = mPending.peek();
+        return first != null && now - first.mTime >= mLeaseSeconds;
+    }
+
+    /**
+     * Removes all identifiers with an expired lease, up to a limit. Caller
+     * must then call {@link #sent sent} or {@link #failed failed}.
+     *
+     * @param now current clock seconds
+     * @return null if none or if another flush is in progress
+     */
+    synchronized Entry[] take(int now) {
+        if (!isFlushable(now)) {
+            return null;
+        }
+        int size = 0;
+        for (Entry e : mPending) {
+            if (now - e.mTime < mLeaseSeconds || size >= MAX_FRAME_SIZE) {
+                break;
+            }
+            size++;
+        }
+        Entry[] batch = new Entry[size];
+        for (int i=0; i<size; i++) {
+            batch[i] = mPending.remove();
+        }
+        mFlushing = true;
+        return batch;
+    }
+
+    /**
+     * Call after a batch was received by the peer.
+     *
+     * @param waits amount of times the peer had to wait for versions to catch up
+     */
+    synchronized void sent(Entry[] batch, int waits) {
+        mFlushing = false;
+        mFailures = 0;
+        mDisposedCount += batch.length;
+        if (waits > 0) {
+            mLeaseSeconds = Math.min(MAX_LEASE_SECONDS, mLeaseSeconds << 1);
+        } else if (mLeaseSeconds > MIN_LEASE_SECONDS) {
+            mLeaseSeconds--;
+        }
+    }
+
+    /**
+     * Call if batch could not be sent, which puts it back to be sent again.
+     *
+     * @return false if too many consecutive failures
+     */
+    synchronized boolean failed(Entry[] batch) {
+        mFlushing = false;
+        for (int i=batch.length; --i>=0; ) {
+            mPending.addFirst(batch[i]);
+        }
+        return ++mFailures < MAX_FAILURES;
+    }
+
+    synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    synchronized int getLeaseSeconds() {
+        return mLeaseSeconds;
+    }
+
+    synchronized long getDisposedCount() {
+        return mDisposedCount;
+    }
+
+    static byte[] encode(Entry[] batch) {
+        batch = batch.clone();
+        Arrays.sort(batch);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(batch.length * 10 + 5);
+        writeVarLong(out, batch.length);
+
+        long prev = 0;
+        for (Entry e : batch) {
+            long bits = e.mId.getBits();
+            // Sorted, so delta is never negative when treated as unsigned.
+            writeVarLong(out, bits - prev);
+            writeVarLong(out, zigzag(e.mLocalVersion));
+            writeVarLong(out, zigzag(e.mRemoteVersion));
+            prev = bits;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a frame produced by {@link #encode encode}. Versions in the
+     * returned entries are from the perspective of the sender.
+     */
+    static Entry[] decode(byte[] frame) {
+        int[] pos = new int[1];
+        Entry[] batch = new Entry[(int) readVarLong(frame, pos)];
+
+        long bits = 0;
+        for (int i=0; i<batch.length; i++) {
+            bits += readVarLong(frame, pos);
+            int localVersion = unzigzag(readVarLong(frame, pos));
+            int remoteVersion = unzigzag(readVarLong(frame, pos));
+            batch[i] = new Entry
+                (VersionedIdentifier.fromBits(bits), localVersion, remoteVersion, 0);
+        }
+
+        return batch;
+    }
+
+    static VersionedIdentifier[] ids(Entry[] batch) {
+        VersionedIdentifier[] ids = new VersionedIdentifier[batch.length];
+        for (int i=0; i<batch.length; i++) {
+            ids[i] = batch[i].mId;
+        }
+        return ids;
+    }
+
+    static int[] localVersions(Entry[] batch) {
+        int[] versions = new int[batch.length];
+        for (int i=0; i<batch.length; i++) {
+            versions[i] = batch[i].mLocalVersion;
+        }
+        return versions;
+    }
+
+    static int[] remoteVersions(Entry[] batch) {
+        int[] versions = new int[batch.length];
+        for (int i=0; i<batch.length; i++) {
+            versions[i] = batch[i].mRemoteVersion;
+        }
+        return versions;
+    }
+
+    private static long zigzag(int v) {
+        return ((v << 1) ^ (v >> 31)) & 0xffffffffL;
+    }
+
+    private static int unzigzag(long v) {
+        int i = (int) v;
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write(((int) v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(byte[] frame, int[] pos) {
+        int p = pos[0];
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = frame[p++];
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        pos[0] = p;
+        return v;
+    }
+
+    static class Entry implements Comparable<Entry> {
+        final VersionedIdentifier mId;
+        final int mLocalVersion;
+        final int mRemoteVersion;
+        final int mTime;
+
+        Entry(VersionedIdentifier id, int localVersion, int remoteVersion, int time) {
+            mId = id;
+            mLocalVersion = localVersion;
+            mRemoteVersion = remoteVersion;
+            mTime = time;
+        }
+
+        public int compareTo(Entry other) {
+            return mId.compareTo(other.mId);
+        }
+    }
+}
@@ -27,21 +27,39 @@ import org.cojen.dirmi.util.Cache;
 import org.cojen.dirmi.util.Random;
 
 /**
- * Storage and factory of unique identifiers.
+ * Storage and factory of unique identifiers. Mappings are spread over
+ * independently locked stripes, allowing concurrent threads to identify
+ * objects without contending on a single lock.
  *
  * @author Brian S O'Neill
  */
 abstract class IdentifierStore<I extends AbstractIdentifier> {
-    private final WeakCanonicalSet<I> mIdentifiers;
+    private static final int STRIPE_COUNT = Runtime.getRuntime().availableProcessors() * 4;
 
-    private final Cache<Object, I> mObjectsToIdentifiers;
-    private final Cache<I, Object> mIdentifiersToObjects;
+    // Stripes selected by object identity hash code.
+    private final ObjectStripe<I>[] mObjectStripes;
+    // Stripes selected by identifier hash code.
+    private final IdentifierStripe<I>[] mIdentifierStripes;
+    private final int mStripeMask;
 
     public IdentifierStore() {
-        mIdentifiers = new WeakCanonicalSet<I>();
+        this(STRIPE_COUNT);
+    }
 
-        mObjectsToIdentifiers = Cache.newWeakIdentityCache(17);
-        mIdentifiersToObjects = Cache.newWeakValueCache(17);
+    /**
+     * @param stripes number of stripes, which is rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    IdentifierStore(int stripes) {
+        // Round up to power of two.
+        stripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        mObjectStripes = new ObjectStripe[stripes];
+        mIdentifierStripes = new IdentifierStripe[stripes];
+        for (int i=0; i<stripes; i++) {
+            mObjectStripes[i] = new ObjectStripe<I>();
+            mIdentifierStripes[i] = new IdentifierStripe<I>();
+        }
+        mStripeMask = stripes - 1;
     }
 
     /**
@@ -50,20 +68,32 @@ abstract class IdentifierStore<I extends AbstractIdentifier> {
      *
      * @throws IllegalArgumentException if object is null
      */
-    public synchronized I identify(Object obj) {
+    public I identify(Object obj) {
         if (obj == null) {
             throw new IllegalArgumentException("Object cannot be null");
         }
-        I id = mObjectsToIdentifiers.get(obj);
-        if (id == null) {
-            do {
-                id = newIdentifier(Random.randomLong());
-            } while (mIdentifiersToObjects.get(id) != null);
-            id = mIdentifiers.put(id);
-            mObjectsToIdentifiers.put(obj, id);
-            mIdentifiersToObjects.put(id, obj);
+
+        ObjectStripe<I> objStripe = objectStripe(obj);
+
+        // Lock order is always object stripe, then identifier stripe.
+        synchronized (objStripe) {
+            I id = objStripe.mObjectsToIdentifiers.get(obj);
+            if (id == null) {
+                while (true) {
+                    id = newIdentifier(Random.randomLong());
+                    IdentifierStripe<I> idStripe = identifierStripe(id);
+                    synchronized (idStripe) {
+                        if (idStripe.mIdentifiersToObjects.get(id) == null) {
+                            id = idStripe.mIdentifiers.put(id);
+                            idStripe.mIdentifiersToObjects.put(id, obj);
+                            break;
+                        }
+                    }
+                }
+                objStripe.mObjectsToIdentifiers.put(obj, id);
+            }
+            return id;
         }
-        return id;
     }
 
     /**
@@ -135,20 +165,50 @@ abstract class IdentifierStore<I extends AbstractIdentifier> {
         return canonicalIdentifier(newIdentifier(bits));
     }
 
-    synchronized <T> void register(I id, T obj) {
+    <T> void register(I id, T obj) {
         if (obj == null) {
             throw new IllegalArgumentException("Registered object cannot be null");
         }
-        mObjectsToIdentifiers.put(obj, id);
+        ObjectStripe<I> stripe = objectStripe(obj);
+        synchronized (stripe) {
+            stripe.mObjectsToIdentifiers.put(obj, id);
+        }
     }
 
-    synchronized Object tryRetrieve(I id) {
-        return mIdentifiersToObjects.get(id);
+    Object tryRetrieve(I id) {
+        IdentifierStripe<I> stripe = identifierStripe(id);
+        synchronized (stripe) {
+            return stripe.mIdentifiersToObjects.get(id);
+        }
     }
 
-    synchronized I canonicalIdentifier(I id) {
-        return mIdentifiers.put(id);
+    I canonicalIdentifier(I id) {
+        IdentifierStripe<I> stripe = identifierStripe(id);
+        synchronized (stripe) {
+            return stripe.mIdentifiers.put(id);
+        }
     }
 
     abstract I newIdentifier(long bits);
+
+    private ObjectStripe<I> objectStripe(Object obj) {
+        return mObjectStripes[spread(System.identityHashCode(obj)) & mStripeMask];
+    }
+
+    private IdentifierStripe<I> identifierStripe(I id) {
+        return mIdentifierStripes[spread(id.hashCode()) & mStripeMask];
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static class ObjectStripe<I> {
+        final Cache<Object, I> mObjectsToIdentifiers = Cache.newWeakIdentityCache(17);
+    }
+
+    private static class IdentifierStripe<I> {
+        final WeakCanonicalSet<I> mIdentifiers = new WeakCanonicalSet<I>();
+        final Cache<I, Object> mIdentifiersToObjects = Cache.newWeakValueCache(17);
+    }
 }
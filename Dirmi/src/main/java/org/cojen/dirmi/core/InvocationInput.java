@@ -36,6 +36,12 @@ public interface InvocationInput extends ObjectInput, Closeable {
      */
     String readUnsharedString() throws IOException;
 
+    /**
+     * Reads a boxed primitive or primitive array which was written by {@link
+     * InvocationOutput#writeUnsharedValue writeUnsharedValue}.
+     */
+    Object readUnsharedValue() throws IOException, ClassNotFoundException;
+
     /**
      * Reads an unshared Serializable or Remote object.
      */
@@ -25,6 +25,10 @@ import java.io.ObjectInputStream;
 import java.io.InputStream;
 import java.io.StreamCorruptedException;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,12 +52,31 @@ public class InvocationInputStream extends InputStream implements InvocationInpu
     private final InvocationChannel mChannel;
     private final ObjectInputStream mIn;
 
+    // Stream which mIn wraps, used for reading transfers.
+    private final InputStream mRawIn;
+
+    // Amount of bytes remaining in the current transfer.
+    private long mTransferRemaining;
+
+    private byte[] mValueBuffer;
+
     /**
      * @param in stream to wrap
      */
     public InvocationInputStream(InvocationChannel channel, ObjectInputStream in) {
+        this(channel, in, in);
+    }
+
+    /**
+     * @param in stream to wrap
+     * @param rawIn stream which in wraps, which transfers are read from directly
+     */
+    public InvocationInputStream(InvocationChannel channel, ObjectInputStream in,
+                                 InputStream rawIn)
+    {
         mChannel = channel;
         mIn = in;
+        mRawIn = rawIn;
     }
 
     public void readFully(byte[] b) throws IOException {
@@ -180,6 +203,184 @@ public class InvocationInputStream extends InputStream implements InvocationInpu
         return new String(value);
     }
 
+    public Object readUnsharedValue() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = mIn;
+        int typeCode = in.read();
+        switch (typeCode) {
+        case InvocationOutputStream.VALUE_NULL:
+            return null;
+        case InvocationOutputStream.VALUE_FALSE:
+            return Boolean.FALSE;
+        case InvocationOutputStream.VALUE_TRUE:
+            return Boolean.TRUE;
+        case InvocationOutputStream.VALUE_BYTE:
+            return in.readByte();
+        case InvocationOutputStream.VALUE_SHORT:
+            return in.readShort();
+        case InvocationOutputStream.VALUE_CHAR:
+            return in.readChar();
+        case InvocationOutputStream.VALUE_INT:
+            return in.readInt();
+        case InvocationOutputStream.VALUE_LONG:
+            return in.readLong();
+        case InvocationOutputStream.VALUE_FLOAT:
+            return in.readFloat();
+        case InvocationOutputStream.VALUE_DOUBLE:
+            return in.readDouble();
+        case InvocationOutputStream.VALUE_BYTE_ARRAY: {
+            byte[] a = new byte[readArrayLength()];
+            in.readFully(a);
+            return a;
+        }
+        case InvocationOutputStream.VALUE_BOOLEAN_ARRAY:
+        case InvocationOutputStream.VALUE_SHORT_ARRAY:
+        case InvocationOutputStream.VALUE_CHAR_ARRAY:
+        case InvocationOutputStream.VALUE_INT_ARRAY:
+        case InvocationOutputStream.VALUE_LONG_ARRAY:
+        case InvocationOutputStream.VALUE_FLOAT_ARRAY:
+        case InvocationOutputStream.VALUE_DOUBLE_ARRAY:
+            return readArray(typeCode, readArrayLength());
+        case InvocationOutputStream.VALUE_SERIALIZED:
+            return in.readUnshared();
+        default:
+            if (typeCode < 0) {
+                throw new EOFException();
+            }
+            throw new StreamCorruptedException("Unknown value type: " + typeCode);
+        }
+    }
+
+    private int readArrayLength() throws IOException {
+        int length = readVarUnsignedInteger();
+        if (length < 0) {
+            throw new StreamCorruptedException("Illegal array length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads a primitive array by decoding elements from a buffer, which is
+     * much faster than reading each element from the object stream.
+     */
+    private Object readArray(int typeCode, int length) throws IOException {
+        int elementSize;
+        Object array;
+
+        switch (typeCode) {
+        case InvocationOutputStream.VALUE_BOOLEAN_ARRAY:
+            elementSize = 1;
+            array = new boolean[length];
+            break;
+        case InvocationOutputStream.VALUE_SHORT_ARRAY:
+            elementSize = 2;
+            array = new short[length];
+            break;
+        case InvocationOutputStream.VALUE_CHAR_ARRAY:
+            elementSize = 2;
+            array = new char[length];
+            break;
+        case InvocationOutputStream.VALUE_INT_ARRAY:
+            elementSize = 4;
+            array = new int[length];
+            break;
+        case InvocationOutputStream.VALUE_FLOAT_ARRAY:
+            elementSize = 4;
+            array = new float[length];
+            break;
+        case InvocationOutputStream.VALUE_LONG_ARRAY:
+            elementSize = 8;
+            array = new long[length];
+            break;
+        default:
+            elementSize = 8;
+            array = new double[length];
+            break;
+        }
+
+        if (length == 0) {
+            return array;
+        }
+
+        byte[] buffer = mValueBuffer;
+        if (buffer == null) {
+            mValueBuffer = buffer = new byte[InvocationOutputStream.VALUE_BUFFER_SIZE];
+        }
+
+        int chunk = InvocationOutputStream.VALUE_BUFFER_SIZE / elementSize;
+        for (int i = 0; i < length; ) {
+            int end = Math.min(length, i + chunk);
+            mIn.readFully(buffer, 0, (end - i) * elementSize);
+            int pos = 0;
+            switch (typeCode) {
+            case InvocationOutputStream.VALUE_BOOLEAN_ARRAY: {
+                boolean[] a = (boolean[]) array;
+                for (; i < end; i++) {
+                    a[i] = buffer[pos++] != 0;
+                }
+                break;
+            }
+            case InvocationOutputStream.VALUE_SHORT_ARRAY: {
+                short[] a = (short[]) array;
+                for (; i < end; i++, pos += 2) {
+                    a[i] = (short) decodeShort(buffer, pos);
+                }
+                break;
+            }
+            case InvocationOutputStream.VALUE_CHAR_ARRAY: {
+                char[] a = (char[]) array;
+                for (; i < end; i++, pos += 2) {
+                    a[i] = (char) decodeShort(buffer, pos);
+                }
+                break;
+            }
+            case InvocationOutputStream.VALUE_INT_ARRAY: {
+                int[] a = (int[]) array;
+                for (; i < end; i++, pos += 4) {
+                    a[i] = decodeInt(buffer, pos);
+                }
+                break;
+            }
+            case InvocationOutputStream.VALUE_FLOAT_ARRAY: {
+                float[] a = (float[]) array;
+                for (; i < end; i++, pos += 4) {
+                    a[i] = Float.intBitsToFloat(decodeInt(buffer, pos));
+                }
+                break;
+            }
+            case InvocationOutputStream.VALUE_LONG_ARRAY: {
+                long[] a = (long[]) array;
+                for (; i < end; i++, pos += 8) {
+                    a[i] = decodeLong(buffer, pos);
+                }
+                break;
+            }
+            default: {
+                double[] a = (double[]) array;
+                for (; i < end; i++, pos += 8) {
+                    a[i] = Double.longBitsToDouble(decodeLong(buffer, pos));
+                }
+                break;
+            }
+            }
+        }
+
+        return array;
+    }
+
+    private static int decodeShort(byte[] buffer, int pos) {
+        return ((buffer[pos] & 0xff) << 8) | (buffer[pos + 1] & 0xff);
+    }
+
+    private static int decodeInt(byte[] buffer, int pos) {
+        return (buffer[pos] << 24) | ((buffer[pos + 1] & 0xff) << 16)
+            | ((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+    }
+
+    private static long decodeLong(byte[] buffer, int pos) {
+        return (((long) decodeInt(buffer, pos)) << 32)
+            | (decodeInt(buffer, pos + 4) & 0xffffffffL);
+    }
+
     public Object readUnshared() throws IOException, ClassNotFoundException {
         return mIn.readUnshared();
     }
@@ -204,6 +405,79 @@ public class InvocationInputStream extends InputStream implements InvocationInpu
         return mIn.skip(n);
     }
 
+    /**
+     * Reads bytes which were written by {@link InvocationOutputStream#write(ByteBuffer)}
+     * or {@link InvocationOutputStream#transferFrom transferFrom}. Reads never
+     * span more than one transfer.
+     *
+     * @return amount of bytes read, which is zero only if buffer has no space
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        int len = dst.remaining();
+        if (len <= 0) {
+            return 0;
+        }
+
+        long remaining = mTransferRemaining;
+        if (remaining <= 0) {
+            remaining = mIn.readLong();
+            if (remaining <= 0) {
+                throw new StreamCorruptedException("Not a transfer: " + remaining);
+            }
+        }
+
+        len = (int) Math.min(len, remaining);
+
+        int amt;
+        if (dst.hasArray()) {
+            int pos = dst.position();
+            amt = mRawIn.read(dst.array(), dst.arrayOffset() + pos, len);
+            if (amt > 0) {
+                dst.position(pos + amt);
+            }
+        } else {
+            byte[] buffer = new byte[Math.min(len, InvocationOutputStream.TRANSFER_BUFFER_SIZE)];
+            amt = mRawIn.read(buffer, 0, buffer.length);
+            if (amt > 0) {
+                dst.put(buffer, 0, amt);
+            }
+        }
+
+        if (amt <= 0) {
+            throw new EOFException();
+        }
+
+        mTransferRemaining = remaining - amt;
+        return amt;
+    }
+
+    /**
+     * Reads exactly count bytes which were written by {@link
+     * InvocationOutputStream#write(ByteBuffer)} or {@link
+     * InvocationOutputStream#transferFrom transferFrom}, and writes them to
+     * the given file at the given position. The file's own position is not
+     * modified.
+     */
+    public void transferTo(FileChannel dst, long position, long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate
+            ((int) Math.min(count, InvocationOutputStream.TRANSFER_BUFFER_SIZE));
+        while (count > 0) {
+            buffer.clear();
+            if (count < buffer.capacity()) {
+                buffer.limit((int) count);
+            }
+            int amt = read(buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += dst.write(buffer, position);
+            }
+            count -= amt;
+        }
+    }
+
     public int available() throws IOException {
         return mIn.available();
     }
@@ -37,6 +37,15 @@ public interface InvocationOutput extends ObjectOutput, Flushable, Closeable {
      */
     void writeUnsharedString(String str) throws IOException;
 
+    /**
+     * Writes a boxed primitive or primitive array directly, bypassing Java
+     * serialization. Other kinds of objects are written as if by {@link
+     * #writeUnshared writeUnshared}.
+     *
+     * @param obj boxed primitive, primitive array, or null
+     */
+    void writeUnsharedValue(Object obj) throws IOException;
+
     /**
      * Writes an unshared Serializable or Remote object.
      */
@@ -16,14 +16,21 @@
 
 package org.cojen.dirmi.core;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectOutput;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.cojen.dirmi.io.TransferOutput;
+
 /**
  * Standard implementation of {@link InvocationOutput}.
  *
@@ -53,15 +60,59 @@ public class InvocationOutputStream extends OutputStream implements InvocationOu
     static final byte NULL = 2;
     static final byte NOT_NULL = 3;
 
+    // Type codes used by writeUnsharedValue.
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_FALSE = 1;
+    static final byte VALUE_TRUE = 2;
+    static final byte VALUE_BYTE = 3;
+    static final byte VALUE_SHORT = 4;
+    static final byte VALUE_CHAR = 5;
+    static final byte VALUE_INT = 6;
+    static final byte VALUE_LONG = 7;
+    static final byte VALUE_FLOAT = 8;
+    static final byte VALUE_DOUBLE = 9;
+    static final byte VALUE_BOOLEAN_ARRAY = 10;
+    static final byte VALUE_BYTE_ARRAY = 11;
+    static final byte VALUE_SHORT_ARRAY = 12;
+    static final byte VALUE_CHAR_ARRAY = 13;
+    static final byte VALUE_INT_ARRAY = 14;
+    static final byte VALUE_LONG_ARRAY = 15;
+    static final byte VALUE_FLOAT_ARRAY = 16;
+    static final byte VALUE_DOUBLE_ARRAY = 17;
+    static final byte VALUE_SERIALIZED = 18;
+
+    // Size of buffer used for encoding primitive arrays.
+    static final int VALUE_BUFFER_SIZE = 4096;
+
+    // Size of buffer used for copying transfers which cannot be written directly.
+    static final int TRANSFER_BUFFER_SIZE = 32768;
+
     private final InvocationChannel mChannel;
     private final DrainableObjectOutputStream mOut;
 
+    // Stream which mOut wraps, used for writing transfers.
+    private final OutputStream mRawOut;
+
+    private byte[] mValueBuffer;
+
     /**
      * @param out stream to wrap
      */
     public InvocationOutputStream(InvocationChannel channel, DrainableObjectOutputStream out) {
+        this(channel, out, out);
+    }
+
+    /**
+     * @param out stream to wrap
+     * @param rawOut stream which out wraps, which transfers are written to
+     * directly; peer must also read transfers from its raw stream
+     */
+    public InvocationOutputStream(InvocationChannel channel, DrainableObjectOutputStream out,
+                                  OutputStream rawOut)
+    {
         mChannel = channel;
         mOut = out;
+        mRawOut = rawOut;
     }
 
     public void write(int b) throws IOException {
@@ -190,6 +241,166 @@ public class InvocationOutputStream extends OutputStream implements InvocationOu
         }
     }
 
+    /**
+     * @param obj boxed primitive, primitive array, or null
+     */
+    public void writeUnsharedValue(Object obj) throws IOException {
+        DrainableObjectOutputStream out = mOut;
+
+        if (obj == null) {
+            out.write(VALUE_NULL);
+            return;
+        }
+
+        Class clazz = obj.getClass();
+
+        if (clazz == Integer.class) {
+            out.write(VALUE_INT);
+            out.writeInt((Integer) obj);
+        } else if (clazz == Long.class) {
+            out.write(VALUE_LONG);
+            out.writeLong((Long) obj);
+        } else if (clazz == Boolean.class) {
+            out.write(((Boolean) obj) ? VALUE_TRUE : VALUE_FALSE);
+        } else if (clazz == Double.class) {
+            out.write(VALUE_DOUBLE);
+            out.writeDouble((Double) obj);
+        } else if (clazz == Float.class) {
+            out.write(VALUE_FLOAT);
+            out.writeFloat((Float) obj);
+        } else if (clazz == Byte.class) {
+            out.write(VALUE_BYTE);
+            out.writeByte((Byte) obj);
+        } else if (clazz == Short.class) {
+            out.write(VALUE_SHORT);
+            out.writeShort((Short) obj);
+        } else if (clazz == Character.class) {
+            out.write(VALUE_CHAR);
+            out.writeChar((Character) obj);
+        } else if (clazz == byte[].class) {
+            byte[] a = (byte[]) obj;
+            out.write(VALUE_BYTE_ARRAY);
+            writeVarUnsignedInt(a.length);
+            out.write(a);
+        } else if (clazz == int[].class) {
+            writeArray(VALUE_INT_ARRAY, obj, ((int[]) obj).length, 4);
+        } else if (clazz == long[].class) {
+            writeArray(VALUE_LONG_ARRAY, obj, ((long[]) obj).length, 8);
+        } else if (clazz == double[].class) {
+            writeArray(VALUE_DOUBLE_ARRAY, obj, ((double[]) obj).length, 8);
+        } else if (clazz == float[].class) {
+            writeArray(VALUE_FLOAT_ARRAY, obj, ((float[]) obj).length, 4);
+        } else if (clazz == char[].class) {
+            writeArray(VALUE_CHAR_ARRAY, obj, ((char[]) obj).length, 2);
+        } else if (clazz == short[].class) {
+            writeArray(VALUE_SHORT_ARRAY, obj, ((short[]) obj).length, 2);
+        } else if (clazz == boolean[].class) {
+            writeArray(VALUE_BOOLEAN_ARRAY, obj, ((boolean[]) obj).length, 1);
+        } else {
+            out.write(VALUE_SERIALIZED);
+            out.writeUnshared(obj);
+        }
+    }
+
+    /**
+     * Writes a primitive array by encoding elements into a buffer, which is
+     * much faster than writing each element to the object stream.
+     */
+    private void writeArray(byte typeCode, Object array, int length, int elementSize)
+        throws IOException
+    {
+        DrainableObjectOutputStream out = mOut;
+        out.write(typeCode);
+        writeVarUnsignedInt(length);
+
+        if (length == 0) {
+            return;
+        }
+
+        byte[] buffer = mValueBuffer;
+        if (buffer == null) {
+            mValueBuffer = buffer = new byte[VALUE_BUFFER_SIZE];
+        }
+
+        int chunk = VALUE_BUFFER_SIZE / elementSize;
+        for (int i = 0; i < length; ) {
+            int end = Math.min(length, i + chunk);
+            int pos = 0;
+            switch (typeCode) {
+            case VALUE_BOOLEAN_ARRAY: {
+                boolean[] a = (boolean[]) array;
+                for (; i < end; i++) {
+                    buffer[pos++] = a[i] ? (byte) 1 : (byte) 0;
+                }
+                break;
+            }
+            case VALUE_SHORT_ARRAY: {
+                short[] a = (short[]) array;
+                for (; i < end; i++) {
+                    pos = encodeShort(buffer, pos, a[i]);
+                }
+                break;
+            }
+            case VALUE_CHAR_ARRAY: {
+                char[] a = (char[]) array;
+                for (; i < end; i++) {
+                    pos = encodeShort(buffer, pos, a[i]);
+                }
+                break;
+            }
+            case VALUE_INT_ARRAY: {
+                int[] a = (int[]) array;
+                for (; i < end; i++) {
+                    pos = encodeInt(buffer, pos, a[i]);
+                }
+                break;
+            }
+            case VALUE_FLOAT_ARRAY: {
+                float[] a = (float[]) array;
+                for (; i < end; i++) {
+                    pos = encodeInt(buffer, pos, Float.floatToIntBits(a[i]));
+                }
+                break;
+            }
+            case VALUE_LONG_ARRAY: {
+                long[] a = (long[]) array;
+                for (; i < end; i++) {
+                    pos = encodeLong(buffer, pos, a[i]);
+                }
+                break;
+            }
+            case VALUE_DOUBLE_ARRAY: {
+                double[] a = (double[]) array;
+                for (; i < end; i++) {
+                    pos = encodeLong(buffer, pos, Double.doubleToLongBits(a[i]));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException();
+            }
+            out.write(buffer, 0, pos);
+        }
+    }
+
+    private static int encodeShort(byte[] buffer, int pos, int v) {
+        buffer[pos++] = (byte) (v >> 8);
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int encodeInt(byte[] buffer, int pos, int v) {
+        buffer[pos++] = (byte) (v >> 24);
+        buffer[pos++] = (byte) (v >> 16);
+        buffer[pos++] = (byte) (v >> 8);
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int encodeLong(byte[] buffer, int pos, long v) {
+        return encodeInt(buffer, encodeInt(buffer, pos, (int) (v >> 32)), (int) v);
+    }
+
     public void writeUnshared(Object obj) throws IOException {
         mOut.writeUnshared(obj);
     }
@@ -272,6 +483,108 @@ public class InvocationOutputStream extends OutputStream implements InvocationOu
         mOut.reset();
     }
 
+    /**
+     * Writes all remaining bytes of the given buffer as a transfer, which must
+     * be read by {@link InvocationInputStream#read(ByteBuffer)} or {@link
+     * InvocationInputStream#transferTo transferTo}.
+     */
+    public void write(ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        if (count > 0) {
+            beginTransfer(count);
+            try {
+                transfer(mRawOut, src);
+            } catch (IOException e) {
+                abortTransfer();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes bytes from the given file as a transfer, which must be read by
+     * {@link InvocationInputStream#read(ByteBuffer)} or {@link
+     * InvocationInputStream#transferTo transferTo}.
+     *
+     * @return amount of bytes written, which is less than count if end of
+     * file is reached
+     */
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        count = Math.min(count, src.size() - position);
+        if (count <= 0) {
+            return 0;
+        }
+        beginTransfer(count);
+        try {
+            transfer(mRawOut, src, position, count);
+        } catch (IOException e) {
+            abortTransfer();
+            throw e;
+        }
+        return count;
+    }
+
+    private void beginTransfer(long count) throws IOException {
+        DrainableObjectOutputStream out = mOut;
+        out.writeLong(count);
+        if (mRawOut != out) {
+            // Raw bytes must follow all buffered object stream output.
+            out.drain();
+        }
+    }
+
+    private void abortTransfer() {
+        // Peer expects more bytes than were written, and so stream is corrupt.
+        if (mChannel != null) {
+            mChannel.disconnect();
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffer, without copying if the
+     * stream supports it.
+     */
+    static void transfer(OutputStream out, ByteBuffer src) throws IOException {
+        if (out instanceof TransferOutput) {
+            ((TransferOutput) out).write(src);
+        } else if (src.hasArray()) {
+            out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            byte[] buffer = new byte[Math.min(src.remaining(), TRANSFER_BUFFER_SIZE)];
+            while (src.hasRemaining()) {
+                int amt = Math.min(src.remaining(), buffer.length);
+                src.get(buffer, 0, amt);
+                out.write(buffer, 0, amt);
+            }
+        }
+    }
+
+    /**
+     * Writes exactly count bytes from the given file, without copying if the
+     * stream supports it.
+     */
+    static void transfer(OutputStream out, FileChannel src, long position, long count)
+        throws IOException
+    {
+        if (out instanceof TransferOutput) {
+            ((TransferOutput) out).transferFrom(src, position, count);
+            return;
+        }
+        byte[] buffer = new byte[(int) Math.min(count, TRANSFER_BUFFER_SIZE)];
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        while (count > 0) {
+            bb.clear().limit((int) Math.min(count, buffer.length));
+            int amt = src.read(bb, position);
+            if (amt < 0) {
+                throw new EOFException();
+            }
+            out.write(buffer, 0, amt);
+            position += amt;
+            count -= amt;
+        }
+    }
+
     public void flush() throws IOException {
         mOut.flush();
     }
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.rmi.Remote;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cojen.dirmi.info.RemoteInfo;
+import org.cojen.dirmi.info.RemoteIntrospector;
+import org.cojen.dirmi.info.RemoteMethod;
+
+import org.cojen.dirmi.util.ConcurrentCache;
+import org.cojen.dirmi.util.MetricsRegistry;
+
+/**
+ * Maps methods invoked through skeletons to shared metrics keys, which are
+ * named by the remote interface and the method signature.
+ *
+ * @author Brian S O'Neill
+ */
+class MetricsKeys {
+    // Key tables are resolved once per skeleton class, and they are never
+    // modified afterwards. Lookups don't lock.
+    private static final ConcurrentCache<Class, Map<Integer, MetricsRegistry.Key>> cCache;
+
+    static {
+        cCache = ConcurrentCache.newWeakIdentityCache();
+    }
+
+    /**
+     * Returns the key for a method invoked through a skeleton.
+     */
+    static MetricsRegistry.Key key(Skeleton skeleton, int methodId) {
+        Class skeletonType = skeleton.getClass();
+
+        Map<Integer, MetricsRegistry.Key> keys = cCache.get(skeletonType);
+
+        if (keys == null) {
+            keys = new HashMap<Integer, MetricsRegistry.Key>();
+            Remote server = skeleton.getRemoteServer();
+            if (server != null) {
+                try {
+                    RemoteInfo info = RemoteIntrospector.examine
+                        (RemoteIntrospector.getRemoteType(server));
+                    for (RemoteMethod method : info.getRemoteMethods()) {
+                        keys.put(method.getMethodId(), MetricsRegistry.key
+                                 (info.getName(), method.getSignature(), true));
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Methods are accounted by id instead.
+                }
+            }
+            Map<Integer, MetricsRegistry.Key> existing = cCache.putIfAbsent(skeletonType, keys);
+            if (existing != null) {
+                keys = existing;
+            }
+        }
+
+        MetricsRegistry.Key key = keys.get(methodId);
+        if (key == null) {
+            // Unknown method, but still account for it.
+            key = MetricsRegistry.key(skeletonType.getName(), "method " + methodId, true);
+        }
+        return key;
+    }
+}
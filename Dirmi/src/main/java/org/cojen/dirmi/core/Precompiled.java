@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import org.cojen.classfile.ClassFile;
+import org.cojen.classfile.Modifiers;
+import org.cojen.classfile.TypeDesc;
+
+import org.cojen.dirmi.info.RemoteInfo;
+
+/**
+ * Naming and lookup of stub and skeleton classes which were generated ahead
+ * of time by the {@link Precompiler}. Precompiled classes are named after the
+ * remote interface and its {@link RemoteInfo#getInfoId info id}, and so a
+ * class which was generated against an older version of the interface is
+ * simply not found. Lookup can be disabled by setting the system property
+ * "org.cojen.dirmi.precompiled" to false.
+ *
+ * @author Brian S O'Neill
+ */
+class Precompiled {
+    /**
+     * Version of the generated code, which must be incremented whenever the
+     * stub or skeleton generators change incompatibly.
+     */
+    static final int VERSION = 1;
+
+    private static final String VERSION_FIELD_NAME = "precompiled$version";
+
+    private static final boolean cEnabled;
+
+    static {
+        String enabled = null;
+        try {
+            enabled = System.getProperty("org.cojen.dirmi.precompiled");
+        } catch (SecurityException e) {
+        }
+
+        cEnabled = enabled == null || enabled.equalsIgnoreCase("true");
+    }
+
+    static String stubName(RemoteInfo info) {
+        return info.getName() + "$Stub$pre" + Long.toHexString(info.getInfoId());
+    }
+
+    static String skeletonName(RemoteInfo info) {
+        return info.getName() + "$Skeleton$pre" + Long.toHexString(info.getInfoId());
+    }
+
+    static void addVersionField(ClassFile cf) {
+        cf.addField(Modifiers.PUBLIC.toStatic(true).toFinal(true),
+                    VERSION_FIELD_NAME, TypeDesc.INT).setConstantValue(VERSION);
+    }
+
+    /**
+     * Returns a precompiled class which was defined by the same class loader
+     * as the given remote type.
+     *
+     * @param name precompiled class name
+     * @param type remote type which was precompiled
+     * @param base required base type of the precompiled class
+     * @return null if not found or if not usable
+     */
+    static <T> Class<? extends T> find(String name, Class<?> type, Class<T> base) {
+        ClassLoader loader = type.getClassLoader();
+        if (!cEnabled || loader == null) {
+            return null;
+        }
+
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(name, false, loader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+
+        if (clazz.getClassLoader() != loader || !base.isAssignableFrom(clazz)) {
+            return null;
+        }
+
+        try {
+            if (clazz.getField(VERSION_FIELD_NAME).getInt(null) != VERSION) {
+                return null;
+            }
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+
+        return clazz.asSubclass(base);
+    }
+}
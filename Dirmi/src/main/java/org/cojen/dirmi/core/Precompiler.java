@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import java.rmi.Remote;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.cojen.classfile.ClassFile;
+
+/**
+ * Build-time tool which generates stub and skeleton classes for remote
+ * interfaces ahead of time. When the generated classes are packaged with the
+ * remote interfaces, sessions load them instead of generating them at
+ * runtime. Dynamic generation is still used for interfaces which weren't
+ * precompiled, when the remote server supports a different version of an
+ * interface, and when metrics are enabled.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java org.cojen.dirmi.core.Precompiler &lt;destination&gt; &lt;source&gt;...
+ * </pre>
+ *
+ * The destination is a directory, or a jar file if the name ends with
+ * ".jar". Each source is either the name of a remote interface, or a jar file
+ * or directory which is scanned for remote interfaces. The sources and all
+ * the classes they depend on must be available to the tool's class path.
+ *
+ * @author Brian S O'Neill
+ */
+public class Precompiler {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + Precompiler.class.getName() +
+                               " <destination> <source>...");
+            System.exit(1);
+        }
+
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+
+        for (int i=1; i<args.length; i++) {
+            File file = new File(args[i]);
+            if (file.exists()) {
+                files.add(file);
+                gatherClassNames(names, file);
+            } else {
+                names.add(args[i]);
+            }
+        }
+
+        ClassLoader loader = Precompiler.class.getClassLoader();
+        if (!files.isEmpty()) {
+            URL[] urls = new URL[files.size()];
+            for (int i=0; i<urls.length; i++) {
+                urls[i] = files.get(i).toURI().toURL();
+            }
+            loader = new URLClassLoader(urls, loader);
+        }
+
+        List<Class<? extends Remote>> types = new ArrayList<Class<? extends Remote>>();
+        for (String name : names) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(name, false, loader);
+            } catch (LinkageError e) {
+                System.err.println("Skipping " + name + ": " + e);
+                continue;
+            }
+            if (clazz.isInterface() && Remote.class.isAssignableFrom(clazz)) {
+                types.add(clazz.asSubclass(Remote.class));
+            }
+        }
+
+        List<ClassFile> classFiles = new ArrayList<ClassFile>();
+        int count = 0;
+        for (Class<? extends Remote> type : types) {
+            try {
+                precompile(classFiles, type);
+                count++;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping " + type.getName() + ": " + e.getMessage());
+            }
+        }
+
+        File dest = new File(args[0]);
+        if (dest.getName().endsWith(".jar")) {
+            writeJar(classFiles, dest);
+        } else {
+            writeClasses(classFiles, dest);
+        }
+
+        System.out.println("Precompiled " + classFiles.size() + " classes for " +
+                           count + " remote interfaces");
+    }
+
+    /**
+     * Generates the stub and skeleton classes for the given remote interface
+     * and writes them into the given directory, using the standard package
+     * directory layout.
+     *
+     * @return the class files written
+     * @throws IllegalArgumentException if type is null or malformed
+     */
+    public static List<File> precompile(Class<? extends Remote> type, File dir)
+        throws IOException
+    {
+        List<ClassFile> classFiles = new ArrayList<ClassFile>();
+        precompile(classFiles, type);
+        return writeClasses(classFiles, dir);
+    }
+
+    private static void precompile(List<ClassFile> classFiles, Class<? extends Remote> type) {
+        classFiles.add(StubFactoryGenerator.precompileStub(type));
+        ClassFile skeleton = SkeletonFactoryGenerator.precompileSkeleton(type);
+        if (skeleton != null) {
+            classFiles.add(skeleton);
+        }
+    }
+
+    private static void gatherClassNames(List<String> names, File file) throws IOException {
+        if (file.isDirectory()) {
+            gatherClassNames(names, file, "");
+            return;
+        }
+
+        JarFile jar = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                addClassName(names, entries.nextElement().getName());
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static void gatherClassNames(List<String> names, File dir, String path) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = path + file.getName();
+            if (file.isDirectory()) {
+                gatherClassNames(names, file, name + '/');
+            } else {
+                addClassName(names, name);
+            }
+        }
+    }
+
+    private static void addClassName(List<String> names, String path) {
+        if (path.endsWith(".class") && path.indexOf('-') < 0) {
+            names.add(path.substring(0, path.length() - 6).replace('/', '.'));
+        }
+    }
+
+    private static List<File> writeClasses(List<ClassFile> classFiles, File dir)
+        throws IOException
+    {
+        List<File> written = new ArrayList<File>(classFiles.size());
+        for (ClassFile cf : classFiles) {
+            File file = new File(dir, fileName(cf));
+            file.getParentFile().mkdirs();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                cf.writeTo(out);
+            } finally {
+                out.close();
+            }
+            written.add(file);
+        }
+        return written;
+    }
+
+    private static void writeJar(List<ClassFile> classFiles, File file) throws IOException {
+        JarOutputStream out = new JarOutputStream
+            (new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (ClassFile cf : classFiles) {
+                out.putNextEntry(new JarEntry(fileName(cf)));
+                cf.writeTo(out);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String fileName(ClassFile cf) {
+        return cf.getClassName().replace('.', '/') + ".class";
+    }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
+import org.cojen.classfile.ClassFile;
 import org.cojen.classfile.CodeBuilder;
 import org.cojen.classfile.Label;
 import org.cojen.classfile.LocalVariable;
@@ -62,7 +63,7 @@ import org.cojen.dirmi.info.RemoteIntrospector;
 import org.cojen.dirmi.info.RemoteMethod;
 import org.cojen.dirmi.info.RemoteParameter;
 
-import org.cojen.dirmi.util.Cache;
+import org.cojen.dirmi.util.ConcurrentCache;
 
 import static org.cojen.dirmi.core.CodeBuilderUtil.*;
 
@@ -78,10 +79,10 @@ public class SkeletonFactoryGenerator<R extends Remote> {
     private static final String ORDERED_INVOKER_FIELD_NAME = "orderedInvoker";
     private static final String METHOD_FIELD_PREFIX = "method$";
 
-    private static final Cache<Object, SkeletonFactory<?>> cCache;
+    private static final ConcurrentCache<Object, SkeletonFactory<?>> cCache;
 
     static {
-        cCache = Cache.newSoftValueCache(17);
+        cCache = ConcurrentCache.newSoftValueCache();
     }
 
     /**
@@ -90,20 +91,18 @@ public class SkeletonFactoryGenerator<R extends Remote> {
      * @param type
      * @throws IllegalArgumentException if type is null or malformed
      */
-    public static <R extends Remote> SkeletonFactory<R> getSkeletonFactory(Class<R> type)
+    public static <R extends Remote> SkeletonFactory<R> getSkeletonFactory(final Class<R> type)
         throws IllegalArgumentException
     {
-        RemoteInfo localInfo = RemoteIntrospector.examine(type);
+        final RemoteInfo localInfo = RemoteIntrospector.examine(type);
         Object key = KeyFactory.createKey(new Object[] {type, localInfo.getInfoId()});
 
-        synchronized (cCache) {
-            SkeletonFactory<R> factory = (SkeletonFactory<R>) cCache.get(key);
-            if (factory == null) {
-                factory = new SkeletonFactoryGenerator<R>(localInfo, type).generateFactory();
-                cCache.put(key, factory);
-            }
-            return factory;
-        }
+        return (SkeletonFactory<R>) cCache.get
+            (key, new ConcurrentCache.Factory<Object, SkeletonFactory<?>>() {
+                public SkeletonFactory<?> create(Object key) {
+                    return new SkeletonFactoryGenerator<R>(localInfo, type).generateFactory();
+                }
+            });
     }
 
     /**
@@ -114,19 +113,36 @@ public class SkeletonFactoryGenerator<R extends Remote> {
      * @param remoteInfo remote type as supported by remote server
      * @throws IllegalArgumentException if type is null or malformed
      */
-    public static <R extends Remote> SkeletonFactory<R> getSkeletonFactory(Class<R> type,
-                                                                           RemoteInfo remoteInfo)
+    public static <R extends Remote> SkeletonFactory<R> getSkeletonFactory
+        (final Class<R> type, final RemoteInfo remoteInfo)
     {
         Object key = KeyFactory.createKey(new Object[] {type, remoteInfo.getInfoId()});
 
-        synchronized (cCache) {
-            SkeletonFactory<R> factory = (SkeletonFactory<R>) cCache.get(key);
-            if (factory == null) {
-                factory = new SkeletonFactoryGenerator<R>(type, remoteInfo).generateFactory();
-                cCache.put(key, factory);
-            }
-            return factory;
+        return (SkeletonFactory<R>) cCache.get
+            (key, new ConcurrentCache.Factory<Object, SkeletonFactory<?>>() {
+                public SkeletonFactory<?> create(Object key) {
+                    return new SkeletonFactoryGenerator<R>(type, remoteInfo).generateFactory();
+                }
+            });
+    }
+
+    /**
+     * Generates a skeleton class for the given type without defining it, for
+     * use by the {@link Precompiler}.
+     *
+     * @return null if type has no methods and so needs no skeleton
+     * @throws IllegalArgumentException if type is null or malformed
+     */
+    static ClassFile precompileSkeleton(Class<? extends Remote> type) {
+        RemoteInfo localInfo = RemoteIntrospector.examine(type);
+        if (localInfo.getRemoteMethods().isEmpty()) {
+            return null;
         }
+        SkeletonFactoryGenerator<?> gen = new SkeletonFactoryGenerator(localInfo, type);
+        ClassFile cf = new ClassFile(Precompiled.skeletonName(localInfo));
+        Precompiled.addVersionField(cf);
+        gen.generateSkeleton(cf, null);
+        return cf;
     }
 
     private final Class<R> mType;
@@ -170,7 +186,10 @@ public class SkeletonFactoryGenerator<R extends Remote> {
 
         return AccessController.doPrivileged(new PrivilegedAction<SkeletonFactory<R>>() {
             public SkeletonFactory<R> run() {
-                Class<? extends Skeleton> skeletonClass = generateSkeleton();
+                Class<? extends Skeleton> skeletonClass = findPrecompiledSkeleton();
+                if (skeletonClass == null) {
+                    skeletonClass = generateSkeleton();
+                }
                 try {
                     SkeletonFactory<R> factory = new Factory<R>
                         (skeletonClass.getConstructor
@@ -186,9 +205,31 @@ public class SkeletonFactoryGenerator<R extends Remote> {
         });
     }
 
+    /**
+     * Returns a precompiled skeleton class, but only if the requested methods
+     * are exactly those of the local interface.
+     *
+     * @return null if not available
+     */
+    private Class<? extends Skeleton> findPrecompiledSkeleton() {
+        if (mLocalInfo == null || mInfo.getInfoId() != mLocalInfo.getInfoId()) {
+            return null;
+        }
+        return Precompiled.find(Precompiled.skeletonName(mLocalInfo), mType, Skeleton.class);
+    }
+
     private Class<? extends Skeleton> generateSkeleton() {
         RuntimeClassFile cf =
             createRuntimeClassFile(mType.getName() + "$Skeleton", mType.getClassLoader());
+        generateSkeleton(cf, mFactoryRef);
+
+        return cf.defineClass();
+    }
+
+    /**
+     * @param factoryRef reference to factory, or null if none
+     */
+    private void generateSkeleton(ClassFile cf, Object factoryRef) {
         cf.addInterface(Skeleton.class);
         cf.setSourceFile(SkeletonFactoryGenerator.class.getName());
         cf.markSynthetic();
@@ -202,8 +243,13 @@ public class SkeletonFactoryGenerator<R extends Remote> {
             cf.addField(Modifiers.PRIVATE.toFinal(true), REMOTE_FIELD_NAME, remoteType);
         }
 
-        // Add reference to factory.
-        CodeBuilder staticInitBuilder = addStaticFactoryRefUnfinished(cf, mFactoryRef);
+        CodeBuilder staticInitBuilder;
+        if (factoryRef == null) {
+            staticInitBuilder = new CodeBuilder(cf.addInitializer());
+        } else {
+            // Add reference to factory.
+            staticInitBuilder = addStaticFactoryRefUnfinished(cf, factoryRef);
+        }
 
         // Add remote server access method.
         {
@@ -910,8 +956,6 @@ public class SkeletonFactoryGenerator<R extends Remote> {
         }
 
         staticInitBuilder.returnVoid();
-
-        return cf.defineClass();
     }
 
     private static String generateMethodName(Map<String, Integer> methodNames,
@@ -45,7 +45,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -57,8 +57,8 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.cojen.classfile.TypeDesc;
 
@@ -75,7 +75,6 @@ import org.cojen.dirmi.Pipe;
 import org.cojen.dirmi.ReconstructedException;
 import org.cojen.dirmi.RejectedException;
 import org.cojen.dirmi.RemoteTimeoutException;
-import org.cojen.dirmi.Response;
 import org.cojen.dirmi.Session;
 import org.cojen.dirmi.SessionCloseListener;
 import org.cojen.dirmi.Timeout;
@@ -89,11 +88,16 @@ import org.cojen.dirmi.info.RemoteIntrospector;
 import org.cojen.dirmi.io.Channel;
 import org.cojen.dirmi.io.ChannelAcceptor;
 import org.cojen.dirmi.io.ChannelBroker;
+import org.cojen.dirmi.io.ChannelConnector;
 import org.cojen.dirmi.io.CloseableGroup;
 import org.cojen.dirmi.io.IOExecutor;
+import org.cojen.dirmi.io.TimeoutWheel;
 
-import org.cojen.dirmi.util.Cache;
+import org.cojen.dirmi.util.ConcurrentCache;
+import org.cojen.dirmi.util.MetricsRegistry;
 import org.cojen.dirmi.util.ScheduledTask;
+import org.cojen.dirmi.util.SessionChannelPoolMetricsMBean;
+import org.cojen.dirmi.util.SessionMetricsMBean;
 import org.cojen.dirmi.util.Timer;
 
 /**
@@ -103,9 +107,12 @@ import org.cojen.dirmi.util.Timer;
  */
 public class StandardSession implements Session {
     static final int MAGIC_NUMBER = 0x7696b623;
-    static final int PROTOCOL_VERSION = 20100321;
+    // Version 20101015 writes unshared boxed primitives and primitive arrays
+    // with type codes instead of with serialization.
+    static final int PROTOCOL_VERSION = 20101015;
 
     private static final int DEFAULT_CHANNEL_IDLE_SECONDS = 60;
+    private static final int SURPLUS_CHANNEL_IDLE_SECONDS = 10;
     private static final int DISPOSE_BATCH = 1000;
     private static final int CONNECT_TIMEOUT_SECONDS = 10;
     private static final int CREATE_TIMEOUT_SECONDS = 15;
@@ -117,11 +124,19 @@ public class StandardSession implements Session {
     private static final AtomicIntegerFieldUpdater<StandardSession> suppressPingUpdater =
         AtomicIntegerFieldUpdater.newUpdater(StandardSession.class, "mSuppressPing");
 
+    private static final AtomicIntegerFieldUpdater<InvocationChan> checkedOutUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(InvocationChan.class, "mCheckedOut");
+
+    private static final AtomicInteger cMetricsId = new AtomicInteger();
+
     private final boolean mIsolated;
 
     final ChannelBroker mBroker;
     final IOExecutor mExecutor;
 
+    // Is null unless metrics are enabled.
+    final MetricsRegistry mMetrics;
+
     final ClassDescriptorCache mDescriptorCache;
 
     final SessionExchanger mSessionExchanger = new SessionExchanger();
@@ -135,8 +150,8 @@ public class StandardSession implements Session {
     final ConcurrentMap<VersionedIdentifier, SkeletonFactory> mSkeletonFactories;
 
     // Cache of skeleton factories created for use by batched methods which
-    // return a remote object. Must explicitly synchronize access.
-    final Cache<Identifier, SkeletonFactory> mRemoteSkeletonFactories;
+    // return a remote object.
+    final ConcurrentCache<Identifier, SkeletonFactory> mRemoteSkeletonFactories;
 
     // Strong references to Skeletons. Skeletons are created as needed and can
     // be recreated as well. This map just provides quick concurrent access to
@@ -145,8 +160,8 @@ public class StandardSession implements Session {
 
     final SkeletonSupport mSkeletonSupport;
 
-    // Cache of stub factories. Must explicitly synchronize access.
-    final Cache<VersionedIdentifier, StubFactory> mStubFactories;
+    // Cache of stub factories.
+    final ConcurrentCache<VersionedIdentifier, StubFactory> mStubFactories;
 
     // Strong references to PhantomReferences to StubFactories.
     // PhantomReferences need to be strongly reachable or else they will be
@@ -155,8 +170,8 @@ public class StandardSession implements Session {
     // removed to reclaim memory.
     final ConcurrentMap<VersionedIdentifier, StubFactoryRef> mStubFactoryRefs;
 
-    // Cache of stubs. Must explicitly synchronize access.
-    final Cache<VersionedIdentifier, Remote> mStubs;
+    // Cache of stubs.
+    final ConcurrentCache<VersionedIdentifier, Remote> mStubs;
 
     // Strong references to PhantomReferences to Stubs. PhantomReferences need
     // to be strongly reachable or else they will be reclaimed sooner than the
@@ -164,11 +179,14 @@ public class StandardSession implements Session {
     // unreachable, its entry in this map must be removed to reclaim memory.
     final ConcurrentMap<VersionedIdentifier, StubRef> mStubRefs;
 
+    // Is null unless adaptive distributed garbage collection is enabled.
+    final Disposer mDisposer;
+
     // Remote Admin object.
     final Hidden.Admin mRemoteAdmin;
 
-    // Pool of channels for client calls.
-    final LinkedList<InvocationChan> mChannelPool;
+    // Pool of channels for client calls, sized from recent demand.
+    final ChannelPool<InvocationChan> mChannelPool;
 
     // Thread local channel used with batch calls.
     final ThreadLocal<InvocationChannel> mLocalChannel;
@@ -274,20 +292,41 @@ public class StandardSession implements Session {
 
         mBroker = broker;
         mExecutor = executor;
+        {
+            MetricsRegistry metrics = executor.metrics();
+            mMetrics = metrics == null ? null
+                : metrics.newChild("session", String.valueOf(cMetricsId.incrementAndGet()));
+        }
         mDescriptorCache = new ClassDescriptorCache(executor);
         mReferenceQueue = new ReferenceQueue<Object>();
 
         mSkeletonFactories = new ConcurrentHashMap<VersionedIdentifier, SkeletonFactory>();
-        mRemoteSkeletonFactories = Cache.newSoftValueCache(17);
+        mRemoteSkeletonFactories = ConcurrentCache.newSoftValueCache();
         mSkeletons = new ConcurrentHashMap<VersionedIdentifier, Skeleton>();
         mSkeletonSupport = new SkeletonSupportImpl();
 
-        mStubFactories = Cache.newSoftValueCache(17);
+        mStubFactories = ConcurrentCache.newSoftValueCache();
         mStubFactoryRefs = new ConcurrentHashMap<VersionedIdentifier, StubFactoryRef>();
-        mStubs = Cache.newWeakValueCache(17);
+        mStubs = ConcurrentCache.newWeakValueCache();
         mStubRefs = new ConcurrentHashMap<VersionedIdentifier, StubRef>();
 
-        mChannelPool = new LinkedList<InvocationChan>();
+        {
+            String adaptive = null;
+            try {
+                adaptive = System.getProperty("org.cojen.dirmi.adaptiveDGC");
+            } catch (SecurityException e) {
+            }
+
+            mDisposer = "true".equalsIgnoreCase(adaptive) ? new Disposer() : null;
+        }
+
+        mChannelPool = new ChannelPool<InvocationChan>(mMetrics != null);
+
+        if (mMetrics != null) {
+            mMetrics.addMBean("session", new SessionMetrics(), SessionMetricsMBean.class);
+            mMetrics.addMBean("channels", mChannelPool, SessionChannelPoolMetricsMBean.class);
+        }
+
         mLocalChannel = new ThreadLocal<InvocationChannel>();
         mHeldChannelMap = Collections.synchronizedMap(new HashMap<InvocationChannel, Thread>());
 
@@ -410,6 +449,9 @@ public class StandardSession implements Session {
                 (new ScheduledTask<RuntimeException>() {
                     protected void doRun() {
                         updateClock();
+                        if (mDisposer != null) {
+                            collectDisposedStubs();
+                        }
                     }
                  }, 1, 1, TimeUnit.SECONDS);
 
@@ -571,11 +613,9 @@ public class StandardSession implements Session {
     public void flush() throws IOException {
         IOException exception = null;
 
-        ArrayList<InvocationChannel> channels;
-        synchronized (mChannelPool) {
-            // Copy to avoid holding lock while flushing.
-            channels = new ArrayList<InvocationChannel>(mChannelPool);
-        }
+        // Copy to avoid holding lock while flushing.
+        ArrayList<InvocationChannel> channels =
+            new ArrayList<InvocationChannel>(mChannelPool.copy());
 
         synchronized (mHeldChannelMap) {
             // Copy to avoid holding lock while flushing.
@@ -671,13 +711,7 @@ public class StandardSession implements Session {
 
             {
                 // Discard channels for which remote endpoint is read blocked.
-                ArrayList<InvocationChan> toDiscard;
-                synchronized (mChannelPool) {
-                    toDiscard = new ArrayList<InvocationChan>(mChannelPool);
-                    mChannelPool.clear();
-                }
-
-                for (InvocationChan chan : toDiscard) {
+                for (InvocationChan chan : mChannelPool.close()) {
                     if (cause == SessionCloseListener.Cause.LOCAL_CLOSE) {
                         chan.discard();
                     } else {
@@ -687,6 +721,9 @@ public class StandardSession implements Session {
             }
         } finally {
             clearCollections();
+            if (mMetrics != null) {
+                mMetrics.unregister();
+            }
             mCloseMessage = message;
             // Volatile barrier.
             setCloseState(STATE_CLOSING);
@@ -765,15 +802,9 @@ public class StandardSession implements Session {
 
         mSkeletons.clear();
 
-        synchronized (mRemoteSkeletonFactories) {
-            mRemoteSkeletonFactories.clear();
-        }
-        synchronized (mStubFactories) {
-            mStubFactories.clear();
-        }
-        synchronized (mStubs) {
-            mStubs.clear();
-        }
+        mRemoteSkeletonFactories.clear();
+        mStubFactories.clear();
+        mStubs.clear();
     }
 
     void unreferenced(Skeleton skeleton) {
@@ -823,7 +854,8 @@ public class StandardSession implements Session {
     }
 
     void sendDisposedStubs() throws RemoteException {
-        if (mRemoteAdmin == null) {
+        if (mRemoteAdmin == null || mDisposer != null) {
+            // Adaptive disposer is driven by the clock task instead.
             return;
         }
 
@@ -890,10 +922,84 @@ public class StandardSession implements Session {
         }
     }
 
+    /**
+     * Moves reclaimed stubs to the adaptive disposer, and starts sending them
+     * if any have an expired lease.
+     */
+    void collectDisposedStubs() {
+        Disposer disposer = mDisposer;
+        int now = mClockSeconds;
+
+        Reference<?> ref;
+        while ((ref = mReferenceQueue.poll()) != null) {
+            VersionedIdentifier id = ((Ref) ref).unreachable();
+            if (id != null) {
+                disposer.add(id, now);
+            }
+        }
+
+        if (mRemoteAdmin != null && !isClosing() && disposer.isFlushable(now)) {
+            try {
+                mExecutor.execute(new Runnable() {
+                    public void run() {
+                        flushDisposedStubs();
+                    }
+                });
+            } catch (RejectedException e) {
+                // Try again on the next clock tick.
+            }
+        }
+    }
+
+    /**
+     * Sends all reclaimed stubs with an expired lease in one frame.
+     *
+     * @return false if nothing was sent
+     */
+    boolean flushDisposedStubs() {
+        Disposer disposer = mDisposer;
+        Disposer.Entry[] batch = disposer.take(mClockSeconds);
+        if (batch == null) {
+            return false;
+        }
+
+        int waits;
+        try {
+            if (!disposer.mLegacyPeer) {
+                try {
+                    waits = mRemoteAdmin.disposedFrame(Disposer.encode(batch));
+                    disposer.sent(batch, waits);
+                    return true;
+                } catch (UnimplementedMethodException e) {
+                    // Fallback to another method for compatibility.
+                    disposer.mLegacyPeer = true;
+                }
+            }
+            mRemoteAdmin.disposed(Disposer.ids(batch),
+                                  Disposer.localVersions(batch),
+                                  Disposer.remoteVersions(batch));
+        } catch (RemoteException e) {
+            if (!disposer.failed(batch) && !isClosing()) {
+                closeOnFailure("Unable to dispose remote objects", e);
+            }
+            return false;
+        }
+
+        disposer.sent(batch, 0);
+        return true;
+    }
+
     void handleRequests(InvocationChannel invChannel) {
         BatchedInvocationException batchedException = null;
 
         while (true) {
+            final MeteredCall call;
+            if (mMetrics != null && invChannel instanceof InvocationChan) {
+                call = new MeteredCall((InvocationChan) invChannel);
+            } else {
+                call = null;
+            }
+
             final VersionedIdentifier objId;
             final int methodId;
             Skeleton skeleton;
@@ -969,7 +1075,16 @@ public class StandardSession implements Session {
 
                 try {
                     try {
-                        switch (skeleton.invoke(this, methodId, invChannel, batchedException)) {
+                        int result;
+                        if (call == null) {
+                            result = skeleton.invoke(this, methodId, invChannel, batchedException);
+                        } else {
+                            call.mKey = MetricsKeys.key(skeleton, methodId);
+                            result = invokeMetered(call, skeleton, methodId,
+                                                   (InvocationChan) invChannel, batchedException);
+                        }
+
+                        switch (result) {
                         case Skeleton.READ_FINISHED: default:
                             return;
 
@@ -1043,6 +1158,41 @@ public class StandardSession implements Session {
         }
     }
 
+    private int invokeMetered(MeteredCall call, Skeleton skeleton, int methodId,
+                              InvocationChan chan, BatchedInvocationException batchedException)
+        throws IOException, NoSuchMethodException, ClassNotFoundException,
+               BatchedInvocationException
+    {
+        chan.mCall = call;
+        boolean failed = true;
+        try {
+            int result = skeleton.invoke(this, methodId, chan, batchedException);
+            failed = false;
+            return result;
+        } finally {
+            if (chan.mCall == call) {
+                // Channel wasn't released early by an asynchronous method.
+                chan.mCall = null;
+                call.capture(chan);
+            }
+            call.record(mMetrics, failed);
+        }
+    }
+
+    /**
+     * Called before a channel is released to process another request.
+     */
+    private static void detachCall(InvocationChannel channel) {
+        if (channel instanceof InvocationChan) {
+            InvocationChan chan = (InvocationChan) channel;
+            MeteredCall call = chan.mCall;
+            if (call != null) {
+                chan.mCall = null;
+                call.capture(chan);
+            }
+        }
+    }
+
     void readRequest(InvocationChannel invChannel) {
         if (invChannel.usesSelectNotification()) {
             listenForRequestAsync(invChannel);
@@ -1220,13 +1370,65 @@ public class StandardSession implements Session {
             return channel;
         }
 
-        synchronized (mChannelPool) {
-            if (mChannelPool.size() > 0) {
-                return mChannelPool.removeLast();
-            }
+        InvocationChan chan = mChannelPool.poll();
+        if (chan != null) {
+            chan.mCheckedOut = 1;
+            mChannelPool.waited(0);
+        }
+        return chan;
+    }
+
+    /**
+     * Connects a new channel for a caller which found the pool empty.
+     *
+     * @param timeout pass negative for default broker timeout
+     */
+    InvocationChannel connectChannel(long timeout, TimeUnit unit) throws IOException {
+        long startNanos = mChannelPool.isWaitRecorded() ? System.nanoTime() : 0;
+        Channel channel = timeout < 0 ? mBroker.connect() : mBroker.connect(timeout, unit);
+        InvocationChan invChannel = toInvocationChannel(channel, false);
+        mChannelPool.connected();
+        invChannel.mCheckedOut = 1;
+        if (startNanos != 0) {
+            mChannelPool.waited(System.nanoTime() - startNanos);
         }
+        return invChannel;
+    }
+
+    /**
+     * Connects channels in advance of demand, to reach the target amount of
+     * idle channels. Channels are connected asynchronously.
+     */
+    void preconnect() {
+        for (int amount = mChannelPool.reserve(); --amount >= 0; ) {
+            mBroker.connect(new ChannelConnector.Listener() {
+                public void connected(Channel channel) {
+                    InvocationChan chan;
+                    try {
+                        chan = toInvocationChannel(channel, false);
+                    } catch (IOException e) {
+                        mChannelPool.preconnectFailed();
+                        channel.disconnect();
+                        return;
+                    }
+                    if (!mChannelPool.preconnected(chan, mClockSeconds)) {
+                        chan.discard();
+                    }
+                }
+
+                public void rejected(RejectedException e) {
+                    mChannelPool.preconnectFailed();
+                }
+
+                public void failed(IOException e) {
+                    mChannelPool.preconnectFailed();
+                }
 
-        return null;
+                public void closed(IOException e) {
+                    mChannelPool.preconnectFailed();
+                }
+            });
+        }
     }
 
     void holdLocalChannel(InvocationChannel channel) {
@@ -1264,6 +1466,10 @@ public class StandardSession implements Session {
         try {
             mExecutor.execute(new Runnable() {
                 public void run() {
+                    if (mDisposer != null && flushDisposedStubs()) {
+                        // Disposed stubs were sent instead of a ping.
+                        return;
+                    }
                     try {
                         try {
                             mRemoteAdmin.ping();
@@ -1332,13 +1538,12 @@ public class StandardSession implements Session {
     /**
      * @return same value instance if registered; existing instance otherwise
      */
-    static <K extends AbstractIdentifier, V> V register(Cache<K, V> cache, K key, V value) {
-        synchronized (cache) {
-            V existing = cache.get(key);
-            if (existing != null) {
-                return existing;
-            }
-            cache.put(key, value);
+    static <K extends AbstractIdentifier, V> V register(ConcurrentCache<K, V> cache,
+                                                        K key, V value)
+    {
+        V existing = cache.putIfAbsent(key, value);
+        if (existing != null) {
+            return existing;
         }
         key.register(value);
         return value;
@@ -1476,6 +1681,14 @@ public class StandardSession implements Session {
             void disposed(VersionedIdentifier[] ids, int[] localVersion, int[] remoteVersions)
                 throws RemoteException;
 
+            /**
+             * Notification from client when it has disposed of identified
+             * objects, encoded as a compact frame.
+             *
+             * @return amount of times server waited for versions to catch up
+             */
+            int disposedFrame(byte[] frame) throws RemoteException;
+
             void linkDescriptorCache(Remote link) throws RemoteException;
 
             void linkDescriptorCache(Remote link, @TimeoutParam long timeout, TimeUnit unit)
@@ -1616,6 +1829,15 @@ public class StandardSession implements Session {
             }
         }
 
+        public int disposedFrame(byte[] frame) {
+            int waits = 0;
+            for (Disposer.Entry entry : Disposer.decode(frame)) {
+                // Versions are swapped, since endpoints are swapped.
+                waits = dispose(entry.mId, entry.mLocalVersion, entry.mRemoteVersion, waits);
+            }
+            return waits;
+        }
+
         private int dispose(VersionedIdentifier id, int remoteVersion, int localVersion, int waits)
         {
             if (id.localVersion() != localVersion) {
@@ -1703,11 +1925,38 @@ public class StandardSession implements Session {
         }
     }
 
+    private class SessionMetrics implements SessionMetricsMBean {
+        public int getExportedObjectCount() {
+            return mSkeletons.size();
+        }
+
+        public int getImportedObjectCount() {
+            return mStubRefs.size();
+        }
+
+        public int getPendingDisposalCount() {
+            Disposer disposer = mDisposer;
+            return disposer == null ? 0 : disposer.getPendingCount();
+        }
+
+        public long getDisposedCount() {
+            Disposer disposer = mDisposer;
+            return disposer == null ? 0 : disposer.getDisposedCount();
+        }
+
+        public int getDisposeLeaseSeconds() {
+            Disposer disposer = mDisposer;
+            return disposer == null ? DEFAULT_DISPOSE_DELAY_SECONDS : disposer.getLeaseSeconds();
+        }
+    }
+
     private class BackgroundTask extends ScheduledTask<RuntimeException> {
         // Use this to avoid logging exceptions if failed to send disposed
         // stubs during shutdown of remote session.
         private int mFailedToDisposeCount;
 
+        private int mLastAdjustSeconds = mClockSeconds;
+
         protected void doRun() {
             // Allow ping check again, if was suppressed.
             suppressPingUpdater.compareAndSet(StandardSession.this, 1, 0);
@@ -1757,21 +2006,24 @@ public class StandardSession implements Session {
                 }
             }
 
-            // Close idle channels.
-            while (true) {
-                InvocationChan pooledChannel;
-                synchronized (mChannelPool) {
-                    pooledChannel = mChannelPool.peek();
-                    if (pooledChannel == null) {
-                        break;
-                    }
-                    int age = mClockSeconds - pooledChannel.getIdleTimestamp();
-                    if (age < DEFAULT_CHANNEL_IDLE_SECONDS) {
-                        break;
+            // Resize channel pool from recent demand, closing idle channels
+            // which exceed the target.
+            {
+                int now = mClockSeconds;
+                List<InvocationChan> discard = mChannelPool.adjust
+                    (now, now - mLastAdjustSeconds,
+                     SURPLUS_CHANNEL_IDLE_SECONDS, DEFAULT_CHANNEL_IDLE_SECONDS);
+                mLastAdjustSeconds = now;
+
+                if (discard != null) {
+                    for (InvocationChan chan : discard) {
+                        chan.discard();
                     }
-                    mChannelPool.remove();
                 }
-                pooledChannel.discard();
+
+                if (!isClosing()) {
+                    preconnect();
+                }
             }
 
             if (mStubRefs.size() <= 1 && mSkeletons.size() <= 1 &&
@@ -1820,31 +2072,137 @@ public class StandardSession implements Session {
         }
     }
 
-    static final AtomicReferenceFieldUpdater<InvocationChan, Future>
-        timeoutTaskUpdater = AtomicReferenceFieldUpdater.newUpdater
-        (InvocationChan.class, Future.class, "mTimeoutTask");
+    InputStream countInput(InputStream in) {
+        return mMetrics == null ? in : new CountingInputStream(in);
+    }
+
+    OutputStream countOutput(OutputStream out) {
+        return mMetrics == null ? out : new CountingOutputStream(out);
+    }
 
-    static final Future<Object> timedOut = Response.complete(null);
+    /**
+     * Server side state of a call, when metrics are enabled. Byte counts are
+     * captured by the thread which owns the channel, before the channel can
+     * be used for another call.
+     */
+    private static final class MeteredCall {
+        private final long mStart;
+        private final long mMarkIn, mMarkOut;
+
+        MetricsRegistry.Key mKey;
+
+        private boolean mCaptured;
+        private long mBytesIn, mBytesOut;
+        boolean mFailed;
+
+        MeteredCall(InvocationChan chan) {
+            mStart = System.nanoTime();
+            mMarkIn = chan.bytesRead();
+            mMarkOut = chan.bytesWritten();
+        }
+
+        synchronized void capture(InvocationChan chan) {
+            if (!mCaptured) {
+                mCaptured = true;
+                mBytesIn = chan.bytesRead() - mMarkIn;
+                mBytesOut = chan.bytesWritten() - mMarkOut;
+            }
+        }
+
+        synchronized void record(MetricsRegistry metrics, boolean failed) {
+            metrics.record(mKey, System.nanoTime() - mStart, mBytesIn, mBytesOut,
+                           failed | mFailed);
+        }
+    }
 
     private final class InvocationChan extends AbstractInvocationChannel {
         private final Channel mChannel;
 
-        private volatile int mTimestamp;
+        // Reused for every call which has a timeout.
+        private final TimeoutWheel.Handle mTimeoutHandle;
+
+        // Byte counters are null unless metrics are enabled.
+        private final CountingInputStream mCountIn;
+        private final CountingOutputStream mCountOut;
+
+        // Counts when current client call started.
+        private long mMarkIn, mMarkOut;
+
+        // Current server call, when metrics are enabled.
+        MeteredCall mCall;
 
-        volatile Future<?> mTimeoutTask;
+        // Is 1 while channel is counted as out of the channel pool.
+        volatile int mCheckedOut;
 
         InvocationChan(Channel channel) throws IOException {
-            super(new ResolvingObjectInputStream(channel.getInputStream()),
-                  new ReplacingObjectOutputStream(channel.getOutputStream()));
+            this(channel, countInput(channel.getInputStream()),
+                 countOutput(channel.getOutputStream()));
+        }
+
+        private InvocationChan(Channel channel, InputStream in, OutputStream out)
+            throws IOException
+        {
+            super(new ResolvingObjectInputStream(in), in, new ReplacingObjectOutputStream(out), out);
             mChannel = channel;
+            mTimeoutHandle = newTimeoutHandle();
+            mCountIn = in instanceof CountingInputStream ? (CountingInputStream) in : null;
+            mCountOut = out instanceof CountingOutputStream ? (CountingOutputStream) out : null;
         }
 
         /**
          * Copy constructor which use a clean ObjectInputStream.
          */
         InvocationChan(InvocationChan chan) throws IOException {
-            super(chan, new ResolvingObjectInputStream(chan.mChannel.getInputStream()));
+            this(chan, countInput(chan.mChannel.getInputStream()));
+        }
+
+        private InvocationChan(InvocationChan chan, InputStream in) throws IOException {
+            super(chan, new ResolvingObjectInputStream(in), in);
             mChannel = chan.mChannel;
+            mTimeoutHandle = newTimeoutHandle();
+            mCountIn = in instanceof CountingInputStream ? (CountingInputStream) in : null;
+            mCountOut = chan.mCountOut;
+            // Copy replaces the original, and so it takes over the pool count.
+            mCheckedOut = chan.checkIn() ? 1 : 0;
+        }
+
+        /**
+         * Returns true if channel was counted as out of the channel pool, and
+         * clears the state.
+         */
+        boolean checkIn() {
+            return checkedOutUpdater.compareAndSet(this, 1, 0);
+        }
+
+        long bytesRead() {
+            CountingInputStream in = mCountIn;
+            return in == null ? 0 : in.getCount();
+        }
+
+        long bytesWritten() {
+            CountingOutputStream out = mCountOut;
+            return out == null ? 0 : out.getCount();
+        }
+
+        void markCounts() {
+            mMarkIn = bytesRead();
+            mMarkOut = bytesWritten();
+        }
+
+        long bytesReadSinceMark() {
+            return bytesRead() - mMarkIn;
+        }
+
+        long bytesWrittenSinceMark() {
+            return bytesWritten() - mMarkOut;
+        }
+
+        private TimeoutWheel.Handle newTimeoutHandle() {
+            return mExecutor.timeouts().newHandle(new Runnable() {
+                public void run() {
+                    timedOut();
+                }
+            });
         }
 
         public boolean isInputReady() throws IOException {
@@ -1906,7 +2264,10 @@ public class StandardSession implements Session {
         }
 
         public void close() throws IOException {
-            final boolean wasOpen = replaceTimeout(null, 0, null) > 0;
+            if (checkIn()) {
+                mChannelPool.discarded();
+            }
+            final boolean wasOpen = replaceTimeout(0, null) > 0;
             IOException exception = null;
 
             try {
@@ -1941,6 +2302,9 @@ public class StandardSession implements Session {
         }
 
         public void disconnect() {
+            if (checkIn()) {
+                mChannelPool.discarded();
+            }
             cancelTimeout();
             mChannel.disconnect();
         }
@@ -1969,64 +2333,44 @@ public class StandardSession implements Session {
         }
 
         public boolean startTimeout(long timeout, TimeUnit unit) throws IOException {
-            TimeoutTask task = new TimeoutTask();
-            // Needs to be synchronized to prevent race with execution of task
-            // not knowing its corresponding future. This blocks task execution
-            // until future is set.
-            synchronized (task) {
-                try {
-                    return replaceTimeout(task, timeout, unit) > 0;
-                } catch (RejectedException e) {
-                    throw new RejectedException("Unable to schedule timeout", e);
-                }
+            try {
+                return replaceTimeout(timeout, unit) > 0;
+            } catch (RejectedException e) {
+                throw new RejectedException("Unable to schedule timeout", e);
             }
         }
 
         public boolean cancelTimeout() {
             try {
-                return replaceTimeout(null, 0, null) != 0;
+                return replaceTimeout(0, null) != 0;
             } catch (RejectedException e) {
-                // Not expected to happen since no task was provided.
+                // Not expected to happen since no timeout was provided.
                 return false;
             }
         }
 
         /**
+         * @param unit pass null to only cancel the existing timeout
          * @return -1: closed; 0: timed out; 1: replaced
          */
-        private int replaceTimeout(TimeoutTask task, long timeout, TimeUnit unit)
-            throws RejectedException
-        {
-            Future<?> existingTask;
-            Future<?> futureTask = null;
-            do {
-                if (futureTask != null) {
-                    futureTask.cancel(false);
-                    task.setFuture(futureTask = null);
-                }
-                existingTask = mTimeoutTask;
-                if (existingTask != null) {
-                    existingTask.cancel(false);
-                    if (existingTask == timedOut) {
-                        return 0;
-                    }
-                }
-                if (isClosed()) {
-                    return -1;
-                }
-                if (task != null) {
-                    task.setFuture(futureTask = mExecutor.schedule(task, timeout, unit));
-                }
-            } while (!timeoutTaskUpdater.compareAndSet(this, existingTask, futureTask));
+        private int replaceTimeout(long timeout, TimeUnit unit) throws RejectedException {
+            TimeoutWheel.Handle handle = mTimeoutHandle;
+            if (!handle.disarm()) {
+                return 0;
+            }
+            if (isClosed()) {
+                return -1;
+            }
+            if (unit != null && !handle.arm(timeout, unit)) {
+                return 0;
+            }
             return 1;
         }
 
-        void timedOut(Future<?> expect) {
-            if (timeoutTaskUpdater.compareAndSet(this, expect, timedOut)) {
-                // FIXME: disconnect prevents proper recycling
-                // Disconnect to force immediate wakeup of blocked call to socket.
-                mChannel.disconnect();
-            }
+        void timedOut() {
+            // FIXME: disconnect prevents proper recycling
+            // Disconnect to force immediate wakeup of blocked call to socket.
+            mChannel.disconnect();
         }
 
         @Override
@@ -2112,29 +2456,9 @@ public class StandardSession implements Session {
             }
         }
 
-        int getIdleTimestamp() {
-            return mTimestamp;
-        }
-
         void addToPool() {
-            mTimestamp = mClockSeconds;
-            synchronized (mChannelPool) {
-                mChannelPool.add(this);
-            }
-        }
-
-        private class TimeoutTask extends ScheduledTask<RuntimeException> {
-            private Future<?> mMyFuture;
-
-            protected synchronized void doRun() {
-                Future<?> myFuture = mMyFuture;
-                if (myFuture != null) {
-                    timedOut(myFuture);
-                }
-            }
-
-            synchronized void setFuture(Future<?> future) {
-                mMyFuture = future;
+            if (!mChannelPool.offer(this, mClockSeconds, checkIn())) {
+                discard();
             }
         }
     }
@@ -2462,6 +2786,7 @@ public class StandardSession implements Session {
         }
 
         void finishedAsync(InvocationChannel channel, boolean inputResume) {
+            detachCall(channel);
             try {
                 // Let another thread process next request while this thread
                 // continues to process active request.
@@ -2477,6 +2802,12 @@ public class StandardSession implements Session {
 
         @Override
         public int finished(InvocationChannel channel, Throwable cause) {
+            if (channel instanceof InvocationChan) {
+                MeteredCall call = ((InvocationChan) channel).mCall;
+                if (call != null) {
+                    call.mFailed = true;
+                }
+            }
             try {
                 channel.getOutputStream().writeThrowable(cause);
                 return finished(channel, true);
@@ -2517,6 +2848,31 @@ public class StandardSession implements Session {
             return LinkWrapper.wrap(StandardSession.this);
         }
 
+        @Override
+        public void recordCall(MetricsRegistry.Key key, InvocationChannel channel,
+                               long start, boolean failed)
+        {
+            MetricsRegistry metrics = mMetrics;
+            if (metrics != null) {
+                long bytesIn, bytesOut;
+                if (channel instanceof InvocationChan) {
+                    InvocationChan chan = (InvocationChan) channel;
+                    bytesIn = chan.bytesReadSinceMark();
+                    bytesOut = chan.bytesWrittenSinceMark();
+                } else {
+                    bytesIn = 0;
+                    bytesOut = 0;
+                }
+                metrics.record(key, System.nanoTime() - start, bytesIn, bytesOut, failed);
+            }
+        }
+
+        private void markCounts(InvocationChannel channel) {
+            if (mMetrics != null && channel instanceof InvocationChan) {
+                ((InvocationChan) channel).markCounts();
+            }
+        }
+
         @Override
         public InvocationChannel unbatch() {
             InvocationChannel channel = mLocalChannel.get();
@@ -2545,6 +2901,7 @@ public class StandardSession implements Session {
                 throw failed(remoteFailureEx, null, e);
             }
 
+            markCounts(channel);
             try {
                 mObjId.writeWithNextVersion(channel.getOutputStream());
             } catch (IOException e) {
@@ -2570,6 +2927,7 @@ public class StandardSession implements Session {
 
             InvocationChannel channel = getChannel(remoteFailureEx, timeout, unit);
 
+            markCounts(channel);
             try {
                 mObjId.writeWithNextVersion(channel.getOutputStream());
             } catch (IOException e) {
@@ -2613,6 +2971,7 @@ public class StandardSession implements Session {
                 return null;
             }
 
+            markCounts(channel);
             try {
                 mObjId.writeWithNextVersion(channel.getOutputStream());
             } catch (IOException e) {
@@ -2748,8 +3107,7 @@ public class StandardSession implements Session {
             if (channel != null) {
                 return channel;
             }
-            return toInvocationChannel
-                (mBroker.connect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS), false);
+            return connectChannel(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         }
 
         private <T extends Throwable> InvocationChannel getChannel(Class<T> remoteFailureEx,
@@ -2766,10 +3124,10 @@ public class StandardSession implements Session {
             if (channel == null) {
                 try {
                     if (timeout < 0) {
-                        channel = toInvocationChannel(mBroker.connect(), false);
+                        channel = connectChannel(-1, null);
                     } else {
                         long startNanos = System.nanoTime();
-                        channel = toInvocationChannel(mBroker.connect(timeout, unit), false);
+                        channel = connectChannel(timeout, unit);
                         long elapsedNanos = System.nanoTime() - startNanos;
                         if ((timeout -= unit.convert(elapsedNanos, TimeUnit.NANOSECONDS)) < 0) {
                             timeout = 0;
@@ -17,6 +17,7 @@
 package org.cojen.dirmi.core;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 
 import java.rmi.Remote;
@@ -32,6 +33,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
+import org.cojen.classfile.ClassFile;
 import org.cojen.classfile.CodeBuilder;
 import org.cojen.classfile.Label;
 import org.cojen.classfile.LocalVariable;
@@ -53,7 +55,8 @@ import org.cojen.dirmi.info.RemoteIntrospector;
 import org.cojen.dirmi.info.RemoteMethod;
 import org.cojen.dirmi.info.RemoteParameter;
 
-import org.cojen.dirmi.util.Cache;
+import org.cojen.dirmi.util.ConcurrentCache;
+import org.cojen.dirmi.util.MetricsRegistry;
 
 import static org.cojen.dirmi.core.CodeBuilderUtil.*;
 
@@ -66,11 +69,16 @@ public class StubFactoryGenerator<R extends Remote> {
     private static final String STUB_SUPPORT_NAME = "support";
     private static final String SEQUENCE_NAME = "sequence";
     private static final String SEQUENCE_UPDATER_NAME = "sequenceUpdater";
+    private static final String METRICS_KEY_PREFIX = "metricsKey$";
 
-    private static final Cache<Object, StubFactory<?>> cCache;
+    private static final TypeDesc METRICS_KEY_TYPE = TypeDesc.forClass(MetricsRegistry.Key.class);
+
+    private static final ConcurrentCache<Object, StubFactory<?>> cCache;
+    private static final ConcurrentCache<Class<?>, RemoteInfo> cStubInfo;
 
     static {
-        cCache = Cache.newSoftValueCache(17);
+        cCache = ConcurrentCache.newSoftValueCache();
+        cStubInfo = ConcurrentCache.newWeakIdentityCache();
     }
 
     /**
@@ -80,21 +88,61 @@ public class StubFactoryGenerator<R extends Remote> {
      * @param remoteInfo remote type as supported by remote server
      * @throws IllegalArgumentException if type is null or malformed
      */
-    public static <R extends Remote> StubFactory<R> getStubFactory(Class<R> type,
-                                                                   RemoteInfo remoteInfo)
+    public static <R extends Remote> StubFactory<R> getStubFactory(final Class<R> type,
+                                                                   final RemoteInfo remoteInfo)
         throws IllegalArgumentException
     {
         Object key = KeyFactory.createKey(new Object[] {type, remoteInfo.getInfoId()});
 
-        synchronized (cCache) {
-            StubFactory<R> factory = (StubFactory<R>) cCache.get(key);
-            if (factory == null) {
-                factory = new StubFactoryGenerator<R>(type, remoteInfo)
-                    .generateFactory();
-                cCache.put(key, factory);
+        return (StubFactory<R>) cCache.get
+            (key, new ConcurrentCache.Factory<Object, StubFactory<?>>() {
+                public StubFactory<?> create(Object key) {
+                    return new StubFactoryGenerator<R>(type, remoteInfo).generateFactory();
+                }
+            });
+    }
+
+    /**
+     * Generates a stub class for the given type without defining it, for
+     * use by the {@link Precompiler}. The stub is generated against the
+     * local interface, and it doesn't record metrics.
+     *
+     * @throws IllegalArgumentException if type is null or malformed
+     */
+    static ClassFile precompileStub(Class<? extends Remote> type) {
+        StubFactoryGenerator<?> gen = new StubFactoryGenerator(type, null);
+        ClassFile cf = new ClassFile(Precompiled.stubName(gen.mLocalInfo));
+        Precompiled.addVersionField(cf);
+        gen.generateStub(cf, null, false);
+        return cf;
+    }
+
+    /**
+     * Returns the remote info which the given stub class implements.
+     *
+     * @return null if not a stub class
+     */
+    static RemoteInfo remoteInfo(Class<?> stubClass) {
+        return cStubInfo.get(stubClass);
+    }
+
+    /**
+     * Returns the StubSupport instance which the given stub currently uses.
+     *
+     * @throws IllegalArgumentException if not a stub
+     */
+    static StubSupport stubSupport(final Object stub) {
+        return AccessController.doPrivileged(new PrivilegedAction<StubSupport>() {
+            public StubSupport run() {
+                try {
+                    Field field = stub.getClass().getDeclaredField(STUB_SUPPORT_NAME);
+                    field.setAccessible(true);
+                    return (StubSupport) field.get(stub);
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Not a stub: " + stub.getClass(), e);
+                }
             }
-            return factory;
-        }
+        });
     }
 
     private final Class<R> mType;
@@ -115,11 +163,15 @@ public class StubFactoryGenerator<R extends Remote> {
     private StubFactory<R> generateFactory() {
         return AccessController.doPrivileged(new PrivilegedAction<StubFactory<R>>() {
             public StubFactory<R> run() {
-                Class<? extends R> stubClass = generateStub();
+                Class<? extends R> stubClass = findPrecompiledStub();
+                if (stubClass == null) {
+                    stubClass = generateStub();
+                }
                 try {
                     StubFactory<R> factory = new Factory<R>
                         (stubClass.getConstructor(StubSupport.class));
                     mFactoryRef.set(factory);
+                    cStubInfo.putIfAbsent(stubClass, mRemoteInfo);
                     return factory;
                 } catch (NoSuchMethodException e) {
                     NoSuchMethodError nsme = new NoSuchMethodError();
@@ -130,17 +182,45 @@ public class StubFactoryGenerator<R extends Remote> {
         });
     }
 
+    /**
+     * Returns a precompiled stub class, but only if the remote server
+     * supports exactly the local interface.
+     *
+     * @return null if not available
+     */
+    private Class<? extends R> findPrecompiledStub() {
+        if (mRemoteInfo.getInfoId() != mLocalInfo.getInfoId() || MetricsRegistry.isEnabled()) {
+            return null;
+        }
+        return Precompiled.find(Precompiled.stubName(mLocalInfo), mType, mType);
+    }
+
     private Class<? extends R> generateStub() {
         RuntimeClassFile cf =
             createRuntimeClassFile(mRemoteInfo.getName() + "$Stub", mType.getClassLoader());
+        generateStub(cf, mFactoryRef, MetricsRegistry.isEnabled());
+
+        return cf.defineClass();
+    }
+
+    /**
+     * @param factoryRef reference to factory, or null if none
+     * @param metrics when true, each method records its calls
+     */
+    private void generateStub(ClassFile cf, Object factoryRef, boolean metrics) {
         cf.addInterface(mType);
         cf.addInterface(Stub.class);
         cf.setSourceFile(StubFactoryGenerator.class.getName());
         cf.markSynthetic();
         cf.setTarget("1.5");
 
-        // Add reference to factory.
-        CodeBuilder staticInitBuilder = addStaticFactoryRefUnfinished(cf, mFactoryRef);
+        CodeBuilder staticInitBuilder;
+        if (factoryRef == null) {
+            staticInitBuilder = new CodeBuilder(cf.addInitializer());
+        } else {
+            // Add reference to factory.
+            staticInitBuilder = addStaticFactoryRefUnfinished(cf, factoryRef);
+        }
 
         // Add constructor.
         {
@@ -165,6 +245,8 @@ public class StubFactoryGenerator<R extends Remote> {
         boolean generatedSequenceFields = false;
         boolean hasDisposer = false;
 
+        int methodIndex = 0;
+
         defineMethods: for (RemoteMethod method : mRemoteInfo.getRemoteMethods()) {
             TypeDesc returnDesc = getTypeDesc(method.getReturnType());
             TypeDesc[] paramDescs = getTypeDescs(method.getParameterTypes());
@@ -256,6 +338,26 @@ public class StubFactoryGenerator<R extends Remote> {
             b.loadField(STUB_SUPPORT_NAME, STUB_SUPPORT_TYPE);
             b.storeLocal(supportVar);
 
+            String keyField = null;
+            LocalVariable startVar = null;
+            if (metrics) {
+                keyField = METRICS_KEY_PREFIX + (methodIndex++);
+                cf.addField(Modifiers.PRIVATE.toStatic(true).toFinal(true),
+                            keyField, METRICS_KEY_TYPE);
+
+                staticInitBuilder.loadConstant(mRemoteInfo.getName());
+                staticInitBuilder.loadConstant(method.getSignature());
+                staticInitBuilder.loadConstant(false);
+                staticInitBuilder.invokeStatic
+                    (TypeDesc.forClass(MetricsRegistry.class), "key", METRICS_KEY_TYPE,
+                     new TypeDesc[] {TypeDesc.STRING, TypeDesc.STRING, TypeDesc.BOOLEAN});
+                staticInitBuilder.storeStaticField(keyField, METRICS_KEY_TYPE);
+
+                startVar = b.createLocalVariable(null, TypeDesc.LONG);
+                b.invokeStatic(TypeDesc.forClass(System.class), "nanoTime", TypeDesc.LONG, null);
+                b.storeLocal(startVar);
+            }
+
             if (method.isDisposer()) {
                 b.loadThis();
                 b.loadLocal(supportVar);
@@ -423,6 +525,8 @@ public class StubFactoryGenerator<R extends Remote> {
             if (method.isAsynchronous()) {
                 invokeEnd = b.createLabel().setLocation();
 
+                genRecordCall(b, keyField, supportVar, channelVar, startVar, false);
+
                 if (returnPipe) {
                     b.loadLocal(supportVar);
                     b.loadLocal(channelVar);
@@ -527,18 +631,21 @@ public class StubFactoryGenerator<R extends Remote> {
 
                 if (returnDesc == null) {
                     invokeEnd = b.createLabel().setLocation();
+                    genRecordCall(b, keyField, supportVar, channelVar, startVar, false);
                     // Finished with channel, but don't reset again.
                     genFinished(b, supportVar, channelVar, batchedChannelVar, noTimeout, false);
                     b.returnVoid();
                 } else {
                     readParam(b, method.getReturnType(), invInVar);
                     invokeEnd = b.createLabel().setLocation();
+                    genRecordCall(b, keyField, supportVar, channelVar, startVar, false);
                     // Finished with channel, but don't reset again.
                     genFinished(b, supportVar, channelVar, batchedChannelVar, noTimeout, false);
                     b.returnValue(returnDesc);
                 }
 
                 abnormalResponse.setLocation();
+                genRecordCall(b, keyField, supportVar, channelVar, startVar, true);
                 // Finished with channel, but don't reset again
                 genFinished(b, supportVar, channelVar, batchedChannelVar, noTimeout, false);
                 b.loadLocal(throwableVar);
@@ -551,6 +658,8 @@ public class StubFactoryGenerator<R extends Remote> {
                 LocalVariable throwableVar = b.createLocalVariable(null, THROWABLE_TYPE);
                 b.storeLocal(throwableVar);
 
+                genRecordCall(b, keyField, supportVar, channelVar, startVar, true);
+
                 b.loadLocal(supportVar);
                 b.loadConstant(remoteFailureExType);
                 b.loadLocal(channelVar);
@@ -699,8 +808,6 @@ public class StubFactoryGenerator<R extends Remote> {
         }
 
         staticInitBuilder.returnVoid();
-
-        return cf.defineClass();
     }
 
     /**
@@ -708,7 +815,7 @@ public class StubFactoryGenerator<R extends Remote> {
      * into local variables
      * @return replacement for timeoutVar
      */
-    private LocalVariable genLoadTimeoutVars
+    static LocalVariable genLoadTimeoutVars
         (CodeBuilder b, boolean replaceNull,
          long timeout, TimeUnit timeoutUnit, TypeDesc timeoutType,
          LocalVariable timeoutVar, LocalVariable timeoutUnitVar)
@@ -778,8 +885,9 @@ public class StubFactoryGenerator<R extends Remote> {
     /**
      * @return true if precision loss
      */
-    private boolean genLoadConstantTimeoutValue(CodeBuilder b, long timeout, TypeDesc timeoutType,
-                                                LocalVariable timeoutVar)
+    private static boolean genLoadConstantTimeoutValue(CodeBuilder b, long timeout,
+                                                       TypeDesc timeoutType,
+                                                       LocalVariable timeoutVar)
     {
         switch (timeoutVar.getType().toPrimitiveType().getTypeCode()) {
         case TypeDesc.BYTE_CODE:
@@ -826,6 +934,25 @@ public class StubFactoryGenerator<R extends Remote> {
         }
     }
 
+    /**
+     * @param keyField name of static metrics key field; pass null if metrics are disabled
+     */
+    private void genRecordCall(CodeBuilder b, String keyField,
+                               LocalVariable supportVar, LocalVariable channelVar,
+                               LocalVariable startVar, boolean failed)
+    {
+        if (keyField != null) {
+            b.loadLocal(supportVar);
+            b.loadStaticField(keyField, METRICS_KEY_TYPE);
+            b.loadLocal(channelVar);
+            b.loadLocal(startVar);
+            b.loadConstant(failed);
+            b.invokeInterface(STUB_SUPPORT_TYPE, "recordCall", null,
+                              new TypeDesc[] {METRICS_KEY_TYPE, INV_CHANNEL_TYPE,
+                                              TypeDesc.LONG, TypeDesc.BOOLEAN});
+        }
+    }
+
     private void genBatched(CodeBuilder b,
                             LocalVariable supportVar, LocalVariable channelVar,
                             boolean noTimeout)
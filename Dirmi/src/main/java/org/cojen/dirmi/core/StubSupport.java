@@ -24,6 +24,8 @@ import org.cojen.dirmi.Completion;
 import org.cojen.dirmi.Link;
 import org.cojen.dirmi.Pipe;
 
+import org.cojen.dirmi.util.MetricsRegistry;
+
 /**
  * Object passed to a Stub instance in order for it to actually communicate
  * with a remote object.
@@ -168,6 +170,17 @@ public interface StubSupport {
                                                    Throwable cause,
                                                    double timeout, TimeUnit unit);
 
+    /**
+     * Called only when metrics are enabled, before the stub finishes with the
+     * channel. This method should not throw any exception.
+     *
+     * @param key identifies the invoked method
+     * @param start value of System.nanoTime when method was invoked
+     * @param failed true if method is throwing an exception
+     */
+    void recordCall(MetricsRegistry.Key key, InvocationChannel channel,
+                    long start, boolean failed);
+
     /**
      * Returns a StubSupport instance which throws NoSuchObjectException for
      * all of the above methods.
@@ -73,6 +73,13 @@ public class VersionedIdentifier extends AbstractIdentifier {
         return cStore.read(in);
     }
 
+    /**
+     * Returns the canonical identifier for the given bits.
+     */
+    static VersionedIdentifier fromBits(long bits) {
+        return cStore.canonicalIdentifier(new VersionedIdentifier(bits));
+    }
+
     /**
      * Returns a deserialized identifier, and also updates the remote
      * version. This convenience method is appropriate only if the identifier
@@ -20,6 +20,10 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.concurrent.TimeUnit;
 
 import org.cojen.dirmi.Pipe;
@@ -201,6 +205,14 @@ abstract class WrappedPipe implements Pipe {
         return pipeForRead().skip(n);
     }
 
+    public int read(ByteBuffer dst) throws IOException {
+        return pipeForRead().read(dst);
+    }
+
+    public void transferTo(FileChannel dst, long position, long count) throws IOException {
+        pipeForRead().transferTo(dst, position, count);
+    }
+
     @Override
     public int available() throws IOException {
         return pipeForRead().available();
@@ -221,6 +233,14 @@ abstract class WrappedPipe implements Pipe {
         pipeForWrite().write(b, off, len);
     }
 
+    public void write(ByteBuffer src) throws IOException {
+        pipeForWrite().write(src);
+    }
+
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        return pipeForWrite().transferFrom(src, position, count);
+    }
+
     @Override
     public void writeBoolean(boolean v) throws IOException {
         pipeForWrite().writeBoolean(v);
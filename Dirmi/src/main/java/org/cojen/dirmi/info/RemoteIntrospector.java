@@ -68,7 +68,7 @@ import org.cojen.dirmi.TimeoutUnit;
 import org.cojen.dirmi.Trace;
 import org.cojen.dirmi.Unbatched;
 
-import org.cojen.dirmi.util.Cache;
+import org.cojen.dirmi.util.ConcurrentCache;
 
 /**
  * Supports examination of {@code Remote} types, returning all metadata
@@ -79,14 +79,19 @@ import org.cojen.dirmi.util.Cache;
  * @author Brian S O'Neill
  */
 public class RemoteIntrospector {
-    private static final Cache<Class<?>, Class<?>> cInterfaceCache;
-    private static final Cache<Class<?>, RInfo> cInfoCache;
+    private static final ConcurrentCache<Class<?>, Class<?>> cInterfaceCache;
+    private static final ConcurrentCache<Class<?>, RInfo> cInfoCache;
     private static final WeakCanonicalSet cParameterCache;
 
+    // Infos which are being resolved, visible only to the thread which holds
+    // the lock. Resolved infos are moved to cInfoCache.
+    private static final Map<Class<?>, RInfo> cResolving;
+
     static {
-        cInterfaceCache = Cache.newWeakIdentityCache(17);
-        cInfoCache = Cache.newWeakIdentityCache(17);
+        cInterfaceCache = ConcurrentCache.newWeakIdentityCache();
+        cInfoCache = ConcurrentCache.newWeakIdentityCache();
         cParameterCache = new WeakCanonicalSet();
+        cResolving = new HashMap<Class<?>, RInfo>();
     }
 
     static <T> RParameter<T> intern(RParameter<T> param) {
@@ -108,35 +113,42 @@ public class RemoteIntrospector {
 
         Class clazz = remoteObj.getClass();
 
-        synchronized (cInterfaceCache) {
-            Class theOne = cInterfaceCache.get(clazz);
-            if (theOne != null) {
-                return theOne;
-            }
+        Class theOne = cInterfaceCache.get(clazz);
+        if (theOne == null) {
+            theOne = cInterfaceCache.get(clazz, new ConcurrentCache.Factory<Class<?>, Class<?>>() {
+                public Class<?> create(Class<?> clazz) {
+                    return findRemoteType(clazz);
+                }
+            });
+        }
 
-            // Only consider the one that implements Remote.
+        return theOne;
+    }
 
-            for (Class iface : clazz.getInterfaces()) {
-                if (Modifier.isPublic(iface.getModifiers()) &&
-                    Remote.class.isAssignableFrom(iface))
-                {
-                    if (theOne != null) {
-                        throw new IllegalArgumentException
-                            ("At most one Remote interface may be directly implemented: " +
-                             clazz.getName());
-                    }
-                    theOne = iface;
-                }
-            }
+    private static Class<?> findRemoteType(Class<?> clazz) {
+        Class theOne = null;
 
-            if (theOne == null) {
-                throw new IllegalArgumentException
-                    ("No Remote types directly implemented: " + clazz.getName());
+        // Only consider the one that implements Remote.
+
+        for (Class iface : clazz.getInterfaces()) {
+            if (Modifier.isPublic(iface.getModifiers()) &&
+                Remote.class.isAssignableFrom(iface))
+            {
+                if (theOne != null) {
+                    throw new IllegalArgumentException
+                        ("At most one Remote interface may be directly implemented: " +
+                         clazz.getName());
+                }
+                theOne = iface;
             }
+        }
 
-            cInterfaceCache.put(clazz, theOne);
-            return theOne;
+        if (theOne == null) {
+            throw new IllegalArgumentException
+                ("No Remote types directly implemented: " + clazz.getName());
         }
+
+        return theOne;
     }
 
     /**
@@ -150,8 +162,16 @@ public class RemoteIntrospector {
             throw new IllegalArgumentException("Remote interface must not be null");
         }
 
-        synchronized (cInfoCache) {
-            RInfo info = cInfoCache.get(remote);
+        RInfo info = cInfoCache.get(remote);
+        if (info != null) {
+            return info;
+        }
+
+        synchronized (cResolving) {
+            info = cResolving.get(remote);
+            if (info == null) {
+                info = cInfoCache.get(remote);
+            }
             if (info != null) {
                 return info;
             }
@@ -261,17 +281,18 @@ public class RemoteIntrospector {
 
             info = new RInfo(remote, interfaces, new LinkedHashSet<RMethod>(methodMap.values()));
 
-            cInfoCache.put(remote, info);
+            cResolving.put(remote, info);
 
-            // Now that RInfo is in the cache, call resolve to check remote
-            // parameters.
+            // Now that RInfo can be found by this thread, call resolve to
+            // check remote parameters.
             try {
                 info.resolve();
-            } catch (IllegalArgumentException e) {
-                cInfoCache.remove(remote);
-                throw e;
+            } finally {
+                cResolving.remove(remote);
             }
 
+            cInfoCache.putIfAbsent(remote, info);
+
             return info;
         }
     }
@@ -1191,7 +1212,8 @@ public class RemoteIntrospector {
             boolean unshared = type.isPrimitive() ||
                 String.class.isAssignableFrom(type) ||
                 (asynchronous && Pipe.class.isAssignableFrom(type)) ||
-                TypeDesc.forClass(type).toPrimitiveType() != null;
+                TypeDesc.forClass(type).toPrimitiveType() != null ||
+                (type.isArray() && type.getComponentType().isPrimitive());
 
             int flags =
                 (unshared ? FLAG_UNSHARED : 0) |
@@ -24,15 +24,20 @@ import java.io.IOException;
 import java.security.SecureRandom;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import java.util.concurrent.TimeUnit;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.cojen.util.ThrowUnchecked;
 
 import org.cojen.dirmi.ClosedException;
 import org.cojen.dirmi.RejectedException;
 import org.cojen.dirmi.RemoteTimeoutException;
+import org.cojen.dirmi.util.ChannelPoolMetricsMBean;
+import org.cojen.dirmi.util.MetricsRegistry;
 import org.cojen.dirmi.util.Timer;
 
 /**
@@ -53,6 +58,8 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
         ACCEPT_SUCCESS_RESPONSE = 10,
         ACCEPT_FAILED_RESPONSE = 11;
 
+    private static final AtomicInteger cMetricsId = new AtomicInteger();
+
     private final IOExecutor mExecutor;
     private final ChannelAcceptor mAcceptor;
     private final SecureRandom mRandom;
@@ -279,11 +286,28 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
 
     private class Broker extends BasicChannelBroker {
         private final ListenerQueue<ChannelConnector.Listener> mListenerQueue;
+        private final ReverseChannelPool mPool;
+        private final MetricsRegistry mMetrics;
 
         Broker(long id, Channel control) throws RejectedException {
             super(mExecutor, id, control);
             mListenerQueue = new ListenerQueue<ChannelConnector.Listener>
                 (mExecutor, ChannelConnector.Listener.class);
+
+            if (ReverseChannelPool.MAX_IDLE <= 0) {
+                mPool = null;
+                mMetrics = null;
+            } else {
+                mPool = new ReverseChannelPool();
+                MetricsRegistry metrics = mExecutor.metrics();
+                if (metrics == null) {
+                    mMetrics = null;
+                } else {
+                    mMetrics = metrics.newChild
+                        ("broker", String.valueOf(cMetricsId.incrementAndGet()));
+                    mMetrics.addMBean("reverseChannels", mPool, ChannelPoolMetricsMBean.class);
+                }
+            }
         }
 
         @Override
@@ -295,7 +319,16 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
         public Channel connect(long timeout, TimeUnit unit) throws IOException {
             mAllChannels.checkClosed();
             ChannelConnectWaiter listener = new ChannelConnectWaiter();
-            connect(listener);
+            if (mPool == null) {
+                connect(listener);
+            } else {
+                Channel channel = mPool.poll();
+                if (channel != null) {
+                    fill();
+                    return channel;
+                }
+                missed(listener);
+            }
             return listener.waitForChannel(timeout, unit);
         }
 
@@ -306,6 +339,46 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
                 return;
             }
 
+            if (mPool == null) {
+                request(listener);
+                return;
+            }
+
+            final Channel channel = mPool.poll();
+            if (channel != null) {
+                try {
+                    mExecutor.execute(new Runnable() {
+                        public void run() {
+                            listener.connected(channel);
+                        }
+                    });
+                } catch (RejectedException e) {
+                    channel.disconnect();
+                    listener.rejected(e);
+                }
+                fill();
+            } else {
+                missed(listener);
+            }
+        }
+
+        /**
+         * Called when the pool has no idle channel for the given listener.
+         */
+        private void missed(ChannelConnector.Listener listener) {
+            // Take over a channel which is already on its way to the pool, to
+            // avoid an extra round trip.
+            if (!mPool.claim(listener)) {
+                request(listener);
+            }
+            fill();
+        }
+
+        /**
+         * Sends a connect request to the remote endpoint, which connects back
+         * a channel for the given listener.
+         */
+        private void request(ChannelConnector.Listener listener) {
             try {
                 mListenerQueue.enqueue(listener);
             } catch (RejectedException e) {
@@ -337,6 +410,12 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
         @Override
         public void close() {
             removeBroker(mId, this, false);
+            if (mPool != null) {
+                disconnect(mPool.close());
+                if (mMetrics != null) {
+                    mMetrics.unregister();
+                }
+            }
             if (!mAllChannels.isClosed()) {
                 dequeueConnectListenerForClose().failed(new ClosedException());
                 super.close();
@@ -360,13 +439,43 @@ public class BasicChannelBrokerAcceptor implements ChannelBrokerAcceptor {
                 if (cPingLogger != null) {
                     logPingMessage("Ping response from " + mControl + ": " + response);
                 }
-                return response == PING_RESPONSE;
+                if (response != PING_RESPONSE) {
+                    return false;
+                }
             } catch (IOException e) {
                 if (cPingLogger != null) {
                     logPingMessage("Ping response failure from " + mControl + ": " + e);
                 }
                 throw e;
             }
+
+            // Resize the pool of pre-connected channels at the ping rate.
+            if (mPool != null) {
+                disconnect(mPool.adjust());
+                fill();
+            }
+
+            return true;
+        }
+
+        /**
+         * Requests enough channels to fill the pool up to its target size.
+         */
+        private void fill() {
+            List<ReverseChannelPool.Filler> fillers = mPool.fill();
+            if (fillers != null) {
+                for (ReverseChannelPool.Filler filler : fillers) {
+                    request(filler);
+                }
+            }
+        }
+
+        private void disconnect(List<Channel> channels) {
+            if (channels != null) {
+                for (Channel channel : channels) {
+                    channel.disconnect();
+                }
+            }
         }
 
         ChannelConnector.Listener dequeueConnectListener() {
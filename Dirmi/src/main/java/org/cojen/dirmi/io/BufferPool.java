@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte array buffers, used by channel streams to avoid allocating a
+ * new buffer for each connected channel. Buffers are pooled by exact size,
+ * and only a limited number of sizes and buffers per size are retained.
+ * Buffers handed out by the pool are not cleared.
+ *
+ * @author Brian S O'Neill
+ */
+public class BufferPool {
+    private static final int MAX_SIZE_CLASSES = 16;
+    private static final int DEFAULT_MAX_BUFFERS = 256;
+
+    private final int mMaxBuffers;
+    private final ConcurrentMap<Integer, SizeClass> mSizeClasses;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public BufferPool() {
+        this(DEFAULT_MAX_BUFFERS);
+    }
+
+    /**
+     * @param maxBuffers maximum number of buffers to retain for each size
+     */
+    public BufferPool(int maxBuffers) {
+        if (maxBuffers < 0) {
+            throw new IllegalArgumentException("Max buffers: " + maxBuffers);
+        }
+        mMaxBuffers = maxBuffers;
+        mSizeClasses = new ConcurrentHashMap<Integer, SizeClass>();
+    }
+
+    /**
+     * Returns a pooled or new buffer of exactly the given size.
+     */
+    public byte[] acquire(int size) {
+        SizeClass sc = mSizeClasses.get(size);
+        if (sc != null) {
+            byte[] buffer = sc.mBuffers.poll();
+            if (buffer != null) {
+                sc.mCount.decrementAndGet();
+                mHits.incrementAndGet();
+                return buffer;
+            }
+        }
+        mMisses.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Returns a buffer to the pool. Caller must not access the buffer after
+     * releasing it.
+     *
+     * @param buffer buffer to release; null is ignored
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        Integer size = buffer.length;
+        SizeClass sc = mSizeClasses.get(size);
+        if (sc == null) {
+            if (mSizeClasses.size() >= MAX_SIZE_CLASSES) {
+                return;
+            }
+            SizeClass existing = mSizeClasses.putIfAbsent(size, sc = new SizeClass());
+            if (existing != null) {
+                sc = existing;
+            }
+        }
+
+        if (sc.mCount.incrementAndGet() > mMaxBuffers) {
+            sc.mCount.decrementAndGet();
+            return;
+        }
+
+        sc.mBuffers.offer(buffer);
+    }
+
+    /**
+     * Returns the number of acquire calls satisfied by a pooled buffer.
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of acquire calls which allocated a new buffer.
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns the ratio of hits to all acquire calls, or zero if none.
+     */
+    public double getHitRate() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return total == 0 ? 0.0 : ((double) hits) / total;
+    }
+
+    /**
+     * Returns the total number of buffers currently retained.
+     */
+    public int getPooledCount() {
+        int count = 0;
+        for (SizeClass sc : mSizeClasses.values()) {
+            count += sc.mCount.get();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool {hits=" + getHitCount() + ", misses=" + getMissCount() +
+            ", pooled=" + getPooledCount() + '}';
+    }
+
+    private static class SizeClass {
+        final Queue<byte[]> mBuffers = new ConcurrentLinkedQueue<byte[]>();
+        final AtomicInteger mCount = new AtomicInteger();
+    }
+}
@@ -37,6 +37,11 @@ class BufferedChannelInputStream extends BufferedInputStream {
         mChannel = channel;
     }
 
+    BufferedChannelInputStream(Channel channel, InputStream in, BufferPool pool) {
+        super(in, DEFAULT_SIZE, pool);
+        mChannel = channel;
+    }
+
     @Override
     public void close() throws IOException {
         mChannel.close();
@@ -37,6 +37,11 @@ class BufferedChannelOutputStream extends BufferedOutputStream {
         mChannel = channel;
     }
 
+    BufferedChannelOutputStream(Channel channel, OutputStream out, BufferPool pool) {
+        super(out, DEFAULT_SIZE, pool);
+        mChannel = channel;
+    }
+
     @Override
     public void close() throws IOException {
         mChannel.close();
@@ -35,6 +35,7 @@ public class BufferedInputStream extends ChannelInputStream {
     static final int DEFAULT_SIZE = 8192;
 
     private final InputStream mIn;
+    private final BufferPool mPool;
     private byte[] mBuffer;
 
     private int mStart;
@@ -45,9 +46,18 @@ public class BufferedInputStream extends ChannelInputStream {
     }
 
     public BufferedInputStream(InputStream in, int size) {
+        this(in, size, null);
+    }
+
+    /**
+     * @param pool optional pool to acquire buffer from, and to release it to
+     * when closed
+     */
+    public BufferedInputStream(InputStream in, int size, BufferPool pool) {
         mIn = in;
+        mPool = pool;
         synchronized (this) {
-            mBuffer = new byte[size];
+            mBuffer = pool == null ? new byte[size] : pool.acquire(size);
         }
     }
 
@@ -201,11 +211,15 @@ public class BufferedInputStream extends ChannelInputStream {
             size = Math.max(size, avail);
         }
         if (size != buffer.length) {
-            byte[] newBuffer = new byte[size];
+            BufferPool pool = mPool;
+            byte[] newBuffer = pool == null ? new byte[size] : pool.acquire(size);
             System.arraycopy(buffer, mStart, newBuffer, 0, avail);
             mBuffer = newBuffer;
             mStart = 0;
             mEnd = avail;
+            if (pool != null) {
+                pool.release(buffer);
+            }
         }
 
         return size;
@@ -288,7 +302,11 @@ public class BufferedInputStream extends ChannelInputStream {
             }
         } finally {
             synchronized (this) {
+                byte[] buffer = mBuffer;
                 mBuffer = null;
+                if (mPool != null) {
+                    mPool.release(buffer);
+                }
             }
         }
     }
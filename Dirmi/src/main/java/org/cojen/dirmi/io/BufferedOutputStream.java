@@ -16,9 +16,14 @@
 
 package org.cojen.dirmi.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import org.cojen.dirmi.ClosedException;
 import org.cojen.dirmi.RejectedException;
 
@@ -31,10 +36,11 @@ import org.cojen.dirmi.RejectedException;
  *
  * @author Brian S O'Neill
  */
-public class BufferedOutputStream extends ChannelOutputStream {
+public class BufferedOutputStream extends ChannelOutputStream implements TransferOutput {
     static final int DEFAULT_SIZE = 8192;
 
     private final OutputStream mOut;
+    private final BufferPool mPool;
     private byte[] mBuffer;
 
     private int mPos;
@@ -46,9 +52,18 @@ public class BufferedOutputStream extends ChannelOutputStream {
     }
 
     public BufferedOutputStream(OutputStream out, int size) {
+        this(out, size, null);
+    }
+
+    /**
+     * @param pool optional pool to acquire buffer from, and to release it to
+     * when closed
+     */
+    public BufferedOutputStream(OutputStream out, int size, BufferPool pool) {
         mOut = out;
+        mPool = pool;
         synchronized (this) {
-            mBuffer = new byte[size];
+            mBuffer = pool == null ? new byte[size] : pool.acquire(size);
         }
     }
 
@@ -91,6 +106,12 @@ public class BufferedOutputStream extends ChannelOutputStream {
                             mPos = pos + len;
                         }
                     }
+                } else if (len - avail >= buffer.length && mOut instanceof GatheringOutput) {
+                    // Write buffer and given bytes together, without copying.
+                    doWrite(new ByteBuffer[] {
+                        ByteBuffer.wrap(buffer, 0, pos), ByteBuffer.wrap(b, off, len)
+                    });
+                    mPos = 0;
                 } else {
                     // Fill remainder of buffer and flush it.
                     System.arraycopy(b, off, buffer, pos, avail);
@@ -112,6 +133,76 @@ public class BufferedOutputStream extends ChannelOutputStream {
         }
     }
 
+    public void write(ByteBuffer src) throws IOException {
+        try {
+            synchronized (this) {
+                byte[] buffer = buffer();
+                if (src.remaining() > buffer.length - mPos && mOut instanceof GatheringOutput) {
+                    // Write buffer and given bytes together, without copying.
+                    doWrite(new ByteBuffer[] {ByteBuffer.wrap(buffer, 0, mPos), src});
+                    mPos = 0;
+                } else {
+                    while (src.hasRemaining()) {
+                        int pos = mPos;
+                        int amt = Math.min(src.remaining(), buffer.length - pos);
+                        src.get(buffer, pos, amt);
+                        if ((pos += amt) >= buffer.length) {
+                            doWrite(buffer, 0, buffer.length);
+                            pos = 0;
+                        }
+                        mPos = pos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        try {
+            synchronized (this) {
+                byte[] buffer = buffer();
+                if (count > buffer.length - mPos && mOut instanceof TransferOutput) {
+                    if (mPos > 0) {
+                        doWrite(buffer, 0, mPos);
+                        mPos = 0;
+                    }
+                    mWriting = true;
+                    try {
+                        ((TransferOutput) mOut).transferFrom(src, position, count);
+                    } finally {
+                        mWriting = false;
+                    }
+                } else {
+                    ByteBuffer bb = ByteBuffer.wrap(buffer);
+                    while (count > 0) {
+                        int pos = mPos;
+                        int amt = (int) Math.min(count, buffer.length - pos);
+                        bb.limit(pos + amt).position(pos);
+                        while (bb.hasRemaining()) {
+                            int n = src.read(bb, position);
+                            if (n < 0) {
+                                throw new EOFException();
+                            }
+                            position += n;
+                        }
+                        count -= amt;
+                        if ((pos += amt) >= buffer.length) {
+                            doWrite(buffer, 0, buffer.length);
+                            pos = 0;
+                        }
+                        mPos = pos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
     @Override
     public synchronized boolean isReady() throws IOException {
         // Always report one less, because final byte written into buffer
@@ -137,9 +228,13 @@ public class BufferedOutputStream extends ChannelOutputStream {
             size = Math.max(size, mPos);
         }
         if (size != buffer.length) {
-            byte[] newBuffer = new byte[size];
+            BufferPool pool = mPool;
+            byte[] newBuffer = pool == null ? new byte[size] : pool.acquire(size);
             System.arraycopy(buffer, 0, newBuffer, 0, mPos);
             mBuffer = newBuffer;
+            if (pool != null) {
+                pool.release(buffer);
+            }
         }
 
         return size;
@@ -264,8 +359,12 @@ public class BufferedOutputStream extends ChannelOutputStream {
             }
         } finally {
             synchronized (this) {
+                byte[] buffer = mBuffer;
                 mBuffer = null;
                 mWriting = false;
+                if (mPool != null) {
+                    mPool.release(buffer);
+                }
             }
         }
     }
@@ -279,6 +378,15 @@ public class BufferedOutputStream extends ChannelOutputStream {
         }
     }
 
+    private void doWrite(ByteBuffer[] buffers) throws IOException {
+        mWriting = true;
+        try {
+            ((GatheringOutput) mOut).write(buffers, 0, buffers.length);
+        } finally {
+            mWriting = false;
+        }
+    }
+
     private byte[] buffer() throws ClosedException {
         byte[] buffer = mBuffer;
         if (buffer == null) {
@@ -41,11 +41,13 @@ class BufferedSocketChannel extends SocketChannel {
 
     @Override
     BufferedInputStream createInputStream(SimpleSocket socket) throws IOException {
-        return new BufferedChannelInputStream(this, socket.getInputStream());
+        return new BufferedChannelInputStream
+            (this, socket.getInputStream(), executor().bufferPool());
     }
 
     @Override
     BufferedOutputStream createOutputStream(SimpleSocket socket) throws IOException {
-        return new BufferedChannelOutputStream(this, socket.getOutputStream());
+        return new BufferedChannelOutputStream
+            (this, socket.getOutputStream(), executor().bufferPool());
     }
 }
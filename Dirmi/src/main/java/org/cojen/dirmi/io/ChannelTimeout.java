@@ -18,12 +18,10 @@ package org.cojen.dirmi.io;
 
 import java.io.IOException;
 
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.cojen.dirmi.RemoteTimeoutException;
 
-import org.cojen.dirmi.util.ScheduledTask;
 import org.cojen.dirmi.util.Timer;
 
 /**
@@ -31,13 +29,10 @@ import org.cojen.dirmi.util.Timer;
  *
  * @author Brian S O'Neill
  */
-class ChannelTimeout extends ScheduledTask<RuntimeException> {
+class ChannelTimeout implements Runnable {
     private final Channel mChannel;
     private final Timer mTimer;
-    private final Future<?> mFuture;
-
-    // 1: don't cancel, 2: cancelled
-    private int mState;
+    private final TimeoutWheel.Handle mHandle;
 
     ChannelTimeout(IOExecutor executor, Channel channel, long timeout, TimeUnit unit)
         throws IOException
@@ -48,27 +43,17 @@ class ChannelTimeout extends ScheduledTask<RuntimeException> {
     ChannelTimeout(IOExecutor executor, Channel channel, Timer timer) throws IOException {
         mChannel = channel;
         mTimer= timer;
-        mFuture = executor.schedule
-            (this, RemoteTimeoutException.checkRemaining(timer), timer.unit());
+        mHandle = executor.timeouts().newHandle(this);
+        mHandle.arm(RemoteTimeoutException.checkRemaining(timer), timer.unit());
     }
 
     public void cancel() throws RemoteTimeoutException {
-        synchronized (this) {
-            if (mState == 2) {
-                throw new RemoteTimeoutException(mTimer);
-            }
-            mState = 1;
+        if (!mHandle.disarm()) {
+            throw new RemoteTimeoutException(mTimer);
         }
-        mFuture.cancel(false);
     }
 
-    protected void doRun() {
-        synchronized (this) {
-            if (mState != 0) {
-                return;
-            }
-            mState = 2;
-        }
+    public void run() {
         mChannel.disconnect();
     }
 }
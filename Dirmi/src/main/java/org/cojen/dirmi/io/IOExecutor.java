@@ -23,21 +23,93 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+
 import org.cojen.dirmi.RejectedException;
 
+import org.cojen.dirmi.util.MetricsRegistry;
+
 /**
- * Executor which throws checked exceptions if no threads are available.
+ * Executor which throws checked exceptions if no threads are available. It
+ * also provides the buffer pool and timeout wheel shared by all channels
+ * which use it, and the root registry for remote method metrics.
  *
  * @author Brian S O'Neill
  */
 public class IOExecutor {
+    private static final AtomicInteger cMetricsId = new AtomicInteger();
+
     private final ScheduledExecutorService mExecutor;
+    private final BufferPool mBufferPool;
+    private final MetricsRegistry mMetrics;
+
+    private volatile TimeoutWheel mTimeouts;
 
     public IOExecutor(ScheduledExecutorService executor) {
+        this(executor, new BufferPool());
+    }
+
+    /**
+     * @param pool pool for channel stream buffers; pass null to disable pooling
+     */
+    public IOExecutor(ScheduledExecutorService executor, BufferPool pool) {
         if (executor == null) {
             throw new IllegalArgumentException();
         }
         mExecutor = executor;
+        mBufferPool = pool;
+        mMetrics = MetricsRegistry.isEnabled() ? newMetrics() : null;
+    }
+
+    private static MetricsRegistry newMetrics() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        try {
+            metrics.register(ManagementFactory.getPlatformMBeanServer(),
+                             "org.cojen.dirmi:type=Metrics,environment=" +
+                             cMetricsId.incrementAndGet());
+        } catch (JMException e) {
+            // Metrics are still recorded, but they aren't published.
+        } catch (SecurityException e) {
+            // Ditto.
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the pool for channel stream buffers, which is null if pooling
+     * is disabled.
+     */
+    public BufferPool bufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Returns the shared timing wheel, for timeouts which are usually
+     * cancelled before they expire.
+     */
+    public TimeoutWheel timeouts() {
+        TimeoutWheel timeouts = mTimeouts;
+        if (timeouts == null) {
+            synchronized (this) {
+                timeouts = mTimeouts;
+                if (timeouts == null) {
+                    mTimeouts = timeouts = new TimeoutWheel(this);
+                }
+            }
+        }
+        return timeouts;
+    }
+
+    /**
+     * Returns the root registry for remote method metrics, which is null
+     * unless metrics are {@link MetricsRegistry#isEnabled enabled}.
+     */
+    public MetricsRegistry metrics() {
+        return mMetrics;
     }
 
     public void execute(Runnable command) throws RejectedException {
@@ -0,0 +1,859 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.ref.WeakReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cojen.dirmi.ClosedException;
+import org.cojen.dirmi.RejectedException;
+import org.cojen.dirmi.RemoteTimeoutException;
+
+import org.cojen.dirmi.util.ScheduledTask;
+import org.cojen.dirmi.util.Timer;
+
+/**
+ * Broker which runs many logical channels as framed streams over a single
+ * transport channel. Each logical channel is a {@link RecyclableSocketChannel},
+ * and so it supports the same packet, suspend and recycling semantics as a
+ * channel backed by its own socket. Every stream has its own flow control
+ * window, and so a slow reader on one stream never blocks the others.
+ *
+ * <p>Frames are encoded as a one byte opcode followed by a four byte stream
+ * identifier. Data frames follow with a two byte length and the payload, and
+ * credit frames follow with a four byte amount.
+ *
+ * @author Brian S O'Neill
+ * @see MultiplexedChannelBrokerConnector
+ * @see MultiplexedChannelBrokerAcceptor
+ */
+class MultiplexedChannelBroker implements ChannelBroker {
+    static final byte
+        HELLO = 1,
+        OPEN = 2,
+        DATA = 3,
+        CREDIT = 4,
+        CLOSE = 5,
+        PING_REQUEST = 6,
+        PING_RESPONSE = 7;
+
+    static final int DEFAULT_WINDOW_SIZE = 65536;
+
+    // Largest payload carried by a single data frame.
+    private static final int MAX_FRAME_SIZE = 0xffff;
+
+    // How often the connecting side sends a ping.
+    private static final int PING_DELAY_MILLIS = 2500;
+
+    // No frames received after this threshold causes broker to close.
+    private static final int PING_FAILURE_MILLIS = 10000;
+
+    /**
+     * Writes the hello frame, which announces the receive window size. Must
+     * be the first frame written by both sides.
+     */
+    static void writeHello(Channel transport, int windowSize) throws IOException {
+        byte[] frame = new byte[5];
+        frame[0] = HELLO;
+        encodeInt(frame, 1, windowSize);
+        OutputStream out = transport.getOutputStream();
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Reads the hello frame and returns the remote receive window size.
+     */
+    static int readHello(Channel transport) throws IOException {
+        DataInputStream din = new DataInputStream(transport.getInputStream());
+        int op = din.read();
+        if (op != HELLO) {
+            if (op < 0) {
+                throw new ClosedException("Transport channel is closed");
+            }
+            throw new IOException("Invalid operation from transport channel: " + op);
+        }
+        int windowSize = din.readInt();
+        if (windowSize <= 0) {
+            throw new IOException("Illegal window size: " + windowSize);
+        }
+        return windowSize;
+    }
+
+    private final IOExecutor mExecutor;
+    private final Channel mTransport;
+    private final OutputStream mTransportOut;
+    private final int mLocalWindow;
+    private final int mRemoteWindow;
+
+    // Connecting side uses odd stream identifiers, and accepting side uses even.
+    private final AtomicInteger mNextId;
+
+    private final ConcurrentMap<Integer, Stream> mStreams;
+    private final CloseableGroup<Channel> mAllChannels;
+    private final ListenerQueue<ChannelAcceptor.Listener> mListenerQueue;
+
+    // Guards all writes to the transport. No other locks may be acquired
+    // while holding this one.
+    private final Object mWriteLock;
+
+    private final Future<?> mScheduledPing;
+    private volatile long mLastReceivedNanos;
+
+    /**
+     * @param transport connected channel, whose hello frames have been exchanged
+     * @param connectSide pass true for connecting side, which is responsible
+     * for sending pings
+     * @param localWindow receive window size announced to remote endpoint
+     * @param remoteWindow receive window size announced by remote endpoint
+     */
+    MultiplexedChannelBroker(IOExecutor executor, Channel transport, boolean connectSide,
+                             int localWindow, int remoteWindow)
+        throws RejectedException
+    {
+        mExecutor = executor;
+        mTransport = transport;
+        mTransportOut = transport.getOutputStream();
+        mLocalWindow = localWindow;
+        mRemoteWindow = remoteWindow;
+        mNextId = new AtomicInteger(connectSide ? 1 : 2);
+        mStreams = new ConcurrentHashMap<Integer, Stream>();
+        mAllChannels = new CloseableGroup<Channel>();
+        mListenerQueue = new ListenerQueue<ChannelAcceptor.Listener>
+            (executor, ChannelAcceptor.Listener.class);
+        mWriteLock = new Object();
+
+        mLastReceivedNanos = System.nanoTime();
+
+        PingTask pinger = new PingTask(this, connectSide);
+        try {
+            mScheduledPing = executor.scheduleWithFixedDelay
+                (pinger, PING_DELAY_MILLIS, PING_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedException e) {
+            transport.disconnect();
+            throw e;
+        }
+        pinger.scheduled(mScheduledPing);
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    readLoop();
+                }
+            });
+        } catch (RejectedException e) {
+            mScheduledPing.cancel(false);
+            transport.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public Object getRemoteAddress() {
+        return mTransport.getRemoteAddress();
+    }
+
+    @Override
+    public Object getLocalAddress() {
+        return mTransport.getLocalAddress();
+    }
+
+    @Override
+    public Channel connect() throws IOException {
+        mAllChannels.checkClosed();
+
+        int id = mNextId.getAndAdd(2);
+        Stream stream = new Stream(id);
+        mStreams.put(id, stream);
+
+        try {
+            writeFrame(OPEN, id, true);
+            Channel channel = new RecyclableSocketChannel(mExecutor, stream);
+            channel.register(mAllChannels);
+            return channel;
+        } catch (IOException e) {
+            stream.disconnect(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Channel connect(long timeout, TimeUnit unit) throws IOException {
+        // Opening a stream doesn't wait for the remote endpoint.
+        return connect();
+    }
+
+    @Override
+    public Channel connect(Timer timer) throws IOException {
+        return connect(RemoteTimeoutException.checkRemaining(timer), timer.unit());
+    }
+
+    @Override
+    public void connect(final ChannelConnector.Listener listener) {
+        try {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    Channel channel;
+                    try {
+                        channel = connect();
+                    } catch (IOException e) {
+                        listener.failed(e);
+                        return;
+                    }
+                    listener.connected(channel);
+                }
+            });
+        } catch (RejectedException e) {
+            listener.rejected(e);
+        }
+    }
+
+    @Override
+    public Channel accept() throws IOException {
+        ChannelAcceptWaiter listener = new ChannelAcceptWaiter();
+        accept(listener);
+        return listener.waitForChannel();
+    }
+
+    @Override
+    public Channel accept(long timeout, TimeUnit unit) throws IOException {
+        ChannelAcceptWaiter listener = new ChannelAcceptWaiter();
+        accept(listener);
+        return listener.waitForChannel(timeout, unit);
+    }
+
+    @Override
+    public Channel accept(Timer timer) throws IOException {
+        return accept(RemoteTimeoutException.checkRemaining(timer), timer.unit());
+    }
+
+    @Override
+    public void accept(ChannelAcceptor.Listener listener) {
+        try {
+            mListenerQueue.enqueue(listener);
+        } catch (RejectedException e) {
+            mListenerQueue.dequeue().rejected(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * Returns the number of open logical channels.
+     */
+    int streamCount() {
+        return mStreams.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelBroker {localAddress=" + getLocalAddress() +
+            ", remoteAddress=" + getRemoteAddress() + ", streams=" + streamCount() + '}';
+    }
+
+    void close(IOException cause) {
+        if (mAllChannels.isClosed()) {
+            return;
+        }
+
+        try {
+            if (cause == null) {
+                cause = new ClosedException();
+            }
+
+            mScheduledPing.cancel(false);
+            mTransport.disconnect();
+
+            List<Stream> streams = new ArrayList<Stream>(mStreams.values());
+            mStreams.clear();
+            for (Stream stream : streams) {
+                stream.brokerClosed(cause);
+            }
+
+            mAllChannels.disconnect();
+        } finally {
+            // Do last in case it blocks.
+            mListenerQueue.dequeueForClose().closed(cause);
+        }
+    }
+
+    private void readLoop() {
+        DataInputStream in = new DataInputStream(mTransport.getInputStream());
+        byte[] scratch = new byte[MAX_FRAME_SIZE];
+
+        try {
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    throw new ClosedException("Transport channel is closed");
+                }
+
+                mLastReceivedNanos = System.nanoTime();
+
+                switch (op) {
+                case PING_REQUEST:
+                    sendPingResponse();
+                    continue;
+                case PING_RESPONSE:
+                    continue;
+                }
+
+                int id = in.readInt();
+
+                switch (op) {
+                case OPEN: {
+                    Stream stream = new Stream(id);
+                    if (mStreams.putIfAbsent(id, stream) != null) {
+                        throw new IOException("Stream already open: " + id);
+                    }
+                    accepted(stream);
+                    break;
+                }
+
+                case DATA: {
+                    int length = in.readUnsignedShort();
+                    in.readFully(scratch, 0, length);
+                    Stream stream = mStreams.get(id);
+                    if (stream != null) {
+                        // Data for closed streams is discarded.
+                        stream.mIn.received(scratch, length);
+                    }
+                    break;
+                }
+
+                case CREDIT: {
+                    int amount = in.readInt();
+                    Stream stream = mStreams.get(id);
+                    if (stream != null) {
+                        stream.mOut.credit(amount);
+                    }
+                    break;
+                }
+
+                case CLOSE: {
+                    Stream stream = mStreams.remove(id);
+                    if (stream != null) {
+                        stream.remoteClosed();
+                    }
+                    break;
+                }
+
+                default:
+                    throw new IOException("Invalid operation from transport channel: " + op);
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    private void accepted(Stream stream) throws IOException {
+        final Channel channel = new RecyclableSocketChannel(mExecutor, stream);
+        channel.register(mAllChannels);
+
+        // Never deliver to listener in the reader thread, since it might
+        // block reading from the new channel.
+        try {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    mListenerQueue.dequeue().accepted(channel);
+                }
+            });
+        } catch (RejectedException e) {
+            channel.disconnect();
+        }
+    }
+
+    private void sendPingResponse() {
+        // Respond in a separate thread. Reader thread must never write to
+        // the transport, or else it can deadlock with the remote reader.
+        try {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        writeFrame(PING_RESPONSE);
+                    } catch (IOException e) {
+                        close(new ClosedException("Ping failure", e));
+                    }
+                }
+            });
+        } catch (RejectedException e) {
+            // Remote endpoint will ping again.
+        }
+    }
+
+    void writeFrame(byte op) throws IOException {
+        try {
+            synchronized (mWriteLock) {
+                mTransportOut.write(op);
+                mTransportOut.flush();
+            }
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    void writeFrame(byte op, int id, boolean flush) throws IOException {
+        byte[] frame = new byte[5];
+        frame[0] = op;
+        encodeInt(frame, 1, id);
+        try {
+            synchronized (mWriteLock) {
+                mTransportOut.write(frame);
+                if (flush) {
+                    mTransportOut.flush();
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    void writeCredit(int id, int amount) throws IOException {
+        byte[] frame = new byte[9];
+        frame[0] = CREDIT;
+        encodeInt(frame, 1, id);
+        encodeInt(frame, 5, amount);
+        try {
+            synchronized (mWriteLock) {
+                mTransportOut.write(frame);
+                mTransportOut.flush();
+            }
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param header scratch space of at least 7 bytes
+     * @param length must not be larger than MAX_FRAME_SIZE
+     */
+    void writeData(byte[] header, int id, byte[] b, int off, int length) throws IOException {
+        header[0] = DATA;
+        encodeInt(header, 1, id);
+        header[5] = (byte) (length >> 8);
+        header[6] = (byte) length;
+        try {
+            synchronized (mWriteLock) {
+                mTransportOut.write(header, 0, 7);
+                mTransportOut.write(b, off, length);
+            }
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    void flushTransport() throws IOException {
+        try {
+            synchronized (mWriteLock) {
+                mTransportOut.flush();
+            }
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if failed
+     */
+    boolean doPing(boolean sendRequest) throws IOException {
+        if (System.nanoTime() - mLastReceivedNanos > PING_FAILURE_MILLIS * 1000000L) {
+            return false;
+        }
+        if (sendRequest) {
+            writeFrame(PING_REQUEST);
+        }
+        return true;
+    }
+
+    private static void encodeInt(byte[] b, int off, int v) {
+        b[off]     = (byte) (v >> 24);
+        b[off + 1] = (byte) (v >> 16);
+        b[off + 2] = (byte) (v >> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Logical stream, which acts like a socket for RecyclableSocketChannel.
+     */
+    private class Stream implements SimpleSocket {
+        final int mId;
+        final StreamInput mIn;
+        final StreamOutput mOut;
+
+        private boolean mClosed;
+
+        Stream(int id) {
+            mId = id;
+            mIn = new StreamInput(this);
+            mOut = new StreamOutput(this);
+        }
+
+        public InputStream getInputStream() {
+            return mIn;
+        }
+
+        public OutputStream getOutputStream() {
+            return mOut;
+        }
+
+        public Object getLocalAddress() {
+            return MultiplexedChannelBroker.this.getLocalAddress();
+        }
+
+        public Object getRemoteAddress() {
+            return MultiplexedChannelBroker.this.getRemoteAddress();
+        }
+
+        public void flush() throws IOException {
+            flushTransport();
+        }
+
+        public void close() throws IOException {
+            if (!markClosed()) {
+                return;
+            }
+            if (mStreams.remove(mId, this)) {
+                // Remote endpoint still considers the stream open.
+                try {
+                    writeFrame(CLOSE, mId, true);
+                } catch (IOException e) {
+                    // Broker is closed as a result, which is what matters.
+                }
+            }
+            ClosedException cause = new ClosedException();
+            mIn.closed(cause, true);
+            mOut.closed(cause);
+        }
+
+        @Override
+        public String toString() {
+            return "Stream {id=" + mId + ", broker=" + MultiplexedChannelBroker.this + '}';
+        }
+
+        void remoteClosed() {
+            if (markClosed()) {
+                mIn.closed(null, false);
+                mOut.closed(new ClosedException("Closed by remote endpoint"));
+            }
+        }
+
+        void brokerClosed(IOException cause) {
+            if (markClosed()) {
+                mIn.closed(cause, true);
+                mOut.closed(cause);
+            }
+        }
+
+        void disconnect(IOException cause) {
+            mStreams.remove(mId, this);
+            brokerClosed(cause);
+        }
+
+        private synchronized boolean markClosed() {
+            if (mClosed) {
+                return false;
+            }
+            mClosed = true;
+            return true;
+        }
+    }
+
+    /**
+     * Receives data frames into a ring buffer which is never larger than the
+     * local window size. Credit is returned to the remote endpoint as the
+     * buffer is consumed.
+     */
+    private class StreamInput extends InputStream {
+        private final Stream mStream;
+
+        private byte[] mBuffer;
+        private int mStart;
+        private int mLength;
+
+        // Amount consumed but not yet credited back to the remote endpoint.
+        private int mConsumed;
+
+        private boolean mEOF;
+        private IOException mCause;
+
+        StreamInput(Stream stream) {
+            mStream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int amt = read(b, 0, 1);
+            return amt <= 0 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len <= 0) {
+                return 0;
+            }
+
+            int amt, credit;
+            synchronized (this) {
+                while (mLength <= 0) {
+                    if (mCause != null) {
+                        throw mCause;
+                    }
+                    if (mEOF) {
+                        return -1;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new java.io.InterruptedIOException();
+                    }
+                }
+
+                byte[] buffer = mBuffer;
+                int start = mStart;
+                amt = Math.min(len, mLength);
+                int first = Math.min(amt, buffer.length - start);
+                System.arraycopy(buffer, start, b, off, first);
+                if (first < amt) {
+                    System.arraycopy(buffer, 0, b, off + first, amt - first);
+                }
+                mStart = (start + amt) % buffer.length;
+                mLength -= amt;
+
+                credit = mConsumed + amt;
+                if (credit >= (mLocalWindow >> 1) && !mEOF) {
+                    mConsumed = 0;
+                } else {
+                    mConsumed = credit;
+                    credit = 0;
+                }
+            }
+
+            if (credit > 0) {
+                // Write outside synchronized block to never block the reader thread.
+                writeCredit(mStream.mId, credit);
+            }
+
+            return amt;
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            if (mCause != null) {
+                throw mCause;
+            }
+            return mLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+
+        /**
+         * Called by reader thread.
+         */
+        synchronized void received(byte[] b, int length) throws IOException {
+            if (mCause != null || mEOF) {
+                // Discard.
+                return;
+            }
+
+            byte[] buffer = mBuffer;
+            if (buffer == null) {
+                // Lazily allocate, since many channels only exchange a few bytes.
+                mBuffer = buffer = new byte[mLocalWindow];
+            }
+
+            if (length > buffer.length - mLength) {
+                throw new IOException("Flow control window exceeded for stream " + mStream.mId);
+            }
+
+            int end = (mStart + mLength) % buffer.length;
+            int first = Math.min(length, buffer.length - end);
+            System.arraycopy(b, 0, buffer, end, first);
+            if (first < length) {
+                System.arraycopy(b, first, buffer, 0, length - first);
+            }
+            mLength += length;
+
+            notifyAll();
+        }
+
+        /**
+         * @param cause exception to throw for subsequent reads; pass null to
+         * read EOF after consuming what was received
+         * @param discard pass true to discard what was received
+         */
+        synchronized void closed(IOException cause, boolean discard) {
+            if (cause == null) {
+                mEOF = true;
+            } else if (mCause == null) {
+                mCause = cause;
+            }
+            if (discard) {
+                mBuffer = null;
+                mLength = 0;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes data frames, never exceeding the credit granted by the remote
+     * endpoint.
+     */
+    private class StreamOutput extends OutputStream {
+        private final Stream mStream;
+        private final byte[] mHeader;
+
+        // Guards the credit fields, and is never held while writing.
+        private final Object mCreditLock;
+        private int mCredit;
+        private IOException mCause;
+
+        StreamOutput(Stream stream) {
+            mStream = stream;
+            mHeader = new byte[7];
+            mCreditLock = new Object();
+            mCredit = mRemoteWindow;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int amt;
+                synchronized (mCreditLock) {
+                    while (true) {
+                        if (mCause != null) {
+                            throw mCause;
+                        }
+                        if (mCredit > 0) {
+                            break;
+                        }
+                        try {
+                            mCreditLock.wait();
+                        } catch (InterruptedException e) {
+                            throw new java.io.InterruptedIOException();
+                        }
+                    }
+                    amt = Math.min(Math.min(len, mCredit), MAX_FRAME_SIZE);
+                    mCredit -= amt;
+                }
+
+                writeData(mHeader, mStream.mId, b, off, amt);
+                off += amt;
+                len -= amt;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (mCreditLock) {
+                if (mCause != null) {
+                    throw mCause;
+                }
+            }
+            flushTransport();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+
+        /**
+         * Called by reader thread.
+         */
+        void credit(int amount) {
+            synchronized (mCreditLock) {
+                mCredit += amount;
+                mCreditLock.notifyAll();
+            }
+        }
+
+        void closed(IOException cause) {
+            synchronized (mCreditLock) {
+                if (mCause == null) {
+                    mCause = cause;
+                }
+                mCreditLock.notifyAll();
+            }
+        }
+    }
+
+    private static class PingTask extends ScheduledTask<RuntimeException> {
+        private final WeakReference<MultiplexedChannelBroker> mBrokerRef;
+        private final boolean mSendRequest;
+
+        private volatile Future<?> mScheduled;
+
+        PingTask(MultiplexedChannelBroker broker, boolean sendRequest) {
+            mBrokerRef = new WeakReference<MultiplexedChannelBroker>(broker);
+            mSendRequest = sendRequest;
+        }
+
+        protected void doRun() {
+            MultiplexedChannelBroker broker = mBrokerRef.get();
+            if (broker != null) {
+                try {
+                    if (broker.doPing(mSendRequest)) {
+                        return;
+                    }
+                    broker.close(new ClosedException("Ping failure"));
+                } catch (IOException e) {
+                    broker.close(new ClosedException("Ping failure", e));
+                }
+            }
+
+            // Cancel ourself. Not expected to be null, so just do it.
+            mScheduled.cancel(true);
+        }
+
+        void scheduled(Future<?> scheduled) {
+            mScheduled = scheduled;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cojen.util.ThrowUnchecked;
+
+import org.cojen.dirmi.RejectedException;
+import org.cojen.dirmi.RemoteTimeoutException;
+import org.cojen.dirmi.util.Timer;
+
+/**
+ * Paired with {@link MultiplexedChannelBrokerConnector} to adapt a
+ * ChannelAcceptor into a ChannelBrokerAcceptor. Every accepted channel
+ * becomes the transport for one broker.
+ *
+ * @author Brian S O'Neill
+ */
+public class MultiplexedChannelBrokerAcceptor implements ChannelBrokerAcceptor {
+    private final IOExecutor mExecutor;
+    private final ChannelAcceptor mAcceptor;
+    private final int mWindowSize;
+    private final ChannelAcceptor.Listener mBrokerListener;
+
+    private final CloseableGroup<Broker> mAcceptedBrokers;
+
+    private final ListenerQueue<ChannelBrokerAcceptor.Listener> mAcceptListenerQueue;
+    private boolean mNotListening;
+
+    public MultiplexedChannelBrokerAcceptor(IOExecutor executor, ChannelAcceptor acceptor) {
+        this(executor, acceptor, MultiplexedChannelBroker.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize amount of unread bytes each channel can receive
+     * before the remote endpoint must wait
+     */
+    public MultiplexedChannelBrokerAcceptor(IOExecutor executor, ChannelAcceptor acceptor,
+                                            int windowSize)
+    {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size: " + windowSize);
+        }
+        mExecutor = executor;
+        mAcceptor = acceptor;
+        mWindowSize = windowSize;
+        mAcceptedBrokers = new CloseableGroup<Broker>();
+
+        mAcceptListenerQueue = new ListenerQueue<ChannelBrokerAcceptor.Listener>
+            (mExecutor, ChannelBrokerAcceptor.Listener.class);
+
+        mBrokerListener = new ChannelAcceptor.Listener() {
+            public void accepted(Channel channel) {
+                mAcceptor.accept(this);
+
+                ChannelBroker broker;
+                try {
+                    broker = MultiplexedChannelBrokerAcceptor.this.accepted(channel);
+                } catch (IOException e) {
+                    channel.disconnect();
+                    mAcceptListenerQueue.dequeue().failed(e);
+                    return;
+                }
+
+                mAcceptListenerQueue.dequeue().accepted(broker);
+            }
+
+            public void rejected(RejectedException e) {
+                notListening();
+                mAcceptListenerQueue.dequeue().rejected(e);
+            }
+
+            public void failed(IOException e) {
+                notListening();
+                mAcceptListenerQueue.dequeue().failed(e);
+            }
+
+            public void closed(IOException e) {
+                notListening();
+                mAcceptListenerQueue.dequeueForClose().closed(e);
+            }
+        };
+
+        mAcceptor.accept(mBrokerListener);
+    }
+
+    @Override
+    public Object getLocalAddress() {
+        return mAcceptor.getLocalAddress();
+    }
+
+    @Override
+    public ChannelBroker accept() throws IOException {
+        AcceptListener listener = new AcceptListener();
+        accept(listener);
+        return listener.waitForBroker();
+    }
+
+    @Override
+    public ChannelBroker accept(long timeout, TimeUnit unit) throws IOException {
+        AcceptListener listener = new AcceptListener();
+        accept(listener);
+        return listener.waitForBroker(timeout, unit);
+    }
+
+    @Override
+    public ChannelBroker accept(Timer timer) throws IOException {
+        return accept(RemoteTimeoutException.checkRemaining(timer), timer.unit());
+    }
+
+    @Override
+    public void accept(Listener listener) {
+        synchronized (this) {
+            if (mNotListening) {
+                mNotListening = false;
+                try {
+                    mAcceptor.accept(mBrokerListener);
+                } catch (Throwable e) {
+                    mNotListening = true;
+                    ThrowUnchecked.fire(e);
+                }
+            }
+        }
+        try {
+            mAcceptListenerQueue.enqueue(listener);
+        } catch (RejectedException e) {
+            mAcceptListenerQueue.dequeue().rejected(e);
+        }
+    }
+
+    synchronized void notListening() {
+        mNotListening = true;
+    }
+
+    @Override
+    public void close() {
+        mAcceptor.close();
+        mAcceptedBrokers.close();
+    }
+
+    ChannelBroker accepted(Channel channel) throws IOException {
+        mAcceptedBrokers.checkClosed();
+        int remoteWindow;
+        ChannelTimeout timeout = new ChannelTimeout(mExecutor, channel, 15, TimeUnit.SECONDS);
+        try {
+            remoteWindow = MultiplexedChannelBroker.readHello(channel);
+            MultiplexedChannelBroker.writeHello(channel, mWindowSize);
+        } finally {
+            timeout.cancel();
+        }
+        return new Broker(channel, remoteWindow);
+    }
+
+    private class Broker extends MultiplexedChannelBroker {
+        Broker(Channel transport, int remoteWindow) throws RejectedException {
+            super(mExecutor, transport, false, mWindowSize, remoteWindow);
+            mAcceptedBrokers.add(this);
+        }
+
+        @Override
+        void close(IOException cause) {
+            mAcceptedBrokers.remove(this);
+            super.close(cause);
+        }
+    }
+
+    private static class AcceptListener implements Listener {
+        private final Waiter<ChannelBroker> mWaiter = Waiter.create();
+
+        public void accepted(ChannelBroker broker) {
+            mWaiter.available(broker);
+        }
+
+        public void rejected(RejectedException e) {
+            mWaiter.rejected(e);
+        }
+
+        public void failed(IOException e) {
+            mWaiter.failed(e);
+        }
+
+        public void closed(IOException e) {
+            mWaiter.closed(e);
+        }
+
+        ChannelBroker waitForBroker() throws IOException {
+            return mWaiter.waitFor();
+        }
+
+        ChannelBroker waitForBroker(long timeout, TimeUnit unit) throws IOException {
+            return mWaiter.waitFor(timeout, unit);
+        }
+    }
+}
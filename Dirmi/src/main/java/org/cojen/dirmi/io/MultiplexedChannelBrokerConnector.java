@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cojen.dirmi.ClosedException;
+import org.cojen.dirmi.RejectedException;
+import org.cojen.dirmi.util.Timer;
+
+/**
+ * Paired with {@link MultiplexedChannelBrokerAcceptor} to adapt a
+ * ChannelConnector into a ChannelBrokerConnector. Each connected broker uses
+ * a single transport channel, over which all of its channels are multiplexed.
+ *
+ * @author Brian S O'Neill
+ */
+public class MultiplexedChannelBrokerConnector implements ChannelBrokerConnector {
+    private final IOExecutor mExecutor;
+    private final ChannelConnector mConnector;
+    private final int mWindowSize;
+
+    private final CloseableGroup<Broker> mConnectedBrokers;
+
+    public MultiplexedChannelBrokerConnector(IOExecutor executor, ChannelConnector connector) {
+        this(executor, connector, MultiplexedChannelBroker.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize amount of unread bytes each channel can receive
+     * before the remote endpoint must wait
+     */
+    public MultiplexedChannelBrokerConnector(IOExecutor executor, ChannelConnector connector,
+                                             int windowSize)
+    {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size: " + windowSize);
+        }
+        mExecutor = executor;
+        mConnector = connector;
+        mWindowSize = windowSize;
+        mConnectedBrokers = new CloseableGroup<Broker>();
+    }
+
+    @Override
+    public Object getRemoteAddress() {
+        return mConnector.getRemoteAddress();
+    }
+
+    @Override
+    public Object getLocalAddress() {
+        return mConnector.getLocalAddress();
+    }
+
+    @Override
+    public ChannelBroker connect() throws IOException {
+        mConnectedBrokers.checkClosed();
+        return connected(mConnector.connect(), null);
+    }
+
+    @Override
+    public ChannelBroker connect(long timeout, TimeUnit unit) throws IOException {
+        return timeout < 0 ? connect() : connect(new Timer(timeout, unit));
+    }
+
+    @Override
+    public ChannelBroker connect(Timer timer) throws IOException {
+        return connected(mConnector.connect(timer), timer);
+    }
+
+    @Override
+    public void connect(final Listener listener) {
+        mConnector.connect(new ChannelConnector.Listener() {
+            public void connected(Channel channel) {
+                if (mConnectedBrokers.isClosed()) {
+                    channel.disconnect();
+                    listener.closed(new ClosedException());
+                    return;
+                }
+
+                ChannelBroker broker;
+                try {
+                    broker = MultiplexedChannelBrokerConnector.this.connected(channel, null);
+                } catch (IOException e) {
+                    listener.failed(e);
+                    return;
+                }
+
+                listener.connected(broker);
+            }
+
+            public void rejected(RejectedException e) {
+                listener.rejected(e);
+            }
+
+            public void failed(IOException e) {
+                listener.failed(e);
+            }
+
+            public void closed(IOException e) {
+                listener.closed(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        mConnectedBrokers.close();
+    }
+
+    private ChannelBroker connected(Channel channel, Timer timer) throws IOException {
+        if (timer == null) {
+            timer = new Timer(15, TimeUnit.SECONDS);
+        }
+        try {
+            int remoteWindow;
+            ChannelTimeout timeout = new ChannelTimeout(mExecutor, channel, timer);
+            try {
+                MultiplexedChannelBroker.writeHello(channel, mWindowSize);
+                remoteWindow = MultiplexedChannelBroker.readHello(channel);
+            } finally {
+                timeout.cancel();
+            }
+            return new Broker(channel, remoteWindow);
+        } catch (IOException e) {
+            channel.disconnect();
+            throw e;
+        }
+    }
+
+    private class Broker extends MultiplexedChannelBroker {
+        Broker(Channel transport, int remoteWindow) throws RejectedException {
+            super(mExecutor, transport, true, mWindowSize, remoteWindow);
+            mConnectedBrokers.add(this);
+        }
+
+        @Override
+        void close(IOException cause) {
+            mConnectedBrokers.remove(this);
+            super.close(cause);
+        }
+    }
+}
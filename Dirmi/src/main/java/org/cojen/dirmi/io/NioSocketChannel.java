@@ -16,6 +16,7 @@
 
 package org.cojen.dirmi.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -23,10 +24,14 @@ import java.io.OutputStream;
 
 import java.nio.ByteBuffer;
 
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 
 import java.net.SocketException;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.cojen.dirmi.RejectedException;
 
 /**
@@ -34,11 +39,18 @@ import org.cojen.dirmi.RejectedException;
  * @author Brian S O'Neill
  */
 class NioSocketChannel implements SimpleSocket {
+    private static final AtomicReferenceFieldUpdater<NioSocketChannel, InputNotify>
+        inputNotifyUpdater = AtomicReferenceFieldUpdater.newUpdater
+        (NioSocketChannel.class, InputNotify.class, "mInputNotify");
+
     final SocketChannelSelector mSelector;
     final SocketChannel mChannel;
     private final Input mIn;
     private final Output mOut;
 
+    // Is null unless an input listener is pending.
+    private volatile InputNotify mInputNotify;
+
     NioSocketChannel(SocketChannelSelector selector, SocketChannel channel) {
         try {
             channel.socket().setTcpNoDelay(true);
@@ -61,6 +73,10 @@ class NioSocketChannel implements SimpleSocket {
         } finally {
             mIn.ready();
             mOut.ready();
+            InputNotify notify = inputNotifyUpdater.getAndSet(this, null);
+            if (notify != null && notify.isPending()) {
+                closed(notify);
+            }
         }
     }
 
@@ -81,7 +97,27 @@ class NioSocketChannel implements SimpleSocket {
     }
 
     public void inputNotify(Channel.Listener listener) {
-        mSelector.inputNotify(mChannel, listener);
+        InputNotify notify = new InputNotify(listener);
+        mInputNotify = notify;
+        mSelector.inputNotify(mChannel, notify);
+        if (!mChannel.isOpen() && inputNotifyUpdater.compareAndSet(this, notify, null)) {
+            // Closed before the listener could be found by close method.
+            if (notify.isPending()) {
+                closed(notify);
+            }
+        }
+    }
+
+    private void closed(final InputNotify notify) {
+        try {
+            mSelector.executor().execute(new Runnable() {
+                public void run() {
+                    notify.closed(new ClosedChannelException());
+                }
+            });
+        } catch (RejectedException e) {
+            notify.rejected(e);
+        }
     }
 
     public void outputNotify(final Channel.Listener listener) {
@@ -169,7 +205,9 @@ class NioSocketChannel implements SimpleSocket {
     }
 
     // Class is intended to be wrapped to provide buffering and thread-safety.
-    private class Output extends OutputStream implements Channel.Listener {
+    private class Output extends OutputStream
+        implements GatheringOutput, TransferOutput, Channel.Listener
+    {
         private ByteBuffer mBuffer;
         private byte[] mWrapped;
 
@@ -198,22 +236,69 @@ class NioSocketChannel implements SimpleSocket {
             int amt;
             while ((amt = channel.write(buffer)) < len) {
                 len -= amt;
-                mSelector.outputNotify(channel, this);
-                synchronized (this) {
-                    IOException ex;
-                    while ((ex = mNotify) == null) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            throw new InterruptedIOException();
-                        }
-                    }
-                    mNotify = null;
-                    if (ex != Ready.THE) {
-                        ex.fillInStackTrace();
-                        throw ex;
+                awaitWritable(channel);
+            }
+        }
+
+        public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+            SocketChannel channel = mChannel;
+            while (true) {
+                while (length > 0 && !buffers[offset].hasRemaining()) {
+                    offset++;
+                    length--;
+                }
+                if (length <= 0) {
+                    return;
+                }
+                if (channel.write(buffers, offset, length) == 0) {
+                    awaitWritable(channel);
+                }
+            }
+        }
+
+        public void write(ByteBuffer src) throws IOException {
+            SocketChannel channel = mChannel;
+            while (src.hasRemaining()) {
+                if (channel.write(src) == 0) {
+                    awaitWritable(channel);
+                }
+            }
+        }
+
+        public void transferFrom(FileChannel src, long position, long count)
+            throws IOException
+        {
+            SocketChannel channel = mChannel;
+            while (count > 0) {
+                // Uses sendfile when supported by the platform.
+                long amt = src.transferTo(position, count, channel);
+                if (amt > 0) {
+                    position += amt;
+                    count -= amt;
+                } else if (position >= src.size()) {
+                    throw new EOFException();
+                } else {
+                    awaitWritable(channel);
+                }
+            }
+        }
+
+        private void awaitWritable(SocketChannel channel) throws IOException {
+            mSelector.outputNotify(channel, this);
+            synchronized (this) {
+                IOException ex;
+                while ((ex = mNotify) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
                     }
                 }
+                mNotify = null;
+                if (ex != Ready.THE) {
+                    ex.fillInStackTrace();
+                    throw ex;
+                }
             }
         }
 
@@ -246,6 +331,58 @@ class NioSocketChannel implements SimpleSocket {
         }
     }
 
+    /**
+     * Listener wrapper which is notified when the channel is closed. Closing
+     * the channel cancels its selection key, and so the selector would
+     * otherwise never notify the listener. Wrapped listener is called at most
+     * once, and the channel forgets this wrapper when it is called.
+     */
+    private class InputNotify implements Channel.Listener {
+        private Channel.Listener mListener;
+
+        InputNotify(Channel.Listener listener) {
+            mListener = listener;
+        }
+
+        public void ready() {
+            Channel.Listener listener = take();
+            if (listener != null) {
+                listener.ready();
+            }
+        }
+
+        public void rejected(RejectedException cause) {
+            Channel.Listener listener = take();
+            if (listener != null) {
+                listener.rejected(cause);
+            }
+        }
+
+        public void closed(IOException cause) {
+            Channel.Listener listener = take();
+            if (listener != null) {
+                listener.closed(cause);
+            }
+        }
+
+        synchronized boolean isPending() {
+            return mListener != null;
+        }
+
+        private Channel.Listener take() {
+            Channel.Listener listener;
+            synchronized (this) {
+                listener = mListener;
+                mListener = null;
+            }
+            if (listener != null) {
+                // Listener is handed off, and so close need not notify it.
+                inputNotifyUpdater.compareAndSet(NioSocketChannel.this, this, null);
+            }
+            return listener;
+        }
+    }
+
     private static class Ready extends IOException {
         static final Ready THE = new Ready();
 
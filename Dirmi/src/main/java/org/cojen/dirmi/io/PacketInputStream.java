@@ -40,6 +40,8 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
     volatile InputStream mIn;
     byte[] mBuffer;
 
+    BufferPool mPool;
+
     int mStart;
     int mEnd;
 
@@ -55,9 +57,19 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
     }
 
     public PacketInputStream(InputStream in, int size) {
+        this(in, size, null);
+    }
+
+    /**
+     * @param pool optional pool to acquire buffer from, and to release it to
+     * when disconnected
+     */
+    public PacketInputStream(InputStream in, int size, BufferPool pool) {
+        // Assign pool before volatile stream, for safe access by disconnect.
+        mPool = pool;
         mIn = in;
         synchronized (this) {
-            mBuffer = new byte[size];
+            mBuffer = allocate(size);
         }
     }
 
@@ -317,6 +329,7 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
 
         P recycled = newInstance();
         synchronized (recycled) {
+            recycled.mPool = mPool;
             recycled.mIn = in;
             recycled.mBuffer = buffer;
             recycled.mStart = start;
@@ -368,11 +381,14 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
             size = Math.max(size, avail);
         }
         if (size != buffer.length) {
-            byte[] newBuffer = new byte[size];
+            byte[] newBuffer = allocate(size);
             System.arraycopy(buffer, mStart, newBuffer, 0, avail);
             mBuffer = newBuffer;
             mStart = 0;
             mEnd = avail;
+            if (mPool != null) {
+                mPool.release(buffer);
+            }
         }
 
         return size;
@@ -502,6 +518,7 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
 
             P recycled = newInstance();
             synchronized (recycled) {
+                recycled.mPool = mPool;
                 recycled.mIn = in;
                 recycled.mBuffer = buffer;
                 recycled.mStart = start;
@@ -515,8 +532,7 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
         try {
             in.close();
         } finally {
-            // Lazily release buffer (no synchronized access)
-            mBuffer = null;
+            releaseBuffer();
         }
     }
 
@@ -534,11 +550,33 @@ abstract class PacketInputStream<P extends PacketInputStream<P>> extends Channel
                 // Ignore.
             }
         } finally {
+            releaseBuffer();
+        }
+    }
+
+    /**
+     * Called after underlying stream is closed.
+     */
+    private void releaseBuffer() {
+        if (mPool == null) {
             // Lazily release buffer (no synchronized access)
             mBuffer = null;
+        } else {
+            // Underlying stream is closed, and so any thread which was
+            // reading into the buffer has failed and given up the lock.
+            synchronized (this) {
+                byte[] buffer = mBuffer;
+                mBuffer = null;
+                mPool.release(buffer);
+            }
         }
     }
 
+    private byte[] allocate(int size) {
+        BufferPool pool = mPool;
+        return pool == null ? new byte[size] : pool.acquire(size);
+    }
+
     /**
      * Return an executor for asynchronously draining unread bytes when
      * stream is closed.
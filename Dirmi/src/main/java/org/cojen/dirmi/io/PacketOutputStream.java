@@ -16,9 +16,14 @@
 
 package org.cojen.dirmi.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.cojen.dirmi.ClosedException;
@@ -32,30 +37,49 @@ import org.cojen.dirmi.RejectedException;
  *
  * @author Brian S O'Neill
  */
-abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends ChannelOutputStream {
+abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends ChannelOutputStream
+    implements TransferOutput
+{
     private static final AtomicReferenceFieldUpdater<PacketOutputStream, OutputStream> outUpdater =
         AtomicReferenceFieldUpdater
         .newUpdater(PacketOutputStream.class, OutputStream.class, "mOut");
 
     static final int DEFAULT_SIZE = 8192;
 
+    static final int MAX_PACKET_SIZE = 0x7fff + 0x80;
+
+    // Maximum number of packets written by one gathering write.
+    private static final int MAX_GATHER_PACKETS = 32;
+
     volatile OutputStream mOut;
     byte[] mBuffer;
 
     int mPos;
 
+    BufferPool mPool;
+
     public PacketOutputStream(OutputStream out) {
         this(out, DEFAULT_SIZE);
     }
 
     public PacketOutputStream(OutputStream out, int size) {
+        this(out, size, null);
+    }
+
+    /**
+     * @param pool optional pool to acquire buffer from, and to release it to
+     * when disconnected
+     */
+    public PacketOutputStream(OutputStream out, int size, BufferPool pool) {
         if (size < 1) {
             throw new IllegalArgumentException("Buffer too small: " + size);
         }
         size = Math.min(size, 0x7fff + 0x80);
+        // Assign pool before volatile stream, for safe access by disconnect.
+        mPool = pool;
         mOut = out;
         synchronized (this) {
-            mBuffer = new byte[2 + size];
+            mBuffer = allocate(2 + size);
             mPos = 2;
         }
     }
@@ -104,6 +128,8 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
                             mPos = pos + len;
                         }
                     }
+                } else if (len > buffer.length - 2 && out instanceof GatheringOutput) {
+                    writeGathered((GatheringOutput) out, buffer, pos, b, off, len);
                 } else {
                     // Fill remainder of buffer and flush it.
                     System.arraycopy(b, off, buffer, pos, avail);
@@ -133,6 +159,83 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
         }
     }
 
+    public void write(ByteBuffer src) throws IOException {
+        try {
+            synchronized (this) {
+                OutputStream out = out();
+                byte[] buffer = mBuffer;
+                if (src.remaining() > buffer.length - 2 && out instanceof GatheringOutput) {
+                    flushPacket(out, buffer);
+                    writeGathered((GatheringOutput) out, src);
+                } else {
+                    while (src.hasRemaining()) {
+                        int pos = mPos;
+                        int amt = Math.min(src.remaining(), buffer.length - pos);
+                        src.get(buffer, pos, amt);
+                        if ((pos += amt) >= buffer.length) {
+                            doWrite(out, buffer, 2, buffer.length - 2);
+                            pos = 2;
+                        }
+                        mPos = pos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        try {
+            synchronized (this) {
+                OutputStream out = out();
+                byte[] buffer = mBuffer;
+                if (count > buffer.length - 2 && out instanceof TransferOutput) {
+                    flushPacket(out, buffer);
+                    TransferOutput tout = (TransferOutput) out;
+                    byte[] header = new byte[2];
+                    while (count > 0) {
+                        int amt = (int) Math.min(count, MAX_PACKET_SIZE);
+                        if (amt < 0x80) {
+                            out.write(amt);
+                        } else {
+                            header[0] = (byte) (((amt - 0x80) >> 8) | 0x80);
+                            header[1] = (byte) (amt - 0x80);
+                            out.write(header, 0, 2);
+                        }
+                        tout.transferFrom(src, position, amt);
+                        position += amt;
+                        count -= amt;
+                    }
+                } else {
+                    ByteBuffer bb = ByteBuffer.wrap(buffer);
+                    while (count > 0) {
+                        int pos = mPos;
+                        int amt = (int) Math.min(count, buffer.length - pos);
+                        bb.limit(pos + amt).position(pos);
+                        while (bb.hasRemaining()) {
+                            int n = src.read(bb, position);
+                            if (n < 0) {
+                                throw new EOFException();
+                            }
+                            position += n;
+                        }
+                        count -= amt;
+                        if ((pos += amt) >= buffer.length) {
+                            doWrite(out, buffer, 2, buffer.length - 2);
+                            pos = 2;
+                        }
+                        mPos = pos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
     @Override
     public synchronized boolean isReady() throws IOException {
         // Always report one less, because final byte written into buffer
@@ -161,9 +264,12 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
             size = Math.max(size, mPos - 2);
         }
         if (size != buffer.length - 2) {
-            byte[] newBuffer = new byte[2 + size];
+            byte[] newBuffer = allocate(2 + size);
             System.arraycopy(buffer, 2, newBuffer, 2, mPos - 2);
             mBuffer = newBuffer;
+            if (mPool != null) {
+                mPool.release(buffer);
+            }
         }
 
         return size;
@@ -273,6 +379,7 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
 
         P recycled = newInstance();
         synchronized (recycled) {
+            recycled.mPool = mPool;
             recycled.mOut = out;
             recycled.mBuffer = buffer;
             recycled.mPos = 2;
@@ -296,8 +403,18 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
                 // Ignore.
             }
         } finally {
-            // Lazily release buffer (no synchronized access)
-            mBuffer = null;
+            if (mPool == null) {
+                // Lazily release buffer (no synchronized access)
+                mBuffer = null;
+            } else {
+                // Underlying stream is closed, and so any thread which was
+                // writing the buffer has failed and given up the lock.
+                synchronized (this) {
+                    byte[] buffer = mBuffer;
+                    mBuffer = null;
+                    mPool.release(buffer);
+                }
+            }
         }
     }
 
@@ -378,6 +495,111 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
         out.write(buffer, offset, length);
     }
 
+    /**
+     * Writes buffered data followed by the given bytes, as a sequence of
+     * packets, using gathering writes. Packet headers are written separately,
+     * and so the given bytes are never copied. A remainder which fits into
+     * the buffer is left there.
+     */
+    private void writeGathered(GatheringOutput out, byte[] buffer, int pos,
+                               byte[] b, int off, int len)
+        throws IOException
+    {
+        int capacity = buffer.length - 2;
+        ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER_PACKETS * 2];
+        byte[] headers = new byte[MAX_GATHER_PACKETS * 2];
+        int count = 0;
+
+        int buffered = pos - 2;
+        if (buffered > 0) {
+            // First packet combines buffered data with the start of the given bytes.
+            int amt = Math.min(len, MAX_PACKET_SIZE - buffered);
+            int length = buffered + amt;
+            int offset = 2;
+            if (length < 0x80) {
+                buffer[--offset] = (byte) length;
+            } else {
+                buffer[--offset] = (byte) (length - 0x80);
+                buffer[--offset] = (byte) (((length - 0x80) >> 8) | 0x80);
+            }
+            buffers[count++] = ByteBuffer.wrap(buffer, offset, pos - offset);
+            buffers[count++] = ByteBuffer.wrap(b, off, amt);
+            off += amt;
+            len -= amt;
+        }
+
+        while (true) {
+            int hpos = 0;
+            while (len > capacity && count < buffers.length) {
+                int amt = Math.min(len, MAX_PACKET_SIZE);
+                int hstart = hpos;
+                if (amt < 0x80) {
+                    headers[hpos++] = (byte) amt;
+                } else {
+                    headers[hpos++] = (byte) (((amt - 0x80) >> 8) | 0x80);
+                    headers[hpos++] = (byte) (amt - 0x80);
+                }
+                buffers[count++] = ByteBuffer.wrap(headers, hstart, hpos - hstart);
+                buffers[count++] = ByteBuffer.wrap(b, off, amt);
+                off += amt;
+                len -= amt;
+            }
+
+            out.write(buffers, 0, count);
+
+            if (len <= capacity) {
+                break;
+            }
+
+            // Headers are reused for the next batch.
+            count = 0;
+        }
+
+        System.arraycopy(b, off, buffer, 2, len);
+        mPos = 2 + len;
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffer as a sequence of packets,
+     * using gathering writes. Caller must ensure that the packet buffer is empty.
+     */
+    private void writeGathered(GatheringOutput out, ByteBuffer src) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER_PACKETS * 2];
+        byte[] headers = new byte[MAX_GATHER_PACKETS * 2];
+
+        while (src.hasRemaining()) {
+            int count = 0;
+            int hpos = 0;
+            while (src.hasRemaining() && count < buffers.length) {
+                int amt = Math.min(src.remaining(), MAX_PACKET_SIZE);
+                int hstart = hpos;
+                if (amt < 0x80) {
+                    headers[hpos++] = (byte) amt;
+                } else {
+                    headers[hpos++] = (byte) (((amt - 0x80) >> 8) | 0x80);
+                    headers[hpos++] = (byte) (amt - 0x80);
+                }
+                buffers[count++] = ByteBuffer.wrap(headers, hstart, hpos - hstart);
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + amt);
+                buffers[count++] = slice;
+                src.position(src.position() + amt);
+            }
+            out.write(buffers, 0, count);
+        }
+    }
+
+    /**
+     * Writes any buffered data as a packet, without flushing.
+     */
+    private void flushPacket(OutputStream out, byte[] buffer) throws IOException {
+        int pos = mPos;
+        if (pos > 2) {
+            doWrite(out, buffer, 2, pos - 2);
+            mPos = 2;
+        }
+    }
+
     /**
      * @param offset must be at least 2
      */
@@ -407,6 +629,11 @@ abstract class PacketOutputStream<P extends PacketOutputStream<P>> extends Chann
         }
     }
 
+    private byte[] allocate(int size) {
+        BufferPool pool = mPool;
+        return pool == null ? new byte[size] : pool.acquire(size);
+    }
+
     private OutputStream out() throws ClosedException {
         OutputStream out = mOut;
         if (out == null) {
@@ -248,7 +248,7 @@ class RecyclableSocketChannel extends SocketChannel {
         private volatile RecyclableSocketChannel mChannel;
 
         Input(InputStream in, RecyclableSocketChannel channel) {
-            super(in);
+            super(in, DEFAULT_SIZE, channel.executor().bufferPool());
             mChannel = channel;
         }
 
@@ -296,7 +296,7 @@ class RecyclableSocketChannel extends SocketChannel {
         private volatile RecyclableSocketChannel mChannel;
 
         Output(OutputStream out, RecyclableSocketChannel channel) {
-            super(out);
+            super(out, DEFAULT_SIZE, channel.executor().bufferPool());
             mChannel = channel;
         }
 
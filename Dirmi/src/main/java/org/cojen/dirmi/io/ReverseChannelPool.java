@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cojen.dirmi.RejectedException;
+
+import org.cojen.dirmi.util.ChannelPoolMetricsMBean;
+
+/**
+ * Pool of idle channels which the remote endpoint of a broker connected in
+ * advance, avoiding a round trip and a connection handshake when the broker
+ * needs a channel. The amount of idle channels to keep is recomputed each
+ * interval, as the amount of channels requested during the interval or half
+ * of the previous amount, whichever is larger. A single request in an
+ * interval doesn't warrant an idle channel, since sessions recycle their
+ * channels.
+ *
+ * <p>The maximum amount of idle channels per broker is set by the system
+ * property "org.cojen.dirmi.reverseChannelPool", which is 4 by default. Zero
+ * disables the pool.
+ *
+ * @author Brian S O'Neill
+ * @see BasicChannelBrokerAcceptor
+ */
+class ReverseChannelPool implements ChannelPoolMetricsMBean {
+    static final int MAX_IDLE;
+
+    static {
+        int max = 4;
+        try {
+            String prop = System.getProperty("org.cojen.dirmi.reverseChannelPool");
+            if (prop != null) {
+                max = Math.max(0, Integer.parseInt(prop));
+            }
+        } catch (SecurityException e) {
+        } catch (NumberFormatException e) {
+        }
+        MAX_IDLE = max;
+    }
+
+    private final LinkedList<Channel> mIdle;
+    private final LinkedList<Filler> mFillers;
+
+    private int mTarget;
+    private int mDemand;
+    private boolean mClosed;
+
+    private long mHits;
+    private long mMisses;
+    private long mDiscarded;
+
+    ReverseChannelPool() {
+        mIdle = new LinkedList<Channel>();
+        mFillers = new LinkedList<Filler>();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized int getTargetIdleCount() {
+        return mTarget;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getDiscardedCount() {
+        return mDiscarded;
+    }
+
+    /**
+     * Returns an idle channel, or null if none.
+     */
+    synchronized Channel poll() {
+        mDemand++;
+        while (!mIdle.isEmpty()) {
+            Channel channel = mIdle.removeLast();
+            if (!channel.isClosed()) {
+                mHits++;
+                return channel;
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Claims a channel which was requested to fill the pool and which hasn't
+     * arrived yet. The given listener is notified when it does.
+     *
+     * @return false if nothing to claim
+     */
+    synchronized boolean claim(ChannelConnector.Listener listener) {
+        for (Filler filler : mFillers) {
+            if (filler.mClaimant == null) {
+                filler.mClaimant = listener;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns listeners for the channels to request in order to reach the
+     * target amount of idle channels.
+     *
+     * @return null if none
+     */
+    synchronized List<Filler> fill() {
+        if (mClosed) {
+            return null;
+        }
+        int amount = mTarget - mIdle.size() - mFillers.size();
+        if (amount <= 0) {
+            return null;
+        }
+        List<Filler> fillers = new ArrayList<Filler>(amount);
+        while (--amount >= 0) {
+            Filler filler = new Filler();
+            mFillers.add(filler);
+            fillers.add(filler);
+        }
+        return fillers;
+    }
+
+    /**
+     * Recomputes the target amount of idle channels from the demand since the
+     * last call, and returns surplus channels which must be disconnected.
+     *
+     * @return null if none
+     */
+    synchronized List<Channel> adjust() {
+        int demand = mDemand > 1 ? mDemand : 0;
+        mDemand = 0;
+        mTarget = Math.min(MAX_IDLE, Math.max(demand, mTarget >> 1));
+
+        List<Channel> surplus = null;
+        while (mIdle.size() > mTarget) {
+            if (surplus == null) {
+                surplus = new ArrayList<Channel>();
+            }
+            // Oldest channels are first.
+            surplus.add(mIdle.removeFirst());
+            mDiscarded++;
+        }
+        return surplus;
+    }
+
+    /**
+     * Closes the pool and returns all idle channels, which must be
+     * disconnected.
+     */
+    synchronized List<Channel> close() {
+        mClosed = true;
+        mTarget = 0;
+        List<Channel> idle = new ArrayList<Channel>(mIdle);
+        mIdle.clear();
+        return idle;
+    }
+
+    /**
+     * Receives a channel requested to fill the pool, unless it has been
+     * claimed.
+     */
+    class Filler implements ChannelConnector.Listener {
+        ChannelConnector.Listener mClaimant;
+
+        public void connected(Channel channel) {
+            ChannelConnector.Listener claimant;
+            synchronized (ReverseChannelPool.this) {
+                mFillers.remove(this);
+                claimant = mClaimant;
+                if (claimant == null) {
+                    if (!mClosed && mIdle.size() < mTarget) {
+                        mIdle.add(channel);
+                        return;
+                    }
+                    mDiscarded++;
+                }
+            }
+            if (claimant == null) {
+                channel.disconnect();
+            } else {
+                claimant.connected(channel);
+            }
+        }
+
+        public void rejected(RejectedException e) {
+            ChannelConnector.Listener claimant = done();
+            if (claimant != null) {
+                claimant.rejected(e);
+            }
+        }
+
+        public void failed(IOException e) {
+            ChannelConnector.Listener claimant = done();
+            if (claimant != null) {
+                claimant.failed(e);
+            }
+        }
+
+        public void closed(IOException e) {
+            ChannelConnector.Listener claimant = done();
+            if (claimant != null) {
+                claimant.closed(e);
+            }
+        }
+
+        private ChannelConnector.Listener done() {
+            synchronized (ReverseChannelPool.this) {
+                mFillers.remove(this);
+                return mClaimant;
+            }
+        }
+    }
+}
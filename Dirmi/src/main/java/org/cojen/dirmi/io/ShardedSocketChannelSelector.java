@@ -0,0 +1,545 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import java.util.Iterator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cojen.util.ThrowUnchecked;
+
+import org.cojen.dirmi.ClosedException;
+import org.cojen.dirmi.RejectedException;
+
+import org.cojen.dirmi.util.ScheduledTask;
+
+/**
+ * Selector which keeps each socket registered for its lifetime, toggling
+ * interest operations in place instead of registering and cancelling a key
+ * for every notification. Sockets are distributed over several selector
+ * threads, which by default is one per available processor. Once a socket is
+ * registered, delivering a notification allocates nothing.
+ *
+ * <p>Accepting and connecting is still performed by the inherited
+ * selector, and so {@link #selectLoop selectLoop} must still be called.
+ *
+ * @author Brian S O'Neill
+ */
+public class ShardedSocketChannelSelector extends RecyclableSocketChannelSelector {
+    private final Shard[] mShards;
+
+    public ShardedSocketChannelSelector(IOExecutor executor) throws IOException {
+        this(executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param shards number of selector threads for socket I/O
+     */
+    public ShardedSocketChannelSelector(IOExecutor executor, int shards) throws IOException {
+        super(executor);
+        if (shards < 1) {
+            shards = 1;
+        }
+        mShards = new Shard[shards];
+        try {
+            for (int i=0; i<shards; i++) {
+                mShards[i] = new Shard(Selector.open());
+            }
+        } catch (IOException e) {
+            try {
+                close();
+            } catch (IOException e2) {
+                // Ignore.
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Perform socket selection, returning normally only when selector is
+     * closed. Selection for socket I/O is performed by separate threads.
+     */
+    @Override
+    public void selectLoop() throws IOException {
+        for (final Shard shard : mShards) {
+            executor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        shard.selectLoop();
+                    } catch (IOException e) {
+                        ThrowUnchecked.fire(e);
+                    }
+                }
+            });
+        }
+
+        super.selectLoop();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+
+        try {
+            super.close();
+        } catch (IOException e) {
+            exception = e;
+        }
+
+        for (Shard shard : mShards) {
+            if (shard != null) {
+                try {
+                    shard.mSelector.close();
+                } catch (IOException e) {
+                    if (exception == null) {
+                        exception = e;
+                    }
+                }
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Override
+    public void inputNotify(SocketChannel channel, Channel.Listener listener) {
+        shardFor(channel).arm(channel, SelectionKey.OP_READ, listener);
+    }
+
+    @Override
+    public void outputNotify(SocketChannel channel, Channel.Listener listener) {
+        shardFor(channel).arm(channel, SelectionKey.OP_WRITE, listener);
+    }
+
+    private Shard shardFor(SocketChannel channel) {
+        Shard[] shards = mShards;
+        return shards[(System.identityHashCode(channel) & 0x7fffffff) % shards.length];
+    }
+
+    void dispatch(Runnable task, Channel.Listener listener) {
+        IOExecutor executor = executor();
+        try {
+            executor.execute(task);
+        } catch (RejectedException e) {
+            try {
+                executor.schedule(task, 0, TimeUnit.SECONDS);
+            } catch (RejectedException e2) {
+                if (!(task instanceof Notify) || ((Notify) task).revoke(listener)) {
+                    listener.rejected(e);
+                }
+            }
+        }
+    }
+
+    private class Shard {
+        final Selector mSelector;
+
+        // Registrations which haven't been applied by the selector thread.
+        private final ConcurrentLinkedQueue<Registration> mQueue;
+        private final ConcurrentMap<SocketChannel, Registration> mPending;
+
+        // Incremented when a wakeup is requested, to distinguish requested
+        // wakeups from spurious ones.
+        private final AtomicInteger mWakeups;
+
+        Shard(Selector selector) {
+            mSelector = selector;
+            mQueue = new ConcurrentLinkedQueue<Registration>();
+            mPending = new ConcurrentHashMap<SocketChannel, Registration>();
+            mWakeups = new AtomicInteger();
+        }
+
+        void arm(SocketChannel channel, int op, Channel.Listener listener) {
+            SelectionKey key = channel.keyFor(mSelector);
+            Registration reg;
+
+            if (key == null) {
+                reg = mPending.get(channel);
+                if (reg == null) {
+                    Registration newReg = new Registration(channel);
+                    reg = mPending.putIfAbsent(channel, newReg);
+                    if (reg == null) {
+                        reg = newReg;
+                        // Arm before queueing, so that the initial
+                        // registration has the correct interest set.
+                        reg.arm(op, listener);
+                        mQueue.add(reg);
+                        wakeup();
+                        return;
+                    }
+                }
+            } else if ((reg = (Registration) key.attachment()) == null) {
+                listener.closed(new ClosedException());
+                return;
+            }
+
+            if (reg.arm(op, listener)) {
+                wakeup();
+            }
+        }
+
+        void wakeup() {
+            mWakeups.incrementAndGet();
+            mSelector.wakeup();
+        }
+
+        void selectLoop() throws IOException {
+            Selector selector = mSelector;
+            ConcurrentLinkedQueue<Registration> queue = mQueue;
+            AtomicInteger wakeups = mWakeups;
+
+            try {
+                int lastWakeups = wakeups.get();
+
+                while (true) {
+                    int count = selector.select();
+
+                    Registration reg;
+                    while ((reg = queue.poll()) != null) {
+                        register(reg);
+                    }
+
+                    if (count != 0) {
+                        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                        while (it.hasNext()) {
+                            SelectionKey key = it.next();
+                            it.remove();
+                            ((Registration) key.attachment()).selected(key);
+                        }
+                    } else {
+                        if (!selector.isOpen()) {
+                            return;
+                        }
+                        int currentWakeups = wakeups.get();
+                        if (currentWakeups == lastWakeups) {
+                            // Spurious wakeup. Workaround for unknown race
+                            // condition in which closed channels are not
+                            // removed from the selector. If they remain,
+                            // select no longer blocks.
+                            for (SelectionKey key : selector.keys()) {
+                                if (key.isValid() && !key.channel().isOpen()) {
+                                    key.cancel();
+                                    ((Registration) key.attachment()).closed(null);
+                                }
+                            }
+                        }
+                        lastWakeups = currentWakeups;
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // Ignore and return.
+            }
+        }
+
+        /**
+         * Called by selector thread only.
+         */
+        private void register(Registration reg) {
+            SocketChannel channel = reg.mChannel;
+            try {
+                SelectionKey key = channel.keyFor(mSelector);
+                if (key == null) {
+                    reg.register(mSelector);
+                } else {
+                    // Lost a race with an earlier registration, so merge
+                    // listeners into it. Interest set is applied when select
+                    // is called again, and so no wakeup is required.
+                    ((Registration) key.attachment()).merge(reg);
+                }
+            } catch (ClosedChannelException e) {
+                reg.closed(e);
+            } catch (RuntimeException e) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                    // Ignore.
+                }
+                reg.closed(new IOException(e));
+            } finally {
+                mPending.remove(channel, reg);
+            }
+        }
+    }
+
+    /**
+     * Persistent state for a registered socket, attached to its selection key.
+     */
+    private class Registration {
+        final SocketChannel mChannel;
+
+        // Reusable tasks for delivering notifications.
+        private final Notify mReadNotify;
+        private final Notify mWriteNotify;
+
+        // Access while synchronized.
+        private SelectionKey mKey;
+        private Channel.Listener mReadListener;
+        private Channel.Listener mWriteListener;
+
+        Registration(SocketChannel channel) {
+            mChannel = channel;
+            mReadNotify = new Notify();
+            mWriteNotify = new Notify();
+        }
+
+        /**
+         * @return true if interest set was changed and selector must be woken up
+         */
+        boolean arm(int op, Channel.Listener listener) {
+            SelectionKey key;
+            synchronized (this) {
+                if (op == SelectionKey.OP_READ) {
+                    mReadListener = ListenerChain.add(mReadListener, listener);
+                } else {
+                    mWriteListener = ListenerChain.add(mWriteListener, listener);
+                }
+
+                if ((key = mKey) == null) {
+                    // Interest set is applied when registered.
+                    return false;
+                }
+
+                try {
+                    int ops = key.interestOps();
+                    if ((ops & op) != 0) {
+                        return false;
+                    }
+                    key.interestOps(ops | op);
+                    return true;
+                } catch (CancelledKeyException e) {
+                    // Fall through and notify listeners.
+                }
+            }
+
+            closed(null);
+            return false;
+        }
+
+        /**
+         * Called by selector thread only.
+         */
+        synchronized void register(Selector selector) throws ClosedChannelException {
+            mKey = mChannel.register(selector, interestOps(), this);
+        }
+
+        /**
+         * Called by selector thread only.
+         */
+        void merge(Registration reg) {
+            Channel.Listener read, write;
+            synchronized (reg) {
+                read = reg.mReadListener;
+                write = reg.mWriteListener;
+                reg.mReadListener = null;
+                reg.mWriteListener = null;
+            }
+            if (read != null) {
+                arm(SelectionKey.OP_READ, read);
+            }
+            if (write != null) {
+                arm(SelectionKey.OP_WRITE, write);
+            }
+        }
+
+        /**
+         * Called by selector thread only.
+         */
+        void selected(SelectionKey key) {
+            Channel.Listener read = null, write = null;
+
+            synchronized (this) {
+                int ready;
+                try {
+                    ready = key.readyOps();
+                } catch (CancelledKeyException e) {
+                    ready = -1;
+                }
+
+                if (ready != -1) {
+                    if ((ready & SelectionKey.OP_READ) != 0) {
+                        read = mReadListener;
+                        mReadListener = null;
+                    }
+                    if ((ready & SelectionKey.OP_WRITE) != 0) {
+                        write = mWriteListener;
+                        mWriteListener = null;
+                    }
+                    try {
+                        // Stop selecting for events which have been
+                        // delivered. Key remains registered.
+                        key.interestOps(interestOps());
+                    } catch (CancelledKeyException e) {
+                        ready = -1;
+                    }
+                }
+
+                if (ready == -1) {
+                    read = null;
+                    write = null;
+                }
+            }
+
+            if (read == null && write == null && !key.isValid()) {
+                closed(null);
+                return;
+            }
+
+            if (read != null) {
+                mReadNotify.deliver(read);
+            }
+            if (write != null) {
+                mWriteNotify.deliver(write);
+            }
+        }
+
+        /**
+         * Notify all armed listeners that channel is closed.
+         */
+        void closed(IOException cause) {
+            Channel.Listener read, write;
+            synchronized (this) {
+                read = mReadListener;
+                write = mWriteListener;
+                mReadListener = null;
+                mWriteListener = null;
+            }
+            if (cause == null) {
+                cause = new ClosedException();
+            }
+            if (read != null) {
+                read.closed(cause);
+            }
+            if (write != null) {
+                write.closed(cause);
+            }
+        }
+
+        // Caller must be synchronized.
+        private int interestOps() {
+            int ops = 0;
+            if (mReadListener != null) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (mWriteListener != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            return ops;
+        }
+    }
+
+    /**
+     * Reusable task which delivers a ready notification. If still in use when
+     * another notification arrives, a new task is allocated instead.
+     */
+    private class Notify extends ScheduledTask<RuntimeException> {
+        private Channel.Listener mListener;
+
+        void deliver(Channel.Listener listener) {
+            Runnable task;
+            synchronized (this) {
+                if (mListener == null) {
+                    mListener = listener;
+                    task = this;
+                } else {
+                    task = new Notify();
+                    ((Notify) task).mListener = listener;
+                }
+            }
+            dispatch(task, listener);
+        }
+
+        /**
+         * @return false if listener was already taken
+         */
+        synchronized boolean revoke(Channel.Listener listener) {
+            if (mListener == listener) {
+                mListener = null;
+                return true;
+            }
+            return false;
+        }
+
+        protected void doRun() {
+            Channel.Listener listener;
+            synchronized (this) {
+                listener = mListener;
+                mListener = null;
+            }
+            if (listener != null) {
+                listener.ready();
+            }
+        }
+    }
+
+    /**
+     * Combines listeners which are armed for the same event. Rarely needed,
+     * since channels usually have at most one listener per event.
+     */
+    private static class ListenerChain implements Channel.Listener {
+        static Channel.Listener add(Channel.Listener existing, Channel.Listener listener) {
+            return existing == null ? listener : new ListenerChain(existing, listener);
+        }
+
+        private final Channel.Listener mFirst;
+        private final Channel.Listener mSecond;
+
+        private ListenerChain(Channel.Listener first, Channel.Listener second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        public void ready() {
+            try {
+                mFirst.ready();
+            } finally {
+                mSecond.ready();
+            }
+        }
+
+        public void rejected(RejectedException cause) {
+            try {
+                mFirst.rejected(cause);
+            } finally {
+                mSecond.rejected(cause);
+            }
+        }
+
+        public void closed(IOException cause) {
+            try {
+                mFirst.closed(cause);
+            } finally {
+                mSecond.closed(cause);
+            }
+        }
+    }
+}
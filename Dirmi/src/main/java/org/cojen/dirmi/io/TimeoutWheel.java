@@ -0,0 +1,365 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cojen.dirmi.RejectedException;
+
+/**
+ * Hashed timing wheel for timeouts which are usually cancelled before they
+ * expire. Arming and disarming a {@link Handle} is O(1), and handles can be
+ * armed again after being disarmed, so no garbage is produced per timeout.
+ * Timeouts expire no earlier than requested, but they can be late by about
+ * one tick. While any handles are armed, a single task is scheduled with the
+ * executor for every tick.
+ *
+ * @author Brian S O'Neill
+ */
+public class TimeoutWheel {
+    static final long DEFAULT_TICK_NANOS = 10L * 1000 * 1000;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int IDLE = 0, ARMED = 1, FIRED = 2;
+
+    private final IOExecutor mExecutor;
+    private final long mTickNanos;
+    private final long mStartNanos;
+    private final int mWheelMask;
+
+    private final Stripe[] mStripes;
+    private final AtomicInteger mNextStripe = new AtomicInteger();
+
+    private final AtomicInteger mArmedCount = new AtomicInteger();
+    private final AtomicBoolean mTicking = new AtomicBoolean();
+    private final AtomicLong mLastTick = new AtomicLong();
+
+    private final Runnable mTicker;
+
+    public TimeoutWheel(IOExecutor executor) {
+        this(executor, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tick duration of each tick
+     * @param wheelSize number of ticks per wheel rotation, rounded up to a power of two
+     */
+    public TimeoutWheel(IOExecutor executor, long tick, TimeUnit unit, int wheelSize) {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        if (tick <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        mExecutor = executor;
+        mTickNanos = Math.max(1, unit.toNanos(tick));
+        mStartNanos = System.nanoTime();
+
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        mWheelMask = size - 1;
+
+        int procs = Runtime.getRuntime().availableProcessors();
+        int stripes = Integer.highestOneBit(procs);
+        if (stripes < procs) {
+            stripes <<= 1;
+        }
+        mStripes = new Stripe[stripes];
+        for (int i=0; i<stripes; i++) {
+            mStripes[i] = new Stripe(size);
+        }
+
+        mTicker = new Runnable() {
+            public void run() {
+                tick();
+            }
+        };
+    }
+
+    /**
+     * Returns a new handle which runs the given action when its timeout
+     * expires. The action is run by an executor thread, and it should not
+     * block.
+     */
+    public Handle newHandle(Runnable action) {
+        if (action == null) {
+            throw new IllegalArgumentException();
+        }
+        return new Handle(mStripes[mNextStripe.getAndIncrement() & (mStripes.length - 1)],
+                          action);
+    }
+
+    /**
+     * Returns the number of handles currently armed.
+     */
+    public int getArmedCount() {
+        return mArmedCount.get();
+    }
+
+    long currentTick() {
+        return (System.nanoTime() - mStartNanos) / mTickNanos;
+    }
+
+    void armed() throws RejectedException {
+        if (mArmedCount.getAndIncrement() == 0 || !mTicking.get()) {
+            if (mTicking.compareAndSet(false, true)) {
+                try {
+                    mExecutor.schedule(mTicker, mTickNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedException e) {
+                    mTicking.set(false);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    void disarmed() {
+        mArmedCount.decrementAndGet();
+    }
+
+    void tick() {
+        long now = currentTick();
+        long last = mLastTick.get();
+
+        if (now > last) {
+            // Process each bucket at most once, even if ticks were missed.
+            long from = Math.max(last + 1, now - mWheelMask);
+            for (Stripe stripe : mStripes) {
+                stripe.expire(from, now);
+            }
+            mLastTick.set(now);
+        }
+
+        if (mArmedCount.get() == 0) {
+            mTicking.set(false);
+            // Double check, in case a handle was armed concurrently.
+            if (mArmedCount.get() == 0 || !mTicking.compareAndSet(false, true)) {
+                return;
+            }
+        }
+
+        try {
+            mExecutor.schedule(mTicker, mTickNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedException e) {
+            // Executor is shutdown or overloaded. Next arm call tries again.
+            mTicking.set(false);
+        }
+    }
+
+    private final class Stripe {
+        // Buckets are circular doubly linked lists, with sentinel heads.
+        private final Handle[] mBuckets;
+
+        // Last tick processed for this stripe. Guarded by stripe lock.
+        private long mProcessedTick;
+
+        Stripe(int size) {
+            mBuckets = new Handle[size];
+            for (int i=0; i<size; i++) {
+                Handle head = new Handle(this, null);
+                head.mNext = head;
+                head.mPrev = head;
+                mBuckets[i] = head;
+            }
+            mProcessedTick = currentTick();
+        }
+
+        // Caller must hold stripe lock.
+        void link(Handle handle, long deadlineTick) {
+            if (deadlineTick <= mProcessedTick) {
+                deadlineTick = mProcessedTick + 1;
+            }
+            handle.mDeadlineTick = deadlineTick;
+            Handle head = mBuckets[((int) deadlineTick) & mWheelMask];
+            Handle prev = head.mPrev;
+            handle.mPrev = prev;
+            handle.mNext = head;
+            prev.mNext = handle;
+            head.mPrev = handle;
+        }
+
+        // Caller must hold stripe lock.
+        void unlink(Handle handle) {
+            handle.mPrev.mNext = handle.mNext;
+            handle.mNext.mPrev = handle.mPrev;
+            handle.mPrev = null;
+            handle.mNext = null;
+        }
+
+        void expire(long fromTick, long toTick) {
+            List<Handle> expired = null;
+
+            synchronized (this) {
+                for (long t = fromTick; t <= toTick; t++) {
+                    Handle head = mBuckets[((int) t) & mWheelMask];
+                    Handle handle = head.mNext;
+                    while (handle != head) {
+                        Handle next = handle.mNext;
+                        if (handle.mDeadlineTick <= toTick) {
+                            unlink(handle);
+                            handle.mState = FIRED;
+                            if (expired == null) {
+                                expired = new ArrayList<Handle>();
+                            }
+                            expired.add(handle);
+                        }
+                        handle = next;
+                    }
+                }
+                if (toTick > mProcessedTick) {
+                    mProcessedTick = toTick;
+                }
+            }
+
+            if (expired == null) {
+                return;
+            }
+
+            for (Handle handle : expired) {
+                disarmed();
+                try {
+                    handle.mAction.run();
+                } catch (Throwable e) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reusable timeout, which runs its action if not disarmed in time.
+     */
+    public final class Handle {
+        final Stripe mStripe;
+        final Runnable mAction;
+
+        // Remaining fields are guarded by stripe lock.
+        Handle mPrev, mNext;
+        long mDeadlineTick;
+        int mState;
+
+        Handle(Stripe stripe, Runnable action) {
+            mStripe = stripe;
+            mAction = action;
+        }
+
+        /**
+         * Arms the timeout, replacing any existing timeout.
+         *
+         * @return false if timeout has already fired and handle hasn't been reset
+         */
+        public boolean arm(long timeout, TimeUnit unit) throws RejectedException {
+            long deadlineTick = deadlineTick(unit.toNanos(timeout));
+            Stripe stripe = mStripe;
+            boolean newlyArmed;
+            synchronized (stripe) {
+                switch (mState) {
+                case FIRED:
+                    return false;
+                case ARMED:
+                    stripe.unlink(this);
+                    newlyArmed = false;
+                    break;
+                default:
+                    mState = ARMED;
+                    newlyArmed = true;
+                    break;
+                }
+                stripe.link(this, deadlineTick);
+            }
+
+            if (newlyArmed) {
+                try {
+                    armed();
+                } catch (RejectedException e) {
+                    disarm();
+                    throw e;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Disarms the timeout, if armed.
+         *
+         * @return false if timeout has already fired and handle hasn't been reset
+         */
+        public boolean disarm() {
+            Stripe stripe = mStripe;
+            synchronized (stripe) {
+                switch (mState) {
+                case FIRED:
+                    return false;
+                case ARMED:
+                    stripe.unlink(this);
+                    mState = IDLE;
+                    break;
+                default:
+                    return true;
+                }
+            }
+            disarmed();
+            return true;
+        }
+
+        /**
+         * Disarms the timeout and clears the fired state, allowing the handle
+         * to be armed again.
+         */
+        public void reset() {
+            if (!disarm()) {
+                synchronized (mStripe) {
+                    if (mState == FIRED) {
+                        mState = IDLE;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns true if timeout fired and handle hasn't been reset.
+         */
+        public boolean hasFired() {
+            synchronized (mStripe) {
+                return mState == FIRED;
+            }
+        }
+
+        private long deadlineTick(long nanos) {
+            nanos = Math.max(0, Math.min(nanos, Long.MAX_VALUE >> 2));
+            long elapsed = System.nanoTime() - mStartNanos + nanos;
+            long ticks = elapsed / mTickNanos;
+            if (ticks * mTickNanos < elapsed) {
+                ticks++;
+            }
+            return ticks;
+        }
+    }
+}
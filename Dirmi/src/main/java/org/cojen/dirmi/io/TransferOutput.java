@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by OutputStreams which can write directly from ByteBuffers and
+ * files. When the underlying transport is a socket channel, file content is
+ * sent with {@link FileChannel#transferTo FileChannel.transferTo}, and so it
+ * never needs to be copied into the heap.
+ *
+ * @author Brian S O'Neill
+ */
+public interface TransferOutput {
+    /**
+     * Writes all remaining bytes of the given buffer, blocking if necessary.
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    /**
+     * Writes exactly count bytes from the given file, starting at the given
+     * file position. The file's own position is not modified.
+     *
+     * @throws java.io.EOFException if file ends too soon
+     */
+    void transferFrom(FileChannel src, long position, long count) throws IOException;
+}
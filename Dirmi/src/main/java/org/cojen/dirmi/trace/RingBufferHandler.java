@@ -0,0 +1,530 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.cojen.util.IntHashMap;
+
+import static org.cojen.dirmi.trace.TraceFormat.*;
+
+/**
+ * TraceHandler which records traced method calls into per-thread ring
+ * buffers, which are drained by a background thread into a memory-mapped
+ * trace file. Traced threads never block or perform I/O, and each event is a
+ * fixed-size binary record. If a thread produces events faster than they can
+ * be drained, events are dropped and the loss is noted in the file, in
+ * sequence with the thread's other events. Use
+ * {@link TraceFileReader} to examine the file offline.
+ *
+ * <p>The handler argument is a comma separated list of options, the first of
+ * which may be a plain file name:
+ *
+ * <pre>
+ * java -javaagent:dirmi-1.0.jar=org.cojen.dirmi.trace.RingBufferHandler;app.trace,args=true ...
+ * </pre>
+ *
+ * <ul>
+ * <li>file - trace file to write; default is "dirmi-&lt;time&gt;.trace"
+ * <li>buffer - events buffered per thread; default is 16384
+ * <li>args - when true, record a hash of method arguments; default is false
+ * <li>interval - drain interval in milliseconds; default is 10
+ * </ul>
+ *
+ * Only methods with a {@link org.cojen.dirmi.Trace Trace} annotation are
+ * traced. Arguments are never passed unless the "args" option is enabled,
+ * and method results and execution times are never passed, since call
+ * duration is derived from the recorded timestamps.
+ *
+ * @author Brian S O'Neill
+ */
+public class RingBufferHandler implements TraceHandler {
+    private static final int DEFAULT_BUFFER = 16384;
+    private static final long DEFAULT_INTERVAL_MILLIS = 10;
+
+    private static final int REGION_SIZE = 8 << 20;
+
+    private final TraceToolbox mToolbox;
+    private final TraceModes mModes;
+    private final int mBufferSize;
+    private final long mIntervalNanos;
+
+    private final ThreadLocal<Ring> mRings;
+    private final CopyOnWriteArrayList<Ring> mAllRings;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private long mRegionStart;
+
+    // Set of method ids which have been written to the file.
+    private final IntHashMap<Boolean> mDefinedMethods;
+
+    private final Thread mDrainer;
+    private volatile boolean mClosed;
+
+    public RingBufferHandler(TraceToolbox toolbox, String arg) throws IOException {
+        String fileName = null;
+        int bufferSize = DEFAULT_BUFFER;
+        boolean args = false;
+        long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+        if (arg != null) {
+            for (String option : arg.split(",")) {
+                option = option.trim();
+                if (option.length() == 0) {
+                    continue;
+                }
+                int index = option.indexOf('=');
+                if (index < 0) {
+                    fileName = option;
+                    continue;
+                }
+                String key = option.substring(0, index).trim();
+                String value = option.substring(index + 1).trim();
+                if (key.equals("file")) {
+                    fileName = value;
+                } else if (key.equals("buffer")) {
+                    bufferSize = Integer.parseInt(value);
+                } else if (key.equals("args")) {
+                    args = Boolean.parseBoolean(value);
+                } else if (key.equals("interval")) {
+                    intervalMillis = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + key);
+                }
+            }
+        }
+
+        if (fileName == null) {
+            fileName = "dirmi-" + System.currentTimeMillis() + ".trace";
+        }
+
+        mToolbox = toolbox;
+        mModes = new TraceModes(TraceMode.USER, args ? TraceMode.USER : TraceMode.OFF,
+                                TraceMode.OFF, TraceMode.USER, TraceMode.OFF);
+        mBufferSize = roundUpPower2(Math.max(16, bufferSize));
+        mIntervalNanos = Math.max(1, intervalMillis) * 1000000L;
+
+        mRings = new ThreadLocal<Ring>() {
+            @Override
+            protected Ring initialValue() {
+                Ring ring = new Ring(Thread.currentThread(), mBufferSize);
+                mAllRings.add(ring);
+                return ring;
+            }
+        };
+        mAllRings = new CopyOnWriteArrayList<Ring>();
+
+        mDefinedMethods = new IntHashMap<Boolean>();
+
+        File file = new File(fileName);
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+
+        mBuffer.putLong(MAGIC);
+        mBuffer.putInt(VERSION);
+        mBuffer.putInt(0);
+        mBuffer.putLong(System.currentTimeMillis());
+        mBuffer.putLong(System.nanoTime());
+
+        mDrainer = new Thread("dirmi-trace-drain") {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        };
+        mDrainer.setDaemon(true);
+        mDrainer.start();
+
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+        } catch (SecurityException e) {
+        }
+    }
+
+    public TraceModes getTraceModes(String className) {
+        return mModes;
+    }
+
+    public void enterMethod(int mid) {
+        mRings.get().add(ENTER, mid, 0);
+    }
+
+    public void enterMethod(int mid, Object argument) {
+        mRings.get().add(ENTER, mid, hash(argument));
+    }
+
+    public void enterMethod(int mid, Object... arguments) {
+        int hash = 0;
+        for (Object argument : arguments) {
+            hash = hash * 31 + hash(argument);
+        }
+        mRings.get().add(ENTER, mid, hash);
+    }
+
+    public void exitMethod(int mid) {
+        mRings.get().add(EXIT, mid, 0);
+    }
+
+    public void exitMethod(int mid, long timeNanos) {
+        mRings.get().add(EXIT, mid, 0);
+    }
+
+    public void exitMethod(int mid, Object result) {
+        mRings.get().add(EXIT, mid, 0);
+    }
+
+    public void exitMethod(int mid, Object result, long timeNanos) {
+        mRings.get().add(EXIT, mid, 0);
+    }
+
+    public void exitMethod(int mid, Throwable t) {
+        mRings.get().add(THROW, mid, 0);
+    }
+
+    public void exitMethod(int mid, Throwable t, long timeNanos) {
+        mRings.get().add(THROW, mid, 0);
+    }
+
+    /**
+     * Stops the background drain thread, drains all remaining events, and
+     * closes the trace file. Events recorded after closing are discarded.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+
+        LockSupport.unpark(mDrainer);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mDrainer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        try {
+            drainAll();
+            for (Ring ring : mAllRings) {
+                ring.drainDropped(this);
+            }
+            ensure(4);
+            mBuffer.putInt(END);
+            long length = mRegionStart + mBuffer.position();
+            mBuffer.force();
+            mBuffer = null;
+            try {
+                mChannel.truncate(length);
+            } catch (IOException e) {
+                // Some platforms cannot truncate a mapped file. Reader stops
+                // at the end marker anyhow.
+            }
+            mFile.close();
+        } catch (IOException e) {
+            uncaught(e);
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (!mClosed) {
+            try {
+                if (!drainAll()) {
+                    LockSupport.parkNanos(this, mIntervalNanos);
+                }
+            } catch (IOException e) {
+                uncaught(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if any events were drained
+     */
+    private boolean drainAll() throws IOException {
+        boolean any = false;
+        for (Ring ring : mAllRings) {
+            boolean alive = ring.mThread.isAlive();
+            if (ring.drain(this)) {
+                any = true;
+            } else if (!alive) {
+                mAllRings.remove(ring);
+            }
+        }
+        return any;
+    }
+
+    void writeEvent(int type, int mid, long threadId, long nanoTime, int argHash)
+        throws IOException
+    {
+        if (mDefinedMethods.get(mid) == null) {
+            TracedMethod method = mToolbox.getTracedMethod(mid);
+            if (method != null) {
+                mDefinedMethods.put(mid, Boolean.TRUE);
+                byte[] op = utf(method.getOperation());
+                byte[] sig = utf(method.toString());
+                ensure(16 + (op == null ? 0 : op.length) + sig.length);
+                mBuffer.putInt(METHOD);
+                mBuffer.putInt(mid);
+                putString(op);
+                putString(sig);
+            }
+        }
+
+        ensure(EVENT_SIZE);
+        mBuffer.putInt(type);
+        mBuffer.putInt(mid);
+        mBuffer.putLong(threadId);
+        mBuffer.putLong(nanoTime);
+        mBuffer.putInt(argHash);
+        mBuffer.putInt(0);
+    }
+
+    void writeThread(long threadId, String name) throws IOException {
+        byte[] bytes = utf(name);
+        ensure(20 + (bytes == null ? 0 : bytes.length));
+        mBuffer.putInt(THREAD);
+        mBuffer.putInt(0);
+        mBuffer.putLong(threadId);
+        putString(bytes);
+    }
+
+    void writeDropped(long threadId, long count) throws IOException {
+        ensure(24);
+        mBuffer.putInt(DROPPED);
+        mBuffer.putInt(0);
+        mBuffer.putLong(threadId);
+        mBuffer.putLong(count);
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            mBuffer.putInt(-1);
+        } else {
+            mBuffer.putInt(bytes.length);
+            mBuffer.put(bytes);
+        }
+    }
+
+    /**
+     * Ensures that the mapped region has room for the given amount of bytes,
+     * mapping the next region if necessary.
+     */
+    private void ensure(int amount) throws IOException {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer.remaining() < amount) {
+            mRegionStart += buffer.position();
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, mRegionStart,
+                                   Math.max(REGION_SIZE, amount));
+        }
+    }
+
+    private static byte[] utf(String str) {
+        if (str == null) {
+            return null;
+        }
+        try {
+            return str.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+
+    private static void uncaught(Throwable e) {
+        Thread t = Thread.currentThread();
+        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+    }
+
+    /**
+     * Returns a hash code which is stable across runs for common value types,
+     * and doesn't invoke arbitrary user code.
+     */
+    private static int hash(Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+        Class clazz = obj.getClass();
+        if (clazz == String.class || clazz == Integer.class || clazz == Long.class ||
+            clazz == Boolean.class || clazz == Character.class || clazz == Byte.class ||
+            clazz == Short.class || clazz == Float.class || clazz == Double.class)
+        {
+            return obj.hashCode();
+        }
+        return System.identityHashCode(obj);
+    }
+
+    private static int roundUpPower2(int i) {
+        // Bit-twiddling hack from Hacker's Delight.
+        i--;
+        i |= i >> 1;
+        i |= i >> 2;
+        i |= i >> 4;
+        i |= i >> 8;
+        i |= i >> 16;
+        return i + 1;
+    }
+
+    /**
+     * Single-producer, single-consumer ring of events. Only the owning thread
+     * adds events, and only the drain thread removes them.
+     */
+    private static final class Ring {
+        private static final AtomicLongFieldUpdater<Ring> headUpdater =
+            AtomicLongFieldUpdater.newUpdater(Ring.class, "mHead");
+        private static final AtomicLongFieldUpdater<Ring> tailUpdater =
+            AtomicLongFieldUpdater.newUpdater(Ring.class, "mTail");
+
+        final Thread mThread;
+        final long mThreadId;
+
+        // Each event is stored as three longs: type and mid, time, and hash.
+        // A dropped event stores the count in place of the time.
+        private final long[] mEvents;
+        private final int mCapacity;
+        private final int mMask;
+
+        private volatile long mHead;
+        private volatile long mTail;
+
+        // Accessed only by the owning thread.
+        private long mCachedTail;
+        private long mPendingDropped;
+
+        // Written only by the owning thread.
+        private volatile long mDroppedTotal;
+
+        // Accessed only by the drain thread.
+        private boolean mNamed;
+        private long mReportedDropped;
+
+        Ring(Thread thread, int capacity) {
+            mThread = thread;
+            mThreadId = thread.getId();
+            mEvents = new long[capacity * 3];
+            mCapacity = capacity;
+            mMask = capacity - 1;
+        }
+
+        void add(int type, int mid, int argHash) {
+            long head = mHead;
+            // If events were dropped, room is needed to report them first.
+            long limit = mCapacity - (mPendingDropped == 0 ? 1 : 2);
+            if (head - mCachedTail > limit) {
+                mCachedTail = mTail;
+                if (head - mCachedTail > limit) {
+                    mPendingDropped++;
+                    mDroppedTotal = mDroppedTotal + 1;
+                    return;
+                }
+            }
+
+            long[] events = mEvents;
+
+            if (mPendingDropped != 0) {
+                int i = ((int) head & mMask) * 3;
+                events[i] = ((long) DROPPED) << 32;
+                events[i + 1] = mPendingDropped;
+                events[i + 2] = 0;
+                mPendingDropped = 0;
+                head++;
+            }
+
+            int i = ((int) head & mMask) * 3;
+            events[i] = (((long) type) << 32) | (mid & 0xffffffffL);
+            events[i + 1] = System.nanoTime();
+            events[i + 2] = argHash;
+            headUpdater.lazySet(this, head + 1);
+        }
+
+        /**
+         * @return true if any events were drained
+         */
+        boolean drain(RingBufferHandler handler) throws IOException {
+            long tail = mTail;
+            long head = mHead;
+
+            if (head == tail) {
+                return false;
+            }
+
+            if (!mNamed) {
+                handler.writeThread(mThreadId, mThread.getName());
+                mNamed = true;
+            }
+
+            long[] events = mEvents;
+            for (; tail < head; tail++) {
+                int i = ((int) tail & mMask) * 3;
+                long typeAndMid = events[i];
+                int type = (int) (typeAndMid >>> 32);
+                if (type == DROPPED) {
+                    handler.writeDropped(mThreadId, events[i + 1]);
+                    mReportedDropped += events[i + 1];
+                } else {
+                    handler.writeEvent(type, (int) typeAndMid,
+                                       mThreadId, events[i + 1], (int) events[i + 2]);
+                }
+            }
+            tailUpdater.lazySet(this, tail);
+
+            return true;
+        }
+
+        /**
+         * Reports events which were dropped but not yet reported in sequence,
+         * which is only necessary when closing.
+         */
+        void drainDropped(RingBufferHandler handler) throws IOException {
+            long dropped = mDroppedTotal - mReportedDropped;
+            if (dropped > 0) {
+                handler.writeDropped(mThreadId, dropped);
+                mReportedDropped += dropped;
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TraceHandler which passes only a sample of traces to another handler. The
+ * sampling decision is made when a thread enters its outermost traced method,
+ * and all nested calls inherit that decision, so sampled traces are always
+ * complete. Calls made within an unsampled trace cost only a thread-local
+ * lookup.
+ *
+ * <p>Traces can be sampled at a fixed rate, or the rate can adapt to keep
+ * the amount of events passed to the handler within a budget. The trace
+ * agent applies sampling to any handler when either of these system
+ * properties is set:
+ *
+ * <ul>
+ * <li>org.cojen.dirmi.trace.sample - trace 1 in N outermost calls
+ * <li>org.cojen.dirmi.trace.budget - target events per second, adjusting
+ * the sampling rate as needed
+ * </ul>
+ *
+ * @author Brian S O'Neill
+ * @see TraceAgent
+ */
+public class SamplingHandler implements TraceHandler {
+    private static final long ADJUST_PERIOD_NANOS = 1000000000L;
+    private static final int MAX_INTERVAL = 1 << 24;
+
+    private final TraceHandler mHandler;
+    private final long mBudget;
+
+    private final ThreadLocal<State> mState;
+
+    private volatile int mInterval;
+
+    // Only used when adapting to a budget.
+    private final AtomicLong mEvents;
+    private final AtomicLong mLastAdjust;
+
+    /**
+     * @param handler handler which receives sampled traces
+     * @param interval trace 1 in this many outermost calls; when a budget is
+     * given, this is the initial interval
+     * @param eventsPerSecond when positive, adjust the interval to pass
+     * approximately this many events per second to the handler
+     */
+    public SamplingHandler(TraceHandler handler, int interval, long eventsPerSecond) {
+        if (handler == null) {
+            throw new IllegalArgumentException();
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval: " + interval);
+        }
+        mHandler = handler;
+        mBudget = eventsPerSecond;
+        mInterval = Math.min(interval, MAX_INTERVAL);
+
+        mState = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State();
+            }
+        };
+
+        if (eventsPerSecond > 0) {
+            mEvents = new AtomicLong();
+            mLastAdjust = new AtomicLong(System.nanoTime());
+        } else {
+            mEvents = null;
+            mLastAdjust = null;
+        }
+    }
+
+    /**
+     * Returns the handler which receives sampled traces.
+     */
+    public TraceHandler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Returns the current sampling interval, which is adjusted over time if
+     * sampling within a budget.
+     */
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public TraceModes getTraceModes(String className) {
+        return mHandler.getTraceModes(className);
+    }
+
+    public void enterMethod(int mid) {
+        if (enter()) {
+            mHandler.enterMethod(mid);
+        }
+    }
+
+    public void enterMethod(int mid, Object argument) {
+        if (enter()) {
+            mHandler.enterMethod(mid, argument);
+        }
+    }
+
+    public void enterMethod(int mid, Object... arguments) {
+        if (enter()) {
+            mHandler.enterMethod(mid, arguments);
+        }
+    }
+
+    public void exitMethod(int mid) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    public void exitMethod(int mid, long timeNanos) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid, timeNanos);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    public void exitMethod(int mid, Object result) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid, result);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    public void exitMethod(int mid, Object result, long timeNanos) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid, result, timeNanos);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    public void exitMethod(int mid, Throwable t) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid, t);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    public void exitMethod(int mid, Throwable t, long timeNanos) {
+        State state = mState.get();
+        if (state.mSampled) {
+            mHandler.exitMethod(mid, t, timeNanos);
+            exited(state);
+        } else {
+            state.mDepth--;
+        }
+    }
+
+    /**
+     * @return true if call is sampled
+     */
+    private boolean enter() {
+        State state = mState.get();
+        if (state.mDepth++ == 0) {
+            state.mSampled = state.nextInt(mInterval) == 0;
+        }
+        if (state.mSampled) {
+            state.mEvents++;
+            return true;
+        }
+        return false;
+    }
+
+    private void exited(State state) {
+        state.mEvents++;
+        if (--state.mDepth == 0) {
+            state.mSampled = false;
+            if (mEvents != null) {
+                mEvents.addAndGet(state.mEvents);
+                adjust();
+            }
+            state.mEvents = 0;
+        }
+    }
+
+    /**
+     * Called after each sampled trace completes, to periodically adjust the
+     * interval based on the observed event rate.
+     */
+    private void adjust() {
+        long last = mLastAdjust.get();
+        long now = System.nanoTime();
+        long elapsed = now - last;
+        if (elapsed < ADJUST_PERIOD_NANOS || !mLastAdjust.compareAndSet(last, now)) {
+            return;
+        }
+
+        double rate = mEvents.getAndSet(0) * 1e9 / elapsed;
+        double interval = Math.ceil(mInterval * rate / mBudget);
+
+        mInterval = interval <= 1 ? 1 : (interval >= MAX_INTERVAL ? MAX_INTERVAL : (int) interval);
+    }
+
+    private static final class State {
+        // Depth of traced calls, whether sampled or not.
+        int mDepth;
+        boolean mSampled;
+        // Events passed to handler by current sampled trace.
+        long mEvents;
+
+        private int mRandom;
+
+        State() {
+            int seed = (int) (Thread.currentThread().getId() * 0x9e3779b9L ^ System.nanoTime());
+            mRandom = seed == 0 ? 1 : seed;
+        }
+
+        /**
+         * Returns a pseudo random number in the range [0, bound).
+         */
+        int nextInt(int bound) {
+            if (bound <= 1) {
+                return 0;
+            }
+            // Xorshift generator.
+            int x = mRandom;
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            mRandom = x;
+            return (x & 0x7fffffff) % bound;
+        }
+    }
+}
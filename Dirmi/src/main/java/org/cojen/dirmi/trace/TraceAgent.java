@@ -41,7 +41,8 @@ import java.security.SecureRandom;
  * </pre>
  *
  * Handlers may accept a single string argument, provided after the handler name,
- * separated by a semi-colon.
+ * separated by a semi-colon. To trace only a sample of calls, set either of
+ * the system properties supported by {@link SamplingHandler}.
  *
  * @author Brian S O'Neill
  * @see org.cojen.dirmi.Trace
@@ -153,6 +154,13 @@ public class TraceAgent {
             throw cause == null ? e : cause;
         }
 
+        Integer interval = Integer.getInteger("org.cojen.dirmi.trace.sample");
+        Long budget = Long.getLong("org.cojen.dirmi.trace.budget");
+        if (interval != null || budget != null) {
+            handler = new SamplingHandler(handler, interval == null ? 1 : interval,
+                                          budget == null ? 0 : budget);
+        }
+
         mAgentId = registerAgent(this);
         mHandler = handler;
     }
@@ -0,0 +1,448 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cojen.util.IntHashMap;
+
+import static org.cojen.dirmi.trace.TraceFormat.*;
+
+/**
+ * Reads a trace file written by {@link RingBufferHandler}, building a call
+ * tree which merges identical call paths from all threads. The tree can be
+ * printed directly, or it can be written in the "folded stack" format
+ * accepted by common flame graph tools.
+ *
+ * <pre>
+ * java org.cojen.dirmi.trace.TraceFileReader [-tree | -folded] &lt;trace file&gt;
+ * </pre>
+ *
+ * Calls which were still active when the file was closed are not included,
+ * and calls interrupted by dropped events are discarded.
+ *
+ * @author Brian S O'Neill
+ */
+public class TraceFileReader {
+    public static void main(String[] args) throws IOException {
+        boolean folded = false;
+        String fileName = null;
+        for (String arg : args) {
+            if (arg.equals("-folded")) {
+                folded = true;
+            } else if (arg.equals("-tree")) {
+                folded = false;
+            } else {
+                fileName = arg;
+            }
+        }
+
+        if (fileName == null) {
+            System.out.println
+                ("Usage: java " + TraceFileReader.class.getName() +
+                 " [-tree | -folded] <trace file>");
+            return;
+        }
+
+        TraceFileReader reader = new TraceFileReader(new File(fileName));
+        StringBuilder b = new StringBuilder();
+        if (folded) {
+            reader.appendFolded(b);
+        } else {
+            reader.appendTree(b);
+        }
+        System.out.print(b);
+    }
+
+    private final long mStartMillis;
+    private final IntHashMap<String> mMethodNames;
+    private final Map<Long, String> mThreadNames;
+    private final Node mRoot;
+    private long mEventCount;
+    private long mDroppedCount;
+
+    public TraceFileReader(File file) throws IOException {
+        mMethodNames = new IntHashMap<String>();
+        mThreadNames = new LinkedHashMap<Long, String>();
+        mRoot = new Node(0, null);
+
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not a trace file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported trace file version: " + version);
+            }
+            in.readInt();
+            mStartMillis = in.readLong();
+            in.readLong();
+
+            read(in);
+        } finally {
+            in.close();
+        }
+
+        // Methods might be defined after they're first seen, so resolve names
+        // after reading everything.
+        mRoot.resolveNames(mMethodNames);
+    }
+
+    /**
+     * Returns the time when tracing started, as milliseconds from
+     * 1970-01-01T00:00:00Z.
+     */
+    public long getStartTimeMillis() {
+        return mStartMillis;
+    }
+
+    /**
+     * Returns the total amount of method entry and exit events read.
+     */
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the total amount of events which were dropped when written.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Returns the description of a traced method, or null if unknown.
+     *
+     * @param mid method identifier
+     */
+    public String getMethodName(int mid) {
+        return mMethodNames.get(mid);
+    }
+
+    /**
+     * Returns the names of all traced threads, keyed by thread id.
+     */
+    public Map<Long, String> getThreadNames() {
+        return Collections.unmodifiableMap(mThreadNames);
+    }
+
+    /**
+     * Returns the outermost traced calls, in descending order of total time.
+     */
+    public List<Node> getRoots() {
+        return mRoot.getChildren();
+    }
+
+    /**
+     * Appends an indented call tree, with one line per distinct call path.
+     */
+    public void appendTree(StringBuilder b) {
+        for (Node node : getRoots()) {
+            appendTree(b, node, 0);
+        }
+    }
+
+    private void appendTree(StringBuilder b, Node node, int depth) {
+        for (int i=0; i<depth; i++) {
+            b.append("  ");
+        }
+        b.append(node.getName());
+        b.append(" calls=").append(node.getCallCount());
+        if (node.getThrowCount() != 0) {
+            b.append(" throws=").append(node.getThrowCount());
+        }
+        b.append(" total=").append(micros(node.getTotalTimeNanos())).append("us");
+        b.append(" self=").append(micros(node.getSelfTimeNanos())).append("us");
+        b.append('\n');
+        for (Node child : node.getChildren()) {
+            appendTree(b, child, depth + 1);
+        }
+    }
+
+    /**
+     * Appends one line per distinct call path, consisting of semicolon
+     * separated method names followed by the self time in microseconds.
+     */
+    public void appendFolded(StringBuilder b) {
+        for (Node node : getRoots()) {
+            appendFolded(b, node, new StringBuilder());
+        }
+    }
+
+    private void appendFolded(StringBuilder b, Node node, StringBuilder path) {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        // Semicolons separate frames, and spaces separate the value.
+        path.append(node.getName().replace(';', ',').replace(' ', '_'));
+        long self = micros(node.getSelfTimeNanos());
+        if (self > 0) {
+            b.append(path).append(' ').append(self).append('\n');
+        }
+        for (Node child : node.getChildren()) {
+            appendFolded(b, child, path);
+        }
+        path.setLength(length);
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        Map<Long, List<Frame>> stacks = new HashMap<Long, List<Frame>>();
+
+        while (true) {
+            int type;
+            try {
+                type = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+
+            switch (type) {
+            case END:
+                return;
+
+            case ENTER: case EXIT: case THROW: {
+                int mid = in.readInt();
+                long threadId = in.readLong();
+                long time = in.readLong();
+                in.readInt(); // argument hash
+                in.readInt();
+                mEventCount++;
+
+                List<Frame> stack = stacks.get(threadId);
+                if (stack == null) {
+                    stack = new ArrayList<Frame>();
+                    stacks.put(threadId, stack);
+                }
+
+                if (type == ENTER) {
+                    Node parent = stack.isEmpty() ? mRoot : stack.get(stack.size() - 1).mNode;
+                    stack.add(new Frame(parent.child(mid), time));
+                } else {
+                    exit(stack, mid, time, type == THROW);
+                }
+                break;
+            }
+
+            case METHOD: {
+                int mid = in.readInt();
+                String operation = readString(in);
+                String signature = readString(in);
+                mMethodNames.put(mid, operation == null ? signature
+                                 : (operation + ": " + signature));
+                break;
+            }
+
+            case THREAD: {
+                in.readInt();
+                long threadId = in.readLong();
+                mThreadNames.put(threadId, readString(in));
+                break;
+            }
+
+            case DROPPED: {
+                in.readInt();
+                long threadId = in.readLong();
+                mDroppedCount += in.readLong();
+                // Calls in progress can no longer be matched reliably.
+                List<Frame> stack = stacks.get(threadId);
+                if (stack != null) {
+                    stack.clear();
+                }
+                break;
+            }
+
+            default:
+                throw new IOException("Unknown trace record type: " + type);
+            }
+        }
+    }
+
+    private static void exit(List<Frame> stack, int mid, long time, boolean threw) {
+        // Search for matching frame, in case exit events were lost.
+        for (int i = stack.size(); --i >= 0; ) {
+            Frame frame = stack.get(i);
+            if (frame.mNode.mMid == mid) {
+                frame.mNode.exited(time - frame.mStartTime, threw);
+                while (stack.size() > i) {
+                    stack.remove(stack.size() - 1);
+                }
+                return;
+            }
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static long micros(long nanos) {
+        return (nanos + 500) / 1000;
+    }
+
+    private static class Frame {
+        final Node mNode;
+        final long mStartTime;
+
+        Frame(Node node, long startTime) {
+            mNode = node;
+            mStartTime = startTime;
+        }
+    }
+
+    /**
+     * Node in the call tree, representing all calls to a method along a
+     * distinct call path.
+     */
+    public static final class Node {
+        final int mMid;
+        private String mName;
+        private IntHashMap<Node> mChildren;
+        private long mCallCount;
+        private long mThrowCount;
+        private long mTotalNanos;
+
+        Node(int mid, String name) {
+            mMid = mid;
+            mName = name;
+        }
+
+        public int getMethodId() {
+            return mMid;
+        }
+
+        /**
+         * Returns the method description, or the method id if unknown.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the amount of calls which completed.
+         */
+        public long getCallCount() {
+            return mCallCount;
+        }
+
+        /**
+         * Returns the amount of calls which completed by throwing an
+         * exception. Exceptions are only distinguished for methods traced
+         * with the "exception" option.
+         */
+        public long getThrowCount() {
+            return mThrowCount;
+        }
+
+        /**
+         * Returns the total time spent in completed calls, in nanoseconds.
+         */
+        public long getTotalTimeNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * Returns the total time minus the time spent in traced calls made
+         * from this method, in nanoseconds.
+         */
+        public long getSelfTimeNanos() {
+            long self = mTotalNanos;
+            if (mChildren != null) {
+                for (Node child : mChildren.values()) {
+                    self -= child.mTotalNanos;
+                }
+            }
+            return Math.max(0, self);
+        }
+
+        /**
+         * Returns the traced methods called by this one, in descending order
+         * of total time.
+         */
+        public List<Node> getChildren() {
+            if (mChildren == null) {
+                return Collections.emptyList();
+            }
+            List<Node> list = new ArrayList<Node>(mChildren.values());
+            Collections.sort(list, new Comparator<Node>() {
+                public int compare(Node a, Node b) {
+                    return a.mTotalNanos > b.mTotalNanos ? -1
+                        : (a.mTotalNanos < b.mTotalNanos ? 1 : 0);
+                }
+            });
+            return list;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " calls=" + mCallCount + " total=" + mTotalNanos + "ns";
+        }
+
+        Node child(int mid) {
+            IntHashMap<Node> children = mChildren;
+            if (children == null) {
+                mChildren = children = new IntHashMap<Node>();
+            }
+            Node node = children.get(mid);
+            if (node == null) {
+                node = new Node(mid, null);
+                children.put(mid, node);
+            }
+            return node;
+        }
+
+        void resolveNames(IntHashMap<String> names) {
+            if (mChildren != null) {
+                for (Node child : mChildren.values()) {
+                    String name = names.get(child.mMid);
+                    child.mName = name == null ? ("mid " + child.mMid) : name;
+                    child.resolveNames(names);
+                }
+            }
+        }
+
+        void exited(long nanos, boolean threw) {
+            mCallCount++;
+            if (threw) {
+                mThrowCount++;
+            }
+            mTotalNanos += nanos;
+        }
+    }
+}
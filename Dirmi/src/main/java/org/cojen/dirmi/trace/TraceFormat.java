@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+/**
+ * Constants which describe the binary trace file written by {@link
+ * RingBufferHandler} and read by {@link TraceFileReader}. All values are
+ * big-endian. The file begins with a header, which is followed by a sequence
+ * of records, each of which starts with an int record type. A record type of
+ * zero marks the end of the file.
+ *
+ * <pre>
+ * header:  long magic, int version, int reserved, long startMillis, long startNanos
+ * event:   int type, int mid, long threadId, long nanoTime, int argHash, int reserved
+ * method:  int type, int mid, string operation, string signature
+ * thread:  int type, int reserved, long threadId, string name
+ * dropped: int type, int reserved, long threadId, long count
+ * string:  int length (-1 if null), UTF-8 bytes
+ * </pre>
+ *
+ * @author Brian S O'Neill
+ */
+class TraceFormat {
+    static final long MAGIC = 0x446972546d695472L;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int END = 0, ENTER = 1, EXIT = 2, THROW = 3, METHOD = 4, THREAD = 5, DROPPED = 6;
+
+    static final int EVENT_SIZE = 32;
+
+    private TraceFormat() {
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+/**
+ * Management interface for a pool of idle channels which is sized from
+ * recent demand.
+ *
+ * @author Brian S O'Neill
+ */
+public interface ChannelPoolMetricsMBean {
+    /**
+     * Returns the amount of idle channels in the pool.
+     */
+    int getIdleCount();
+
+    /**
+     * Returns the amount of idle channels which the pool currently tries to
+     * keep, as sized from recent demand.
+     */
+    int getTargetIdleCount();
+
+    /**
+     * Returns the total amount of channel requests which were served by an
+     * idle channel.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the total amount of channel requests which found the pool
+     * empty.
+     */
+    long getMissCount();
+
+    /**
+     * Returns the total amount of idle channels which were closed because
+     * the pool had more than it needed.
+     */
+    long getDiscardedCount();
+}
@@ -0,0 +1,397 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache which holds its keys or values by weak or soft references, and which
+ * supports concurrent access. Reads never acquire a lock. Values which are
+ * created on demand by a {@link Factory} are computed at most once at a time
+ * per key, and so concurrent requests for the same missing entry wait for the
+ * first one to finish instead of computing duplicates.
+ *
+ * <p>Cleared references are removed as entries are added. A factory must not
+ * request its own key from the cache, since it would wait for itself.
+ *
+ * @author Brian S O'Neill
+ */
+public abstract class ConcurrentCache<K, V> {
+    /**
+     * Returns a cache which holds values by soft references.
+     */
+    public static <K, V> ConcurrentCache<K, V> newSoftValueCache() {
+        return new ValueCache<K, V>(true);
+    }
+
+    /**
+     * Returns a cache which holds values by weak references.
+     */
+    public static <K, V> ConcurrentCache<K, V> newWeakValueCache() {
+        return new ValueCache<K, V>(false);
+    }
+
+    /**
+     * Returns a cache which holds keys by weak references and compares them
+     * by identity. Values are strongly referenced, and so they must not
+     * strongly refer to their own key.
+     */
+    public static <K, V> ConcurrentCache<K, V> newWeakIdentityCache() {
+        return new WeakIdentityCache<K, V>();
+    }
+
+    /**
+     * Creates values for keys which aren't in the cache.
+     */
+    public static interface Factory<K, V> {
+        /**
+         * @return new value, or null if none
+         */
+        V create(K key);
+    }
+
+    final ConcurrentMap<Object, Object> mMap;
+    final ReferenceQueue<Object> mQueue;
+
+    ConcurrentCache() {
+        mMap = new ConcurrentHashMap<Object, Object>();
+        mQueue = new ReferenceQueue<Object>();
+    }
+
+    /**
+     * Returns the value for the given key, or null if none.
+     */
+    public V get(K key) {
+        return valueOf(mMap.get(lookupKey(key)));
+    }
+
+    /**
+     * Returns the value for the given key, calling the factory to create it
+     * if none. If the factory throws an exception, nothing is cached and the
+     * exception is thrown to the caller which invoked the factory. Other
+     * callers waiting for the same key then try again.
+     *
+     * @return existing or new value; null only if factory returned null
+     * @throws IllegalStateException if factory requests its own key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Factory<? super K, ? extends V> factory) {
+        Object lookupKey = lookupKey(key);
+
+        while (true) {
+            Object entry = mMap.get(lookupKey);
+
+            if (entry instanceof Pending) {
+                V value = ((Pending<V>) entry).await();
+                if (value != null) {
+                    return value;
+                }
+                continue;
+            }
+
+            V value = valueOf(entry);
+            if (value != null) {
+                return value;
+            }
+
+            Pending<V> pending = new Pending<V>();
+            if (entry == null) {
+                if (mMap.putIfAbsent(storeKey(key), pending) != null) {
+                    continue;
+                }
+            } else if (!mMap.replace(lookupKey, entry, pending)) {
+                continue;
+            }
+
+            try {
+                value = factory.create(key);
+            } finally {
+                if (value == null) {
+                    mMap.remove(lookupKey, pending);
+                } else {
+                    mMap.replace(lookupKey, pending, newEntry(key, value));
+                }
+                pending.complete(value);
+            }
+
+            cleanup();
+            return value;
+        }
+    }
+
+    /**
+     * Adds the given value to the cache, unless a value already exists for
+     * the key.
+     *
+     * @return existing value, or null if the given value was added
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        cleanup();
+
+        Object lookupKey = lookupKey(key);
+        Object newEntry = newEntry(key, value);
+
+        while (true) {
+            Object entry = mMap.get(lookupKey);
+
+            if (entry == null) {
+                if (mMap.putIfAbsent(storeKey(key), newEntry) == null) {
+                    return null;
+                }
+                continue;
+            }
+
+            if (entry instanceof Pending) {
+                V existing = ((Pending<V>) entry).await();
+                if (existing != null) {
+                    return existing;
+                }
+                continue;
+            }
+
+            V existing = valueOf(entry);
+            if (existing != null) {
+                return existing;
+            }
+
+            if (mMap.replace(lookupKey, entry, newEntry)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the value for the given key.
+     *
+     * @return removed value, or null if none
+     */
+    public V remove(K key) {
+        return valueOf(mMap.remove(lookupKey(key)));
+    }
+
+    /**
+     * Returns the approximate number of entries, which can include entries
+     * whose references have been cleared.
+     */
+    public int size() {
+        return mMap.size();
+    }
+
+    public void clear() {
+        mMap.clear();
+    }
+
+    /**
+     * Returns the key to use for finding an entry in the map.
+     */
+    abstract Object lookupKey(K key);
+
+    /**
+     * Returns the key to use for adding an entry to the map.
+     */
+    abstract Object storeKey(K key);
+
+    /**
+     * Returns the map value to use for the given value.
+     */
+    abstract Object newEntry(K key, V value);
+
+    /**
+     * Returns the value from the given map value, or null if none.
+     */
+    abstract V valueOf(Object entry);
+
+    /**
+     * Removes the entry of the given reference, which has been cleared.
+     */
+    abstract void cleared(Reference<?> ref);
+
+    private void cleanup() {
+        Reference<?> ref;
+        while ((ref = mQueue.poll()) != null) {
+            cleared(ref);
+        }
+    }
+
+    /**
+     * Placeholder for a value which is being created.
+     */
+    private static class Pending<V> {
+        private final Thread mCreator;
+        private boolean mDone;
+        private V mValue;
+
+        Pending() {
+            mCreator = Thread.currentThread();
+        }
+
+        /**
+         * @return null if creation failed
+         */
+        synchronized V await() {
+            if (!mDone && mCreator == Thread.currentThread()) {
+                throw new IllegalStateException("Factory requested its own key");
+            }
+
+            boolean interrupted = false;
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return mValue;
+        }
+
+        synchronized void complete(V value) {
+            mValue = value;
+            mDone = true;
+            notifyAll();
+        }
+    }
+
+    private static interface ValueRef {
+        Object key();
+    }
+
+    private static class SoftValueRef<V> extends SoftReference<V> implements ValueRef {
+        private final Object mKey;
+
+        SoftValueRef(Object key, V value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+
+        public Object key() {
+            return mKey;
+        }
+    }
+
+    private static class WeakValueRef<V> extends WeakReference<V> implements ValueRef {
+        private final Object mKey;
+
+        WeakValueRef(Object key, V value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+
+        public Object key() {
+            return mKey;
+        }
+    }
+
+    private static class ValueCache<K, V> extends ConcurrentCache<K, V> {
+        private final boolean mSoft;
+
+        ValueCache(boolean soft) {
+            mSoft = soft;
+        }
+
+        Object lookupKey(K key) {
+            return key;
+        }
+
+        Object storeKey(K key) {
+            return key;
+        }
+
+        Object newEntry(K key, V value) {
+            return mSoft
+                ? new SoftValueRef<V>(key, value, mQueue)
+                : new WeakValueRef<V>(key, value, mQueue);
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueOf(Object entry) {
+            return entry instanceof Reference ? ((Reference<V>) entry).get() : null;
+        }
+
+        void cleared(Reference<?> ref) {
+            mMap.remove(((ValueRef) ref).key(), ref);
+        }
+    }
+
+    /**
+     * Weak reference to a key, which is compared by identity. Lookups use an
+     * unregistered instance.
+     */
+    private static class KeyRef extends WeakReference<Object> {
+        private final int mHash;
+
+        KeyRef(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            mHash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof KeyRef) {
+                Object key = get();
+                return key != null && key == ((KeyRef) obj).get();
+            }
+            return false;
+        }
+    }
+
+    private static class WeakIdentityCache<K, V> extends ConcurrentCache<K, V> {
+        Object lookupKey(K key) {
+            return new KeyRef(key, null);
+        }
+
+        Object storeKey(K key) {
+            return new KeyRef(key, mQueue);
+        }
+
+        Object newEntry(K key, V value) {
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueOf(Object entry) {
+            return entry instanceof Pending ? null : (V) entry;
+        }
+
+        void cleared(Reference<?> ref) {
+            mMap.remove(ref);
+        }
+    }
+}
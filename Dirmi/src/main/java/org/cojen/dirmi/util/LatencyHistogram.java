@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond durations. Buckets are log-linear: each
+ * power of two range is split into equal sub-buckets, and so recorded values
+ * are tracked with a fixed relative precision of about 3%. Durations up to
+ * about 18 minutes are distinguished, and longer ones are counted in the last
+ * bucket.
+ *
+ * @author Brian S O'Neill
+ */
+public class LatencyHistogram {
+    // Sub-buckets per power of two is 2^(SUB_BITS - 1).
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_SUB_COUNT = SUB_COUNT >> 1;
+
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount;
+    private final AtomicLong mTotal;
+    private final AtomicLong mMax;
+
+    public LatencyHistogram() {
+        mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        mCount = new AtomicLong();
+        mTotal = new AtomicLong();
+        mMax = new AtomicLong();
+    }
+
+    /**
+     * @param nanos duration to record; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        mBuckets.incrementAndGet(bucketIndex(Math.min(nanos, MAX_VALUE)));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the total amount of recorded durations.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Returns the mean recorded duration, in nanoseconds, or zero if none.
+     */
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0.0 : (((double) mTotal.get()) / count);
+    }
+
+    /**
+     * Returns the largest recorded duration, in nanoseconds.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the duration at the given percentile, in nanoseconds. The value
+     * returned is the highest value which falls in the same bucket, but it
+     * never exceeds the maximum recorded duration.
+     *
+     * @param percentile percentile in range 0 to 100, inclusive
+     */
+    public long getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile: " + percentile);
+        }
+
+        // Counts are read concurrently with updates, so sum the buckets
+        // instead of trusting the separate count.
+        AtomicLongArray buckets = mBuckets;
+        long total = 0;
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * (percentile / 100.0)));
+        long sum = 0;
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            sum += buckets.get(i);
+            if (sum >= target) {
+                return Math.min(highestValue(i), mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    /**
+     * Clears all recorded durations. Concurrent updates might be partially
+     * retained.
+     */
+    public void reset() {
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram {count=" + getCount() + ", mean=" + getMean() +
+            ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) +
+            ", p999=" + getPercentile(99.9) + ", max=" + getMax() + '}';
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS + 1;
+        return shift * HALF_SUB_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / HALF_SUB_COUNT - 1;
+        long sub = index - shift * HALF_SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, error counts, transferred bytes and latencies of a single
+ * remote method, as observed by one {@link MetricsRegistry}. Recorded calls
+ * are also applied to the corresponding metrics of the parent registry.
+ *
+ * @author Brian S O'Neill
+ */
+public class MethodMetrics implements MethodMetricsMBean {
+    private final MetricsRegistry.Key mKey;
+    private final MethodMetrics mParent;
+
+    private final AtomicLong mCalls;
+    private final AtomicLong mErrors;
+    private final AtomicLong mBytesIn;
+    private final AtomicLong mBytesOut;
+    private final LatencyHistogram mLatency;
+
+    MethodMetrics(MetricsRegistry.Key key, MethodMetrics parent) {
+        mKey = key;
+        mParent = parent;
+        mCalls = new AtomicLong();
+        mErrors = new AtomicLong();
+        mBytesIn = new AtomicLong();
+        mBytesOut = new AtomicLong();
+        mLatency = new LatencyHistogram();
+    }
+
+    /**
+     * @param nanos call duration
+     * @param bytesIn amount of bytes read for the call
+     * @param bytesOut amount of bytes written for the call
+     * @param failed true if call threw an exception
+     */
+    public void record(long nanos, long bytesIn, long bytesOut, boolean failed) {
+        MethodMetrics metrics = this;
+        do {
+            metrics.mCalls.incrementAndGet();
+            if (failed) {
+                metrics.mErrors.incrementAndGet();
+            }
+            if (bytesIn > 0) {
+                metrics.mBytesIn.addAndGet(bytesIn);
+            }
+            if (bytesOut > 0) {
+                metrics.mBytesOut.addAndGet(bytesOut);
+            }
+            metrics.mLatency.record(nanos);
+        } while ((metrics = metrics.mParent) != null);
+    }
+
+    public MetricsRegistry.Key getKey() {
+        return mKey;
+    }
+
+    public String getInterfaceName() {
+        return mKey.getInterfaceName();
+    }
+
+    public String getMethodSignature() {
+        return mKey.getMethodSignature();
+    }
+
+    public long getCallCount() {
+        return mCalls.get();
+    }
+
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    public long getBytesIn() {
+        return mBytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return mBytesOut.get();
+    }
+
+    /**
+     * Returns the latency histogram, which records nanoseconds.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    public double getMeanLatency() {
+        return mLatency.getMean() / 1000.0;
+    }
+
+    public double getLatency50() {
+        return mLatency.getPercentile(50) / 1000.0;
+    }
+
+    public double getLatency90() {
+        return mLatency.getPercentile(90) / 1000.0;
+    }
+
+    public double getLatency99() {
+        return mLatency.getPercentile(99) / 1000.0;
+    }
+
+    public double getLatency999() {
+        return mLatency.getPercentile(99.9) / 1000.0;
+    }
+
+    public double getMaxLatency() {
+        return mLatency.getMax() / 1000.0;
+    }
+
+    /**
+     * Clears the metrics of this method, but not those of the parent.
+     */
+    public void reset() {
+        mCalls.set(0);
+        mErrors.set(0);
+        mBytesIn.set(0);
+        mBytesOut.set(0);
+        mLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "MethodMetrics {side=" + (mKey.isServer() ? "server" : "client") +
+            ", interface=" + getInterfaceName() +
+            ", method=" + getMethodSignature() +
+            ", calls=" + getCallCount() + ", errors=" + getErrorCount() +
+            ", bytesIn=" + getBytesIn() + ", bytesOut=" + getBytesOut() +
+            ", latency=" + mLatency + '}';
+    }
+}
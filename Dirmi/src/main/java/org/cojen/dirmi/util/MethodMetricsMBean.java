@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+/**
+ * Management interface for {@link MethodMetrics}. Latencies are reported in
+ * microseconds.
+ *
+ * @author Brian S O'Neill
+ */
+public interface MethodMetricsMBean {
+    String getInterfaceName();
+
+    String getMethodSignature();
+
+    long getCallCount();
+
+    long getErrorCount();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getMeanLatency();
+
+    double getLatency50();
+
+    double getLatency90();
+
+    double getLatency99();
+
+    double getLatency999();
+
+    double getMaxLatency();
+
+    void reset();
+}
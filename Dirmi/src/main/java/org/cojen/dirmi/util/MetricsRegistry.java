@@ -0,0 +1,332 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Collection of {@link MethodMetrics}, one for each remote method which has
+ * been invoked. Registries form a hierarchy, and so metrics recorded against
+ * a session are also recorded against its environment. Metrics are only
+ * recorded when the system property "org.cojen.dirmi.metrics" is set to true.
+ *
+ * <p>A registry can be published to an MBeanServer, and then each method is
+ * registered as a separate MBean when first invoked. Child registries created
+ * by {@link #newChild newChild} are published too, with an extended name.
+ *
+ * @author Brian S O'Neill
+ */
+public class MetricsRegistry {
+    private static final boolean cEnabled;
+
+    private static final Map<String, Key> cKeys;
+    private static final List<Key> cKeyList;
+
+    static {
+        boolean enabled;
+        try {
+            enabled = Boolean.getBoolean("org.cojen.dirmi.metrics");
+        } catch (SecurityException e) {
+            enabled = false;
+        }
+        cEnabled = enabled;
+
+        cKeys = new HashMap<String, Key>();
+        cKeyList = new ArrayList<Key>();
+    }
+
+    /**
+     * Returns true if metrics are recorded.
+     */
+    public static boolean isEnabled() {
+        return cEnabled;
+    }
+
+    /**
+     * Returns a shared key which identifies a remote method, as invoked by a
+     * client or as served.
+     *
+     * @param interfaceName name of remote interface
+     * @param methodSignature signature of remote method
+     * @param server true if method is served, false if invoked through a stub
+     */
+    public static Key key(String interfaceName, String methodSignature, boolean server) {
+        String name = (server ? "server:" : "client:") + interfaceName + '#' + methodSignature;
+        synchronized (cKeys) {
+            Key key = cKeys.get(name);
+            if (key == null) {
+                key = new Key(cKeyList.size(), interfaceName, methodSignature, server);
+                cKeys.put(name, key);
+                cKeyList.add(key);
+            }
+            return key;
+        }
+    }
+
+    private final MetricsRegistry mParent;
+
+    private volatile MethodMetrics[] mMetrics;
+
+    private Map<String, Object> mMBeans;
+
+    private MBeanServer mServer;
+    private String mName;
+    private List<ObjectName> mRegistered;
+
+    public MetricsRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param parent optional parent which also receives all recorded metrics
+     */
+    public MetricsRegistry(MetricsRegistry parent) {
+        mParent = parent;
+        mMetrics = new MethodMetrics[16];
+    }
+
+    public MetricsRegistry getParent() {
+        return mParent;
+    }
+
+    /**
+     * Returns the metrics for the given method, creating them if necessary.
+     */
+    public MethodMetrics get(Key key) {
+        MethodMetrics[] metrics = mMetrics;
+        int index = key.mIndex;
+        if (index < metrics.length) {
+            MethodMetrics m = metrics[index];
+            if (m != null) {
+                return m;
+            }
+        }
+        return create(key);
+    }
+
+    /**
+     * Records a call against the given method.
+     *
+     * @param nanos call duration
+     * @param bytesIn amount of bytes read for the call
+     * @param bytesOut amount of bytes written for the call
+     * @param failed true if call threw an exception
+     */
+    public void record(Key key, long nanos, long bytesIn, long bytesOut, boolean failed) {
+        get(key).record(nanos, bytesIn, bytesOut, failed);
+    }
+
+    /**
+     * Returns a snapshot of all methods which have metrics.
+     */
+    public List<MethodMetrics> getMethodMetrics() {
+        List<MethodMetrics> list = new ArrayList<MethodMetrics>();
+        for (MethodMetrics m : mMetrics) {
+            if (m != null) {
+                list.add(m);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Publishes all current and future method metrics as MBeans. Each method
+     * is named by the given prefix, extended with "side", "interface" and
+     * "method" keys.
+     *
+     * @param server server to register with
+     * @param name object name prefix, for example "org.cojen.dirmi:type=Metrics"
+     * @throws IllegalStateException if already registered
+     */
+    public synchronized void register(MBeanServer server, String name) throws JMException {
+        if (mServer != null) {
+            throw new IllegalStateException("Already registered");
+        }
+        mServer = server;
+        mName = name;
+        mRegistered = new ArrayList<ObjectName>();
+        for (MethodMetrics m : mMetrics) {
+            if (m != null) {
+                registerMBean(m);
+            }
+        }
+        if (mMBeans != null) {
+            for (Map.Entry<String, Object> entry : mMBeans.entrySet()) {
+                registerMBean(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Publishes an additional MBean along with the method metrics, named by
+     * this registry's name extended with a "metric" key. If this registry
+     * isn't published yet, the MBean is published when it is.
+     *
+     * @param metric value for the "metric" key
+     * @param impl MBean implementation
+     * @param mbeanInterface management interface implemented by impl
+     */
+    public synchronized <T> void addMBean(String metric, T impl, Class<T> mbeanInterface) {
+        Object mbean;
+        try {
+            mbean = new StandardMBean(impl, mbeanInterface);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+        if (mMBeans == null) {
+            mMBeans = new HashMap<String, Object>();
+        }
+        mMBeans.put(metric, mbean);
+        if (mServer != null) {
+            registerMBean(metric, mbean);
+        }
+    }
+
+    /**
+     * Removes all MBeans which were registered by this registry.
+     */
+    public synchronized void unregister() {
+        if (mServer == null) {
+            return;
+        }
+        for (ObjectName name : mRegistered) {
+            try {
+                mServer.unregisterMBean(name);
+            } catch (JMException e) {
+                // Ignore.
+            }
+        }
+        mServer = null;
+        mName = null;
+        mRegistered = null;
+    }
+
+    /**
+     * Returns a new registry which uses this one as its parent. If this
+     * registry is published, then so is the child, with a name extended by
+     * the given key and value.
+     */
+    public synchronized MetricsRegistry newChild(String key, String value) {
+        MetricsRegistry child = new MetricsRegistry(this);
+        if (mServer != null) {
+            try {
+                child.register(mServer, mName + ',' + key + '=' + ObjectName.quote(value));
+            } catch (JMException e) {
+                // Metrics are still recorded, but they aren't published.
+            }
+        }
+        return child;
+    }
+
+    private synchronized MethodMetrics create(Key key) {
+        MethodMetrics[] metrics = mMetrics;
+        int index = key.mIndex;
+
+        if (index >= metrics.length) {
+            MethodMetrics[] newMetrics = new MethodMetrics[Math.max(index + 1, metrics.length << 1)];
+            System.arraycopy(metrics, 0, newMetrics, 0, metrics.length);
+            metrics = newMetrics;
+        } else {
+            MethodMetrics m = metrics[index];
+            if (m != null) {
+                return m;
+            }
+            metrics = metrics.clone();
+        }
+
+        MethodMetrics m = new MethodMetrics(key, mParent == null ? null : mParent.get(key));
+        metrics[index] = m;
+        mMetrics = metrics;
+
+        if (mServer != null) {
+            registerMBean(m);
+        }
+
+        return m;
+    }
+
+    // Caller must be synchronized.
+    private void registerMBean(MethodMetrics m) {
+        try {
+            ObjectName name = new ObjectName
+                (mName + ",side=" + (m.getKey().isServer() ? "server" : "client") +
+                 ",interface=" + ObjectName.quote(m.getInterfaceName()) +
+                 ",method=" + ObjectName.quote(m.getMethodSignature()));
+            mServer.registerMBean(m, name);
+            mRegistered.add(name);
+        } catch (JMException e) {
+            // Metrics are still recorded, but they aren't published.
+        }
+    }
+
+    // Caller must be synchronized.
+    private void registerMBean(String metric, Object mbean) {
+        try {
+            ObjectName name = new ObjectName(mName + ",metric=" + ObjectName.quote(metric));
+            mServer.registerMBean(mbean, name);
+            mRegistered.add(name);
+        } catch (JMException e) {
+            // Metrics are still recorded, but they aren't published.
+        }
+    }
+
+    /**
+     * Identifies a remote method, independent of any session.
+     */
+    public static final class Key {
+        final int mIndex;
+        private final String mInterfaceName;
+        private final String mMethodSignature;
+        private final boolean mServer;
+
+        Key(int index, String interfaceName, String methodSignature, boolean server) {
+            mIndex = index;
+            mInterfaceName = interfaceName;
+            mMethodSignature = methodSignature;
+            mServer = server;
+        }
+
+        public String getInterfaceName() {
+            return mInterfaceName;
+        }
+
+        public String getMethodSignature() {
+            return mMethodSignature;
+        }
+
+        /**
+         * Returns true if key identifies a served method, false if invoked by
+         * a client.
+         */
+        public boolean isServer() {
+            return mServer;
+        }
+
+        @Override
+        public String toString() {
+            return (mServer ? "server:" : "client:") + mInterfaceName + '#' + mMethodSignature;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+/**
+ * Management interface for the pool of channels which a session uses for
+ * making remote calls, published alongside its method metrics. Wait times are
+ * in microseconds.
+ *
+ * @author Brian S O'Neill
+ */
+public interface SessionChannelPoolMetricsMBean extends ChannelPoolMetricsMBean {
+    /**
+     * Returns the amount of idle channels which the pool keeps even when
+     * there's no demand for them.
+     */
+    int getMinIdleCount();
+
+    /**
+     * Returns the maximum amount of idle channels. Channels which are
+     * returned to a full pool are closed.
+     */
+    int getMaxIdleCount();
+
+    /**
+     * Returns the amount of channels which are being connected in advance of
+     * demand, and which haven't entered the pool yet.
+     */
+    int getPendingCount();
+
+    /**
+     * Returns the total amount of channels connected by callers which found
+     * the pool empty.
+     */
+    long getConnectCount();
+
+    /**
+     * Returns the total amount of channels connected in advance of demand.
+     */
+    long getPreconnectCount();
+
+    /**
+     * Returns the smoothed rate of new channel connections, per second.
+     */
+    double getConnectRate();
+
+    /**
+     * Returns the mean time callers waited to obtain a channel.
+     */
+    double getMeanWait();
+
+    /**
+     * Returns the 99th percentile time callers waited to obtain a channel.
+     */
+    double getWait99();
+
+    /**
+     * Returns the longest time a caller waited to obtain a channel.
+     */
+    double getMaxWait();
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.util;
+
+/**
+ * Management interface for the live state of a session, published alongside
+ * its method metrics.
+ *
+ * @author Brian S O'Neill
+ */
+public interface SessionMetricsMBean {
+    /**
+     * Returns the amount of local objects which are exported to the remote
+     * endpoint and not yet disposed.
+     */
+    int getExportedObjectCount();
+
+    /**
+     * Returns the amount of remote objects which are referenced by local stubs.
+     */
+    int getImportedObjectCount();
+
+    /**
+     * Returns the amount of reclaimed stubs not yet reported to the remote
+     * endpoint, or zero if adaptive garbage collection is disabled.
+     */
+    int getPendingDisposalCount();
+
+    /**
+     * Returns the total amount of reclaimed stubs reported to the remote
+     * endpoint, or zero if adaptive garbage collection is disabled.
+     */
+    long getDisposedCount();
+
+    /**
+     * Returns the current lease, in seconds, which reclaimed stubs are held
+     * before reporting them to the remote endpoint.
+     */
+    int getDisposeLeaseSeconds();
+}
@@ -0,0 +1,708 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread pool which, like {@link ThreadPool}, hands each task directly to an
+ * idle thread and rejects tasks when the maximum number of threads are
+ * active. Instead of a single lock guarding the idle threads, they are kept
+ * on lock-free stacks, one per processor. An execute call takes a thread
+ * from the stack associated with the calling thread, stealing from the
+ * other stacks when it is empty. Scheduled tasks are kept in a binary heap,
+ * which removes cancelled tasks in O(log n) time.
+ *
+ * <p>Tasks are never queued, because a queued task could wait indefinitely
+ * behind tasks which block.
+ *
+ * @author Brian S O'Neill
+ */
+public class WorkStealingThreadPool extends AbstractExecutorService
+    implements ScheduledExecutorService
+{
+    private static final AtomicLong cPoolNumber = new AtomicLong(1);
+
+    private static final String SHUTDOWN_MESSAGE = "Thread pool is shutdown";
+
+    private static final long IDLE_TIMEOUT_NANOS = 10L * 1000 * 1000 * 1000;
+
+    // Assigned to idle threads which should exit.
+    static final Runnable EXIT = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final ThreadGroup mGroup;
+    private final AtomicLong mThreadNumber = new AtomicLong(1);
+    private final String mNamePrefix;
+    private final boolean mDaemon;
+    private final Thread.UncaughtExceptionHandler mHandler;
+
+    private final int mMax;
+
+    private final AtomicReferenceArray<Node> mIdleStacks;
+    private final int mStackMask;
+    private final AtomicInteger mNextHome = new AtomicInteger();
+
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+    private final Set<Worker> mAllWorkers;
+
+    private volatile boolean mShutdown;
+
+    private final ReentrantLock mScheduleLock;
+    private final Condition mScheduleCondition;
+    private Task<?>[] mHeap;
+    private int mHeapSize;
+    private Thread mTimerThread;
+
+    /**
+     * @param max the maximum allowed number of threads
+     * @param daemon pass true for all threads to be daemon -- they won't
+     * prevent the JVM from exiting
+     */
+    public WorkStealingThreadPool(int max, boolean daemon) {
+        this(max, daemon, null, null);
+    }
+
+    /**
+     * @param max the maximum allowed number of threads
+     * @param daemon pass true for all threads to be daemon -- they won't
+     * prevent the JVM from exiting
+     * @param prefix thread name prefix; default used if null
+     * @param handler optional uncaught exception handler
+     */
+    public WorkStealingThreadPool(int max, boolean daemon, String prefix,
+                                  Thread.UncaughtExceptionHandler handler)
+    {
+        if (max <= 0) {
+            throw new IllegalArgumentException
+                ("Maximum number of threads must be greater than zero: " + max);
+        }
+
+        SecurityManager s = System.getSecurityManager();
+        mGroup = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+        if (prefix == null) {
+            prefix = "pool";
+        }
+        mNamePrefix = prefix + '-' + cPoolNumber.getAndIncrement() + "-thread-";
+        mDaemon = daemon;
+        mHandler = handler;
+
+        mMax = max;
+
+        int stacks = Integer.highestOneBit(Runtime.getRuntime().availableProcessors());
+        if (stacks < Runtime.getRuntime().availableProcessors()) {
+            stacks <<= 1;
+        }
+        mIdleStacks = new AtomicReferenceArray<Node>(stacks);
+        mStackMask = stacks - 1;
+
+        mAllWorkers = Collections.newSetFromMap(new ConcurrentHashMap<Worker, Boolean>());
+
+        mScheduleLock = new ReentrantLock();
+        mScheduleCondition = mScheduleLock.newCondition();
+        mHeap = new Task<?>[16];
+    }
+
+    @Override
+    public void execute(Runnable command) throws RejectedExecutionException {
+        if (command == null) {
+            throw new NullPointerException("Command is null");
+        }
+        if (mShutdown) {
+            throw new RejectedExecutionException(SHUTDOWN_MESSAGE);
+        }
+
+        // Try the local stack first, and then steal from the others.
+        int home = stackFor(Thread.currentThread());
+        for (int i=0; i<=mStackMask; i++) {
+            int index = (home + i) & mStackMask;
+            Worker worker;
+            while ((worker = pop(index)) != null) {
+                if (worker.assign(command)) {
+                    return;
+                }
+                // Worker is exiting, so discard it.
+            }
+        }
+
+        int count;
+        do {
+            count = mThreadCount.get();
+            if (count >= mMax) {
+                throw new RejectedExecutionException("Too many active threads: " + mMax);
+            }
+        } while (!mThreadCount.compareAndSet(count, count + 1));
+
+        try {
+            startWorker(command);
+        } catch (Error e) {
+            workerExited();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of threads currently in the pool, whether active or idle.
+     */
+    public int getThreadCount() {
+        return mThreadCount.get();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return new Task<Object>(Executors.callable(command), delay, 0, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return new Task<V>(callable, delay, 0, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                  long initialDelay,
+                                                  long period,
+                                                  TimeUnit unit)
+    {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new Task<Object>(Executors.callable(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                     long initialDelay,
+                                                     long delay,
+                                                     TimeUnit unit)
+    {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new Task<Object>(Executors.callable(command), initialDelay, -delay, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        // Set flag before draining stacks. Workers check the flag after
+        // pushing themselves, and so none are missed.
+        mShutdown = true;
+
+        for (int i=0; i<=mStackMask; i++) {
+            Worker worker;
+            while ((worker = pop(i)) != null) {
+                worker.assign(EXIT);
+            }
+        }
+
+        mScheduleLock.lock();
+        try {
+            for (int i=0; i<mHeapSize; i++) {
+                mHeap[i].mHeapIndex = -1;
+                mHeap[i] = null;
+            }
+            mHeapSize = 0;
+            mScheduleCondition.signalAll();
+        } finally {
+            mScheduleLock.unlock();
+        }
+
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+
+        for (Thread thread : mAllWorkers) {
+            thread.interrupt();
+        }
+
+        // Implementation has no queue, so nothing to return.
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown && mThreadCount.get() <= 0;
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long time, TimeUnit unit)
+        throws InterruptedException
+    {
+        if (time < 0) {
+            return false;
+        }
+
+        long nanos = unit.toNanos(time);
+        long start = System.nanoTime();
+
+        while (!isTerminated()) {
+            if (nanos <= 0) {
+                return false;
+            }
+            wait(Math.max(1, nanos / 1000000));
+            long now = System.nanoTime();
+            nanos -= now - start;
+            start = now;
+        }
+
+        return true;
+    }
+
+    private int stackFor(Thread t) {
+        int h = (int) t.getId();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mStackMask;
+    }
+
+    private void push(int index, Worker worker) {
+        Node node = new Node(worker);
+        do {
+            node.mNext = mIdleStacks.get(index);
+        } while (!mIdleStacks.compareAndSet(index, node.mNext, node));
+    }
+
+    private Worker pop(int index) {
+        Node node;
+        do {
+            if ((node = mIdleStacks.get(index)) == null) {
+                return null;
+            }
+        } while (!mIdleStacks.compareAndSet(index, node, node.mNext));
+        return node.mWorker;
+    }
+
+    private void startWorker(Runnable command) {
+        Worker worker = new Worker(mGroup, mNamePrefix + mThreadNumber.getAndIncrement(),
+                                   command, mNextHome.getAndIncrement() & mStackMask);
+
+        if (worker.isDaemon() != mDaemon) {
+            worker.setDaemon(mDaemon);
+        }
+        if (worker.getPriority() != Thread.NORM_PRIORITY) {
+            worker.setPriority(Thread.NORM_PRIORITY);
+        }
+        if (mHandler != null) {
+            worker.setUncaughtExceptionHandler(mHandler);
+        }
+
+        mAllWorkers.add(worker);
+
+        try {
+            worker.start();
+        } catch (Error e) {
+            mAllWorkers.remove(worker);
+            throw e;
+        }
+    }
+
+    void workerExited() {
+        if (mThreadCount.decrementAndGet() <= 0 && mShutdown) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException only if shutdown
+     */
+    void scheduleTask(Task<?> task) {
+        mScheduleLock.lock();
+        try {
+            if (mShutdown) {
+                throw new RejectedExecutionException(SHUTDOWN_MESSAGE);
+            }
+
+            int index = mHeapSize;
+            if (index >= mHeap.length) {
+                Task<?>[] heap = new Task<?>[index << 1];
+                System.arraycopy(mHeap, 0, heap, 0, index);
+                mHeap = heap;
+            }
+            mHeapSize = index + 1;
+            siftUp(index, task);
+
+            if (mHeap[0] == task) {
+                if (mTimerThread == null) {
+                    startTimer();
+                } else {
+                    mScheduleCondition.signal();
+                }
+            }
+        } finally {
+            mScheduleLock.unlock();
+        }
+    }
+
+    void removeTask(Task<?> task) {
+        mScheduleLock.lock();
+        try {
+            int index = task.mHeapIndex;
+            if (index < 0) {
+                return;
+            }
+            task.mHeapIndex = -1;
+            int last = --mHeapSize;
+            Task<?> moved = mHeap[last];
+            mHeap[last] = null;
+            if (index != last) {
+                siftDown(index, moved);
+                if (mHeap[index] == moved) {
+                    siftUp(index, moved);
+                }
+            }
+        } finally {
+            mScheduleLock.unlock();
+        }
+    }
+
+    // Caller must hold schedule lock.
+    private void siftUp(int index, Task<?> task) {
+        Task<?>[] heap = mHeap;
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            Task<?> parent = heap[parentIndex];
+            if (task.compareTo(parent) >= 0) {
+                break;
+            }
+            heap[index] = parent;
+            parent.mHeapIndex = index;
+            index = parentIndex;
+        }
+        heap[index] = task;
+        task.mHeapIndex = index;
+    }
+
+    // Caller must hold schedule lock.
+    private void siftDown(int index, Task<?> task) {
+        Task<?>[] heap = mHeap;
+        int size = mHeapSize;
+        int half = size >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            Task<?> child = heap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < size && child.compareTo(heap[rightIndex]) > 0) {
+                child = heap[childIndex = rightIndex];
+            }
+            if (task.compareTo(child) <= 0) {
+                break;
+            }
+            heap[index] = child;
+            child.mHeapIndex = index;
+            index = childIndex;
+        }
+        heap[index] = task;
+        task.mHeapIndex = index;
+    }
+
+    // Caller must hold schedule lock.
+    private void startTimer() {
+        Thread timer = new Thread(mGroup, mNamePrefix + "timer") {
+            public void run() {
+                runTimer();
+            }
+        };
+        timer.setDaemon(mDaemon);
+        if (mHandler != null) {
+            timer.setUncaughtExceptionHandler(mHandler);
+        }
+        timer.start();
+        mTimerThread = timer;
+    }
+
+    void runTimer() {
+        mScheduleLock.lock();
+        try {
+            while (!mShutdown) {
+                try {
+                    if (mHeapSize == 0) {
+                        if (mScheduleCondition.awaitNanos(IDLE_TIMEOUT_NANOS) <= 0
+                            && mHeapSize == 0)
+                        {
+                            // Exit to not prevent JVM exit. Restarted on demand.
+                            break;
+                        }
+                        continue;
+                    }
+
+                    Task<?> task = mHeap[0];
+                    long delay = task.mAtNanos - System.nanoTime();
+                    if (delay > 0) {
+                        mScheduleCondition.awaitNanos(delay);
+                        continue;
+                    }
+
+                    removeTask(task);
+
+                    mScheduleLock.unlock();
+                    try {
+                        dispatch(task);
+                    } finally {
+                        mScheduleLock.lock();
+                    }
+                } catch (InterruptedException e) {
+                    // Check shutdown state and continue.
+                }
+            }
+        } finally {
+            if (mTimerThread == Thread.currentThread()) {
+                mTimerThread = null;
+            }
+            mScheduleLock.unlock();
+        }
+    }
+
+    private void dispatch(Task<?> task) {
+        try {
+            execute(task);
+        } catch (RejectedExecutionException e) {
+            if (!mShutdown) {
+                // No threads available, so run in the timer thread.
+                try {
+                    task.run();
+                } catch (Throwable e2) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e2);
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+        final Worker mWorker;
+        Node mNext;
+
+        Node(Worker worker) {
+            mWorker = worker;
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final AtomicReference<Runnable> mCommand;
+        private final int mHome;
+
+        Worker(ThreadGroup group, String name, Runnable command, int home) {
+            super(group, null, name);
+            mCommand = new AtomicReference<Runnable>(command);
+            mHome = home;
+        }
+
+        /**
+         * @return false if worker is exiting
+         */
+        boolean assign(Runnable command) {
+            if (mCommand.compareAndSet(null, command)) {
+                LockSupport.unpark(this);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable command = mCommand.get();
+                while (true) {
+                    try {
+                        command.run();
+                    } catch (Throwable e) {
+                        getUncaughtExceptionHandler().uncaughtException(this, e);
+                    }
+
+                    // Clear the interrupted state, if set by command execution.
+                    Thread.interrupted();
+
+                    if (mShutdown) {
+                        break;
+                    }
+
+                    mCommand.set(null);
+                    push(mHome, this);
+
+                    if ((command = awaitCommand()) == null || command == EXIT) {
+                        break;
+                    }
+                }
+            } finally {
+                mAllWorkers.remove(this);
+                workerExited();
+            }
+        }
+
+        /**
+         * @return null if timed out or shutdown
+         */
+        private Runnable awaitCommand() {
+            long deadline = System.nanoTime() + IDLE_TIMEOUT_NANOS;
+            while (true) {
+                Runnable command = mCommand.get();
+                if (command != null) {
+                    return command;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || mShutdown) {
+                    if (mCommand.compareAndSet(null, EXIT)) {
+                        // Node remains on the stack, but it is discarded when popped.
+                        return null;
+                    }
+                    return mCommand.get();
+                }
+                LockSupport.parkNanos(this, remaining);
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        private final long mNum;
+        private final long mPeriodNanos;
+
+        volatile long mAtNanos;
+
+        // Guarded by schedule lock.
+        int mHeapIndex = -1;
+
+        /**
+         * @param period Period for repeating tasks. A positive value indicates
+         * fixed-rate execution. A negative value indicates fixed-delay
+         * execution. A value of 0 indicates a non-repeating task.
+         */
+        Task(Callable<V> callable, long initialDelay, long period, TimeUnit unit) {
+            super(callable);
+
+            long periodNanos;
+            if (period == 0) {
+                periodNanos = 0;
+            } else if ((periodNanos = unit.toNanos(period)) == 0) {
+                // Account for any rounding error.
+                periodNanos = period < 0 ? -1 : 1;
+            }
+            mPeriodNanos = periodNanos;
+
+            mNum = ThreadPool.cTaskNumber.getAndIncrement();
+
+            long atNanos = System.nanoTime();
+            if (initialDelay > 0) {
+                atNanos += unit.toNanos(initialDelay);
+            }
+            mAtNanos = atNanos;
+
+            scheduleTask(this);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(mAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed delayed) {
+            if (this == delayed) {
+                return 0;
+            }
+            if (delayed instanceof Task) {
+                Task<?> other = (Task<?>) delayed;
+                long diff = mAtNanos - other.mAtNanos;
+                if (diff < 0) {
+                    return -1;
+                } else if (diff > 0) {
+                    return 1;
+                } else if (mNum < other.mNum) {
+                    return -1;
+                } else {
+                    return 1;
+                }
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - delayed.getDelay(TimeUnit.NANOSECONDS);
+            return diff == 0 ? 0 : (diff < 0 ? -1 : 1);
+        }
+
+        @Override
+        public void run() {
+            long periodNanos = mPeriodNanos;
+            if (periodNanos == 0) {
+                super.run();
+            } else if (super.runAndReset()) {
+                if (periodNanos > 0) {
+                    mAtNanos += periodNanos;
+                } else {
+                    mAtNanos = System.nanoTime() - periodNanos;
+                }
+                try {
+                    scheduleTask(this);
+                } catch (RejectedExecutionException e) {
+                    // Shutdown.
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            removeTask(this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder()
+                .append("ScheduledFuture {delayNanos=")
+                .append(String.valueOf(getDelay(TimeUnit.NANOSECONDS)));
+            if (mPeriodNanos != 0) {
+                b.append(", periodNanos=").append(String.valueOf(mPeriodNanos));
+            }
+            return b.append('}').toString();
+        }
+    }
+}
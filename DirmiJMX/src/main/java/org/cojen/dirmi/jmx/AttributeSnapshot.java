@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+/**
+ * Attribute values of all MBeans matched by a single query. A snapshot can be
+ * complete, or it can be a delta which only contains the attributes that
+ * changed since an earlier snapshot. Pass the {@link #getVersion version} of
+ * a snapshot to the next request to obtain a delta.
+ *
+ * @author Brian S O'Neill
+ * @see RemoteMBeanServerConnection#getAttributeSnapshot
+ */
+public class AttributeSnapshot implements Serializable {
+    private static final long serialVersionUID = 1;
+
+    private final long mVersion;
+    private final boolean mComplete;
+    private final ObjectName[] mNames;
+    // Amount of attributes per name, in the same order as the names.
+    private final int[] mCounts;
+    private final String[] mAttributeNames;
+    private final Object[] mValues;
+
+    private transient Map<ObjectName, Integer> mOffsets;
+
+    AttributeSnapshot(long version, boolean complete, ObjectName[] names, int[] counts,
+                      String[] attributeNames, Object[] values)
+    {
+        mVersion = version;
+        mComplete = complete;
+        mNames = names;
+        mCounts = counts;
+        mAttributeNames = attributeNames;
+        mValues = values;
+    }
+
+    /**
+     * Returns the version token to pass when requesting the next delta.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns true if all matched attributes are included, which is the case
+     * when no version was supplied or if the supplied version is no longer
+     * recognized by the server. When false, only changed attributes are
+     * included.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * Returns the names of all MBeans which matched the query, including
+     * those which have no changed attributes. MBeans which were matched by an
+     * earlier snapshot but are absent now have been unregistered.
+     */
+    public Set<ObjectName> getObjectNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<ObjectName>(Arrays.asList(mNames)));
+    }
+
+    /**
+     * Returns the included attributes of the given MBean, which is empty if
+     * none changed. Returns null if the MBean wasn't matched.
+     */
+    public AttributeList getAttributes(ObjectName name) {
+        Integer index = offsets().get(name);
+        if (index == null) {
+            return null;
+        }
+        int i = index;
+        int offset = 0;
+        for (int j=0; j<i; j++) {
+            offset += mCounts[j];
+        }
+        int count = mCounts[i];
+        AttributeList list = new AttributeList(count);
+        for (int j=0; j<count; j++) {
+            list.add(new Attribute(mAttributeNames[offset + j], mValues[offset + j]));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the total amount of attributes included in this snapshot.
+     */
+    public int getAttributeCount() {
+        return mValues.length;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeSnapshot {version=" + mVersion + ", complete=" + mComplete +
+            ", mbeans=" + mNames.length + ", attributes=" + mValues.length + '}';
+    }
+
+    private synchronized Map<ObjectName, Integer> offsets() {
+        Map<ObjectName, Integer> offsets = mOffsets;
+        if (offsets == null) {
+            offsets = new HashMap<ObjectName, Integer>(mNames.length * 2);
+            for (int i=0; i<mNames.length; i++) {
+                offsets.put(mNames[i], i);
+            }
+            mOffsets = offsets;
+        }
+        return offsets;
+    }
+}
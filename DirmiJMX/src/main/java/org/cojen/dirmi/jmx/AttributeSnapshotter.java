@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+/**
+ * Produces attribute snapshots, remembering the last value observed for each
+ * attribute in order to compute deltas. Each observed change is stamped with
+ * a version, and a delta includes all attributes stamped after the version
+ * supplied by the client.
+ *
+ * @author Brian S O'Neill
+ */
+class AttributeSnapshotter {
+    private final MBeanServer mServer;
+
+    // Versions start from the current time to make it unlikely that a token
+    // issued by an earlier server instance is mistaken for a recent one.
+    private final long mBaseVersion;
+
+    private long mVersion;
+
+    private final Map<ObjectName, Map<String, Observed>> mObserved;
+
+    AttributeSnapshotter(MBeanServer server) {
+        mServer = server;
+        mBaseVersion = mVersion = System.currentTimeMillis() << 20;
+        mObserved = new HashMap<ObjectName, Map<String, Observed>>();
+    }
+
+    /**
+     * @see RemoteMBeanServerConnection#getAttributeSnapshot
+     */
+    AttributeSnapshot snapshot(ObjectName pattern, QueryExp query,
+                               String[] attributes, long sinceVersion)
+        throws IOException
+    {
+        Set<ObjectName> nameSet = mServer.queryNames(pattern, query);
+        List<ObjectName> names = new ArrayList<ObjectName>(nameSet.size());
+        List<AttributeList> lists = new ArrayList<AttributeList>(nameSet.size());
+
+        // Read attributes without holding the lock, since MBeans can be slow.
+        for (ObjectName name : nameSet) {
+            try {
+                String[] attrs = attributes;
+                if (attrs == null) {
+                    attrs = readableAttributes(name);
+                }
+                lists.add(mServer.getAttributes(name, attrs));
+                names.add(name);
+            } catch (InstanceNotFoundException e) {
+                // Unregistered concurrently.
+            } catch (IntrospectionException e) {
+                // Treat as unregistered.
+            } catch (ReflectionException e) {
+                // Treat as unregistered.
+            }
+        }
+
+        int size = names.size();
+        int[] counts = new int[size];
+        List<String> attrNames = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+
+        synchronized (this) {
+            boolean complete = sinceVersion < mBaseVersion || sinceVersion > mVersion;
+            long next = mVersion + 1;
+            boolean changed = false;
+
+            for (int i=0; i<size; i++) {
+                ObjectName name = names.get(i);
+                Map<String, Observed> observed = mObserved.get(name);
+                if (observed == null) {
+                    observed = new HashMap<String, Observed>();
+                    mObserved.put(name, observed);
+                }
+
+                int count = 0;
+                for (Object obj : lists.get(i)) {
+                    Attribute attr = (Attribute) obj;
+                    String attrName = attr.getName();
+                    Object value = attr.getValue();
+
+                    Observed ob = observed.get(attrName);
+                    if (ob == null) {
+                        observed.put(attrName, ob = new Observed(value, next));
+                        changed = true;
+                    } else if (!equal(ob.mValue, value)) {
+                        ob.mValue = value;
+                        ob.mVersion = next;
+                        changed = true;
+                    }
+
+                    if (complete || ob.mVersion > sinceVersion) {
+                        attrNames.add(attrName);
+                        values.add(value);
+                        count++;
+                    }
+                }
+
+                counts[i] = count;
+            }
+
+            // Forget MBeans which are no longer registered. MBeans which are
+            // only excluded by the query are still observed by other queries.
+            Iterator<ObjectName> it = mObserved.keySet().iterator();
+            while (it.hasNext()) {
+                ObjectName name = it.next();
+                if ((pattern == null || pattern.apply(name)) && !nameSet.contains(name)
+                    && !mServer.isRegistered(name))
+                {
+                    it.remove();
+                }
+            }
+
+            if (changed) {
+                mVersion = next;
+            }
+
+            return new AttributeSnapshot
+                (mVersion, complete,
+                 names.toArray(new ObjectName[size]), counts,
+                 attrNames.toArray(new String[attrNames.size()]), values.toArray());
+        }
+    }
+
+    private String[] readableAttributes(ObjectName name)
+        throws InstanceNotFoundException, IntrospectionException, ReflectionException
+    {
+        MBeanAttributeInfo[] infos = mServer.getMBeanInfo(name).getAttributes();
+        List<String> attrs = new ArrayList<String>(infos.length);
+        for (MBeanAttributeInfo info : infos) {
+            if (info.isReadable()) {
+                attrs.add(info.getName());
+            }
+        }
+        return attrs.toArray(new String[attrs.size()]);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        // Handles nulls and arrays too.
+        return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+    }
+
+    private static class Observed {
+        Object mValue;
+        long mVersion;
+
+        Observed(Object value, long version) {
+            mValue = value;
+            mVersion = version;
+        }
+    }
+}
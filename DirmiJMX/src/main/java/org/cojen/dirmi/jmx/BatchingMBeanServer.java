@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.io.IOException;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.NotificationFilter;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import org.cojen.util.ThrowUnchecked;
+
+import org.cojen.dirmi.util.Wrapper;
+
+/**
+ * MBeanServer which also supports the batched notification listeners and
+ * attribute snapshots defined by {@link RemoteMBeanServerConnection}. Methods
+ * defined by MBeanServer are implemented by a generated {@link Wrapper}.
+ *
+ * @author Brian S O'Neill
+ */
+public abstract class BatchingMBeanServer implements MBeanServer {
+    /**
+     * Returns a new server which delegates to the given MBeanServer.
+     *
+     * @param executor used for delivering batched notifications
+     */
+    public static BatchingMBeanServer wrap(MBeanServer server,
+                                           ScheduledExecutorService executor)
+    {
+        try {
+            return Wrapper.from(BatchingMBeanServer.class, MBeanServer.class)
+                .getConstructor(MBeanServer.class, ScheduledExecutorService.class)
+                .newInstance(server, executor);
+        } catch (InvocationTargetException e) {
+            ThrowUnchecked.fireDeclaredCause(e);
+            throw null;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private final MBeanServer mServer;
+    private final ScheduledExecutorService mExecutor;
+    private final List<NotificationBatcher> mBatchers;
+    private final AttributeSnapshotter mSnapshotter;
+
+    protected BatchingMBeanServer(MBeanServer server, ScheduledExecutorService executor) {
+        mServer = server;
+        mExecutor = executor;
+        mBatchers = new ArrayList<NotificationBatcher>();
+        mSnapshotter = new AttributeSnapshotter(server);
+    }
+
+    /**
+     * @see RemoteMBeanServerConnection#addBatchedNotificationListener
+     */
+    public void addBatchedNotificationListener(ObjectName name,
+                                               RemoteNotificationBatchListener listener,
+                                               NotificationFilter filter,
+                                               int maxBatchSize,
+                                               long maxDelayMillis,
+                                               int maxQueued)
+        throws InstanceNotFoundException, IOException
+    {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+
+        NotificationBatcher batcher = new NotificationBatcher
+            (mServer, name, listener, mExecutor, maxBatchSize, maxDelayMillis, maxQueued);
+
+        // Filter is applied by the MBean, before notifications are buffered.
+        mServer.addNotificationListener(name, batcher, filter, null);
+
+        synchronized (mBatchers) {
+            // Prune batchers which closed because their listener failed.
+            Iterator<NotificationBatcher> it = mBatchers.iterator();
+            while (it.hasNext()) {
+                if (it.next().isClosed()) {
+                    it.remove();
+                }
+            }
+            mBatchers.add(batcher);
+        }
+    }
+
+    /**
+     * @see RemoteMBeanServerConnection#removeBatchedNotificationListener
+     */
+    public void removeBatchedNotificationListener(ObjectName name,
+                                                  RemoteNotificationBatchListener listener)
+        throws InstanceNotFoundException, ListenerNotFoundException, IOException
+    {
+        List<NotificationBatcher> removed = new ArrayList<NotificationBatcher>();
+
+        synchronized (mBatchers) {
+            Iterator<NotificationBatcher> it = mBatchers.iterator();
+            while (it.hasNext()) {
+                NotificationBatcher batcher = it.next();
+                if (batcher.getName().equals(name) && batcher.getListener().equals(listener)) {
+                    removed.add(batcher);
+                    it.remove();
+                }
+            }
+        }
+
+        if (removed.isEmpty()) {
+            // Throws InstanceNotFoundException if MBean doesn't exist.
+            mServer.getObjectInstance(name);
+            throw new ListenerNotFoundException("Listener not registered");
+        }
+
+        for (NotificationBatcher batcher : removed) {
+            batcher.close();
+        }
+    }
+
+    /**
+     * @see RemoteMBeanServerConnection#getAttributeSnapshot
+     */
+    public AttributeSnapshot getAttributeSnapshot(ObjectName pattern,
+                                                  QueryExp query,
+                                                  String[] attributes,
+                                                  long sinceVersion)
+        throws IOException
+    {
+        return mSnapshotter.snapshot(pattern, query, attributes, sinceVersion);
+    }
+
+    /**
+     * Removes all batched listeners, discarding any undelivered notifications.
+     */
+    public void close() {
+        List<NotificationBatcher> batchers;
+        synchronized (mBatchers) {
+            batchers = new ArrayList<NotificationBatcher>(mBatchers);
+            mBatchers.clear();
+        }
+        for (NotificationBatcher batcher : batchers) {
+            batcher.close();
+        }
+    }
+}
@@ -14,16 +14,25 @@
  *  limitations under the License.
  */
 
+
 package org.cojen.dirmi.jmx;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.management.InstanceNotFoundException;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServerConnection;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 
 /**
  * 
@@ -33,8 +42,29 @@ import javax.management.ObjectName;
 public abstract class ClientMBeanServerConnection implements MBeanServerConnection {
     private final MBeanServerConnection mCon;
 
+    private final int mBatchSize;
+    private final long mBatchDelayMillis;
+    private final int mQueueCapacity;
+
+    private final List<Registration> mRegistrations;
+
+    private final AtomicLong mDroppedNotifications;
+
     protected ClientMBeanServerConnection(MBeanServerConnection con) {
+        this(con, null);
+    }
+
+    /**
+     * @param env optional environment which configures notification batching
+     * @see Connector#NOTIFICATION_BATCH_SIZE
+     */
+    protected ClientMBeanServerConnection(MBeanServerConnection con, Map<String, ?> env) {
         mCon = con;
+        mBatchSize = intOption(env, Connector.NOTIFICATION_BATCH_SIZE, 256);
+        mBatchDelayMillis = intOption(env, Connector.NOTIFICATION_BATCH_DELAY, 50);
+        mQueueCapacity = intOption(env, Connector.NOTIFICATION_QUEUE_CAPACITY, 10000);
+        mRegistrations = new ArrayList<Registration>();
+        mDroppedNotifications = new AtomicLong();
     }
 
     public void addNotificationListener(ObjectName name,
@@ -43,16 +73,30 @@ public abstract class ClientMBeanServerConnection implements MBeanServerConnecti
                                         Object handback)
         throws InstanceNotFoundException, IOException
     {
-        mCon.addNotificationListener
-            (name, new NotificationListenerServer(listener, handback), filter, null);
+        Object remote;
+        if (mBatchSize > 0 && mCon instanceof RemoteMBeanServerConnection) {
+            RemoteNotificationBatchListener batchListener =
+                new NotificationBatchListenerServer(listener, handback, mDroppedNotifications);
+            ((RemoteMBeanServerConnection) mCon).addBatchedNotificationListener
+                (name, batchListener, filter, mBatchSize, mBatchDelayMillis, mQueueCapacity);
+            remote = batchListener;
+        } else {
+            RemoteNotificationListener remoteListener =
+                new NotificationListenerServer(listener, handback);
+            mCon.addNotificationListener(name, remoteListener, filter, null);
+            remote = remoteListener;
+        }
+
+        synchronized (mRegistrations) {
+            mRegistrations.add(new Registration(name, listener, filter, handback, remote));
+        }
     }
 
     public void removeNotificationListener(ObjectName name,
                                            NotificationListener listener)
         throws InstanceNotFoundException, ListenerNotFoundException, IOException
     {
-        // FIXME
-        System.out.println("removeNotificationListener: " + name + ", " + listener);
+        remove(name, listener, false, null, null);
     }
 
     public void removeNotificationListener(ObjectName name,
@@ -61,8 +105,101 @@ public abstract class ClientMBeanServerConnection implements MBeanServerConnecti
                                            Object handback)
         throws InstanceNotFoundException, ListenerNotFoundException, IOException
     {
-        // FIXME
-        System.out.println("removeNotificationListener: " + name + ", " + listener + ", " +
-                           filter + ", " + handback);
+        remove(name, listener, true, filter, handback);
+    }
+
+    private void remove(ObjectName name, NotificationListener listener,
+                        boolean exact, NotificationFilter filter, Object handback)
+        throws InstanceNotFoundException, ListenerNotFoundException, IOException
+    {
+        List<Registration> removed = new ArrayList<Registration>();
+
+        synchronized (mRegistrations) {
+            Iterator<Registration> it = mRegistrations.iterator();
+            while (it.hasNext()) {
+                Registration reg = it.next();
+                if (reg.mName.equals(name) && reg.mListener == listener &&
+                    (!exact || (reg.mFilter == filter && reg.mHandback == handback)))
+                {
+                    removed.add(reg);
+                    it.remove();
+                }
+            }
+        }
+
+        if (removed.isEmpty()) {
+            throw new ListenerNotFoundException("Listener not registered");
+        }
+
+        for (Registration reg : removed) {
+            if (reg.mRemote instanceof RemoteNotificationBatchListener) {
+                ((RemoteMBeanServerConnection) mCon).removeBatchedNotificationListener
+                    (name, (RemoteNotificationBatchListener) reg.mRemote);
+            } else {
+                mCon.removeNotificationListener
+                    (name, (RemoteNotificationListener) reg.mRemote, reg.mFilter, null);
+            }
+        }
+    }
+
+    /**
+     * Returns attribute values of all MBeans matching a query in a single
+     * remote call, optionally only those which changed since an earlier
+     * snapshot.
+     *
+     * @see RemoteMBeanServerConnection#getAttributeSnapshot
+     */
+    public AttributeSnapshot getAttributeSnapshot(ObjectName pattern,
+                                                  QueryExp query,
+                                                  String[] attributes,
+                                                  long sinceVersion)
+        throws IOException
+    {
+        if (!(mCon instanceof RemoteMBeanServerConnection)) {
+            throw new UnsupportedOperationException();
+        }
+        return ((RemoteMBeanServerConnection) mCon)
+            .getAttributeSnapshot(pattern, query, attributes, sinceVersion);
+    }
+
+    /**
+     * Returns the total amount of notifications which the server discarded
+     * instead of delivering to batched listeners of this connection. The
+     * server drops the oldest queued notifications when a listener is too
+     * slow to keep up.
+     *
+     * @see Connector#NOTIFICATION_QUEUE_CAPACITY
+     */
+    public long getDroppedNotificationCount() {
+        return mDroppedNotifications.get();
+    }
+
+    private static int intOption(Map<String, ?> env, String key, int defaultValue) {
+        Object value = env == null ? null : env.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return Integer.parseInt(value.toString());
+    }
+
+    private static class Registration {
+        final ObjectName mName;
+        final NotificationListener mListener;
+        final NotificationFilter mFilter;
+        final Object mHandback;
+        final Object mRemote;
+
+        Registration(ObjectName name, NotificationListener listener,
+                     NotificationFilter filter, Object handback, Object remote)
+        {
+            mName = name;
+            mListener = listener;
+            mFilter = filter;
+            mHandback = handback;
+            mRemote = remote;
+        }
     }
 }
@@ -18,6 +18,9 @@ package org.cojen.dirmi.jmx;
 
 import java.io.IOException;
 
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.management.ListenerNotFoundException;
@@ -30,6 +33,8 @@ import javax.management.remote.JMXServiceURL;
 
 import javax.security.auth.Subject;
 
+import org.cojen.util.ThrowUnchecked;
+
 import org.cojen.dirmi.Environment;
 
 import org.cojen.dirmi.util.Wrapper;
@@ -40,6 +45,31 @@ import org.cojen.dirmi.util.Wrapper;
  * @author Brian S O'Neill
  */
 public class Connector implements JMXConnector {
+    /**
+     * Environment key for the maximum number of notifications delivered to a
+     * client listener per remote call. Default is 256. A value of zero or
+     * less disables batching, and each notification is delivered by its own
+     * remote call.
+     */
+    public static final String NOTIFICATION_BATCH_SIZE =
+        "org.cojen.dirmi.jmx.notification.batchSize";
+
+    /**
+     * Environment key for the maximum time, in milliseconds, that the server
+     * holds a partial batch of notifications before delivering it. Default
+     * is 50.
+     */
+    public static final String NOTIFICATION_BATCH_DELAY =
+        "org.cojen.dirmi.jmx.notification.batchDelay";
+
+    /**
+     * Environment key for the maximum number of notifications the server
+     * buffers per listener while a slow client catches up. When full, the
+     * oldest notifications are dropped. Default is 10000.
+     */
+    public static final String NOTIFICATION_QUEUE_CAPACITY =
+        "org.cojen.dirmi.jmx.notification.queueCapacity";
+
     private final JMXServiceURL serviceURL;
     private final Map<String,?> environment;
 
@@ -67,9 +97,27 @@ public class Connector implements JMXConnector {
             .connect()
             .receive();
 
-        con = Wrapper.from
-            (ClientMBeanServerConnection.class, MBeanServerConnection.class)
-            .wrap(con);
+        Map<String, Object> mergedEnv = new HashMap<String, Object>();
+        if (environment != null) {
+            mergedEnv.putAll(environment);
+        }
+        if (env != null) {
+            mergedEnv.putAll(env);
+        }
+
+        try {
+            con = Wrapper.from
+                (ClientMBeanServerConnection.class, MBeanServerConnection.class)
+                .getConstructor(MBeanServerConnection.class, Map.class)
+                .newInstance(con, mergedEnv);
+        } catch (InvocationTargetException e) {
+            dirmiEnv.close();
+            ThrowUnchecked.fireDeclaredCause(e, IOException.class);
+            throw null;
+        } catch (Exception e) {
+            dirmiEnv.close();
+            throw new AssertionError(e);
+        }
             
         mDirmiEnv = dirmiEnv;
         mCon = con;
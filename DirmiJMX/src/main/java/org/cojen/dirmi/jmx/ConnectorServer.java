@@ -43,6 +43,7 @@ public class ConnectorServer extends JMXConnectorServer {
     private final MBeanServer mbeanServer;
 
     private Environment mDirmiEnv;
+    private BatchingMBeanServer mBatchingServer;
 
     public ConnectorServer(JMXServiceURL serviceURL,
                            Map<String,?> environment,
@@ -60,21 +61,27 @@ public class ConnectorServer extends JMXConnectorServer {
 
         Environment dirmiEnv = new Environment();
 
+        BatchingMBeanServer batchingServer =
+            BatchingMBeanServer.wrap(mbeanServer, dirmiEnv.executor());
+
         RemoteMBeanServerConnection server = Wrapper.from
-            (RemoteMBeanServerConnection.class, MBeanServer.class)
-            .wrap(mbeanServer);
+            (RemoteMBeanServerConnection.class, BatchingMBeanServer.class)
+            .wrap(batchingServer);
 
         dirmiEnv.newSessionAcceptor
             (new InetSocketAddress(serviceURL.getHost(), serviceURL.getPort()))
             .acceptAll(server);
 
         mDirmiEnv = dirmiEnv;
+        mBatchingServer = batchingServer;
     }
 
     public synchronized void stop() throws IOException {
         Environment dirmiEnv = mDirmiEnv;
         if (dirmiEnv != null) {
             mDirmiEnv = null;
+            mBatchingServer.close();
+            mBatchingServer = null;
             dirmiEnv.close();
         }
     }
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+class NotificationBatchListenerServer implements RemoteNotificationBatchListener {
+    private final NotificationListener mListener;
+    private final Object mHandback;
+    private final AtomicLong mDropped;
+
+    /**
+     * @param dropped accumulates the amount of dropped notifications
+     */
+    NotificationBatchListenerServer(NotificationListener listener, Object handback,
+                                    AtomicLong dropped)
+    {
+        mListener = listener;
+        mHandback = handback;
+        mDropped = dropped;
+    }
+
+    public void handleNotifications(Notification[] notifications, long dropped) {
+        if (dropped > 0) {
+            mDropped.addAndGet(dropped);
+        }
+        for (Notification notification : notifications) {
+            mListener.handleNotification(notification, mHandback);
+        }
+    }
+}
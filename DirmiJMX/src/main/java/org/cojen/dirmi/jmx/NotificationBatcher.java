@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.util.ArrayDeque;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+/**
+ * Server-side listener which buffers notifications and delivers them in
+ * batches to a remote listener.
+ *
+ * @author Brian S O'Neill
+ */
+class NotificationBatcher implements NotificationListener, Runnable {
+    private final MBeanServer mServer;
+    private final ObjectName mName;
+    private final RemoteNotificationBatchListener mListener;
+    private final ScheduledExecutorService mExecutor;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMillis;
+    private final int mMaxQueued;
+
+    private final ArrayDeque<Notification> mQueue;
+    private long mDropped;
+
+    // True when a thread is delivering batches.
+    private boolean mRunning;
+    // True when a delayed flush has been scheduled.
+    private boolean mScheduled;
+    // True when an immediate flush has been requested.
+    private boolean mFlushRequested;
+
+    private boolean mClosed;
+
+    NotificationBatcher(MBeanServer server, ObjectName name,
+                        RemoteNotificationBatchListener listener,
+                        ScheduledExecutorService executor,
+                        int maxBatchSize, long maxDelayMillis, int maxQueued)
+    {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size: " + maxBatchSize);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Max delay: " + maxDelayMillis);
+        }
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("Max queued: " + maxQueued);
+        }
+        mServer = server;
+        mName = name;
+        mListener = listener;
+        mExecutor = executor;
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxQueued = maxQueued;
+        mQueue = new ArrayDeque<Notification>();
+    }
+
+    ObjectName getName() {
+        return mName;
+    }
+
+    RemoteNotificationBatchListener getListener() {
+        return mListener;
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    public void handleNotification(Notification notification, Object handback) {
+        boolean immediate;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            if (mQueue.size() >= mMaxQueued) {
+                mQueue.removeFirst();
+                mDropped++;
+            }
+            mQueue.add(notification);
+
+            if (mRunning) {
+                // Delivery thread picks it up.
+                return;
+            }
+
+            if (mQueue.size() >= mMaxBatchSize || mMaxDelayMillis == 0) {
+                if (mFlushRequested) {
+                    return;
+                }
+                mFlushRequested = true;
+                immediate = true;
+            } else {
+                if (mScheduled) {
+                    return;
+                }
+                mScheduled = true;
+                immediate = false;
+            }
+        }
+
+        try {
+            if (immediate) {
+                mExecutor.execute(this);
+            } else {
+                mExecutor.schedule(this, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            close();
+        }
+    }
+
+    /**
+     * Delivers batches until fewer than a full batch remains.
+     */
+    public void run() {
+        synchronized (this) {
+            if (mRunning || mClosed) {
+                return;
+            }
+            mRunning = true;
+            mScheduled = false;
+            mFlushRequested = false;
+        }
+
+        // Running state is cleared by the same synchronized block which
+        // decides to stop. Otherwise a notification enqueued in between would
+        // see the running state and not be delivered.
+        boolean reschedule = false;
+        try {
+            while (true) {
+                Notification[] batch;
+                long dropped;
+                synchronized (this) {
+                    int size = Math.min(mQueue.size(), mMaxBatchSize);
+                    if (size == 0) {
+                        mRunning = false;
+                        return;
+                    }
+                    batch = new Notification[size];
+                    for (int i=0; i<size; i++) {
+                        batch[i] = mQueue.removeFirst();
+                    }
+                    dropped = mDropped;
+                    mDropped = 0;
+                }
+
+                mListener.handleNotifications(batch, dropped);
+
+                synchronized (this) {
+                    if (mClosed) {
+                        mRunning = false;
+                        return;
+                    }
+                    if (mQueue.size() < mMaxBatchSize && mMaxDelayMillis > 0) {
+                        // Partial batch waits for the delay to elapse.
+                        if (!mQueue.isEmpty() && !mScheduled) {
+                            mScheduled = true;
+                            reschedule = true;
+                        }
+                        mRunning = false;
+                        break;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                mRunning = false;
+            }
+            // Assume listener is unreachable.
+            close();
+            return;
+        }
+
+        if (reschedule) {
+            try {
+                mExecutor.schedule(this, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Removes this listener from the MBean and discards buffered
+     * notifications.
+     */
+    void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mQueue.clear();
+        }
+        try {
+            mServer.removeNotificationListener(mName, this);
+        } catch (Exception e) {
+            // Ignore.
+        }
+    }
+}
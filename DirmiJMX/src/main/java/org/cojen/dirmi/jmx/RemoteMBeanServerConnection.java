@@ -14,11 +14,19 @@
  *  limitations under the License.
  */
 
+
 package org.cojen.dirmi.jmx;
 
+import java.io.IOException;
+
 import java.rmi.Remote;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
 
 /**
  * 
@@ -26,4 +34,53 @@ import javax.management.MBeanServerConnection;
  * @author Brian S O'Neill
  */
 public interface RemoteMBeanServerConnection extends MBeanServerConnection, Remote {
+    /**
+     * Adds a listener which receives notifications in batches. Notifications
+     * are buffered on the server, and a batch is delivered when it reaches
+     * the maximum size or when the oldest notification has waited for the
+     * maximum delay. Only one batch is delivered at a time, and if the
+     * listener is too slow, the oldest buffered notifications are dropped.
+     *
+     * @param name name of MBean to listen to
+     * @param listener listener to receive batches
+     * @param filter optional filter, applied on the server before
+     * notifications are buffered
+     * @param maxBatchSize maximum amount of notifications per batch
+     * @param maxDelayMillis maximum time to buffer a notification before
+     * delivering it
+     * @param maxQueued maximum amount of notifications to buffer
+     */
+    void addBatchedNotificationListener(ObjectName name,
+                                        RemoteNotificationBatchListener listener,
+                                        NotificationFilter filter,
+                                        int maxBatchSize,
+                                        long maxDelayMillis,
+                                        int maxQueued)
+        throws InstanceNotFoundException, IOException;
+
+    /**
+     * Removes all registrations of a batched listener for the given MBean.
+     */
+    void removeBatchedNotificationListener(ObjectName name,
+                                           RemoteNotificationBatchListener listener)
+        throws InstanceNotFoundException, ListenerNotFoundException, IOException;
+
+    /**
+     * Returns attribute values of all MBeans matching a query in a single
+     * call. If a version from an earlier snapshot is supplied, only the
+     * attributes which changed since that snapshot are returned. Attributes
+     * which cannot be read are silently omitted.
+     *
+     * @param pattern MBean name pattern; if null, all MBeans are matched
+     * @param query optional query to further filter the matched MBeans
+     * @param attributes names of attributes to return; if null, all readable
+     * attributes are returned
+     * @param sinceVersion version of an earlier snapshot, or 0 for a
+     * complete snapshot
+     */
+    AttributeSnapshot getAttributeSnapshot(ObjectName pattern,
+                                           QueryExp query,
+                                           String[] attributes,
+                                           long sinceVersion)
+        throws IOException;
 }
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jmx;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import javax.management.Notification;
+
+/**
+ * Receives notifications in batches, as delivered by {@link
+ * RemoteMBeanServerConnection#addBatchedNotificationListener}.
+ *
+ * @author Brian S O'Neill
+ */
+public interface RemoteNotificationBatchListener extends Remote {
+    /**
+     * Called with notifications in the order they were emitted. The next
+     * batch isn't delivered until this method returns.
+     *
+     * @param notifications at least one notification
+     * @param dropped amount of notifications which were discarded since the
+     * previous batch because this listener was too slow
+     */
+    void handleNotifications(Notification[] notifications, long dropped) throws RemoteException;
+}
@@ -0,0 +1,261 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jmx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.Query;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestAttributeSnapshot {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestAttributeSnapshot.class.getName());
+    }
+
+    private ScheduledExecutorService mExecutor;
+    private BatchingMBeanServer mServer;
+    private ObjectName mPattern;
+    private ObjectName mNameA;
+    private ObjectName mNameB;
+    private Counter mA;
+    private Counter mB;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = new ScheduledThreadPoolExecutor(1);
+        mServer = BatchingMBeanServer.wrap(MBeanServerFactory.newMBeanServer(), mExecutor);
+        mPattern = new ObjectName("test:*");
+        mNameA = new ObjectName("test:name=a");
+        mNameB = new ObjectName("test:name=b");
+        mServer.registerMBean(mA = new Counter(1, "a"), mNameA);
+        mServer.registerMBean(mB = new Counter(10, "b"), mNameB);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+        mExecutor.shutdownNow();
+    }
+
+    private AttributeSnapshot snapshot(long sinceVersion) throws Exception {
+        return mServer.getAttributeSnapshot(mPattern, null, null, sinceVersion);
+    }
+
+    @Test
+    public void completeThenDelta() throws Exception {
+        AttributeSnapshot snapshot = snapshot(0);
+        assertTrue(snapshot.isComplete());
+        assertEquals(2, snapshot.getObjectNames().size());
+        assertEquals(4, snapshot.getAttributeCount());
+        assertEquals(values("Value", 1, "Label", "a"), values(snapshot.getAttributes(mNameA)));
+        assertEquals(values("Value", 10, "Label", "b"), values(snapshot.getAttributes(mNameB)));
+        assertNull(snapshot.getAttributes(new ObjectName("test:name=c")));
+
+        // Nothing changed.
+        long version = snapshot.getVersion();
+        snapshot = snapshot(version);
+        assertFalse(snapshot.isComplete());
+        assertEquals(version, snapshot.getVersion());
+        assertEquals(2, snapshot.getObjectNames().size());
+        assertEquals(0, snapshot.getAttributeCount());
+        assertEquals(0, snapshot.getAttributes(mNameA).size());
+
+        // Only the changed attribute is included, and the version advances.
+        mA.setValue(2);
+        snapshot = snapshot(version);
+        assertFalse(snapshot.isComplete());
+        assertTrue(snapshot.getVersion() > version);
+        assertEquals(values("Value", 2), values(snapshot.getAttributes(mNameA)));
+        assertEquals(0, snapshot.getAttributes(mNameB).size());
+        long version2 = snapshot.getVersion();
+
+        mB.setLabel("bb");
+        snapshot = snapshot(version2);
+        assertEquals(1, snapshot.getAttributeCount());
+        assertEquals(values("Label", "bb"), values(snapshot.getAttributes(mNameB)));
+
+        // Delta from an older version includes all changes since then.
+        snapshot = snapshot(version);
+        assertFalse(snapshot.isComplete());
+        assertEquals(2, snapshot.getAttributeCount());
+        assertEquals(values("Value", 2), values(snapshot.getAttributes(mNameA)));
+        assertEquals(values("Label", "bb"), values(snapshot.getAttributes(mNameB)));
+
+        // Changing a value back is also a change.
+        mA.setValue(1);
+        snapshot = snapshot(snapshot.getVersion());
+        assertEquals(values("Value", 1), values(snapshot.getAttributes(mNameA)));
+    }
+
+    @Test
+    public void unknownVersion() throws Exception {
+        long version = snapshot(0).getVersion();
+
+        // Versions not issued by this server produce complete snapshots.
+        for (long v : new long[] {-1, 1, version + 1, Long.MAX_VALUE}) {
+            AttributeSnapshot snapshot = snapshot(v);
+            assertTrue(snapshot.isComplete());
+            assertEquals(4, snapshot.getAttributeCount());
+            assertEquals(version, snapshot.getVersion());
+        }
+
+        // Versions issued by another server are also unknown.
+        BatchingMBeanServer other =
+            BatchingMBeanServer.wrap(MBeanServerFactory.newMBeanServer(), mExecutor);
+        other.registerMBean(new Counter(1, "a"), mNameA);
+        AttributeSnapshot snapshot = other.getAttributeSnapshot(mPattern, null, null, version);
+        assertTrue(snapshot.isComplete());
+    }
+
+    @Test
+    public void selectedAttributes() throws Exception {
+        AttributeSnapshot snapshot = mServer.getAttributeSnapshot
+            (mPattern, null, new String[] {"Label"}, 0);
+        assertEquals(2, snapshot.getAttributeCount());
+        assertEquals(values("Label", "a"), values(snapshot.getAttributes(mNameA)));
+
+        mA.setValue(5);
+        snapshot = mServer.getAttributeSnapshot
+            (mPattern, null, new String[] {"Label"}, snapshot.getVersion());
+        assertEquals(0, snapshot.getAttributeCount());
+    }
+
+    @Test
+    public void excludedByQuery() throws Exception {
+        long version = snapshot(0).getVersion();
+
+        // Query excludes b, which is still registered.
+        AttributeSnapshot snapshot = mServer.getAttributeSnapshot
+            (mPattern, Query.lt(Query.attr("Value"), Query.value(5)), null, version);
+        assertEquals(1, snapshot.getObjectNames().size());
+        assertTrue(snapshot.getObjectNames().contains(mNameA));
+
+        // Excluded MBean isn't reported as changed by the next snapshot.
+        snapshot = snapshot(version);
+        assertFalse(snapshot.isComplete());
+        assertEquals(version, snapshot.getVersion());
+        assertEquals(0, snapshot.getAttributeCount());
+        assertEquals(0, snapshot.getAttributes(mNameB).size());
+    }
+
+    @Test
+    public void unregistered() throws Exception {
+        long version = snapshot(0).getVersion();
+
+        mServer.unregisterMBean(mNameB);
+        AttributeSnapshot snapshot = snapshot(version);
+        assertEquals(1, snapshot.getObjectNames().size());
+        assertNull(snapshot.getAttributes(mNameB));
+
+        // Re-registered MBean is new, even with the same values.
+        mServer.registerMBean(new Counter(10, "b"), mNameB);
+        snapshot = snapshot(snapshot.getVersion());
+        assertTrue(snapshot.getVersion() > version);
+        assertEquals(0, snapshot.getAttributes(mNameA).size());
+        assertEquals(values("Value", 10, "Label", "b"), values(snapshot.getAttributes(mNameB)));
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        AttributeSnapshot snapshot = snapshot(0);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(snapshot);
+        out.close();
+        AttributeSnapshot copy = (AttributeSnapshot) new ObjectInputStream
+            (new ByteArrayInputStream(bout.toByteArray())).readObject();
+
+        assertEquals(snapshot.getVersion(), copy.getVersion());
+        assertEquals(snapshot.isComplete(), copy.isComplete());
+        assertEquals(snapshot.getObjectNames(), copy.getObjectNames());
+        assertEquals(values(snapshot.getAttributes(mNameB)), values(copy.getAttributes(mNameB)));
+    }
+
+    private static Map<String, Object> values(Object... pairs) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i=0; i<pairs.length; i+=2) {
+            map.put((String) pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+
+    private static Map<String, Object> values(AttributeList list) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (Object obj : list) {
+            Attribute attr = (Attribute) obj;
+            map.put(attr.getName(), attr.getValue());
+        }
+        return map;
+    }
+
+    public static interface CounterMBean {
+        int getValue();
+
+        void setValue(int value);
+
+        String getLabel();
+
+        void setLabel(String label);
+    }
+
+    public static class Counter implements CounterMBean {
+        private volatile int mValue;
+        private volatile String mLabel;
+
+        public Counter(int value, String label) {
+            mValue = value;
+            mLabel = label;
+        }
+
+        public int getValue() {
+            return mValue;
+        }
+
+        public void setValue(int value) {
+            mValue = value;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public void setLabel(String label) {
+            mLabel = label;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jmx;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerFactory;
+import javax.management.Notification;
+import javax.management.ObjectName;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestNotificationBatcher {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestNotificationBatcher.class.getName());
+    }
+
+    private ScheduledExecutorService mExecutor;
+    private ObjectName mName;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = new ScheduledThreadPoolExecutor(4);
+        mName = new ObjectName("test:type=Batcher");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void immediateDelivery() throws Exception {
+        concurrentDelivery(16, 0);
+    }
+
+    @Test
+    public void delayedDelivery() throws Exception {
+        concurrentDelivery(16, 1);
+    }
+
+    /**
+     * Sends notifications from several threads while batches are being
+     * delivered, and verifies that none are left behind.
+     */
+    private void concurrentDelivery(int maxBatchSize, long maxDelayMillis) throws Exception {
+        final int threadCount = 4;
+        final int perThread = 1000;
+
+        for (int round=0; round<20; round++) {
+            Listener listener = new Listener();
+            final NotificationBatcher batcher = new NotificationBatcher
+                (MBeanServerFactory.newMBeanServer(), mName, listener, mExecutor,
+                 maxBatchSize, maxDelayMillis, Integer.MAX_VALUE);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[threadCount];
+            for (int i=0; i<threadCount; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int j=0; j<perThread; j++) {
+                            batcher.handleNotification(new Notification("test", mName, j), null);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            start.countDown();
+            for (Thread t : threads) {
+                t.join();
+            }
+
+            assertTrue(listener.await(threadCount * perThread, 10000));
+            assertEquals(0, listener.dropped());
+            assertFalse(batcher.isClosed());
+        }
+    }
+
+    @Test
+    public void sendWhileStopping() throws Exception {
+        Listener listener = new Listener();
+        NotificationBatcher batcher = new NotificationBatcher
+            (MBeanServerFactory.newMBeanServer(), mName, listener, mExecutor, 16, 0, 100);
+
+        // Each notification is sent as soon as the previous one is received,
+        // which is while the delivery thread is deciding to stop.
+        for (int i=1; i<=10000; i++) {
+            batcher.handleNotification(new Notification("test", mName, i), null);
+            assertTrue("Notification " + i + " not delivered", listener.await(i, 10000));
+        }
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        Listener listener = new Listener();
+        NotificationBatcher batcher = new NotificationBatcher
+            (MBeanServerFactory.newMBeanServer(), mName, listener, mExecutor, 100, 50, 10);
+
+        for (int i=0; i<15; i++) {
+            batcher.handleNotification(new Notification("test", mName, i), null);
+        }
+
+        // Partial batch is delivered after the delay.
+        assertTrue(listener.await(10, 10000));
+        assertEquals(5, listener.dropped());
+
+        batcher.close();
+        assertTrue(batcher.isClosed());
+    }
+
+    @Test
+    public void failedListener() throws Exception {
+        Listener listener = new Listener() {
+            @Override
+            public void handleNotifications(Notification[] notifications, long dropped) {
+                throw new IllegalStateException();
+            }
+        };
+
+        NotificationBatcher batcher = new NotificationBatcher
+            (MBeanServerFactory.newMBeanServer(), mName, listener, mExecutor, 1, 0, 10);
+
+        batcher.handleNotification(new Notification("test", mName, 1), null);
+
+        long end = System.currentTimeMillis() + 10000;
+        while (!batcher.isClosed() && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(batcher.isClosed());
+    }
+
+    private static class Listener implements RemoteNotificationBatchListener {
+        private long mReceived;
+        private long mDropped;
+
+        public synchronized void handleNotifications(Notification[] notifications,
+                                                     long dropped)
+        {
+            mReceived += notifications.length;
+            mDropped += dropped;
+            notifyAll();
+        }
+
+        synchronized boolean await(long count, long timeoutMillis)
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (mReceived < count) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized long dropped() {
+            return mDropped;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Savepoint;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
@@ -52,9 +53,34 @@ public abstract class ClientConnection implements Connection {
     }
 
     private final RemoteConnection mConnection;
+    private final StatementCache mStatementCache;
+
+    private volatile DatabaseMetaData mMetaData;
 
     protected ClientConnection(RemoteConnection con) {
         mConnection = con;
+        mStatementCache = new StatementCache(StatementCache.DEFAULT_SIZE);
+    }
+
+    /**
+     * Set the maximum amount of idle prepared statements to cache, keyed by
+     * SQL and result set options. Closing a cached statement returns it to
+     * the cache instead of closing it remotely.
+     *
+     * @param size maximum cache size; zero disables the cache
+     */
+    public void setStatementCacheSize(int size) {
+        mStatementCache.setMaxSize(size);
+    }
+
+    public int getStatementCacheSize() {
+        return mStatementCache.getMaxSize();
+    }
+
+    public void close() throws SQLException {
+        mMetaData = null;
+        mStatementCache.clear();
+        mConnection.close();
     }
 
     public Statement createStatement() throws SQLException {
@@ -62,15 +88,29 @@ public abstract class ClientConnection implements Connection {
     }
 
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return ClientPreparedStatement.from(mConnection.prepareStatement(sql));
+        StatementCache.Key key = new StatementCache.Key
+            (sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+        RemotePreparedStatement st = mStatementCache.acquire(key);
+        if (st == null) {
+            st = mConnection.prepareStatement(sql);
+        }
+        return ClientPreparedStatement.from(st, mStatementCache, key);
     }
 
     public CallableStatement prepareCall(String sql) throws SQLException {
         throw new SQLException("FIXME (prepareCall)");
     }
 
+    /**
+     * Returns a shared instance which caches the answers of methods that
+     * don't return result sets.
+     */
     public DatabaseMetaData getMetaData() throws SQLException {
-        return ClientDatabaseMetaData.from(mConnection.getMetaData());
+        DatabaseMetaData md = mMetaData;
+        if (md == null) {
+            mMetaData = md = ClientDatabaseMetaData.cached(mConnection.getMetaData());
+        }
+        return md;
     }
 
     public Statement createStatement(int resultSetType, int resultSetConcurrency) 
@@ -84,8 +124,13 @@ public abstract class ClientConnection implements Connection {
                                               int resultSetConcurrency)
         throws SQLException
     {
-        return ClientPreparedStatement.from
-            (mConnection.prepareStatement(sql, resultSetType, resultSetConcurrency));
+        StatementCache.Key key = new StatementCache.Key
+            (sql, resultSetType, resultSetConcurrency, 0);
+        RemotePreparedStatement st = mStatementCache.acquire(key);
+        if (st == null) {
+            st = mConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+        return ClientPreparedStatement.from(st, mStatementCache, key);
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, 
@@ -124,9 +169,14 @@ public abstract class ClientConnection implements Connection {
                                               int resultSetConcurrency, int resultSetHoldability)
         throws SQLException
     {
-        return ClientPreparedStatement.from
-            (mConnection.prepareStatement
-             (sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+        StatementCache.Key key = new StatementCache.Key
+            (sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        RemotePreparedStatement st = mStatementCache.acquire(key);
+        if (st == null) {
+            st = mConnection.prepareStatement
+                (sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+        return ClientPreparedStatement.from(st, mStatementCache, key);
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, 
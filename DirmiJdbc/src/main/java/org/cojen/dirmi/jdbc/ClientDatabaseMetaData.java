@@ -16,12 +16,23 @@
 
 package org.cojen.dirmi.jdbc;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.RowIdLifetime;
 import java.sql.SQLException;
 
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.cojen.dirmi.util.Wrapper;
 
 /**
@@ -37,6 +48,17 @@ public abstract class ClientDatabaseMetaData implements DatabaseMetaData {
         return wrapper.wrap(md);
     }
 
+    /**
+     * Returns an instance which remembers the answers of all methods which
+     * don't return result sets, except for isReadOnly.
+     */
+    static ClientDatabaseMetaData cached(RemoteDatabaseMetaData md) {
+        return from((RemoteDatabaseMetaData) Proxy.newProxyInstance
+                    (RemoteDatabaseMetaData.class.getClassLoader(),
+                     new Class[] {RemoteDatabaseMetaData.class},
+                     new CachingHandler(md)));
+    }
+
     private final RemoteDatabaseMetaData mMetaData;
 
     protected ClientDatabaseMetaData(RemoteDatabaseMetaData md) {
@@ -252,6 +274,64 @@ public abstract class ClientDatabaseMetaData implements DatabaseMetaData {
         return false;
     }
 
+    private static class CachingHandler implements InvocationHandler {
+        private final RemoteDatabaseMetaData mMetaData;
+        private final ConcurrentMap<Object, Object> mAnswers;
+
+        CachingHandler(RemoteDatabaseMetaData md) {
+            mMetaData = md;
+            mAnswers = new ConcurrentHashMap<Object, Object>();
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return invoke(method, args);
+            }
+
+            if (method.getReturnType() == ResultSetTransport.class
+                || "isReadOnly".equals(method.getName()))
+            {
+                return invoke(method, args);
+            }
+
+            Object key;
+            if (args == null || args.length == 0) {
+                key = method;
+            } else {
+                List<Object> list = Arrays.asList(new Object[args.length + 1]);
+                list.set(0, method);
+                for (int i=0; i<args.length; i++) {
+                    list.set(i + 1, args[i]);
+                }
+                key = list;
+            }
+
+            Object answer = mAnswers.get(key);
+            if (answer == null) {
+                answer = invoke(method, args);
+                if (answer != null) {
+                    mAnswers.put(key, answer);
+                }
+            }
+
+            return answer;
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(mMetaData, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
     private static SQLException unsupported() throws SQLException {
         return ClientDriver.unsupported();
     }
@@ -108,6 +108,21 @@ public class ClientDriver implements Driver {
 
         String db = url;
 
+        int statementCacheSize = StatementCache.DEFAULT_SIZE;
+        if (info != null) {
+            String size = info.getProperty("statementCacheSize");
+            if (size != null) {
+                try {
+                    statementCacheSize = Integer.parseInt(size.trim());
+                } catch (NumberFormatException e) {
+                    statementCacheSize = -1;
+                }
+                if (statementCacheSize < 0) {
+                    throw new SQLException("Illegal statementCacheSize: " + size);
+                }
+            }
+        }
+
         final int maxTries = 3;
         for (int tryCount = 1; tryCount <= maxTries; tryCount++) {
             RemoteConnector connector;
@@ -122,7 +137,9 @@ public class ClientDriver implements Driver {
             RemoteConnection con;
             try {
                 con = connector.getConnection(db);
-                return ClientConnection.from(con);
+                ClientConnection ccon = ClientConnection.from(con);
+                ccon.setStatementCacheSize(statementCacheSize);
+                return ccon;
             } catch (RemoteException e) {
                 if (tryCount >= maxTries) {
                     throw new SQLException("Unable to connect", e);
@@ -16,9 +16,15 @@
 
 package org.cojen.dirmi.jdbc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.IOException;
 import java.io.Reader;
 
+import java.math.BigDecimal;
+
+import java.nio.charset.Charset;
+
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.Clob;
@@ -32,6 +38,8 @@ import java.sql.RowId;
 import java.sql.SQLException;
 import java.sql.SQLXML;
 
+import java.util.Calendar;
+
 import org.cojen.dirmi.util.Wrapper;
 
 /**
@@ -45,39 +53,305 @@ public abstract class ClientPreparedStatement extends ClientStatement
     private static final Wrapper<ClientPreparedStatement, RemotePreparedStatement> wrapper =
         Wrapper.from(ClientPreparedStatement.class, RemotePreparedStatement.class);
 
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
     public static ClientPreparedStatement from(RemotePreparedStatement st) {
         return wrapper.wrap(st);
     }
 
+    static ClientPreparedStatement from(RemotePreparedStatement st,
+                                        StatementCache cache, StatementCache.Key key)
+    {
+        StatementGuard guard = new StatementGuard(st);
+        ClientPreparedStatement cst = wrapper.wrap(guard.newProxy());
+        cst.mCache = cache;
+        cst.mCacheKey = key;
+        cst.mGuard = guard;
+        return cst;
+    }
+
     private final RemotePreparedStatement mStatement;
 
+    private StatementCache mCache;
+    private StatementCache.Key mCacheKey;
+    // Is null unless statement is cached.
+    private StatementGuard mGuard;
+    private volatile boolean mClosed;
+
+    // Parameters are buffered locally and sent with the next execution or
+    // along with the entire batch.
+    private final ParameterBatch mParams;
+    private boolean mParamsChanged;
+
     protected ClientPreparedStatement(RemotePreparedStatement st) {
         super(st);
         mStatement = st;
+        mParams = new ParameterBatch();
+    }
+
+    /**
+     * If statement is cached, it is returned to the cache instead of being
+     * closed remotely.
+     */
+    public void close() throws SQLException {
+        StatementCache cache = mCache;
+        if (cache == null) {
+            mClosed = true;
+            mStatement.close();
+        } else if (!mClosed) {
+            mClosed = true;
+            // Cut off access to the remote statement, which might be handed
+            // to another client statement once released.
+            mGuard.close();
+            cache.release(mCacheKey, mGuard.statement());
+        }
+    }
+
+    public boolean isClosed() throws SQLException {
+        return mClosed || mStatement.isClosed();
+    }
+
+    public void setPoolable(boolean poolable) throws SQLException {
+        checkClosed();
+        super.setPoolable(poolable);
+    }
+
+    public boolean isPoolable() throws SQLException {
+        checkClosed();
+        return super.isPoolable();
     }
 
     public ResultSet executeQuery() throws SQLException {
+        checkClosed();
+        sendParameters();
         return new ClientResultSet(mStatement.executeQuery());
     }
 
+    public int executeUpdate() throws SQLException {
+        checkClosed();
+        sendParameters();
+        return mStatement.executeUpdate();
+    }
+
+    public boolean execute() throws SQLException {
+        checkClosed();
+        sendParameters();
+        return mStatement.execute();
+    }
+
+    public void addBatch() throws SQLException {
+        checkClosed();
+        mParams.addRow();
+    }
+
+    public void clearBatch() throws SQLException {
+        checkClosed();
+        mParams.clearRows();
+        mStatement.clearBatch();
+    }
+
+    /**
+     * Sends all rows added by addBatch in one call.
+     */
+    public int[] executeBatch() throws SQLException {
+        checkClosed();
+        ParameterBatch params = mParams;
+        if (params.getRowCount() == 0) {
+            return mStatement.executeBatch();
+        }
+        // Remote statement is left with parameters of last row.
+        mParamsChanged = true;
+        try {
+            return mStatement.executeBatch(params);
+        } finally {
+            params.clearRows();
+        }
+    }
+
+    public void clearParameters() throws SQLException {
+        checkClosed();
+        mParams.clearParameters();
+        mParamsChanged = false;
+        mStatement.clearParameters();
+    }
+
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        checkClosed();
+        mParams.setNull(parameterIndex, sqlType);
+        mParamsChanged = true;
+    }
+
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        checkClosed();
+        mParams.setNull(parameterIndex, sqlType, typeName);
+        mParamsChanged = true;
+    }
+
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        checkClosed();
+        mParams.setBoolean(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        checkClosed();
+        mParams.setByte(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        checkClosed();
+        mParams.setShort(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        checkClosed();
+        mParams.setInt(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        checkClosed();
+        mParams.setLong(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        checkClosed();
+        mParams.setFloat(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        checkClosed();
+        mParams.setDouble(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        checkClosed();
+        mParams.setBigDecimal(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setString(int parameterIndex, String x) throws SQLException {
+        checkClosed();
+        mParams.setString(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        checkClosed();
+        mParams.setNString(parameterIndex, value);
+        mParamsChanged = true;
+    }
+
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        checkClosed();
+        mParams.setBytes(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setDate(int parameterIndex, java.sql.Date x) throws SQLException {
+        checkClosed();
+        mParams.setDate(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setTime(int parameterIndex, java.sql.Time x) throws SQLException {
+        checkClosed();
+        mParams.setTime(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x) throws SQLException {
+        checkClosed();
+        mParams.setTimestamp(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setDate(int parameterIndex, java.sql.Date x, Calendar cal)
+        throws SQLException
+    {
+        checkClosed();
+        mParams.setDate(parameterIndex, x, cal);
+        mParamsChanged = true;
+    }
+
+    public void setTime(int parameterIndex, java.sql.Time x, Calendar cal)
+        throws SQLException
+    {
+        checkClosed();
+        mParams.setTime(parameterIndex, x, cal);
+        mParamsChanged = true;
+    }
+
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x, Calendar cal)
+        throws SQLException
+    {
+        checkClosed();
+        mParams.setTimestamp(parameterIndex, x, cal);
+        mParamsChanged = true;
+    }
+
+    public void setURL(int parameterIndex, java.net.URL x) throws SQLException {
+        checkClosed();
+        mParams.setURL(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        checkClosed();
+        mParams.setObject(parameterIndex, x);
+        mParamsChanged = true;
+    }
+
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        checkClosed();
+        mParams.setObject(parameterIndex, x, targetSqlType);
+        mParamsChanged = true;
+    }
+
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
+        throws SQLException
+    {
+        checkClosed();
+        mParams.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+        mParamsChanged = true;
+    }
+
+    private void sendParameters() throws SQLException {
+        if (mParamsChanged) {
+            mStatement.setParameters(mParams.editedRow());
+            mParamsChanged = false;
+        }
+    }
+
+    // Stream and LOB parameters are read fully when set, and they are
+    // buffered along with all the other parameters. This keeps them in order
+    // with rows added to the batch.
+
     public void setAsciiStream(int parameterIndex, InputStream x)
         throws SQLException
     {
-        throw unsupported();
+        setAsciiStream(parameterIndex, x, -1L);
     }
 
     public void setAsciiStream(int parameterIndex, InputStream x, int length)
         throws SQLException
     {
-        throw unsupported();
+        setAsciiStream(parameterIndex, x, (long) length);
     }
 
     public void setAsciiStream(int parameterIndex, InputStream x, long length)
         throws SQLException
     {
-        throw unsupported();
+        byte[] bytes = readBytes(x, length);
+        setString(parameterIndex, bytes == null ? null : new String(bytes, ASCII));
     }
 
+    @Deprecated
     public void setUnicodeStream(int parameterIndex, InputStream x, int length)
         throws SQLException
     {
@@ -87,19 +361,37 @@ public abstract class ClientPreparedStatement extends ClientStatement
     public void setBinaryStream(int parameterIndex, InputStream x)
         throws SQLException
     {
-        throw unsupported();
+        setBinaryStream(parameterIndex, x, -1L);
     }
 
     public void setBinaryStream(int parameterIndex, InputStream x, int length)
         throws SQLException
     {
-        throw unsupported();
+        setBinaryStream(parameterIndex, x, (long) length);
     }
 
     public void setBinaryStream(int parameterIndex, InputStream x, long length)
         throws SQLException
     {
-        throw unsupported();
+        setBytes(parameterIndex, readBytes(x, length));
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader reader)
+        throws SQLException
+    {
+        setCharacterStream(parameterIndex, reader, -1L);
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader reader, int length)
+        throws SQLException
+    {
+        setCharacterStream(parameterIndex, reader, (long) length);
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader reader, long length)
+        throws SQLException
+    {
+        setString(parameterIndex, readChars(reader, length));
     }
 
     public void setRef(int parameterIndex, Ref x) throws SQLException {
@@ -107,11 +399,13 @@ public abstract class ClientPreparedStatement extends ClientStatement
     }
 
     public void setBlob(int parameterIndex, Blob x) throws SQLException {
-        throw unsupported();
+        checkClosed();
+        setBytes(parameterIndex, x == null ? null : x.getBytes(1, checkLength(x.length())));
     }
 
     public void setClob(int parameterIndex, Clob x) throws SQLException {
-        throw unsupported();
+        checkClosed();
+        setString(parameterIndex, x == null ? null : x.getSubString(1, checkLength(x.length())));
     }
 
     public void setArray(int parameterIndex, Array x) throws SQLException {
@@ -119,6 +413,7 @@ public abstract class ClientPreparedStatement extends ClientStatement
     }
 
     public ResultSetMetaData getMetaData() throws SQLException {
+        checkClosed();
         return mStatement.getMetaData();
     }
 
@@ -131,50 +426,136 @@ public abstract class ClientPreparedStatement extends ClientStatement
     }
  
     public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
-        throw unsupported();
+        setNCharacterStream(parameterIndex, value, -1L);
     }
 
     public void setNCharacterStream(int parameterIndex, Reader value, long length)
         throws SQLException
     {
-        throw unsupported();
+        setNString(parameterIndex, readChars(value, length));
     }
 
     public void setNClob(int parameterIndex, NClob value) throws SQLException {
-        throw unsupported();
+        checkClosed();
+        setNString(parameterIndex,
+                   value == null ? null : value.getSubString(1, checkLength(value.length())));
     }
 
     public void setClob(int parameterIndex, Reader reader) throws SQLException {
-        throw unsupported();
+        setCharacterStream(parameterIndex, reader, -1L);
     }
 
     public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
-        throw unsupported();
+        setCharacterStream(parameterIndex, reader, length);
     }
 
     public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
-        throw unsupported();
+        setBinaryStream(parameterIndex, inputStream, -1L);
     }
 
     public void setBlob(int parameterIndex, InputStream inputStream, long length)
         throws SQLException
     {
-        throw unsupported();
+        setBinaryStream(parameterIndex, inputStream, length);
     }
 
     public void setNClob(int parameterIndex, Reader reader) throws SQLException {
-        throw unsupported();
+        setNCharacterStream(parameterIndex, reader, -1L);
     }
 
     public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
-        throw unsupported();
+        setNCharacterStream(parameterIndex, reader, length);
     }
 
     public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
         throw unsupported();
     }
 
-    private static SQLException unsupported() throws SQLException {
+    /**
+     * @param length exact amount of bytes to read, or -1 to read until end
+     * @return null if stream is null
+     */
+    private byte[] readBytes(InputStream in, long length) throws SQLException {
+        checkClosed();
+        if (in == null) {
+            return null;
+        }
+        try {
+            if (length >= 0) {
+                byte[] bytes = new byte[checkLength(length)];
+                int offset = 0;
+                while (offset < bytes.length) {
+                    int amt = in.read(bytes, offset, bytes.length - offset);
+                    if (amt < 0) {
+                        throw new SQLException("Stream ended after " + offset +
+                                               " bytes, expected " + length);
+                    }
+                    offset += amt;
+                }
+                return bytes;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int amt;
+            while ((amt = in.read(buf)) > 0) {
+                out.write(buf, 0, amt);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * @param length exact amount of characters to read, or -1 to read until end
+     * @return null if reader is null
+     */
+    private String readChars(Reader reader, long length) throws SQLException {
+        checkClosed();
+        if (reader == null) {
+            return null;
+        }
+        try {
+            if (length >= 0) {
+                char[] chars = new char[checkLength(length)];
+                int offset = 0;
+                while (offset < chars.length) {
+                    int amt = reader.read(chars, offset, chars.length - offset);
+                    if (amt < 0) {
+                        throw new SQLException("Reader ended after " + offset +
+                                               " characters, expected " + length);
+                    }
+                    offset += amt;
+                }
+                return new String(chars);
+            }
+            StringBuilder b = new StringBuilder();
+            char[] buf = new char[4096];
+            int amt;
+            while ((amt = reader.read(buf)) > 0) {
+                b.append(buf, 0, amt);
+            }
+            return b.toString();
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static int checkLength(long length) throws SQLException {
+        if (length > Integer.MAX_VALUE) {
+            throw new SQLException("Parameter is too large: " + length);
+        }
+        return (int) length;
+    }
+
+    private void checkClosed() throws SQLException {
+        if (mClosed) {
+            throw new SQLException("Statement is closed");
+        }
+    }
+
+    private SQLException unsupported() throws SQLException {
+        checkClosed();
         return ClientDriver.unsupported();
     }
 }
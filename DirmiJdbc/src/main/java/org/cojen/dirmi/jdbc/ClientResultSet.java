@@ -53,7 +53,8 @@ public class ClientResultSet implements ResultSet {
     private final Pipe mRowPipe;
 
     private boolean mClosed;
-    private ResultSetRow mActiveRow;
+    private ResultSetBatch mBatch;
+    private int mRow;
 
     private boolean mWasNull;
 
@@ -68,7 +69,7 @@ public class ClientResultSet implements ResultSet {
 
     public void close() throws SQLException {
         mClosed = true;
-        mActiveRow = null;
+        mBatch = null;
         try {
             mRowPipe.close();
         } catch (IOException e) {
@@ -121,8 +122,12 @@ public class ClientResultSet implements ResultSet {
         if (mClosed) {
             return false;
         }
+        if (mBatch != null && ++mRow < mBatch.getRowCount()) {
+            return true;
+        }
         try {
-            if ((mActiveRow = (ResultSetRow) mRowPipe.readObject()) == null) {
+            mRow = 0;
+            if ((mBatch = ResultSetBatch.readFrom(mRowPipe)) == null) {
                 SQLException e = (SQLException) mRowPipe.readThrowable();
                 if (e != null) {
                     silentClose();
@@ -152,18 +157,22 @@ public class ClientResultSet implements ResultSet {
     }
 
     public Object getObject(int columnIndex) throws SQLException {
+        Object obj = activeBatch().getValue(mRow, columnIndex);
+        mWasNull = obj == null;
+        return obj;
+    }
+
+    private ResultSetBatch activeBatch() throws SQLException {
         if (mClosed) {
             throw new SQLException("Result set closed");
         }
 
-        if (mActiveRow == null) {
+        ResultSetBatch batch = mBatch;
+        if (batch == null) {
             throw new SQLException("No active row. Call \"next\" method.");
         }
 
-        Object obj = mActiveRow.getValue(columnIndex);
-        mWasNull = obj == null;
-
-        return obj;
+        return batch;
     }
 
     public Object getObject(String columnName) throws SQLException {
@@ -275,6 +284,16 @@ public class ClientResultSet implements ResultSet {
     }
 
     public int getInt(int columnIndex) throws SQLException {
+        ResultSetBatch batch = activeBatch();
+        switch (batch.columnKind(columnIndex)) {
+        case ResultSetBatch.COLUMN_BYTE:
+        case ResultSetBatch.COLUMN_SHORT:
+        case ResultSetBatch.COLUMN_INT:
+            // Fast path which avoids boxing.
+            mWasNull = batch.isNull(mRow, columnIndex);
+            return (int) batch.getLong(mRow, columnIndex);
+        }
+
         Object obj = getObject(columnIndex);
         if (obj == null) {
             return 0;
@@ -315,6 +334,17 @@ public class ClientResultSet implements ResultSet {
     }
 
     public long getLong(int columnIndex) throws SQLException {
+        ResultSetBatch batch = activeBatch();
+        switch (batch.columnKind(columnIndex)) {
+        case ResultSetBatch.COLUMN_BYTE:
+        case ResultSetBatch.COLUMN_SHORT:
+        case ResultSetBatch.COLUMN_INT:
+        case ResultSetBatch.COLUMN_LONG:
+            // Fast path which avoids boxing.
+            mWasNull = batch.isNull(mRow, columnIndex);
+            return batch.getLong(mRow, columnIndex);
+        }
+
         Object obj = getObject(columnIndex);
         if (obj == null) {
             return 0;
@@ -389,6 +419,18 @@ public class ClientResultSet implements ResultSet {
     }
 
     public double getDouble(int columnIndex) throws SQLException {
+        ResultSetBatch batch = activeBatch();
+        switch (batch.columnKind(columnIndex)) {
+        case ResultSetBatch.COLUMN_BYTE:
+        case ResultSetBatch.COLUMN_SHORT:
+        case ResultSetBatch.COLUMN_INT:
+        case ResultSetBatch.COLUMN_FLOAT:
+        case ResultSetBatch.COLUMN_DOUBLE:
+            // Fast path which avoids boxing.
+            mWasNull = batch.isNull(mRow, columnIndex);
+            return batch.getDouble(mRow, columnIndex);
+        }
+
         Object obj = getObject(columnIndex);
         if (obj == null) {
             return 0;
@@ -0,0 +1,498 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jdbc;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import java.math.BigDecimal;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Rows of PreparedStatement parameters, accumulated on the client and
+ * applied to the statement on the server. Primitive parameters are stored
+ * and written without boxing. The last row is always the one being edited,
+ * and it is not written out. Mutable values, like byte arrays and dates, are
+ * copied when set, and so callers are free to reuse them for the next row.
+ *
+ * @author Brian S O'Neill
+ */
+public class ParameterBatch implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private static final byte
+        UNSET = 0, NULL = 1, NULL_TYPE_NAME = 2,
+        BOOLEAN = 3, BYTE = 4, SHORT = 5, INT = 6, LONG = 7, FLOAT = 8, DOUBLE = 9,
+        BIG_DECIMAL = 10, STRING = 11, NSTRING = 12, BYTES = 13,
+        DATE = 14, TIME = 15, TIMESTAMP = 16,
+        DATE_CAL = 17, TIME_CAL = 18, TIMESTAMP_CAL = 19,
+        URL = 20, OBJECT = 21, OBJECT_TYPE = 22, OBJECT_TYPE_SCALE = 23;
+
+    private int mParamCount;
+    private int mRowCount;
+
+    // Row-major parameter state, with a stride of mParamCount.
+    private byte[] mKinds;
+    private long[] mPrims;
+    private Object[] mObjects;
+
+    public ParameterBatch() {
+        mKinds = new byte[0];
+        mPrims = new long[0];
+        mObjects = new Object[0];
+    }
+
+    /**
+     * Returns the amount of rows added, not including the one being edited.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Adds the row being edited, and starts a new row with the same parameters.
+     */
+    public void addRow() {
+        int count = mParamCount;
+        int from = mRowCount * count;
+        ensureCapacity(from + count * 2);
+        System.arraycopy(mKinds, from, mKinds, from + count, count);
+        System.arraycopy(mPrims, from, mPrims, from + count, count);
+        System.arraycopy(mObjects, from, mObjects, from + count, count);
+        mRowCount++;
+    }
+
+    /**
+     * Discards all added rows, but not the row being edited.
+     */
+    public void clearRows() {
+        int count = mParamCount;
+        int from = mRowCount * count;
+        if (from > 0) {
+            System.arraycopy(mKinds, from, mKinds, 0, count);
+            System.arraycopy(mPrims, from, mPrims, 0, count);
+            System.arraycopy(mObjects, from, mObjects, 0, count);
+            Arrays.fill(mObjects, count, from + count, null);
+            mRowCount = 0;
+        }
+    }
+
+    /**
+     * Clears the parameters of the row being edited.
+     */
+    public void clearParameters() {
+        int from = mRowCount * mParamCount;
+        int to = from + mParamCount;
+        Arrays.fill(mKinds, from, to, UNSET);
+        Arrays.fill(mPrims, from, to, 0);
+        Arrays.fill(mObjects, from, to, null);
+    }
+
+    /**
+     * Returns a new batch whose only added row is a copy of the row being edited.
+     */
+    public ParameterBatch editedRow() {
+        ParameterBatch batch = new ParameterBatch();
+        int count = mParamCount;
+        int from = mRowCount * count;
+        batch.mParamCount = count;
+        batch.mRowCount = 1;
+        batch.mKinds = Arrays.copyOfRange(mKinds, from, from + count);
+        batch.mPrims = Arrays.copyOfRange(mPrims, from, from + count);
+        batch.mObjects = Arrays.copyOfRange(mObjects, from, from + count);
+        return batch;
+    }
+
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        set(parameterIndex, NULL, sqlType, null);
+    }
+
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        set(parameterIndex, NULL_TYPE_NAME, sqlType, typeName);
+    }
+
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        set(parameterIndex, BOOLEAN, x ? 1 : 0, null);
+    }
+
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        set(parameterIndex, BYTE, x, null);
+    }
+
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        set(parameterIndex, SHORT, x, null);
+    }
+
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        set(parameterIndex, INT, x, null);
+    }
+
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        set(parameterIndex, LONG, x, null);
+    }
+
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        set(parameterIndex, FLOAT, Float.floatToRawIntBits(x), null);
+    }
+
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        set(parameterIndex, DOUBLE, Double.doubleToRawLongBits(x), null);
+    }
+
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        set(parameterIndex, BIG_DECIMAL, 0, x);
+    }
+
+    public void setString(int parameterIndex, String x) throws SQLException {
+        set(parameterIndex, STRING, 0, x);
+    }
+
+    public void setNString(int parameterIndex, String x) throws SQLException {
+        set(parameterIndex, NSTRING, 0, x);
+    }
+
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        set(parameterIndex, BYTES, 0, x == null ? null : x.clone());
+    }
+
+    public void setDate(int parameterIndex, java.sql.Date x) throws SQLException {
+        set(parameterIndex, DATE, 0, copy(x));
+    }
+
+    public void setTime(int parameterIndex, java.sql.Time x) throws SQLException {
+        set(parameterIndex, TIME, 0, copy(x));
+    }
+
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x) throws SQLException {
+        set(parameterIndex, TIMESTAMP, 0, copy(x));
+    }
+
+    public void setDate(int parameterIndex, java.sql.Date x, Calendar cal)
+        throws SQLException
+    {
+        set(parameterIndex, DATE_CAL, 0, new Object[] {copy(x), copy(cal)});
+    }
+
+    public void setTime(int parameterIndex, java.sql.Time x, Calendar cal)
+        throws SQLException
+    {
+        set(parameterIndex, TIME_CAL, 0, new Object[] {copy(x), copy(cal)});
+    }
+
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x, Calendar cal)
+        throws SQLException
+    {
+        set(parameterIndex, TIMESTAMP_CAL, 0, new Object[] {copy(x), copy(cal)});
+    }
+
+    public void setURL(int parameterIndex, java.net.URL x) throws SQLException {
+        set(parameterIndex, URL, 0, x);
+    }
+
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        set(parameterIndex, OBJECT, 0, copyObject(x));
+    }
+
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        set(parameterIndex, OBJECT_TYPE, targetSqlType, copyObject(x));
+    }
+
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
+        throws SQLException
+    {
+        set(parameterIndex, OBJECT_TYPE_SCALE,
+            (((long) targetSqlType) << 32) | (scaleOrLength & 0xffffffffL), copyObject(x));
+    }
+
+    /**
+     * Applies the parameters of an added row to the given statement.
+     *
+     * @param row zero-based row
+     */
+    public void apply(int row, PreparedStatement ps) throws SQLException {
+        if (row < 0 || row >= mRowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row);
+        }
+
+        final byte[] kinds = mKinds;
+        final long[] prims = mPrims;
+        final Object[] objects = mObjects;
+
+        int pos = row * mParamCount;
+        for (int index = 1; index <= mParamCount; index++, pos++) {
+            long p = prims[pos];
+            Object obj = objects[pos];
+            switch (kinds[pos]) {
+            case UNSET: default:
+                break;
+            case NULL:
+                ps.setNull(index, (int) p);
+                break;
+            case NULL_TYPE_NAME:
+                ps.setNull(index, (int) p, (String) obj);
+                break;
+            case BOOLEAN:
+                ps.setBoolean(index, p != 0);
+                break;
+            case BYTE:
+                ps.setByte(index, (byte) p);
+                break;
+            case SHORT:
+                ps.setShort(index, (short) p);
+                break;
+            case INT:
+                ps.setInt(index, (int) p);
+                break;
+            case LONG:
+                ps.setLong(index, p);
+                break;
+            case FLOAT:
+                ps.setFloat(index, Float.intBitsToFloat((int) p));
+                break;
+            case DOUBLE:
+                ps.setDouble(index, Double.longBitsToDouble(p));
+                break;
+            case BIG_DECIMAL:
+                ps.setBigDecimal(index, (BigDecimal) obj);
+                break;
+            case STRING:
+                ps.setString(index, (String) obj);
+                break;
+            case NSTRING:
+                ps.setNString(index, (String) obj);
+                break;
+            case BYTES:
+                ps.setBytes(index, (byte[]) obj);
+                break;
+            case DATE:
+                ps.setDate(index, (java.sql.Date) obj);
+                break;
+            case TIME:
+                ps.setTime(index, (java.sql.Time) obj);
+                break;
+            case TIMESTAMP:
+                ps.setTimestamp(index, (java.sql.Timestamp) obj);
+                break;
+            case DATE_CAL: {
+                Object[] pair = (Object[]) obj;
+                ps.setDate(index, (java.sql.Date) pair[0], (Calendar) pair[1]);
+                break;
+            }
+            case TIME_CAL: {
+                Object[] pair = (Object[]) obj;
+                ps.setTime(index, (java.sql.Time) pair[0], (Calendar) pair[1]);
+                break;
+            }
+            case TIMESTAMP_CAL: {
+                Object[] pair = (Object[]) obj;
+                ps.setTimestamp(index, (java.sql.Timestamp) pair[0], (Calendar) pair[1]);
+                break;
+            }
+            case URL:
+                ps.setURL(index, (java.net.URL) obj);
+                break;
+            case OBJECT:
+                ps.setObject(index, obj);
+                break;
+            case OBJECT_TYPE:
+                ps.setObject(index, obj, (int) p);
+                break;
+            case OBJECT_TYPE_SCALE:
+                ps.setObject(index, obj, (int) (p >> 32), (int) p);
+                break;
+            }
+        }
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        final int count = mParamCount;
+        final int rowCount = mRowCount;
+        final byte[] kinds = mKinds;
+        final long[] prims = mPrims;
+        final Object[] objects = mObjects;
+
+        out.writeInt(count);
+        out.writeInt(rowCount);
+
+        for (int pos = 0, end = rowCount * count; pos < end; pos++) {
+            byte kind = kinds[pos];
+            out.writeByte(kind);
+            switch (kind) {
+            case UNSET:
+                break;
+            case BOOLEAN: case BYTE:
+                out.writeByte((int) prims[pos]);
+                break;
+            case SHORT:
+                out.writeShort((int) prims[pos]);
+                break;
+            case NULL: case INT: case FLOAT:
+                out.writeInt((int) prims[pos]);
+                break;
+            case LONG: case DOUBLE:
+                out.writeLong(prims[pos]);
+                break;
+            case NULL_TYPE_NAME: case OBJECT_TYPE:
+                out.writeInt((int) prims[pos]);
+                out.writeObject(objects[pos]);
+                break;
+            case OBJECT_TYPE_SCALE:
+                out.writeLong(prims[pos]);
+                out.writeObject(objects[pos]);
+                break;
+            default:
+                out.writeObject(objects[pos]);
+                break;
+            }
+        }
+    }
+
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        final int count = in.readInt();
+        final int rowCount = in.readInt();
+        final int end = rowCount * count;
+
+        final byte[] kinds = new byte[end];
+        final long[] prims = new long[end];
+        final Object[] objects = new Object[end];
+
+        for (int pos = 0; pos < end; pos++) {
+            byte kind = in.readByte();
+            kinds[pos] = kind;
+            switch (kind) {
+            case UNSET:
+                break;
+            case BOOLEAN: case BYTE:
+                prims[pos] = in.readByte();
+                break;
+            case SHORT:
+                prims[pos] = in.readShort();
+                break;
+            case NULL: case INT: case FLOAT:
+                prims[pos] = in.readInt();
+                break;
+            case LONG: case DOUBLE:
+                prims[pos] = in.readLong();
+                break;
+            case NULL_TYPE_NAME: case OBJECT_TYPE:
+                prims[pos] = in.readInt();
+                objects[pos] = in.readObject();
+                break;
+            case OBJECT_TYPE_SCALE:
+                prims[pos] = in.readLong();
+                objects[pos] = in.readObject();
+                break;
+            default:
+                objects[pos] = in.readObject();
+                break;
+            }
+        }
+
+        mParamCount = count;
+        mRowCount = rowCount;
+        mKinds = kinds;
+        mPrims = prims;
+        mObjects = objects;
+    }
+
+    private void set(int parameterIndex, byte kind, long prim, Object obj) throws SQLException {
+        if (parameterIndex < 1) {
+            throw new SQLException("Parameter index out of range: " + parameterIndex);
+        }
+        if (parameterIndex > mParamCount) {
+            restride(parameterIndex);
+        }
+        int pos = mRowCount * mParamCount + parameterIndex - 1;
+        mKinds[pos] = kind;
+        mPrims[pos] = prim;
+        mObjects[pos] = obj;
+    }
+
+    private static java.sql.Date copy(java.sql.Date x) {
+        return x == null ? null : new java.sql.Date(x.getTime());
+    }
+
+    private static java.sql.Time copy(java.sql.Time x) {
+        return x == null ? null : new java.sql.Time(x.getTime());
+    }
+
+    private static java.sql.Timestamp copy(java.sql.Timestamp x) {
+        if (x == null) {
+            return null;
+        }
+        java.sql.Timestamp copy = new java.sql.Timestamp(x.getTime());
+        copy.setNanos(x.getNanos());
+        return copy;
+    }
+
+    private static Calendar copy(Calendar cal) {
+        return cal == null ? null : (Calendar) cal.clone();
+    }
+
+    private static Object copyObject(Object x) {
+        if (x instanceof byte[]) {
+            return ((byte[]) x).clone();
+        }
+        if (x instanceof java.sql.Timestamp) {
+            return copy((java.sql.Timestamp) x);
+        }
+        if (x instanceof java.sql.Date) {
+            return copy((java.sql.Date) x);
+        }
+        if (x instanceof java.sql.Time) {
+            return copy((java.sql.Time) x);
+        }
+        return x;
+    }
+
+    private void restride(int newCount) {
+        final int oldCount = mParamCount;
+        final int rows = mRowCount + 1;
+
+        byte[] kinds = new byte[rows * newCount * 2];
+        long[] prims = new long[kinds.length];
+        Object[] objects = new Object[kinds.length];
+
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(mKinds, row * oldCount, kinds, row * newCount, oldCount);
+            System.arraycopy(mPrims, row * oldCount, prims, row * newCount, oldCount);
+            System.arraycopy(mObjects, row * oldCount, objects, row * newCount, oldCount);
+        }
+
+        mParamCount = newCount;
+        mKinds = kinds;
+        mPrims = prims;
+        mObjects = objects;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > mKinds.length) {
+            length = Math.max(length, mKinds.length * 2);
+            mKinds = Arrays.copyOf(mKinds, length);
+            mPrims = Arrays.copyOf(mPrims, length);
+            mObjects = Arrays.copyOf(mObjects, length);
+        }
+    }
+}
@@ -179,6 +179,24 @@ public interface RemotePreparedStatement extends RemoteStatement {
     @Batched
     void addBatch() throws SQLException;
 
+    /**
+     * Applies the parameters of the first row, as if set individually.
+     */
+    @Batched
+    void setParameters(ParameterBatch params) throws SQLException;
+
+    /**
+     * Adds all rows of parameters to the batch and then executes it.
+     */
+    int[] executeBatch(ParameterBatch batch) throws SQLException;
+
+    /**
+     * Restores the statement for reuse by the statement cache. Parameters,
+     * batch, warnings and any open result set are cleared, and settings
+     * changed since the statement was prepared are restored.
+     */
+    void reset() throws SQLException;
+
     ResultSetMetaDataCopy getMetaData() throws SQLException;
 
     /* FIXME
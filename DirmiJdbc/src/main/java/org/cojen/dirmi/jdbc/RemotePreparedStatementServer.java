@@ -17,6 +17,7 @@
 package org.cojen.dirmi.jdbc;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import org.cojen.dirmi.util.Wrapper;
@@ -38,11 +39,89 @@ public abstract class RemotePreparedStatementServer extends RemoteStatementServe
 
     private final PreparedStatement mStatement;
 
+    // Original settings, saved when first changed. Negative if unchanged.
+    private int mMaxRows = -1;
+    private int mMaxFieldSize = -1;
+    private int mQueryTimeout = -1;
+    private int mFetchDirection = -1;
+    private boolean mEscapeProcessingChanged;
+
     protected RemotePreparedStatementServer(PreparedStatement st) {
         super(st);
         mStatement = st;
     }
 
+    public void setMaxRows(int max) throws SQLException {
+        if (mMaxRows < 0) {
+            mMaxRows = mStatement.getMaxRows();
+        }
+        mStatement.setMaxRows(max);
+    }
+
+    public void setMaxFieldSize(int max) throws SQLException {
+        if (mMaxFieldSize < 0) {
+            mMaxFieldSize = mStatement.getMaxFieldSize();
+        }
+        mStatement.setMaxFieldSize(max);
+    }
+
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (mQueryTimeout < 0) {
+            mQueryTimeout = mStatement.getQueryTimeout();
+        }
+        mStatement.setQueryTimeout(seconds);
+    }
+
+    public void setFetchDirection(int direction) throws SQLException {
+        if (mFetchDirection < 0) {
+            mFetchDirection = mStatement.getFetchDirection();
+        }
+        mStatement.setFetchDirection(direction);
+    }
+
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        mEscapeProcessingChanged = true;
+        mStatement.setEscapeProcessing(enable);
+    }
+
+    public void reset() throws SQLException {
+        PreparedStatement st = mStatement;
+
+        ResultSet rs = st.getResultSet();
+        if (rs != null) {
+            rs.close();
+        }
+
+        st.clearParameters();
+        st.clearBatch();
+        st.clearWarnings();
+
+        if (mMaxRows >= 0) {
+            st.setMaxRows(mMaxRows);
+            mMaxRows = -1;
+        }
+        if (mMaxFieldSize >= 0) {
+            st.setMaxFieldSize(mMaxFieldSize);
+            mMaxFieldSize = -1;
+        }
+        if (mQueryTimeout >= 0) {
+            st.setQueryTimeout(mQueryTimeout);
+            mQueryTimeout = -1;
+        }
+        if (mFetchDirection >= 0) {
+            st.setFetchDirection(mFetchDirection);
+            mFetchDirection = -1;
+        }
+        if (mEscapeProcessingChanged) {
+            // Enabled by default, as required by JDBC.
+            st.setEscapeProcessing(true);
+            mEscapeProcessingChanged = false;
+        }
+
+        // Restores the default fetch size.
+        setFetchSize(0);
+    }
+
     public ResultSetTransport executeQuery() throws SQLException {
         return new ResultSetTransport(mStatement.executeQuery());
     }
@@ -50,4 +129,17 @@ public abstract class RemotePreparedStatementServer extends RemoteStatementServe
     public ResultSetMetaDataCopy getMetaData() throws SQLException {
         return new ResultSetMetaDataCopy(mStatement.getMetaData());
     }
+
+    public void setParameters(ParameterBatch params) throws SQLException {
+        params.apply(0, mStatement);
+    }
+
+    public int[] executeBatch(ParameterBatch batch) throws SQLException {
+        int rowCount = batch.getRowCount();
+        for (int i=0; i<rowCount; i++) {
+            batch.apply(i, mStatement);
+            mStatement.addBatch();
+        }
+        return mStatement.executeBatch();
+    }
 }
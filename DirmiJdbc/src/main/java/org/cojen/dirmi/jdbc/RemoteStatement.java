@@ -17,10 +17,12 @@
 package org.cojen.dirmi.jdbc;
 
 import java.rmi.Remote;
+import java.rmi.RemoteException;
 
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 
+import org.cojen.dirmi.Asynchronous;
 import org.cojen.dirmi.Batched;
 import org.cojen.dirmi.RemoteFailure;
 
@@ -37,6 +39,13 @@ public interface RemoteStatement extends Remote {
 
     void close() throws SQLException;
 
+    /**
+     * Closes the statement without waiting, ignoring any exception.
+     */
+    @Asynchronous
+    @RemoteFailure(exception=RemoteException.class)
+    void closeAsync() throws RemoteException;
+
     int getMaxFieldSize() throws SQLException;
     
     @Batched
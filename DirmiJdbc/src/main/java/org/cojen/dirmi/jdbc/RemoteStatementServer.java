@@ -68,4 +68,12 @@ public abstract class RemoteStatementServer implements RemoteStatement {
         mStatement.setFetchSize(mFetchSize);
         return new ResultSetTransport(mStatement.getGeneratedKeys());
     }
+
+    public void closeAsync() {
+        try {
+            mStatement.close();
+        } catch (SQLException e) {
+            // Ignore.
+        }
+    }
 }
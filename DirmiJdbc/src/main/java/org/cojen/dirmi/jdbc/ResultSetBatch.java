@@ -0,0 +1,715 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.sql.Types.*;
+
+/**
+ * Block of ResultSet rows, encoded column by column. Numeric and boolean
+ * columns are encoded as primitive arrays, string columns are dictionary
+ * encoded, and nulls are tracked with a bitmap. Other types fall back to
+ * object serialization. A batch read from a stream decodes each column
+ * only when it is first accessed.
+ *
+ * @author Brian S O'Neill
+ */
+public class ResultSetBatch {
+    static final int DEFAULT_SIZE = 100, MAX_SIZE = 10000;
+
+    static final byte
+        COLUMN_MISSING = 0, COLUMN_NULL = 1, COLUMN_OBJECT = 2,
+        COLUMN_BOOLEAN = 3, COLUMN_BYTE = 4, COLUMN_SHORT = 5, COLUMN_INT = 6,
+        COLUMN_LONG = 7, COLUMN_FLOAT = 8, COLUMN_DOUBLE = 9, COLUMN_STRING = 10;
+
+    private static final int SOURCE_MISSING = 0, SOURCE_OBJECT = 1,
+        SOURCE_BLOB = 2, SOURCE_CLOB = 3;
+
+    /**
+     * Reads the next batch, returning null when no rows remain. The end of
+     * rows is followed by a throwable, which must be read by the caller.
+     */
+    public static ResultSetBatch readFrom(ObjectInput in)
+        throws IOException, ClassNotFoundException
+    {
+        int rowCount = in.readInt();
+        if (rowCount <= 0) {
+            return null;
+        }
+
+        int columnCount = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+
+        byte[] kinds = new byte[columnCount];
+        int[] offsets = new int[columnCount];
+        Object[] values = new Object[columnCount];
+
+        int pos = 0;
+        for (int i=0; i<columnCount; i++) {
+            kinds[i] = data[pos];
+            offsets[i] = pos + 5;
+            pos = offsets[i] + readInt(data, pos + 1);
+        }
+
+        for (int i=0; i<columnCount; i++) {
+            if (kinds[i] == COLUMN_OBJECT) {
+                Object[] objects = new Object[rowCount];
+                for (int j=0; j<rowCount; j++) {
+                    objects[j] = in.readObject();
+                }
+                values[i] = objects;
+            }
+        }
+
+        return new ResultSetBatch(rowCount, kinds, data, offsets, values);
+    }
+
+    /**
+     * Writes the marker which indicates that no more batches follow.
+     */
+    public static void writeEnd(ObjectOutput out) throws IOException {
+        out.writeInt(0);
+    }
+
+    private final int mRowCount;
+    private final byte[] mKinds;
+    private final byte[] mData;
+    private final int[] mOffsets;
+
+    // Decoded column values, per column. Is a primitive array, String[] or
+    // Object[], depending on the column kind.
+    private final Object[] mValues;
+    // Null bitmaps, per decoded column. Is null if column has no nulls.
+    private final long[][] mNulls;
+
+    private ResultSetBatch(int rowCount, byte[] kinds, byte[] data, int[] offsets,
+                           Object[] values)
+    {
+        mRowCount = rowCount;
+        mKinds = kinds;
+        mData = data;
+        mOffsets = offsets;
+        mValues = values;
+        mNulls = new long[kinds.length][];
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    public void writeTo(ObjectOutput out) throws IOException {
+        out.writeInt(mRowCount);
+        out.writeInt(mKinds.length);
+        out.writeInt(mData.length);
+        out.write(mData);
+        for (int i=0; i<mKinds.length; i++) {
+            if (mKinds[i] == COLUMN_OBJECT) {
+                Object[] objects = (Object[]) mValues[i];
+                for (int j=0; j<mRowCount; j++) {
+                    out.writeObject(objects[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param columnIndex first column is 1
+     * @return one of the COLUMN_ constants
+     */
+    int columnKind(int columnIndex) throws SQLException {
+        if (columnIndex < 1 || columnIndex > mKinds.length) {
+            throw new SQLException("Column index out of range: " + columnIndex);
+        }
+        return mKinds[columnIndex - 1];
+    }
+
+    /**
+     * @param row zero-based row in this batch
+     * @param columnIndex first column is 1
+     */
+    boolean isNull(int row, int columnIndex) throws SQLException {
+        switch (columnKind(columnIndex)) {
+        case COLUMN_MISSING:
+            throw missing(columnIndex);
+        case COLUMN_NULL:
+            return true;
+        case COLUMN_OBJECT:
+            return ((Object[]) mValues[columnIndex - 1])[row] == null;
+        }
+        int column = columnIndex - 1;
+        decode(column);
+        long[] nulls = mNulls[column];
+        return nulls != null && (nulls[row >> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Returns a column value from a BYTE, SHORT, INT or LONG column, or zero
+     * if null.
+     */
+    long getLong(int row, int columnIndex) throws SQLException {
+        int column = columnIndex - 1;
+        Object values = decode(column);
+        switch (mKinds[column]) {
+        case COLUMN_BYTE:
+            return ((byte[]) values)[row];
+        case COLUMN_SHORT:
+            return ((short[]) values)[row];
+        case COLUMN_INT:
+            return ((int[]) values)[row];
+        case COLUMN_LONG:
+            return ((long[]) values)[row];
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Returns a column value from a BYTE, SHORT, INT, FLOAT or DOUBLE column,
+     * or zero if null.
+     */
+    double getDouble(int row, int columnIndex) throws SQLException {
+        int column = columnIndex - 1;
+        Object values = decode(column);
+        switch (mKinds[column]) {
+        case COLUMN_FLOAT:
+            return ((float[]) values)[row];
+        case COLUMN_DOUBLE:
+            return ((double[]) values)[row];
+        default:
+            return getLong(row, columnIndex);
+        }
+    }
+
+    /**
+     * @param row zero-based row in this batch
+     * @param columnIndex first column is 1
+     */
+    public Object getValue(int row, int columnIndex) throws SQLException {
+        int kind = columnKind(columnIndex);
+        if (kind == COLUMN_NULL) {
+            return null;
+        }
+        if (isNull(row, columnIndex)) {
+            return null;
+        }
+
+        Object values = mValues[columnIndex - 1];
+
+        switch (kind) {
+        case COLUMN_BOOLEAN:
+            return ((boolean[]) values)[row];
+        case COLUMN_BYTE:
+            return ((byte[]) values)[row];
+        case COLUMN_SHORT:
+            return ((short[]) values)[row];
+        case COLUMN_INT:
+            return ((int[]) values)[row];
+        case COLUMN_LONG:
+            return ((long[]) values)[row];
+        case COLUMN_FLOAT:
+            return ((float[]) values)[row];
+        case COLUMN_DOUBLE:
+            return ((double[]) values)[row];
+        default:
+            return ((Object[]) values)[row];
+        }
+    }
+
+    /**
+     * Decodes a primitive or string column, if not already decoded.
+     *
+     * @param column zero-based column
+     */
+    private Object decode(int column) {
+        Object values = mValues[column];
+        if (values != null) {
+            return values;
+        }
+
+        final byte[] data = mData;
+        final int rowCount = mRowCount;
+        int pos = mOffsets[column];
+
+        if (data[pos++] != 0) {
+            long[] nulls = new long[(rowCount + 63) >> 6];
+            for (int i=0; i<nulls.length; i++, pos += 8) {
+                nulls[i] = readLong(data, pos);
+            }
+            mNulls[column] = nulls;
+        }
+
+        switch (mKinds[column]) {
+        case COLUMN_BOOLEAN: {
+            boolean[] v = new boolean[rowCount];
+            for (int i=0; i<rowCount; i++) {
+                v[i] = data[pos++] != 0;
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_BYTE:
+            values = Arrays.copyOfRange(data, pos, pos + rowCount);
+            break;
+
+        case COLUMN_SHORT: {
+            short[] v = new short[rowCount];
+            for (int i=0; i<rowCount; i++, pos += 2) {
+                v[i] = (short) ((data[pos] << 8) | (data[pos + 1] & 0xff));
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_INT: {
+            int[] v = new int[rowCount];
+            for (int i=0; i<rowCount; i++, pos += 4) {
+                v[i] = readInt(data, pos);
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_LONG: {
+            long[] v = new long[rowCount];
+            for (int i=0; i<rowCount; i++, pos += 8) {
+                v[i] = readLong(data, pos);
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_FLOAT: {
+            float[] v = new float[rowCount];
+            for (int i=0; i<rowCount; i++, pos += 4) {
+                v[i] = Float.intBitsToFloat(readInt(data, pos));
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_DOUBLE: {
+            double[] v = new double[rowCount];
+            for (int i=0; i<rowCount; i++, pos += 8) {
+                v[i] = Double.longBitsToDouble(readLong(data, pos));
+            }
+            values = v;
+            break;
+        }
+
+        case COLUMN_STRING: {
+            String[] dictionary = new String[readInt(data, pos)];
+            pos += 4;
+            for (int i=0; i<dictionary.length; i++) {
+                int length = readInt(data, pos);
+                pos += 4;
+                dictionary[i] = decodeString(data, pos, length);
+                pos += length;
+            }
+
+            String[] v = new String[rowCount];
+            long[] nulls = mNulls[column];
+            int width = indexWidth(dictionary.length);
+            for (int i=0; i<rowCount; i++, pos += width) {
+                if (nulls == null || (nulls[i >> 6] & (1L << i)) == 0) {
+                    v[i] = dictionary[readIndex(data, pos, width)];
+                }
+            }
+            values = v;
+            break;
+        }
+
+        default:
+            throw new IllegalStateException();
+        }
+
+        return mValues[column] = values;
+    }
+
+    private static SQLException missing(int columnIndex) {
+        return new SQLException("Column at " + columnIndex + " is missing");
+    }
+
+    private static int indexWidth(int dictionarySize) {
+        return dictionarySize <= 0x100 ? 1 : (dictionarySize <= 0x10000 ? 2 : 4);
+    }
+
+    private static int readIndex(byte[] data, int pos, int width) {
+        switch (width) {
+        case 1:
+            return data[pos] & 0xff;
+        case 2:
+            return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+        default:
+            return readInt(data, pos);
+        }
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] << 24) | ((data[pos + 1] & 0xff) << 16)
+            | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        return (((long) readInt(data, pos)) << 32) | (readInt(data, pos + 4) & 0xffffffffL);
+    }
+
+    private static String decodeString(byte[] data, int pos, int length) {
+        try {
+            return new String(data, pos, length, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] encodeString(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads rows from a ResultSet and encodes them into batches.
+     */
+    static class Builder {
+        private final ResultSet mResultSet;
+        private final int[] mSources;
+        private final int mBatchSize;
+        private final Object[][] mColumns;
+
+        private final ByteArrayOutputStream mColumnBytes;
+        private final DataOutputStream mColumnOut;
+
+        private boolean mExhausted;
+        private SQLException mPendingException;
+
+        /**
+         * @param batchSize maximum rows per batch; if zero or negative, use default
+         */
+        Builder(ResultSet rs, ResultSetMetaData md, int batchSize) throws SQLException {
+            if (batchSize <= 0) {
+                batchSize = DEFAULT_SIZE;
+            } else if (batchSize > MAX_SIZE) {
+                batchSize = MAX_SIZE;
+            }
+
+            final int columns = md.getColumnCount();
+            int[] sources = new int[columns];
+
+            for (int i=0; i<columns; i++) {
+                int type = md.getColumnType(i + 1);
+                String typeName = md.getColumnTypeName(i + 1);
+                type = ResultSetRow.correctType(type, typeName);
+                if (ResultSetRow.isSimpleSupportedType(type)) {
+                    sources[i] = SOURCE_OBJECT;
+                } else if (type == BLOB) {
+                    // FIXME: convert to RemoteBlobServer
+                    sources[i] = SOURCE_BLOB;
+                } else if (type == CLOB) {
+                    // FIXME: convert to RemoteClobServer
+                    sources[i] = SOURCE_CLOB;
+                } else {
+                    sources[i] = SOURCE_MISSING;
+                }
+            }
+
+            mResultSet = rs;
+            mSources = sources;
+            mBatchSize = batchSize;
+            mColumns = new Object[columns][batchSize];
+            mColumnBytes = new ByteArrayOutputStream();
+            mColumnOut = new DataOutputStream(mColumnBytes);
+        }
+
+        /**
+         * Returns the next batch of rows, or null if none remain. If reading
+         * fails partway through a batch, the rows read so far are returned
+         * and the exception is thrown by the following call.
+         */
+        ResultSetBatch next() throws SQLException {
+            SQLException pending = mPendingException;
+            if (pending != null) {
+                mPendingException = null;
+                throw pending;
+            }
+
+            if (mExhausted) {
+                return null;
+            }
+
+            final ResultSet rs = mResultSet;
+            final int[] sources = mSources;
+            final Object[][] columns = mColumns;
+
+            int rowCount = 0;
+            try {
+                while (rowCount < mBatchSize) {
+                    if (!rs.next()) {
+                        mExhausted = true;
+                        break;
+                    }
+                    for (int i=0; i<sources.length; i++) {
+                        Object value;
+                        switch (sources[i]) {
+                        default:
+                            continue;
+                        case SOURCE_OBJECT:
+                            value = rs.getObject(i + 1);
+                            break;
+                        case SOURCE_BLOB:
+                            value = rs.getBlob(i + 1);
+                            break;
+                        case SOURCE_CLOB:
+                            value = rs.getClob(i + 1);
+                            break;
+                        }
+                        columns[i][rowCount] = value;
+                    }
+                    rowCount++;
+                }
+            } catch (SQLException e) {
+                mExhausted = true;
+                // Discard the incomplete row.
+                for (int i=0; i<columns.length; i++) {
+                    columns[i][rowCount] = null;
+                }
+                if (rowCount == 0) {
+                    throw e;
+                }
+                mPendingException = e;
+            }
+
+            if (rowCount == 0) {
+                return null;
+            }
+
+            try {
+                return encode(rowCount);
+            } catch (IOException e) {
+                // Only writing to memory.
+                throw new AssertionError(e);
+            }
+        }
+
+        private ResultSetBatch encode(int rowCount) throws IOException {
+            final int columnCount = mColumns.length;
+
+            byte[] kinds = new byte[columnCount];
+            Object[] values = new Object[columnCount];
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(bout);
+
+            for (int i=0; i<columnCount; i++) {
+                Object[] column = mColumns[i];
+                byte kind = mSources[i] == SOURCE_MISSING ? COLUMN_MISSING
+                    : kindOf(column, rowCount);
+
+                mColumnBytes.reset();
+                if (kind == COLUMN_OBJECT) {
+                    values[i] = Arrays.copyOf(column, rowCount);
+                } else if (kind != COLUMN_MISSING && kind != COLUMN_NULL) {
+                    encodeColumn(mColumnOut, kind, column, rowCount);
+                }
+
+                kinds[i] = kind;
+                dout.writeByte(kind);
+                dout.writeInt(mColumnBytes.size());
+                mColumnBytes.writeTo(dout);
+
+                Arrays.fill(column, 0, rowCount, null);
+            }
+
+            return new ResultSetBatch(rowCount, kinds, bout.toByteArray(), null, values);
+        }
+
+        private static byte kindOf(Object[] column, int rowCount) {
+            Class clazz = null;
+            for (int i=0; i<rowCount; i++) {
+                Object value = column[i];
+                if (value != null) {
+                    if (clazz == null) {
+                        clazz = value.getClass();
+                    } else if (clazz != value.getClass()) {
+                        return COLUMN_OBJECT;
+                    }
+                }
+            }
+
+            if (clazz == null) {
+                return COLUMN_NULL;
+            } else if (clazz == Integer.class) {
+                return COLUMN_INT;
+            } else if (clazz == Long.class) {
+                return COLUMN_LONG;
+            } else if (clazz == Double.class) {
+                return COLUMN_DOUBLE;
+            } else if (clazz == String.class) {
+                return COLUMN_STRING;
+            } else if (clazz == Boolean.class) {
+                return COLUMN_BOOLEAN;
+            } else if (clazz == Short.class) {
+                return COLUMN_SHORT;
+            } else if (clazz == Byte.class) {
+                return COLUMN_BYTE;
+            } else if (clazz == Float.class) {
+                return COLUMN_FLOAT;
+            } else {
+                return COLUMN_OBJECT;
+            }
+        }
+
+        private static void encodeColumn(DataOutputStream out, byte kind,
+                                         Object[] column, int rowCount)
+            throws IOException
+        {
+            long[] nulls = null;
+            for (int i=0; i<rowCount; i++) {
+                if (column[i] == null) {
+                    if (nulls == null) {
+                        nulls = new long[(rowCount + 63) >> 6];
+                    }
+                    nulls[i >> 6] |= 1L << i;
+                }
+            }
+
+            if (nulls == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                for (long word : nulls) {
+                    out.writeLong(word);
+                }
+            }
+
+            switch (kind) {
+            case COLUMN_BOOLEAN:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeBoolean(v == null ? false : (Boolean) v);
+                }
+                break;
+
+            case COLUMN_BYTE:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeByte(v == null ? 0 : (Byte) v);
+                }
+                break;
+
+            case COLUMN_SHORT:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeShort(v == null ? 0 : (Short) v);
+                }
+                break;
+
+            case COLUMN_INT:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeInt(v == null ? 0 : (Integer) v);
+                }
+                break;
+
+            case COLUMN_LONG:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeLong(v == null ? 0 : (Long) v);
+                }
+                break;
+
+            case COLUMN_FLOAT:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeFloat(v == null ? 0 : (Float) v);
+                }
+                break;
+
+            case COLUMN_DOUBLE:
+                for (int i=0; i<rowCount; i++) {
+                    Object v = column[i];
+                    out.writeDouble(v == null ? 0 : (Double) v);
+                }
+                break;
+
+            case COLUMN_STRING: {
+                Map<String, Integer> dictionary = new HashMap<String, Integer>();
+                int[] indexes = new int[rowCount];
+                for (int i=0; i<rowCount; i++) {
+                    String v = (String) column[i];
+                    if (v != null) {
+                        Integer index = dictionary.get(v);
+                        if (index == null) {
+                            index = dictionary.size();
+                            dictionary.put(v, index);
+                        }
+                        indexes[i] = index;
+                    }
+                }
+
+                String[] entries = new String[dictionary.size()];
+                for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                    entries[entry.getValue()] = entry.getKey();
+                }
+
+                out.writeInt(entries.length);
+                for (String entry : entries) {
+                    byte[] bytes = encodeString(entry);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                int width = indexWidth(entries.length);
+                for (int index : indexes) {
+                    switch (width) {
+                    case 1:
+                        out.writeByte(index);
+                        break;
+                    case 2:
+                        out.writeShort(index);
+                        break;
+                    default:
+                        out.writeInt(index);
+                        break;
+                    }
+                }
+                break;
+            }
+
+            default:
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class ResultSetRow implements Serializable {
         mColumnValues = columnValues;
     }
 
-    private static int correctType(int type, String typeName) {
+    static int correctType(int type, String typeName) {
         switch (type) {
         case OTHER:
             if ("BLOB".equalsIgnoreCase(typeName)) {
@@ -96,7 +96,7 @@ public class ResultSetRow implements Serializable {
         return type;
     }
 
-    private static boolean isSimpleSupportedType(int type) {
+    static boolean isSimpleSupportedType(int type) {
         switch (type) {
         case BIT: case TINYINT: case SMALLINT: case INTEGER: case BIGINT:
         case FLOAT: case REAL: case DOUBLE: case NUMERIC: case DECIMAL:
@@ -23,9 +23,6 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-
 import org.cojen.dirmi.Pipe;
 
 /**
@@ -34,71 +31,34 @@ import org.cojen.dirmi.Pipe;
  * @author Brian S O'Neill
  */
 public class ResultSetRowFetcherServer implements ResultSetRowFetcher {
-    static final Object NULL = new Object();
-
     final ResultSet mResultSet;
     final ResultSetMetaData mMetaData;
-    final BlockingQueue<Object> mRowQueue;
 
     public ResultSetRowFetcherServer(ResultSet rs, ResultSetMetaData md) {
         mResultSet = rs;
         mMetaData = md;
-        mRowQueue = new ArrayBlockingQueue<Object>(1000);
-
-        // FIXME: use thread pool
-        new Thread() {
-            public void run() {
-                try {
-                    while (mResultSet.next()) {
-                        ResultSetRow row = new ResultSetRow(mResultSet, mMetaData);
-                        mRowQueue.put(row);
-                    }
-                    mRowQueue.put(NULL);
-                    mRowQueue.put(NULL);
-                } catch (InterruptedException e) {
-                    try {
-                        mRowQueue.put(NULL);
-                        mRowQueue.put(new SQLException(e));
-                    } catch (InterruptedException e2) {
-                    }
-                } catch (SQLException e) {
-                    try {
-                        mRowQueue.put(NULL);
-                        mRowQueue.put(e);
-                    } catch (InterruptedException e2) {
-                    }
-                }
-            }
-        }.start();
     }
 
     public Pipe fetch(Pipe pipe) {
+        // Batches are built by the session thread which runs this method,
+        // which is invoked as soon as the client receives the result set.
+        // Encoding the next batch overlaps with sending the previous one.
         try {
+            SQLException exception = null;
             try {
-                int count = 0;
-                while (true) {
-                    Object obj = mRowQueue.take();
-                    if (obj == NULL) {
-                        pipe.writeObject(null);
-                        obj = mRowQueue.take();
-                        if (obj == NULL) {
-                            pipe.writeThrowable(null);
-                        } else {
-                            pipe.writeThrowable((Throwable) obj);
-                        }
-                        break;
-                    } else {
-                        pipe.writeObject(obj);
-                    }
-                    if (++count >= 100) {
-                        pipe.reset();
-                        count = 0;
-                    }
+                ResultSetBatch.Builder builder = new ResultSetBatch.Builder
+                    (mResultSet, mMetaData, mResultSet.getFetchSize());
+                ResultSetBatch batch;
+                while ((batch = builder.next()) != null) {
+                    batch.writeTo(pipe);
+                    // Release handles to any serialized column values.
+                    pipe.reset();
                 }
-            } catch (InterruptedException e) {
-                pipe.writeObject(null);
-                pipe.writeThrowable(e);
+            } catch (SQLException e) {
+                exception = e;
             }
+            ResultSetBatch.writeEnd(pipe);
+            pipe.writeThrowable(exception);
         } catch (IOException e) {
             // FIXME: log it
         } finally {
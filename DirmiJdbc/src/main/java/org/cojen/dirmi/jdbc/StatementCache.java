@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.jdbc;
+
+import java.rmi.RemoteException;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client-side cache of idle prepared statements, keyed by SQL and result
+ * set options. Least recently used statements are evicted and closed
+ * asynchronously.
+ *
+ * @author Brian S O'Neill
+ */
+class StatementCache {
+    static final int DEFAULT_SIZE = 250;
+
+    private final LinkedHashMap<Key, RemotePreparedStatement> mIdle;
+    private int mMaxSize;
+
+    StatementCache(int maxSize) {
+        mIdle = new LinkedHashMap<Key, RemotePreparedStatement>(16, 0.75f, true);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @param maxSize maximum amount of idle statements; zero disables the cache
+     */
+    void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Size: " + maxSize);
+        }
+        List<RemotePreparedStatement> evicted;
+        synchronized (this) {
+            mMaxSize = maxSize;
+            evicted = trim();
+        }
+        closeAll(evicted);
+    }
+
+    synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns a cached statement, or null if none.
+     */
+    synchronized RemotePreparedStatement acquire(Key key) {
+        return mIdle.remove(key);
+    }
+
+    /**
+     * Returns a statement to the cache, or closes it if it cannot be cached.
+     */
+    void release(Key key, RemotePreparedStatement st) {
+        try {
+            st.reset();
+        } catch (SQLException e) {
+            close(st);
+            return;
+        }
+
+        RemotePreparedStatement replaced;
+        List<RemotePreparedStatement> evicted;
+        synchronized (this) {
+            if (mMaxSize <= 0) {
+                replaced = st;
+                evicted = null;
+            } else {
+                replaced = mIdle.put(key, st);
+                evicted = trim();
+            }
+        }
+
+        if (replaced != null) {
+            close(replaced);
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Closes all idle statements.
+     */
+    void clear() {
+        List<RemotePreparedStatement> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<RemotePreparedStatement>(mIdle.values());
+            mIdle.clear();
+        }
+        closeAll(evicted);
+    }
+
+    // Caller must be synchronized.
+    private List<RemotePreparedStatement> trim() {
+        int excess = mIdle.size() - mMaxSize;
+        if (excess <= 0) {
+            return null;
+        }
+        List<RemotePreparedStatement> evicted = new ArrayList<RemotePreparedStatement>(excess);
+        Iterator<RemotePreparedStatement> it = mIdle.values().iterator();
+        while (--excess >= 0) {
+            evicted.add(it.next());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private static void closeAll(List<RemotePreparedStatement> statements) {
+        if (statements != null) {
+            for (RemotePreparedStatement st : statements) {
+                close(st);
+            }
+        }
+    }
+
+    private static void close(RemotePreparedStatement st) {
+        try {
+            st.closeAsync();
+        } catch (RemoteException e) {
+            // Ignore.
+        }
+    }
+
+    static final class Key {
+        final String mSql;
+        final int mType;
+        final int mConcurrency;
+        final int mHoldability;
+
+        /**
+         * @param holdability pass zero for connection default
+         */
+        Key(String sql, int type, int concurrency, int holdability) {
+            mSql = sql;
+            mType = type;
+            mConcurrency = concurrency;
+            mHoldability = holdability;
+        }
+
+        @Override
+        public int hashCode() {
+            return mSql.hashCode() + ((mType * 31 + mConcurrency) * 31 + mHoldability);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return mSql.equals(other.mSql) && mType == other.mType
+                    && mConcurrency == other.mConcurrency
+                    && mHoldability == other.mHoldability;
+            }
+            return false;
+        }
+    }
+}
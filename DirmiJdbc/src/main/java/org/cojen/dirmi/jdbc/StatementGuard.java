@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.SQLException;
+
+/**
+ * Forwards calls to a cached remote statement until closed. A closed client
+ * statement cannot then use the remote statement after it has been returned
+ * to the cache or handed to another client statement.
+ *
+ * @author Brian S O'Neill
+ * @see StatementCache
+ */
+class StatementGuard implements InvocationHandler {
+    private final RemotePreparedStatement mStatement;
+    private volatile boolean mClosed;
+
+    StatementGuard(RemotePreparedStatement st) {
+        mStatement = st;
+    }
+
+    /**
+     * Returns a statement which forwards to the guarded one.
+     */
+    RemotePreparedStatement newProxy() {
+        return (RemotePreparedStatement) Proxy.newProxyInstance
+            (RemotePreparedStatement.class.getClassLoader(),
+             new Class[] {RemotePreparedStatement.class}, this);
+    }
+
+    /**
+     * Returns the guarded statement.
+     */
+    RemotePreparedStatement statement() {
+        return mStatement;
+    }
+
+    /**
+     * Causes all subsequent calls to the proxy to throw an SQLException.
+     */
+    void close() {
+        mClosed = true;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (mClosed && method.getDeclaringClass() != Object.class) {
+            throw new SQLException("Statement is closed");
+        }
+        try {
+            return method.invoke(mStatement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.dirmi.jdbc.TestResultSetBatch.proxy;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestClientConnection {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestClientConnection.class.getName());
+    }
+
+    private static StatementCache.Key key(String sql) {
+        return new StatementCache.Key
+            (sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+    }
+
+    @Test
+    public void leastRecentlyUsed() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        Statement a = new Statement("a");
+        Statement b = new Statement("b");
+        Statement c = new Statement("c");
+
+        cache.release(key("a"), a.mProxy);
+        cache.release(key("b"), b.mProxy);
+
+        // Reusing a makes b the least recently used.
+        assertSame(a.mProxy, cache.acquire(key("a")));
+        assertNull(cache.acquire(key("a")));
+        cache.release(key("a"), a.mProxy);
+
+        cache.release(key("c"), c.mProxy);
+        assertNull(cache.acquire(key("b")));
+        assertSame(c.mProxy, cache.acquire(key("c")));
+        assertSame(a.mProxy, cache.acquire(key("a")));
+
+        // Evicted statement is closed without waiting for the server.
+        assertEquals(Arrays.asList("reset", "closeAsync"), b.calls());
+        assertEquals(Arrays.asList("reset", "reset"), a.calls());
+        assertEquals(Arrays.asList("reset"), c.calls());
+    }
+
+    @Test
+    public void keyOptions() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        Statement a = new Statement("a");
+        cache.release(key("a"), a.mProxy);
+
+        assertNull(cache.acquire(new StatementCache.Key
+                                 ("a", ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                  ResultSet.CONCUR_READ_ONLY, 0)));
+        assertNull(cache.acquire(new StatementCache.Key
+                                 ("a", ResultSet.TYPE_FORWARD_ONLY,
+                                  ResultSet.CONCUR_UPDATABLE, 0)));
+        assertNull(cache.acquire(new StatementCache.Key
+                                 ("a", ResultSet.TYPE_FORWARD_ONLY,
+                                  ResultSet.CONCUR_READ_ONLY,
+                                  ResultSet.HOLD_CURSORS_OVER_COMMIT)));
+        assertSame(a.mProxy, cache.acquire(key("a")));
+    }
+
+    @Test
+    public void replaceAndResize() throws Exception {
+        StatementCache cache = new StatementCache(3);
+        Statement a1 = new Statement("a1");
+        Statement a2 = new Statement("a2");
+        Statement b = new Statement("b");
+        Statement c = new Statement("c");
+
+        // Only one idle statement is kept per key.
+        cache.release(key("a"), a1.mProxy);
+        cache.release(key("a"), a2.mProxy);
+        assertEquals(Arrays.asList("reset", "closeAsync"), a1.calls());
+
+        cache.release(key("b"), b.mProxy);
+        cache.release(key("c"), c.mProxy);
+
+        cache.setMaxSize(1);
+        assertEquals(1, cache.getMaxSize());
+        assertEquals(Arrays.asList("reset", "closeAsync"), a2.calls());
+        assertEquals(Arrays.asList("reset", "closeAsync"), b.calls());
+        assertEquals(Arrays.asList("reset"), c.calls());
+
+        cache.clear();
+        assertEquals(Arrays.asList("reset", "closeAsync"), c.calls());
+        assertNull(cache.acquire(key("c")));
+
+        // Disabled cache closes released statements.
+        cache.setMaxSize(0);
+        Statement d = new Statement("d");
+        cache.release(key("d"), d.mProxy);
+        assertEquals(Arrays.asList("reset", "closeAsync"), d.calls());
+        assertNull(cache.acquire(key("d")));
+
+        try {
+            cache.setMaxSize(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void resetFailure() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        Statement a = new Statement("a");
+        a.mResetFails = true;
+
+        cache.release(key("a"), a.mProxy);
+        assertEquals(Arrays.asList("reset", "closeAsync"), a.calls());
+        assertNull(cache.acquire(key("a")));
+    }
+
+    @Test
+    public void guard() throws Exception {
+        Statement a = new Statement("a");
+        StatementGuard guard = new StatementGuard(a.mProxy);
+        RemotePreparedStatement st = guard.newProxy();
+        assertSame(a.mProxy, guard.statement());
+
+        st.clearParameters();
+        guard.close();
+        try {
+            st.clearParameters();
+            fail();
+        } catch (SQLException e) {
+        }
+        assertEquals(Arrays.asList("clearParameters"), a.calls());
+
+        // Object methods are still forwarded.
+        assertEquals("a", st.toString());
+        assertEquals(a.mProxy.hashCode(), st.hashCode());
+    }
+
+    @Test
+    public void cachedStatements() throws Exception {
+        assumeClientSupported();
+
+        RemoteConnectionRecorder remote = new RemoteConnectionRecorder();
+        Connection con = ClientConnection.from(remote.mProxy);
+        ((ClientConnection) con).setStatementCacheSize(1);
+
+        PreparedStatement ps1 = con.prepareStatement("select a");
+        ps1.close();
+        assertTrue(ps1.isClosed());
+
+        PreparedStatement ps2 = con.prepareStatement("select a");
+        assertNotSame(ps1, ps2);
+        // Remote statement was reset when returned, and then reused.
+        assertEquals(1, remote.mStatements.size());
+        Statement a = remote.mStatements.get(0);
+        assertEquals(Arrays.asList("reset"), a.calls());
+
+        // Closed client statement cannot affect the reused remote statement.
+        try {
+            ps1.clearParameters();
+            fail();
+        } catch (SQLException e) {
+        }
+        ps2.clearParameters();
+        assertEquals(Arrays.asList("reset", "clearParameters"), a.calls());
+
+        // Closing twice doesn't release twice.
+        ps2.close();
+        ps2.close();
+        assertEquals(Arrays.asList("reset", "clearParameters", "reset"), a.calls());
+
+        // Evicted statement is closed asynchronously.
+        con.prepareStatement("select b").close();
+        Statement b = remote.mStatements.get(1);
+        assertEquals(Arrays.asList("reset", "clearParameters", "reset", "closeAsync"),
+                     a.calls());
+
+        // Idle statements are closed with the connection.
+        con.close();
+        assertEquals(Arrays.asList("reset", "closeAsync"), b.calls());
+        assertTrue(remote.mClosed);
+    }
+
+    @Test
+    public void cachedMetaData() throws Exception {
+        assumeClientSupported();
+
+        RemoteConnectionRecorder remote = new RemoteConnectionRecorder();
+        Connection con = ClientConnection.from(remote.mProxy);
+
+        DatabaseMetaData md = con.getMetaData();
+        assertSame(md, con.getMetaData());
+
+        assertEquals("product", md.getDatabaseProductName());
+        assertEquals("product", md.getDatabaseProductName());
+        assertTrue(md.supportsTransactionIsolationLevel(Connection.TRANSACTION_SERIALIZABLE));
+        assertTrue(md.supportsTransactionIsolationLevel(Connection.TRANSACTION_SERIALIZABLE));
+        assertFalse(md.supportsTransactionIsolationLevel(Connection.TRANSACTION_NONE));
+        md.isReadOnly();
+        md.isReadOnly();
+
+        // Answers are cached per argument, except for isReadOnly.
+        assertEquals(Arrays.asList("getDatabaseProductName",
+                                   "supportsTransactionIsolationLevel[8]",
+                                   "supportsTransactionIsolationLevel[0]",
+                                   "isReadOnly", "isReadOnly"),
+                     remote.mMetaDataCalls);
+    }
+
+    private static void assumeClientSupported() {
+        // Client objects are generated for the JDBC 4.0 interfaces, and they
+        // cannot be generated when running with a later version.
+        try {
+            Class.forName(ClientConnection.class.getName());
+            Class.forName(ClientPreparedStatement.class.getName());
+            Class.forName(ClientDatabaseMetaData.class.getName());
+        } catch (Throwable e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    /**
+     * Fake remote statement which records calls.
+     */
+    static class Statement implements InvocationHandler {
+        final String mName;
+        final RemotePreparedStatement mProxy;
+        final List<String> mCalls = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean mResetFails;
+
+        Statement(String name) {
+            mName = name;
+            mProxy = proxy(RemotePreparedStatement.class, this);
+        }
+
+        List<String> calls() {
+            return new ArrayList<String>(mCalls);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return mName;
+            }
+            mCalls.add(name);
+            if (name.equals("reset") && mResetFails) {
+                throw new SQLException("reset failed");
+            }
+            if (method.getReturnType() == boolean.class) {
+                return false;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fake remote connection which creates fake statements and metadata.
+     */
+    static class RemoteConnectionRecorder implements InvocationHandler {
+        final RemoteConnection mProxy;
+        final List<Statement> mStatements = new ArrayList<Statement>();
+        final List<String> mMetaDataCalls = new ArrayList<String>();
+        volatile boolean mClosed;
+
+        RemoteConnectionRecorder() {
+            mProxy = proxy(RemoteConnection.class, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("prepareStatement")) {
+                Statement st = new Statement((String) args[0]);
+                mStatements.add(st);
+                return st.mProxy;
+            } else if (name.equals("getMetaData")) {
+                return proxy(RemoteDatabaseMetaData.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        mMetaDataCalls.add(args == null ? name
+                                           : (name + Arrays.toString(args)));
+                        if (name.equals("getDatabaseProductName")) {
+                            return "product";
+                        } else if (name.equals("supportsTransactionIsolationLevel")) {
+                            return !args[0].equals(Connection.TRANSACTION_NONE);
+                        } else if (name.equals("isReadOnly")) {
+                            return false;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+            } else if (name.equals("close")) {
+                mClosed = true;
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+}
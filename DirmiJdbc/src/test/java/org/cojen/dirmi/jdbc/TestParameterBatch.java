@@ -0,0 +1,336 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.math.BigDecimal;
+
+import java.net.URL;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.dirmi.jdbc.TestResultSetBatch.proxy;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestParameterBatch {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestParameterBatch.class.getName());
+    }
+
+    @Test
+    public void encodeAndApply() throws Exception {
+        final ParameterBatch batch = new ParameterBatch();
+
+        // Calls the same named setters of the batch.
+        PreparedStatement batchSetter = proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    return ParameterBatch.class.getMethod
+                        (method.getName(), method.getParameterTypes()).invoke(batch, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+
+        Recorder expected = new Recorder();
+        PreparedStatement expectedSetter = expected.newStatement();
+
+        byte[] bytes = {1, 2, 3};
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(0);
+
+        final int rowCount = 4;
+        for (int row=0; row<rowCount; row++) {
+            for (PreparedStatement ps : new PreparedStatement[] {batchSetter, expectedSetter}) {
+                setAll(ps, row, bytes, cal);
+            }
+            batch.addRow();
+            // Values set for the previous row must not be affected.
+            bytes[0]++;
+            cal.add(Calendar.HOUR, 1);
+        }
+
+        // Unchanged parameters carry over to the next row, but the row being
+        // edited isn't sent.
+        batchSetter.setInt(3, -1);
+        batch.addRow();
+        batchSetter.setInt(3, -2);
+        bytes[0]--;
+        cal.add(Calendar.HOUR, -1);
+        setAll(proxy(PreparedStatement.class, new ReplaceInt(expectedSetter, 3, -1)),
+               rowCount - 1, bytes, cal);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(batch);
+        out.close();
+        ParameterBatch decoded = (ParameterBatch) new ObjectInputStream
+            (new ByteArrayInputStream(bout.toByteArray())).readObject();
+
+        assertEquals(rowCount + 1, decoded.getRowCount());
+
+        Recorder actual = new Recorder();
+        PreparedStatement actualSetter = actual.newStatement();
+        for (int row=0; row<decoded.getRowCount(); row++) {
+            decoded.apply(row, actualSetter);
+        }
+
+        assertEquals(expected.calls(), actual.calls());
+
+        try {
+            decoded.apply(rowCount + 1, actualSetter);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    /**
+     * Calls every setter supported by ParameterBatch, with values which
+     * depend on the row.
+     */
+    private static void setAll(PreparedStatement ps, int row, byte[] bytes, Calendar cal)
+        throws Exception
+    {
+        int i = 0;
+        boolean odd = (row & 1) != 0;
+        if (odd) {
+            ps.setNull(++i, Types.INTEGER);
+            ps.setNull(++i, Types.STRUCT, "point");
+        } else {
+            ps.setString(++i, "row " + row);
+            ps.setNString(++i, "\u00e9" + row);
+        }
+        ps.setInt(++i, row);
+        ps.setBoolean(++i, odd);
+        ps.setByte(++i, (byte) -row);
+        ps.setShort(++i, (short) (row * 1000));
+        ps.setLong(++i, Long.MIN_VALUE + row);
+        ps.setFloat(++i, row + 0.5f);
+        ps.setDouble(++i, -row - 0.25);
+        ps.setBigDecimal(++i, odd ? null : new BigDecimal(row + ".01"));
+        ps.setBytes(++i, bytes);
+        ps.setDate(++i, new java.sql.Date(86400000L * row));
+        ps.setTime(++i, new java.sql.Time(1000L * row));
+        ps.setTimestamp(++i, new java.sql.Timestamp(1000000L * row));
+        ps.setDate(++i, new java.sql.Date(86400000L * row), cal);
+        ps.setTime(++i, new java.sql.Time(1000L * row), cal);
+        ps.setTimestamp(++i, new java.sql.Timestamp(1000000L * row), cal);
+        ps.setURL(++i, new URL("http://localhost/" + row));
+        ps.setObject(++i, odd ? (Object) Integer.valueOf(row) : "object");
+        ps.setObject(++i, row, Types.BIGINT);
+        ps.setObject(++i, new BigDecimal("3.14159"), Types.DECIMAL, row);
+    }
+
+    @Test
+    public void executeBatch() throws Exception {
+        ParameterBatch batch = new ParameterBatch();
+        batch.setInt(1, 10);
+        batch.setString(2, "a");
+        batch.addRow();
+        batch.setNull(2, Types.VARCHAR);
+        batch.addRow();
+        batch.setLong(1, 30);
+        batch.addRow();
+
+        Recorder server = new Recorder();
+        RemotePreparedStatement st = encoding
+            (RemotePreparedStatementServer.from(server.newStatement()));
+
+        assertArrayEquals(new int[] {1, 2, 3}, st.executeBatch(batch));
+        assertEquals(Arrays.asList("setInt[1, 10]", "setString[2, a]", "addBatch",
+                                   "setInt[1, 10]", "setNull[2, 12]", "addBatch",
+                                   "setLong[1, 30]", "setNull[2, 12]", "addBatch",
+                                   "executeBatch"),
+                     server.calls());
+    }
+
+    @Test
+    public void bufferedStreams() throws Exception {
+        // Client statements are generated for the JDBC 4.0 interfaces, and
+        // they cannot be generated when running with a later version.
+        try {
+            Class.forName(ClientPreparedStatement.class.getName());
+        } catch (LinkageError e) {
+            Assume.assumeNoException(e);
+        }
+
+        Recorder server = new Recorder();
+        PreparedStatement ps = ClientPreparedStatement.from
+            (encoding(RemotePreparedStatementServer.from(server.newStatement())));
+
+        ps.setBinaryStream(1, new ByteArrayInputStream(new byte[] {1, 2}));
+        ps.setCharacterStream(2, new StringReader("hello"), 5);
+        ps.setNull(3, Types.VARCHAR);
+        ps.addBatch();
+
+        ps.setAsciiStream(1, new ByteArrayInputStream("abc".getBytes("US-ASCII")), 3L);
+        ps.setNCharacterStream(2, new StringReader("world"));
+        ps.setInt(3, 3);
+        ps.addBatch();
+
+        ps.setBlob(1, new ByteArrayInputStream(new byte[] {3}));
+        ps.setClob(2, new StringReader(""));
+        ps.setNull(3, Types.INTEGER);
+        ps.addBatch();
+
+        // No calls are made until the batch is executed.
+        assertEquals(0, server.calls().size());
+
+        assertArrayEquals(new int[] {1, 2, 3}, ps.executeBatch());
+
+        List<String> expected = Arrays.asList
+            ("setBytes[1, [1, 2]]", "setString[2, hello]", "setNull[3, 12]", "addBatch",
+             "setString[1, abc]", "setNString[2, world]", "setInt[3, 3]", "addBatch",
+             "setBytes[1, [3]]", "setString[2, ]", "setNull[3, 4]", "addBatch",
+             "executeBatch");
+        assertEquals(expected, server.calls());
+
+        // Rows are cleared after executing, and the next batch is independent.
+        server.calls().clear();
+        ps.setInt(3, 4);
+        ps.addBatch();
+        assertArrayEquals(new int[] {1}, ps.executeBatch());
+        assertEquals(Arrays.asList("setBytes[1, [3]]", "setString[2, ]", "setInt[3, 4]",
+                                   "addBatch", "executeBatch"),
+                     server.calls());
+    }
+
+    /**
+     * Returns a statement which encodes each parameter batch before passing
+     * it along, as if sent remotely.
+     */
+    private static RemotePreparedStatement encoding(final RemotePreparedStatement st) {
+        return proxy(RemotePreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (args != null) {
+                    for (int i=0; i<args.length; i++) {
+                        if (args[i] instanceof ParameterBatch) {
+                            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                            ObjectOutputStream out = new ObjectOutputStream(bout);
+                            out.writeObject(args[i]);
+                            out.close();
+                            args[i] = new ObjectInputStream
+                                (new ByteArrayInputStream(bout.toByteArray())).readObject();
+                        }
+                    }
+                }
+                try {
+                    return method.invoke(st, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records setter calls made to a PreparedStatement. Executing a batch
+     * returns the row number of each added row as its update count.
+     */
+    static class Recorder implements InvocationHandler {
+        private final List<String> mCalls = new ArrayList<String>();
+        private int mBatchSize;
+
+        PreparedStatement newStatement() {
+            return proxy(PreparedStatement.class, this);
+        }
+
+        List<String> calls() {
+            return mCalls;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("executeBatch")) {
+                mCalls.add(name);
+                int[] counts = new int[mBatchSize];
+                for (int i=0; i<counts.length; i++) {
+                    counts[i] = i + 1;
+                }
+                mBatchSize = 0;
+                return counts;
+            }
+            if (name.equals("addBatch")) {
+                mBatchSize++;
+            } else if (!name.startsWith("set")) {
+                throw new UnsupportedOperationException(name);
+            }
+            if (args == null) {
+                mCalls.add(name);
+            } else {
+                args = args.clone();
+                for (int i=0; i<args.length; i++) {
+                    if (args[i] instanceof Calendar) {
+                        Calendar cal = (Calendar) args[i];
+                        args[i] = cal.getTimeZone().getID() + '@' + cal.getTimeInMillis();
+                    }
+                }
+                mCalls.add(name + Arrays.deepToString(args));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Passes along all calls, except that the given parameter is set to an
+     * int value instead.
+     */
+    private static class ReplaceInt implements InvocationHandler {
+        private final PreparedStatement mStatement;
+        private final int mIndex;
+        private final int mValue;
+
+        ReplaceInt(PreparedStatement st, int index, int value) {
+            mStatement = st;
+            mIndex = index;
+            mValue = value;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args[0].equals(mIndex)) {
+                mStatement.setInt(mIndex, mValue);
+            } else {
+                method.invoke(mStatement, args);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.math.BigDecimal;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.cojen.dirmi.Pipe;
+
+import static java.sql.Types.*;
+import static org.cojen.dirmi.jdbc.ResultSetBatch.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestResultSetBatch {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestResultSetBatch.class.getName());
+    }
+
+    @Test
+    public void primitiveColumns() throws Exception {
+        int[] types = {INTEGER, BIGINT, DOUBLE, REAL, SMALLINT, TINYINT, BOOLEAN};
+        Object[][] rows = new Object[10][];
+        for (int i=0; i<rows.length; i++) {
+            rows[i] = new Object[] {
+                i, -1L << i, i / 4.0, (float) -i, (short) (i * 1000), (byte) -i, i % 3 == 0
+            };
+        }
+        // Nulls are tracked separately from the encoded zero.
+        rows[3][0] = null;
+        rows[5][1] = null;
+        rows[7][6] = null;
+
+        ResultSetBatch batch = single(roundTrip(types, rows, 0));
+        assertRows(rows, batch);
+
+        byte[] kinds = {COLUMN_INT, COLUMN_LONG, COLUMN_DOUBLE, COLUMN_FLOAT,
+                        COLUMN_SHORT, COLUMN_BYTE, COLUMN_BOOLEAN};
+        for (int i=0; i<kinds.length; i++) {
+            assertEquals(kinds[i], batch.columnKind(i + 1));
+        }
+
+        assertEquals(-1L << 9, batch.getLong(9, 2));
+        assertEquals(0, batch.getLong(5, 2));
+        assertEquals(9000, batch.getLong(9, 5));
+        assertEquals(2.25, batch.getDouble(9, 3), 0);
+        assertEquals(-9.0, batch.getDouble(9, 4), 0);
+        assertEquals(9.0, batch.getDouble(9, 1), 0);
+    }
+
+    @Test
+    public void stringColumns() throws Exception {
+        int[] types = {VARCHAR, CHAR};
+        Object[][] rows = new Object[1000][];
+        for (int i=0; i<rows.length; i++) {
+            // First column has few distinct values, and second has more than
+            // can be indexed by a byte.
+            rows[i] = new Object[] {"value-" + (i % 3), i % 7 == 0 ? null : ("s" + (i % 300))};
+        }
+        rows[10][0] = null;
+        rows[11][0] = "";
+        rows[12][0] = "\u00e9\u4e2d\ud83d\ude00";
+
+        ResultSetBatch batch = single(roundTrip(types, rows, 1000));
+        assertEquals(COLUMN_STRING, batch.columnKind(1));
+        assertEquals(COLUMN_STRING, batch.columnKind(2));
+        assertRows(rows, batch);
+    }
+
+    @Test
+    public void nullBitmap() throws Exception {
+        int[] types = {INTEGER, VARCHAR, INTEGER};
+        Object[][] rows = new Object[130][];
+        for (int i=0; i<rows.length; i++) {
+            rows[i] = new Object[] {i, "x" + i, null};
+        }
+        // Nulls at the edges of each bitmap word.
+        for (int i : new int[] {0, 63, 64, 127, 128, 129}) {
+            rows[i][0] = null;
+            rows[i][1] = null;
+        }
+
+        ResultSetBatch batch = single(roundTrip(types, rows, 1000));
+        assertEquals(COLUMN_NULL, batch.columnKind(3));
+        assertRows(rows, batch);
+        assertTrue(batch.isNull(64, 1));
+        assertFalse(batch.isNull(65, 1));
+        assertTrue(batch.isNull(65, 3));
+    }
+
+    @Test
+    public void objectColumns() throws Exception {
+        int[] types = {DECIMAL, DATE, INTEGER, ARRAY};
+        java.sql.Date date = new java.sql.Date(86400000L * 14000);
+        Object[][] rows = {
+            {new BigDecimal("1.50"), date, 1, "ignored"},
+            {null, null, 2L, "ignored"},
+            {new BigDecimal("-3"), date, null, "ignored"},
+        };
+
+        ResultSetBatch batch = single(roundTrip(types, rows, 0));
+        assertEquals(COLUMN_OBJECT, batch.columnKind(1));
+        assertEquals(COLUMN_OBJECT, batch.columnKind(2));
+        // Mixed value types fall back to serialized objects.
+        assertEquals(COLUMN_OBJECT, batch.columnKind(3));
+        // Unsupported type isn't sent at all.
+        assertEquals(COLUMN_MISSING, batch.columnKind(4));
+
+        for (int i=0; i<rows.length; i++) {
+            for (int j=0; j<3; j++) {
+                assertEquals(rows[i][j], batch.getValue(i, j + 1));
+                assertEquals(rows[i][j] == null, batch.isNull(i, j + 1));
+            }
+            try {
+                batch.getValue(i, 4);
+                fail();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    @Test
+    public void defaultFetchSize() throws Exception {
+        int[] types = {INTEGER};
+        Object[][] rows = new Object[DEFAULT_SIZE * 2 + 50][];
+        for (int i=0; i<rows.length; i++) {
+            rows[i] = new Object[] {i};
+        }
+
+        // Fetch size of zero selects the default batch size.
+        List<ResultSetBatch> batches = roundTrip(types, rows, 0);
+        assertEquals(3, batches.size());
+        assertEquals(DEFAULT_SIZE, batches.get(0).getRowCount());
+        assertEquals(DEFAULT_SIZE, batches.get(1).getRowCount());
+        assertEquals(50, batches.get(2).getRowCount());
+        assertEquals(DEFAULT_SIZE * 2 + 49, batches.get(2).getValue(49, 1));
+    }
+
+    @Test
+    public void emptyResultSet() throws Exception {
+        assertEquals(0, roundTrip(new int[] {INTEGER}, new Object[0][], 0).size());
+    }
+
+    @Test
+    public void fetch() throws Exception {
+        int[] types = {INTEGER, VARCHAR};
+        Object[][] rows = new Object[25][];
+        for (int i=0; i<rows.length; i++) {
+            rows[i] = new Object[] {i, "row " + i};
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ResultSetRowFetcherServer(resultSet(10, rows, rows.length), metaData(types))
+            .fetch(pipe(new ObjectOutputStream(bout)));
+
+        ObjectInputStream in = new ObjectInputStream
+            (new ByteArrayInputStream(bout.toByteArray()));
+        List<ResultSetBatch> batches = readAll(in);
+        assertNull(in.readObject());
+
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(2).getRowCount());
+        assertEquals("row 24", batches.get(2).getValue(4, 2));
+    }
+
+    @Test
+    public void fetchFailure() throws Exception {
+        int[] types = {INTEGER};
+        Object[][] rows = new Object[25][];
+        for (int i=0; i<rows.length; i++) {
+            rows[i] = new Object[] {i};
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ResultSetRowFetcherServer(resultSet(10, rows, 15), metaData(types))
+            .fetch(pipe(new ObjectOutputStream(bout)));
+
+        ObjectInputStream in = new ObjectInputStream
+            (new ByteArrayInputStream(bout.toByteArray()));
+        List<ResultSetBatch> batches = readAll(in);
+
+        // Rows read before the failure are sent, followed by the exception.
+        assertEquals(2, batches.size());
+        assertEquals(5, batches.get(1).getRowCount());
+        assertEquals(14, batches.get(1).getValue(4, 1));
+        assertEquals("failed at row 15", ((SQLException) in.readObject()).getMessage());
+    }
+
+    private static void assertRows(Object[][] rows, ResultSetBatch batch) throws Exception {
+        assertEquals(rows.length, batch.getRowCount());
+        for (int i=0; i<rows.length; i++) {
+            for (int j=0; j<rows[i].length; j++) {
+                assertEquals(rows[i][j], batch.getValue(i, j + 1));
+                assertEquals(rows[i][j] == null, batch.isNull(i, j + 1));
+            }
+        }
+    }
+
+    private static ResultSetBatch single(List<ResultSetBatch> batches) {
+        assertEquals(1, batches.size());
+        return batches.get(0);
+    }
+
+    /**
+     * Encodes all rows into batches, writes them out and reads them back.
+     */
+    private static List<ResultSetBatch> roundTrip(int[] types, Object[][] rows, int fetchSize)
+        throws Exception
+    {
+        ResultSetBatch.Builder builder = new ResultSetBatch.Builder
+            (resultSet(fetchSize, rows, rows.length), metaData(types), fetchSize);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        ResultSetBatch batch;
+        while ((batch = builder.next()) != null) {
+            batch.writeTo(out);
+        }
+        ResultSetBatch.writeEnd(out);
+        out.close();
+
+        return readAll(new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray())));
+    }
+
+    private static List<ResultSetBatch> readAll(ObjectInputStream in) throws Exception {
+        List<ResultSetBatch> batches = new ArrayList<ResultSetBatch>();
+        ResultSetBatch batch;
+        while ((batch = ResultSetBatch.readFrom(in)) != null) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * @param failAt row number at which reading fails
+     */
+    static ResultSet resultSet(final int fetchSize, final Object[][] rows, final int failAt) {
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private int mRow = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    if (++mRow >= failAt && mRow < rows.length) {
+                        throw new SQLException("failed at row " + mRow);
+                    }
+                    return mRow < rows.length;
+                } else if (name.equals("getObject")) {
+                    return rows[mRow][(Integer) args[0] - 1];
+                } else if (name.equals("getFetchSize")) {
+                    return fetchSize;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    static ResultSetMetaData metaData(final int... types) {
+        return proxy(ResultSetMetaData.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getColumnCount")) {
+                    return types.length;
+                } else if (name.equals("getColumnType")) {
+                    return types[(Integer) args[0] - 1];
+                } else if (name.equals("getColumnTypeName")) {
+                    return "";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * Returns a write-only pipe which writes to the given stream.
+     */
+    static Pipe pipe(final ObjectOutputStream out) {
+        return proxy(Pipe.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("writeThrowable")) {
+                    out.writeObject(args[0]);
+                    return null;
+                }
+                try {
+                    return ObjectOutputStream.class
+                        .getMethod(name, method.getParameterTypes()).invoke(out, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+        return iface.cast(Proxy.newProxyInstance
+                          (iface.getClassLoader(), new Class[] {iface}, handler));
+    }
+}
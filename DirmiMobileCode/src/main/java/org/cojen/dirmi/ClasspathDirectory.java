@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -42,11 +43,18 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
- * Directory implementation which scans an ordinary classpath.
+ * Directory implementation which scans an ordinary classpath. Each package is
+ * scanned when first accessed, and it is scanned again if any directory or
+ * jar file it was found in has since been modified. Modifications are checked
+ * for at most once every few seconds. Digests of unchanged resources can be
+ * cached persistently by providing a {@link DigestCache}.
  *
  * @author Brian S O'Neill
  */
 public class ClasspathDirectory implements PackageDirectory {
+    // Minimum time between checks for modified classpath elements.
+    private static final long CHECK_INTERVAL_NANOS = 5L * 1000 * 1000 * 1000;
+
     /*
     public static void main(String[] args) throws Exception {
         Environment env = new Environment();
@@ -74,6 +82,12 @@ public class ClasspathDirectory implements PackageDirectory {
     private final ClasspathFile[] mPath;
     private final String mPackageName;
     private final ClasspathDirectory mParent;
+    private final DigestCache mDigestCache;
+
+    // Modification times of classpath elements when last scanned.
+    private long[] mStamps;
+    // System.nanoTime when stamps were last checked.
+    private long mCheckedAt;
 
     private Map<String, ResourceDescriptor> mClassMap;
     private Map<String, ResourceDescriptor> mResourceMap;
@@ -107,6 +121,16 @@ public class ClasspathDirectory implements PackageDirectory {
      * Construct from a list of files and directories.
      */
     public ClasspathDirectory(File... path) {
+        this((DigestCache) null, path);
+    }
+
+    /**
+     * Construct from a list of files and directories, using a cache of
+     * resource digests.
+     *
+     * @param cache optional digest cache
+     */
+    public ClasspathDirectory(DigestCache cache, File... path) {
         if (path == null) {
             throw new IllegalArgumentException("Classpath is null");
         }
@@ -143,6 +167,7 @@ public class ClasspathDirectory implements PackageDirectory {
         mPath = files.toArray(new ClasspathFile[files.size()]);
         mPackageName = "";
         mParent = null;
+        mDigestCache = cache;
     }
 
     private ClasspathDirectory(ClasspathFile[] path,
@@ -152,6 +177,7 @@ public class ClasspathDirectory implements PackageDirectory {
         mPath = path;
         mPackageName = packageName;
         mParent = parent;
+        mDigestCache = parent.mDigestCache;
     }
 
     private static File[] splitPath(String classpath, String separator) {
@@ -323,13 +349,27 @@ public class ClasspathDirectory implements PackageDirectory {
     }
 
     private synchronized void expand() {
-        if (mClassMap != null) {
-            return;
+        long[] stamps;
+        if (mClassMap == null) {
+            stamps = stamps();
+        } else {
+            long now = System.nanoTime();
+            if (now - mCheckedAt < CHECK_INTERVAL_NANOS) {
+                return;
+            }
+            mCheckedAt = now;
+            stamps = stamps();
+            if (Arrays.equals(stamps, mStamps)) {
+                return;
+            }
         }
 
         Expander expander = new Expander();
         expander.scanClasspath();
 
+        mStamps = stamps;
+        mCheckedAt = System.nanoTime();
+
         mClassMap = unmodifiable(expander.classMap);
         mResourceMap = unmodifiable(expander.resourceMap);
 
@@ -337,6 +377,30 @@ public class ClasspathDirectory implements PackageDirectory {
         mResourceLoaderMap = unmodifiable(expander.resourceLoaderMap);
     }
 
+    /**
+     * Returns the modification times of the package directories and jar
+     * files which are scanned by this package. Adding or removing a file
+     * changes the time of its directory.
+     */
+    private long[] stamps() {
+        String packagePath = buildPackagePath();
+        ClasspathFile[] path = mPath;
+        long[] stamps = new long[path.length];
+        for (int i=0; i<path.length; i++) {
+            ClasspathFile file = path[i];
+            try {
+                if (file.isDirectory()) {
+                    stamps[i] = new File(file, packagePath).lastModified();
+                } else {
+                    stamps[i] = file.lastModified();
+                }
+            } catch (SecurityException e) {
+                // Leave as zero.
+            }
+        }
+        return stamps;
+    }
+
     private static <K, V> Map<K, V> unmodifiable(Map<? extends K, ? extends V> map) {
         if (map != null && map.size() > 0) {
             return Collections.unmodifiableMap(map);
@@ -399,11 +463,14 @@ public class ClasspathDirectory implements PackageDirectory {
                     continue;
                 }
 
-                ResourceDescriptor desc;
-                try {
-                    desc = createDescriptor(new FileInputStream(resourceFile));
-                } catch (IOException e) {
-                    continue;
+                ResourceDescriptor desc = cachedDescriptor(resourceFile, null);
+                if (desc == null) {
+                    try {
+                        desc = createDescriptor(new FileInputStream(resourceFile));
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    cacheDescriptor(resourceFile, null, desc);
                 }
 
                 if (resourceIsClass) {
@@ -461,7 +528,8 @@ public class ClasspathDirectory implements PackageDirectory {
                         // Need to scan file anyhow.
                         digest = null;
                     } else {
-                        String digestStr = entry.getAttributes().getValue("SHA1-Digest");
+                        Attributes attrs = entry.getAttributes();
+                        String digestStr = attrs == null ? null : attrs.getValue("SHA1-Digest");
                         if (digestStr == null) {
                             digest = null;
                         } else {
@@ -476,12 +544,13 @@ public class ClasspathDirectory implements PackageDirectory {
                     ResourceDescriptor desc;
                     if (digest != null) {
                         desc = new ResourceDescriptor(name, (int) length, digest);
-                    } else {
+                    } else if ((desc = cachedDescriptor(file, entry.getName())) == null) {
                         try {
                             desc = createDescriptor(jf.getInputStream(entry));
                         } catch (IOException e) {
                             continue;
                         }
+                        cacheDescriptor(file, entry.getName(), desc);
                     }
 
                     jarInUse = true;
@@ -507,6 +576,18 @@ public class ClasspathDirectory implements PackageDirectory {
             }
         }
 
+        private ResourceDescriptor cachedDescriptor(File source, String path) {
+            DigestCache cache = mDigestCache;
+            return cache == null ? null : cache.get(source, path, resourceName);
+        }
+
+        private void cacheDescriptor(File source, String path, ResourceDescriptor desc) {
+            DigestCache cache = mDigestCache;
+            if (cache != null) {
+                cache.put(source, path, desc);
+            }
+        }
+
         // Returns false if resource should be skipped.
         private boolean examineName(String name) {
             resourceName = null;
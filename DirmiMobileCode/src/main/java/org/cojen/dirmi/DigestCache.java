@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of resource descriptors, used by {@link
+ * ClasspathDirectory} to avoid computing digests of classpath entries which
+ * have not changed. Entries are keyed by source file and resource path, and
+ * they are valid only while the source file has the same modification time
+ * and length. The cache is loaded from its file when constructed, and it is
+ * written back by calling {@link #save}.
+ *
+ * @author Brian S O'Neill
+ */
+public class DigestCache {
+    private static final int MAGIC = 0x44474331;
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries;
+    // Incremented by each put, and captured when the cache is saved.
+    private int mModCount;
+    private int mSavedModCount;
+
+    // Held while saving, to write and rename one file at a time.
+    private final Object mSaveLock = new Object();
+
+    /**
+     * @param file file to load cache from and save to; need not exist
+     */
+    public DigestCache(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File is null");
+        }
+        mFile = file;
+        mEntries = new HashMap<String, Entry>();
+        try {
+            load();
+        } catch (IOException e) {
+            // Start with an empty cache if corrupt or unreadable.
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Returns a cached descriptor, or null if none or if stale.
+     *
+     * @param source jar file or resource file
+     * @param path resource path within jar file, or null for plain file
+     * @param name name to give returned descriptor
+     */
+    public synchronized ResourceDescriptor get(File source, String path, String name) {
+        Entry entry = mEntries.get(key(source, path));
+        if (entry == null ||
+            entry.mLastModified != source.lastModified() || entry.mFileLength != source.length())
+        {
+            return null;
+        }
+        return new ResourceDescriptor(name, entry.mLength, entry.mDigest);
+    }
+
+    /**
+     * Adds or replaces a cached descriptor, capturing the current modification
+     * time and length of the source file.
+     *
+     * @param source jar file or resource file
+     * @param path resource path within jar file, or null for plain file
+     * @param desc descriptor to cache
+     */
+    public synchronized void put(File source, String path, ResourceDescriptor desc) {
+        mEntries.put(key(source, path), new Entry(source.lastModified(), source.length(),
+                                                  desc.getLength(), desc.getDigest()));
+        mModCount++;
+    }
+
+    /**
+     * Writes the cache to its file, if it has been modified. Entries for
+     * source files which no longer exist are discarded.
+     */
+    public void save() throws IOException {
+        synchronized (mSaveLock) {
+            doSave();
+        }
+    }
+
+    private void doSave() throws IOException {
+        Map<String, Entry> entries;
+        int modCount;
+        synchronized (this) {
+            modCount = mModCount;
+            if (modCount == mSavedModCount) {
+                return;
+            }
+            entries = new HashMap<String, Entry>(mEntries);
+        }
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            String key = it.next().getKey();
+            int index = key.indexOf('\0');
+            if (!new File(index < 0 ? key : key.substring(0, index)).exists()) {
+                it.remove();
+            }
+        }
+
+        // Write to a temporary file and rename, to avoid leaving a partially
+        // written cache behind. Temporary file is unique, in case another
+        // cache instance is saving to the same file.
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File temp = File.createTempFile("digests", ".tmp", parent);
+
+        try {
+            DataOutputStream out = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.mLastModified);
+                    out.writeLong(entry.mFileLength);
+                    out.writeInt(entry.mLength);
+                    out.writeShort(entry.mDigest.length);
+                    out.write(entry.mDigest);
+                }
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(mFile)) {
+                mFile.delete();
+                if (!temp.renameTo(mFile)) {
+                    throw new IOException("Unable to write digest cache: " + mFile);
+                }
+            }
+        } finally {
+            // Does nothing if renamed.
+            temp.delete();
+        }
+
+        // Only now is the cache saved. If the save failed, the next one tries
+        // again, and changes made during this save are written by the next one.
+        synchronized (this) {
+            if (modCount - mSavedModCount > 0) {
+                mSavedModCount = modCount;
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                String key = in.readUTF();
+                long lastModified = in.readLong();
+                long fileLength = in.readLong();
+                int length = in.readInt();
+                byte[] digest = new byte[in.readUnsignedShort()];
+                in.readFully(digest);
+                mEntries.put(key, new Entry(lastModified, fileLength, length, digest));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String key(File source, String path) {
+        String key = source.getPath();
+        return path == null ? key : (key + '\0' + path);
+    }
+
+    private static class Entry {
+        final long mLastModified;
+        final long mFileLength;
+        final int mLength;
+        final byte[] mDigest;
+
+        Entry(long lastModified, long fileLength, int length, byte[] digest) {
+            mLastModified = lastModified;
+            mFileLength = fileLength;
+            mLength = length;
+            mDigest = digest;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent client-side store of resources fetched from a {@link
+ * PackageDirectory}, keyed by resource digest. Resource data is kept in an
+ * append-only file which is read through a memory mapping, and an index file
+ * maps each digest to its location. Because entries are keyed by content,
+ * resources which are unchanged are never fetched again, even when served
+ * under different names or by different sessions.
+ *
+ * <p>If the files are not cleanly closed, then any index entries which refer
+ * to data beyond the end of the data file are discarded when reopened.
+ *
+ * @author Brian S O'Neill
+ */
+public class ResourceCache {
+    private static final String DATA_FILE = "resources.dat";
+    private static final String INDEX_FILE = "resources.idx";
+
+    // Index record: 20 byte digest, long offset, int length.
+    private static final int DIGEST_LENGTH = 20;
+    private static final int INDEX_RECORD_SIZE = DIGEST_LENGTH + 12;
+
+    private final RandomAccessFile mDataFile;
+    private final FileChannel mData;
+    private final RandomAccessFile mIndexFile;
+
+    private final Map<Key, Entry> mEntries;
+
+    private long mDataLength;
+    private MappedByteBuffer mMapped;
+
+    /**
+     * @param directory directory to store cache files in, which is created if
+     * necessary
+     */
+    public ResourceCache(File directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory is null");
+        }
+        directory.mkdirs();
+
+        mEntries = new HashMap<Key, Entry>();
+
+        mDataFile = new RandomAccessFile(new File(directory, DATA_FILE), "rw");
+        mData = mDataFile.getChannel();
+        mDataLength = mData.size();
+
+        mIndexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if a resource with the given digest is stored.
+     */
+    public synchronized boolean contains(ResourceDescriptor desc) {
+        return mEntries.containsKey(new Key(desc.getDigest()));
+    }
+
+    /**
+     * Returns the stored data for the given resource, or null if not stored.
+     */
+    public synchronized byte[] get(ResourceDescriptor desc) throws IOException {
+        Entry entry = mEntries.get(new Key(desc.getDigest()));
+        if (entry == null || entry.mLength != desc.getLength()) {
+            return null;
+        }
+
+        byte[] data = new byte[entry.mLength];
+        if (data.length == 0) {
+            return data;
+        }
+
+        long end = entry.mOffset + entry.mLength;
+        MappedByteBuffer mapped = mMapped;
+        if (mapped == null || end > mapped.capacity()) {
+            if (mDataLength > Integer.MAX_VALUE) {
+                // Too large to map, so read directly.
+                mData.read(ByteBuffer.wrap(data), entry.mOffset);
+                return data;
+            }
+            mMapped = mapped = mData.map(FileChannel.MapMode.READ_ONLY, 0, mDataLength);
+        }
+
+        ByteBuffer dup = mapped.duplicate();
+        dup.position((int) entry.mOffset);
+        dup.get(data);
+        return data;
+    }
+
+    /**
+     * Stores resource data, unless already stored.
+     *
+     * @throws IOException if data doesn't match descriptor
+     */
+    public void put(ResourceDescriptor desc, byte[] data) throws IOException {
+        if (!store(desc, data)) {
+            throw new IOException("Resource data doesn't match descriptor: " + desc.getName());
+        }
+    }
+
+    /**
+     * Stores resource data, unless already stored.
+     *
+     * @return false if data doesn't match descriptor
+     */
+    private synchronized boolean store(ResourceDescriptor desc, byte[] data)
+        throws IOException
+    {
+        Key key = new Key(desc.getDigest());
+        if (mEntries.containsKey(key)) {
+            return true;
+        }
+
+        if (data.length != desc.getLength() || !Arrays.equals(digest(data), key.mDigest)) {
+            return false;
+        }
+
+        long offset = mDataLength;
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        long pos = offset;
+        while (bb.hasRemaining()) {
+            pos += mData.write(bb, pos);
+        }
+
+        // Write index entry after data, so that it never refers to data
+        // which doesn't exist.
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+        record.put(key.mDigest).putLong(offset).putInt(data.length);
+        mIndexFile.seek(mIndexFile.length());
+        mIndexFile.write(record.array());
+
+        mDataLength = offset + data.length;
+        mEntries.put(key, new Entry(offset, data.length));
+        return true;
+    }
+
+    /**
+     * Returns the class data for the given names, fetching only those classes
+     * which are not already stored.
+     *
+     * @param dir package to fetch classes from
+     * @param names class names relative to the package; pass null to
+     * retrieve all
+     * @return map of class name to class data; unknown classes, and those
+     * whose data doesn't match its descriptor, are omitted
+     */
+    public Map<String, byte[]> fetchClasses(PackageDirectory dir, String... names)
+        throws IOException
+    {
+        return fetch(true, dir, dir.availableClasses(), names);
+    }
+
+    /**
+     * Returns the resource data for the given names, fetching only those
+     * resources which are not already stored.
+     *
+     * @param dir package to fetch resources from
+     * @param names resource names relative to the package; pass null to
+     * retrieve all
+     * @return map of resource name to resource data; unknown resources, and
+     * those whose data doesn't match its descriptor, are omitted
+     */
+    public Map<String, byte[]> fetchResources(PackageDirectory dir, String... names)
+        throws IOException
+    {
+        return fetch(false, dir, dir.availableResources(), names);
+    }
+
+    /**
+     * Forces all stored data to disk and closes the cache.
+     */
+    public synchronized void close() throws IOException {
+        mMapped = null;
+        try {
+            if (mData.isOpen()) {
+                mData.force(false);
+            }
+            mIndexFile.getChannel().force(false);
+        } finally {
+            mDataFile.close();
+            mIndexFile.close();
+        }
+    }
+
+    private Map<String, byte[]> fetch(boolean classes, PackageDirectory dir,
+                                      Map<String, ResourceDescriptor> available,
+                                      String[] names)
+        throws IOException
+    {
+        if (names == null) {
+            names = available.keySet().toArray(new String[available.size()]);
+        }
+
+        Map<String, byte[]> results = new LinkedHashMap<String, byte[]>();
+        List<String> missing = new ArrayList<String>();
+
+        for (String name : names) {
+            ResourceDescriptor desc = available.get(name);
+            if (desc == null) {
+                continue;
+            }
+            byte[] data = get(desc);
+            if (data == null) {
+                missing.add(name);
+            }
+            // Put an entry now to preserve the requested order.
+            results.put(name, data);
+        }
+
+        if (!missing.isEmpty()) {
+            String[] missingNames = missing.toArray(new String[missing.size()]);
+            Pipe pipe = classes ? dir.fetchClasses(null, missingNames)
+                : dir.fetchResources(null, missingNames);
+            try {
+                for (String name : missingNames) {
+                    ResourceDescriptor desc = (ResourceDescriptor) pipe.readObject();
+                    if (desc == null) {
+                        results.remove(name);
+                        continue;
+                    }
+                    byte[] data = new byte[desc.getLength()];
+                    pipe.readFully(data);
+                    if (store(desc, data)) {
+                        results.put(name, data);
+                    } else {
+                        // Resource changed after it was scanned, and so the
+                        // server padded or truncated it. Skip it, but keep
+                        // reading the rest.
+                        results.remove(name);
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            } finally {
+                pipe.close();
+            }
+        }
+
+        return results;
+    }
+
+    private void loadIndex() throws IOException {
+        long length = mIndexFile.length();
+        long valid = 0;
+        if (length >= INDEX_RECORD_SIZE) {
+            byte[] records = new byte[(int) (length - length % INDEX_RECORD_SIZE)];
+            mIndexFile.seek(0);
+            mIndexFile.readFully(records);
+            ByteBuffer bb = ByteBuffer.wrap(records);
+            while (bb.remaining() >= INDEX_RECORD_SIZE) {
+                byte[] digest = new byte[DIGEST_LENGTH];
+                bb.get(digest);
+                long offset = bb.getLong();
+                int entryLength = bb.getInt();
+                if (offset < 0 || entryLength < 0 || offset + entryLength > mDataLength) {
+                    break;
+                }
+                mEntries.put(new Key(digest), new Entry(offset, entryLength));
+                valid += INDEX_RECORD_SIZE;
+            }
+        }
+        if (valid != length) {
+            // Discard incomplete or invalid records.
+            mIndexFile.setLength(valid);
+        }
+    }
+
+    private static byte[] digest(byte[] data) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        return md.digest(data);
+    }
+
+    private static final class Key {
+        final byte[] mDigest;
+        private final int mHash;
+
+        Key(byte[] digest) {
+            mDigest = digest;
+            mHash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(mDigest, ((Key) obj).mDigest);
+        }
+    }
+
+    private static final class Entry {
+        final long mOffset;
+        final int mLength;
+
+        Entry(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+}
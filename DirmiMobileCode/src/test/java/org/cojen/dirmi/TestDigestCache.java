@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.dirmi.TestResourceCache.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestDigestCache {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestDigestCache.class.getName());
+    }
+
+    private File mDir;
+    private File mCacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = newTempDir();
+        mCacheFile = new File(mDir, "cache/digests");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        File a = new File(mDir, "a.class");
+        File jar = new File(mDir, "b.jar");
+        write(a, "alpha");
+        write(jar, "bravo");
+
+        ResourceDescriptor da = describe("a", "alpha".getBytes("UTF-8"));
+        ResourceDescriptor db = describe("b", "bravo".getBytes("UTF-8"));
+
+        DigestCache cache = new DigestCache(mCacheFile);
+        assertNull(cache.get(a, null, "a"));
+        cache.put(a, null, da);
+        cache.put(jar, "p/b.class", db);
+        cache.save();
+        assertTrue(mCacheFile.exists());
+
+        cache = new DigestCache(mCacheFile);
+        assertEquals(da, cache.get(a, null, "a"));
+        assertArrayEquals(da.getDigest(), cache.get(a, null, "a").getDigest());
+        assertEquals(db.getLength(), cache.get(jar, "p/b.class", "b").getLength());
+        assertArrayEquals(db.getDigest(), cache.get(jar, "p/b.class", "b").getDigest());
+        assertNull(cache.get(jar, "p/c.class", "c"));
+        assertNull(cache.get(jar, null, "b"));
+
+        // Returned descriptor is given the requested name.
+        assertEquals("x", cache.get(a, null, "x").getName());
+    }
+
+    @Test
+    public void stale() throws Exception {
+        File a = new File(mDir, "a.class");
+        write(a, "alpha");
+
+        DigestCache cache = new DigestCache(mCacheFile);
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        assertNotNull(cache.get(a, null, "a"));
+
+        a.setLastModified(a.lastModified() - 10000);
+        assertNull(cache.get(a, null, "a"));
+
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        long lastModified = a.lastModified();
+        write(a, "alpha!");
+        a.setLastModified(lastModified);
+        assertNull(cache.get(a, null, "a"));
+    }
+
+    @Test
+    public void discardMissing() throws Exception {
+        File a = new File(mDir, "a.class");
+        File b = new File(mDir, "b.class");
+        write(a, "alpha");
+        write(b, "bravo");
+        long lastModified = b.lastModified();
+
+        DigestCache cache = new DigestCache(mCacheFile);
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        cache.put(b, null, describe("b", "bravo".getBytes("UTF-8")));
+
+        b.delete();
+        cache.save();
+
+        // Recreate identical file, but its entry was discarded by the save.
+        write(b, "bravo");
+        b.setLastModified(lastModified);
+
+        cache = new DigestCache(mCacheFile);
+        assertNotNull(cache.get(a, null, "a"));
+        assertNull(cache.get(b, null, "b"));
+    }
+
+    @Test
+    public void saveOnlyIfModified() throws Exception {
+        File a = new File(mDir, "a.class");
+        write(a, "alpha");
+
+        DigestCache cache = new DigestCache(mCacheFile);
+        cache.save();
+        assertFalse(mCacheFile.exists());
+
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        cache.save();
+        assertTrue(mCacheFile.exists());
+
+        mCacheFile.delete();
+        cache.save();
+        assertFalse(mCacheFile.exists());
+
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        cache.save();
+        assertTrue(mCacheFile.exists());
+    }
+
+    @Test
+    public void concurrentSave() throws Exception {
+        final int threadCount = 4;
+        final int count = 50;
+
+        final File[] files = new File[threadCount * count];
+        for (int i=0; i<files.length; i++) {
+            files[i] = new File(mDir, "c" + i + ".class");
+            write(files[i], "c" + i);
+        }
+
+        final DigestCache cache = new DigestCache(mCacheFile);
+        final DigestCache other = new DigestCache(mCacheFile);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t=0; t<threadCount; t++) {
+            final int base = t * count;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i=base; i<base + count; i++) {
+                            cache.put(files[i], null,
+                                      describe("c" + i, ("c" + i).getBytes("UTF-8")));
+                            cache.save();
+                            // Another instance saving to the same file.
+                            other.put(files[i], "x", describe("x", new byte[0]));
+                            other.save();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        // No temporary files are left behind.
+        assertArrayEquals(new String[] {"digests"}, mCacheFile.getParentFile().list());
+
+        // Last save wrote all entries of the first instance.
+        cache.put(files[0], null, describe("c0", "c0".getBytes("UTF-8")));
+        cache.save();
+        DigestCache loaded = new DigestCache(mCacheFile);
+        for (int i=0; i<files.length; i++) {
+            assertNotNull(loaded.get(files[i], null, "c" + i));
+        }
+    }
+
+    @Test
+    public void corrupt() throws Exception {
+        mCacheFile.getParentFile().mkdirs();
+        write(mCacheFile, "not a digest cache");
+        DigestCache cache = new DigestCache(mCacheFile);
+
+        File a = new File(mDir, "a.class");
+        write(a, "alpha");
+        assertNull(cache.get(a, null, "a"));
+
+        // Truncated after a valid header.
+        cache.put(a, null, describe("a", "alpha".getBytes("UTF-8")));
+        cache.save();
+        RandomAccessFile raf = new RandomAccessFile(mCacheFile, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        cache = new DigestCache(mCacheFile);
+        assertNull(cache.get(a, null, "a"));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.security.MessageDigest;
+
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestResourceCache {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestResourceCache.class.getName());
+    }
+
+    static File newTempDir() throws IOException {
+        File dir = File.createTempFile("dirmi", null);
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    static void deleteAll(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+
+    static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    static ResourceDescriptor describe(String name, byte[] data) throws Exception {
+        return new ResourceDescriptor
+            (name, data.length, MessageDigest.getInstance("SHA-1").digest(data));
+    }
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = newTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        byte[] a = "hello".getBytes("UTF-8");
+        byte[] b = "world!".getBytes("UTF-8");
+        byte[] empty = new byte[0];
+        ResourceDescriptor da = describe("a", a);
+        ResourceDescriptor db = describe("b", b);
+        ResourceDescriptor dEmpty = describe("empty", empty);
+
+        ResourceCache cache = new ResourceCache(mDir);
+        assertFalse(cache.contains(da));
+        assertNull(cache.get(da));
+
+        cache.put(da, a);
+        assertTrue(cache.contains(da));
+        assertArrayEquals(a, cache.get(da));
+
+        // Data file grows after it was mapped.
+        cache.put(db, b);
+        cache.put(dEmpty, empty);
+        assertArrayEquals(b, cache.get(db));
+        assertArrayEquals(empty, cache.get(dEmpty));
+
+        // Stored again under another name, but data is the same.
+        cache.put(describe("c", a), a);
+        assertArrayEquals(a, cache.get(describe("c", a)));
+
+        cache.close();
+
+        cache = new ResourceCache(mDir);
+        assertArrayEquals(a, cache.get(da));
+        assertArrayEquals(b, cache.get(db));
+        assertArrayEquals(empty, cache.get(dEmpty));
+        cache.close();
+
+        assertEquals(a.length + b.length, new File(mDir, "resources.dat").length());
+    }
+
+    @Test
+    public void putMismatch() throws Exception {
+        byte[] a = "hello".getBytes("UTF-8");
+        ResourceCache cache = new ResourceCache(mDir);
+        try {
+            cache.put(describe("a", a), "jello".getBytes("UTF-8"));
+            fail();
+        } catch (IOException e) {
+        }
+        try {
+            cache.put(describe("a", a), "hello!".getBytes("UTF-8"));
+            fail();
+        } catch (IOException e) {
+        }
+        assertFalse(cache.contains(describe("a", a)));
+        cache.close();
+    }
+
+    @Test
+    public void recoverIndex() throws Exception {
+        byte[] a = "hello".getBytes("UTF-8");
+        byte[] b = "world!".getBytes("UTF-8");
+        ResourceDescriptor da = describe("a", a);
+        ResourceDescriptor db = describe("b", b);
+
+        ResourceCache cache = new ResourceCache(mDir);
+        cache.put(da, a);
+        cache.put(db, b);
+        cache.close();
+
+        File dataFile = new File(mDir, "resources.dat");
+        File indexFile = new File(mDir, "resources.idx");
+        long recordSize = indexFile.length() / 2;
+
+        // Simulate a crash which lost the end of the data file and left a
+        // partial index record behind.
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        raf.setLength(a.length + 1);
+        raf.close();
+        raf = new RandomAccessFile(indexFile, "rw");
+        raf.seek(raf.length());
+        raf.write(new byte[5]);
+        raf.close();
+
+        cache = new ResourceCache(mDir);
+        assertArrayEquals(a, cache.get(da));
+        assertFalse(cache.contains(db));
+        assertNull(cache.get(db));
+        assertEquals(recordSize, indexFile.length());
+
+        // Storing again appends after the remaining data.
+        cache.put(db, b);
+        assertArrayEquals(b, cache.get(db));
+        cache.close();
+
+        cache = new ResourceCache(mDir);
+        assertArrayEquals(a, cache.get(da));
+        assertArrayEquals(b, cache.get(db));
+        cache.close();
+    }
+
+    @Test
+    public void fetch() throws Exception {
+        File classpath = newTempDir();
+        Environment env = new Environment();
+        try {
+            File pkg = new File(classpath, "p");
+            pkg.mkdirs();
+            write(new File(pkg, "a.txt"), "alpha");
+            write(new File(pkg, "b.txt"), "bravo");
+            write(new File(pkg, "c.txt"), "charlie");
+
+            Session[] sessions = env.newSessionPair();
+            sessions[0].send(new ClasspathDirectory(classpath));
+            PackageDirectory dir = (PackageDirectory) sessions[1].receive();
+            dir = dir.subPackage("p");
+
+            ResourceCache cache = new ResourceCache(mDir);
+
+            Map<String, byte[]> results = cache.fetchResources(dir, "a.txt", "x.txt");
+            assertEquals(1, results.size());
+            assertArrayEquals("alpha".getBytes("UTF-8"), results.get("a.txt"));
+
+            // Change resource after it was scanned, keeping the same length.
+            write(new File(pkg, "b.txt"), "BRAVO");
+
+            results = cache.fetchResources(dir, "c.txt", "b.txt", "a.txt");
+            assertEquals(2, results.size());
+            assertArrayEquals("charlie".getBytes("UTF-8"), results.get("c.txt"));
+            assertArrayEquals("alpha".getBytes("UTF-8"), results.get("a.txt"));
+            assertFalse(results.containsKey("b.txt"));
+
+            Map<String, ResourceDescriptor> available = dir.availableResources();
+            assertTrue(cache.contains(available.get("a.txt")));
+            assertFalse(cache.contains(available.get("b.txt")));
+            assertTrue(cache.contains(available.get("c.txt")));
+
+            cache.close();
+        } finally {
+            env.close();
+            deleteAll(classpath);
+        }
+    }
+}
@@ -51,4 +51,7 @@ public interface RemotePipes extends Remote {
 
     @Asynchronous(CallMode.REQUEST_REPLY)
     Pipe replyOnly(Pipe pipe) throws RemoteException;
+
+    @Asynchronous
+    Pipe echoTransfer(Pipe pipe) throws RemoteException;
 }
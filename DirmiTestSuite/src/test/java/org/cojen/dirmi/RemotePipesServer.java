@@ -18,6 +18,8 @@ package org.cojen.dirmi;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 /**
  * 
  *
@@ -125,4 +127,22 @@ public class RemotePipesServer implements RemotePipes {
         }
         return null;
     }
+
+    public Pipe echoTransfer(Pipe pipe) {
+        try {
+            int length = pipe.readInt();
+            String tag = pipe.readUTF();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            while (buffer.hasRemaining()) {
+                pipe.read(buffer);
+            }
+            buffer.flip();
+            pipe.writeUTF(tag);
+            pipe.write(buffer);
+            pipe.writeInt(length);
+            pipe.close();
+        } catch (IOException e) {
+        }
+        return null;
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote interface for testing precompiled stubs and skeletons.
+ *
+ * @author Brian S O'Neill
+ */
+public interface RemotePrecompiled extends Remote {
+    String echo(String message) throws RemoteException;
+
+    @Asynchronous
+    void receive(String message) throws RemoteException;
+
+    String getMessage() throws RemoteException;
+
+    int add(int a, long b) throws RemoteException;
+
+    void fail(String message) throws RemoteException, IllegalStateException;
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote interface for testing values which bypass Java serialization.
+ *
+ * @author Brian S O'Neill
+ */
+public interface RemoteValues extends Remote {
+    Boolean echo(Boolean v) throws RemoteException;
+
+    Byte echo(Byte v) throws RemoteException;
+
+    Short echo(Short v) throws RemoteException;
+
+    Character echo(Character v) throws RemoteException;
+
+    Integer echo(Integer v) throws RemoteException;
+
+    Long echo(Long v) throws RemoteException;
+
+    Float echo(Float v) throws RemoteException;
+
+    Double echo(Double v) throws RemoteException;
+
+    boolean[] echo(boolean[] v) throws RemoteException;
+
+    byte[] echo(byte[] v) throws RemoteException;
+
+    short[] echo(short[] v) throws RemoteException;
+
+    char[] echo(char[] v) throws RemoteException;
+
+    int[] echo(int[] v) throws RemoteException;
+
+    long[] echo(long[] v) throws RemoteException;
+
+    float[] echo(float[] v) throws RemoteException;
+
+    double[] echo(double[] v) throws RemoteException;
+
+    int sum(int[] a, Integer b, String c, long[] d) throws RemoteException;
+
+    @Asynchronous
+    void send(int[] v) throws RemoteException;
+
+    int[] received() throws RemoteException;
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class RemoteValuesServer implements RemoteValues {
+    private int[] mReceived;
+
+    public Boolean echo(Boolean v) {
+        return v;
+    }
+
+    public Byte echo(Byte v) {
+        return v;
+    }
+
+    public Short echo(Short v) {
+        return v;
+    }
+
+    public Character echo(Character v) {
+        return v;
+    }
+
+    public Integer echo(Integer v) {
+        return v;
+    }
+
+    public Long echo(Long v) {
+        return v;
+    }
+
+    public Float echo(Float v) {
+        return v;
+    }
+
+    public Double echo(Double v) {
+        return v;
+    }
+
+    public boolean[] echo(boolean[] v) {
+        return v;
+    }
+
+    public byte[] echo(byte[] v) {
+        return v;
+    }
+
+    public short[] echo(short[] v) {
+        return v;
+    }
+
+    public char[] echo(char[] v) {
+        return v;
+    }
+
+    public int[] echo(int[] v) {
+        return v;
+    }
+
+    public long[] echo(long[] v) {
+        return v;
+    }
+
+    public float[] echo(float[] v) {
+        return v;
+    }
+
+    public double[] echo(double[] v) {
+        return v;
+    }
+
+    public int sum(int[] a, Integer b, String c, long[] d) {
+        int sum = b + Integer.parseInt(c);
+        for (int v : a) {
+            sum += v;
+        }
+        for (long v : d) {
+            sum += (int) v;
+        }
+        return sum;
+    }
+
+    public synchronized void send(int[] v) {
+        mReceived = v;
+        notifyAll();
+    }
+
+    public synchronized int[] received() {
+        while (mReceived == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return mReceived;
+    }
+}
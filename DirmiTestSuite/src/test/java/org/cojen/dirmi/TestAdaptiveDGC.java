@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi;
+
+import java.rmi.Remote;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestAdaptiveDGC extends AbstractTestSuite {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestAdaptiveDGC.class.getName());
+    }
+
+    @BeforeClass
+    public static void enableAdaptiveDGC() {
+        System.setProperty("org.cojen.dirmi.adaptiveDGC", "true");
+    }
+
+    @AfterClass
+    public static void disableAdaptiveDGC() {
+        System.clearProperty("org.cojen.dirmi.adaptiveDGC");
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new PipedSessionStrategy(env, null, new RemoteFaceServer());
+    }
+
+    @Test
+    public void disposeQuickly() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+
+        final AtomicInteger unref = new AtomicInteger();
+
+        class Exported implements Remote, Unreferenced {
+            public void unreferenced() {
+                unref.incrementAndGet();
+            }
+        }
+
+        final int count = 1000;
+        for (int i=0; i<count; i++) {
+            face.echo(new Exported());
+        }
+
+        // Channel streams retain the last argument until the next call.
+        face.doIt();
+
+        // Garbage collection timing varies, especially when the whole suite
+        // is running, and so allow plenty of time. Frame encoding and lease
+        // adjustment are checked deterministically by core.TestDisposer.
+        long deadline = System.currentTimeMillis() + 120000;
+        while (unref.get() < count && System.currentTimeMillis() < deadline) {
+            System.gc();
+            sleep(100);
+        }
+
+        assertEquals(count, unref.get());
+    }
+}
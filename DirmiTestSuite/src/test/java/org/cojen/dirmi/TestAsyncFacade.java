@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestAsyncFacade extends AbstractTestSuite {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestAsyncFacade.class.getName());
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new PipedSessionStrategy(env, null, new RemoteFaceServer());
+    }
+
+    public static interface FaceAsync {
+        Completion<Void> doIt();
+
+        Completion<String> getMessage();
+
+        Future<?> receive(String message);
+
+        Completion<Object> echoObject(Object obj);
+
+        Completion<List<String>> calculate(int param, Integer p2, String message,
+                                           List<String> params);
+
+        Completion<Void> fail(int[] params);
+
+        Completion<String[]> executeQuery2(String sql);
+    }
+
+    public static interface WrongReturn {
+        String getMessage();
+    }
+
+    public static interface WrongResult {
+        Completion<Integer> getMessage();
+    }
+
+    public static interface NoMatch {
+        Completion<String> getMessage(String param);
+    }
+
+    interface NotPublic {
+        Completion<String> getMessage();
+    }
+
+    @Test
+    public void basicMessagePassing() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+        FaceAsync async = AsyncFacade.create(FaceAsync.class, face);
+
+        async.doIt().get();
+        assertEquals("done", async.getMessage().get());
+
+        assertNull(async.receive("hello").get());
+        assertEquals("hello", face.getMessage());
+
+        List<String> params = new ArrayList<String>();
+        params.add("a");
+        List<String> result = async.calculate(1, 2, "three", params).get();
+        assertEquals("[1, 2, three, a]", result.toString());
+
+        assertEquals("x", async.echoObject("x").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void manyInFlight() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+        FaceAsync async = AsyncFacade.create(FaceAsync.class, face);
+
+        final int count = 100;
+
+        BlockingQueue<Completion<Object>> queue = new LinkedBlockingQueue<Completion<Object>>();
+        List<Completion<Object>> calls = new ArrayList<Completion<Object>>();
+
+        for (int i=0; i<count; i++) {
+            Completion<Object> call = async.echoObject(i);
+            call.register(queue);
+            calls.add(call);
+        }
+
+        for (int i=0; i<count; i++) {
+            assertNotNull(queue.poll(10, TimeUnit.SECONDS));
+        }
+
+        for (int i=0; i<count; i++) {
+            assertTrue(calls.get(i).isDone());
+            assertEquals(i, calls.get(i).get());
+        }
+    }
+
+    @Test
+    public void exceptions() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+        FaceAsync async = AsyncFacade.create(FaceAsync.class, face);
+
+        assertNull(async.fail(new int[0]).get());
+
+        try {
+            async.fail(null).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals("no params", e.getCause().getMessage());
+        }
+
+        try {
+            async.executeQuery2(null).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+            assertEquals("no query", e.getCause().getMessage());
+        }
+
+        String[] rows = async.executeQuery2("select").get();
+        assertEquals(4, rows.length);
+
+        // Session is still usable.
+        async.doIt().get();
+        assertEquals("done", async.getMessage().get());
+    }
+
+    @Test
+    public void illegalFacades() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+
+        try {
+            AsyncFacade.create(FaceAsync.class, new RemoteFaceServer());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        Class[] types = {
+            WrongReturn.class, WrongResult.class, NoMatch.class, NotPublic.class, String.class
+        };
+
+        for (Class type : types) {
+            try {
+                AsyncFacade.create(type, face);
+                fail(type.getName());
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void closedSession() throws Exception {
+        RemoteFace face = (RemoteFace) sessionStrategy.remoteServer;
+        FaceAsync async = AsyncFacade.create(FaceAsync.class, face);
+
+        sessionStrategy.localSession.close();
+
+        try {
+            async.getMessage().get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof java.rmi.RemoteException);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestAsyncFacadeTimeouts extends AbstractTestSuite {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestAsyncFacadeTimeouts.class.getName());
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new PipedSessionStrategy(env, null, new RemoteTimeoutsServer());
+    }
+
+    public static interface TimeoutsAsync {
+        Completion<String> slow(long sleepMillis, String param);
+
+        Completion<Integer> slow(long sleepMillis, Integer timeout);
+
+        Completion<Long> slow(long sleepMillis, long timeout);
+    }
+
+    @Test
+    public void defaultTimeout() throws Exception {
+        RemoteTimeouts remote = (RemoteTimeouts) sessionStrategy.remoteServer;
+        TimeoutsAsync async = AsyncFacade.create(TimeoutsAsync.class, remote);
+
+        assertEquals("foo", async.slow(1, "foo").get());
+
+        try {
+            async.slow(3000, "foo").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteTimeoutException);
+            assertEquals("Timed out after 2 seconds", e.getCause().getMessage());
+        }
+
+        assertEquals("bar", async.slow(1, "bar").get());
+    }
+
+    @Test
+    public void timeoutParam() throws Exception {
+        RemoteTimeouts remote = (RemoteTimeouts) sessionStrategy.remoteServer;
+        TimeoutsAsync async = AsyncFacade.create(TimeoutsAsync.class, remote);
+
+        assertEquals(Long.valueOf(2000000000), async.slow(1, 2000000000L).get());
+
+        // Null timeout is replaced by the default.
+        assertEquals(Integer.valueOf(1500), async.slow(1, (Integer) null).get());
+
+        try {
+            async.slow(3000, 100L).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteTimeoutException);
+            assertEquals("Timed out after 100 milliseconds", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void slowInFlight() throws Exception {
+        RemoteTimeouts remote = (RemoteTimeouts) sessionStrategy.remoteServer;
+        TimeoutsAsync async = AsyncFacade.create(TimeoutsAsync.class, remote);
+
+        final int count = 50;
+
+        long start = System.nanoTime();
+
+        List<Completion<Long>> calls = new ArrayList<Completion<Long>>();
+        for (int i=0; i<count; i++) {
+            calls.add(async.slow(500, 60000L));
+        }
+
+        for (Completion<Long> call : calls) {
+            assertEquals(Long.valueOf(60000), call.get());
+        }
+
+        // Calls would take 25 seconds if performed one at a time.
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 10000);
+    }
+}
@@ -17,7 +17,15 @@
 package org.cojen.dirmi;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.Random;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -472,4 +480,75 @@ public class TestPipes extends AbstractTestSuite {
             }
         }
     }
+
+    @Test
+    public void transferBuffer() throws Exception {
+        RemotePipes pipes = (RemotePipes) sessionStrategy.remoteServer;
+
+        for (int length : new int[] {1, 100, 10000, 100000}) {
+            byte[] bytes = new byte[length];
+            new Random(length).nextBytes(bytes);
+
+            Pipe pipe = pipes.echoTransfer(null);
+            pipe.writeInt(length);
+            pipe.writeUTF("tag");
+            pipe.write(ByteBuffer.wrap(bytes));
+            pipe.flush();
+
+            assertEquals("tag", pipe.readUTF());
+            ByteBuffer response = ByteBuffer.allocate(length);
+            while (response.hasRemaining()) {
+                assertTrue(pipe.read(response) > 0);
+            }
+            assertArrayEquals(bytes, response.array());
+            assertEquals(length, pipe.readInt());
+            pipe.close();
+        }
+    }
+
+    @Test
+    public void transferFile() throws Exception {
+        RemotePipes pipes = (RemotePipes) sessionStrategy.remoteServer;
+
+        int length = 1000000;
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+
+        File srcFile = File.createTempFile("dirmi", null);
+        File dstFile = File.createTempFile("dirmi", null);
+        RandomAccessFile src = new RandomAccessFile(srcFile, "rw");
+        RandomAccessFile dst = new RandomAccessFile(dstFile, "rw");
+
+        try {
+            src.write(bytes);
+            src.seek(5);
+            FileChannel srcChannel = src.getChannel();
+            FileChannel dstChannel = dst.getChannel();
+
+            Pipe pipe = pipes.echoTransfer(null);
+            pipe.writeInt(length - 10);
+            pipe.writeUTF("tag");
+            // Requesting more than available transfers only what remains.
+            assertEquals(length - 10, pipe.transferFrom(srcChannel, 10, length));
+            pipe.flush();
+
+            assertEquals("tag", pipe.readUTF());
+            pipe.transferTo(dstChannel, 0, length - 10);
+            assertEquals(length - 10, pipe.readInt());
+            pipe.close();
+
+            assertEquals(5, srcChannel.position());
+            assertEquals(length - 10, dstChannel.size());
+            byte[] response = new byte[length - 10];
+            dst.readFully(response);
+            for (int i=0; i<response.length; i++) {
+                assertEquals(bytes[i + 10], response[i]);
+            }
+        } finally {
+            src.close();
+            dst.close();
+            srcFile.delete();
+            dstFile.delete();
+        }
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.io.File;
+
+import java.net.URL;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.cojen.dirmi.core.Precompiler;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestPrecompiled extends AbstractTestSuite {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestPrecompiled.class.getName());
+    }
+
+    private static boolean cPrecompiled;
+
+    @BeforeClass
+    public static void precompile() throws Exception {
+        // Write the classes next to the interface, where the class loader
+        // will find them.
+        URL location = RemotePrecompiled.class
+            .getProtectionDomain().getCodeSource().getLocation();
+        if ("file".equals(location.getProtocol())) {
+            File dir = new File(location.toURI());
+            if (dir.isDirectory()) {
+                assertEquals(2, Precompiler.precompile(RemotePrecompiled.class, dir).size());
+                cPrecompiled = true;
+            }
+        }
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new PipedSessionStrategy(env, null, new RemotePrecompiledServer());
+    }
+
+    @Test
+    public void precompiledStub() throws Exception {
+        Assume.assumeTrue(cPrecompiled);
+        RemotePrecompiled remote = (RemotePrecompiled) sessionStrategy.remoteServer;
+        assertTrue(remote.getClass().getName(),
+                   remote.getClass().getName().startsWith
+                   (RemotePrecompiled.class.getName() + "$Stub$pre"));
+    }
+
+    @Test
+    public void invoke() throws Exception {
+        RemotePrecompiled remote = (RemotePrecompiled) sessionStrategy.remoteServer;
+
+        assertEquals("hello", remote.echo("hello"));
+        assertEquals(3, remote.add(1, 2L));
+
+        remote.receive("world");
+        assertEquals("world", remote.getMessage());
+
+        try {
+            remote.fail("bad");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("bad", e.getMessage());
+        }
+    }
+}
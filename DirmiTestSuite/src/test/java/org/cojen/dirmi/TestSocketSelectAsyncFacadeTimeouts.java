@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestSocketSelectAsyncFacadeTimeouts extends TestAsyncFacadeTimeouts {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestSocketSelectAsyncFacadeTimeouts.class.getName());
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new SocketSessionStrategy
+            (env.withSocketSelector(), null, new RemoteTimeoutsServer());
+    }
+
+    @Test
+    public void closedInFlight() throws Exception {
+        RemoteTimeouts remote = (RemoteTimeouts) sessionStrategy.remoteServer;
+        TimeoutsAsync async = AsyncFacade.create(TimeoutsAsync.class, remote);
+
+        Completion<Long> call = async.slow(60000, 120000L);
+
+        sessionStrategy.localSession.close();
+
+        try {
+            call.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof java.rmi.RemoteException);
+        }
+    }
+}
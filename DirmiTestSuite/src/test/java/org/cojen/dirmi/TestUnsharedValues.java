@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi;
+
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestUnsharedValues extends AbstractTestSuite {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestUnsharedValues.class.getName());
+    }
+
+    protected SessionStrategy createSessionStrategy(Environment env) throws Exception {
+        return new PipedSessionStrategy(env, null, new RemoteValuesServer());
+    }
+
+    @Test
+    public void boxed() throws Exception {
+        RemoteValues server = (RemoteValues) sessionStrategy.remoteServer;
+
+        assertEquals(Boolean.TRUE, server.echo(Boolean.TRUE));
+        assertEquals(Boolean.FALSE, server.echo(Boolean.FALSE));
+        assertEquals(Byte.valueOf((byte) -5), server.echo(Byte.valueOf((byte) -5)));
+        assertEquals(Short.valueOf((short) 1234), server.echo(Short.valueOf((short) 1234)));
+        assertEquals(Character.valueOf('\uabcd'), server.echo(Character.valueOf('\uabcd')));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE),
+                     server.echo(Integer.valueOf(Integer.MIN_VALUE)));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), server.echo(Long.valueOf(Long.MAX_VALUE)));
+        assertEquals(Float.valueOf(1.5f), server.echo(Float.valueOf(1.5f)));
+        assertEquals(Double.valueOf(Double.NaN), server.echo(Double.valueOf(Double.NaN)));
+
+        assertNull(server.echo((Boolean) null));
+        assertNull(server.echo((Integer) null));
+        assertNull(server.echo((Double) null));
+    }
+
+    @Test
+    public void arrays() throws Exception {
+        RemoteValues server = (RemoteValues) sessionStrategy.remoteServer;
+
+        assertNull(server.echo((int[]) null));
+        assertEquals(0, server.echo(new long[0]).length);
+
+        // Large enough to span several encoding buffers.
+        int length = 10000;
+        Random rnd = new Random(8972349823L);
+
+        boolean[] z = new boolean[length];
+        byte[] b = new byte[length];
+        short[] s = new short[length];
+        char[] c = new char[length];
+        int[] i = new int[length];
+        long[] j = new long[length];
+        float[] f = new float[length];
+        double[] d = new double[length];
+
+        rnd.nextBytes(b);
+        for (int k=0; k<length; k++) {
+            z[k] = rnd.nextBoolean();
+            s[k] = (short) rnd.nextInt();
+            c[k] = (char) rnd.nextInt();
+            i[k] = rnd.nextInt();
+            j[k] = rnd.nextLong();
+            f[k] = rnd.nextFloat();
+            d[k] = rnd.nextDouble();
+        }
+
+        assertArrayEquals(b, server.echo(b));
+        assertArrayEquals(s, server.echo(s));
+        assertArrayEquals(c, server.echo(c));
+        assertArrayEquals(i, server.echo(i));
+        assertArrayEquals(j, server.echo(j));
+        assertArrayEquals(f, server.echo(f), 0.0f);
+        assertArrayEquals(d, server.echo(d), 0.0);
+
+        boolean[] z2 = server.echo(z);
+        assertEquals(length, z2.length);
+        for (int k=0; k<length; k++) {
+            assertEquals(z[k], z2[k]);
+        }
+    }
+
+    @Test
+    public void mixed() throws Exception {
+        RemoteValues server = (RemoteValues) sessionStrategy.remoteServer;
+        assertEquals(1 + 2 + 3 + 4 + 5 + 6,
+                     server.sum(new int[] {1, 2}, 3, "4", new long[] {5, 6}));
+    }
+
+    @Test
+    public void asynchronous() throws Exception {
+        RemoteValues server = (RemoteValues) sessionStrategy.remoteServer;
+        int[] v = {1, 2, 3};
+        server.send(v);
+        assertArrayEquals(v, server.received());
+    }
+}
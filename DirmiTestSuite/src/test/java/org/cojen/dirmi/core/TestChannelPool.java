@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestChannelPool {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestChannelPool.class.getName());
+    }
+
+    @Test
+    public void lifo() {
+        ChannelPool<String> pool = new ChannelPool<String>(0, 10, false);
+        assertNull(pool.poll());
+        assertEquals(1, pool.getMissCount());
+
+        assertTrue(pool.offer("a", 0, false));
+        assertTrue(pool.offer("b", 0, false));
+        assertTrue(pool.offer("c", 0, false));
+        assertEquals(3, pool.getIdleCount());
+        assertEquals(3, pool.copy().size());
+
+        assertEquals("c", pool.poll());
+        assertEquals("b", pool.poll());
+        assertEquals(2, pool.getHitCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void bounds() {
+        ChannelPool<Integer> pool = new ChannelPool<Integer>(2, 20, false);
+        assertEquals(2, pool.getTargetIdleCount());
+
+        // Exceed initial capacity, forcing wrapped buffer to grow.
+        for (int i=0; i<5; i++) {
+            pool.offer(i, 0, false);
+        }
+        pool.poll();
+        pool.poll();
+        for (int i=5; i<30; i++) {
+            pool.offer(i, 0, false);
+        }
+        assertEquals(20, pool.getIdleCount());
+        assertEquals(8, pool.getDiscardedCount());
+        assertEquals(Integer.valueOf(21), pool.poll());
+
+        // Surplus channels are kept for a short while.
+        assertNull(pool.adjust(1, 1, 10, 60));
+        assertEquals(19, pool.getIdleCount());
+
+        // Without demand, target decays to the minimum, discarding oldest first.
+        List<Integer> discard = pool.adjust(10, 9, 10, 60);
+        assertEquals(17, discard.size());
+        assertEquals(Integer.valueOf(0), discard.get(0));
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.getTargetIdleCount());
+
+        // Minimum is kept even when idle too long.
+        assertNull(pool.adjust(100, 90, 10, 60));
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void demand() {
+        ChannelPool<Integer> pool = new ChannelPool<Integer>(0, 100, false);
+
+        for (int round=0; round<20; round++) {
+            // Simulate 10 concurrent callers.
+            for (int i=0; i<10; i++) {
+                if (pool.poll() == null) {
+                    pool.connected();
+                }
+            }
+            for (int i=0; i<10; i++) {
+                pool.offer(i, round, true);
+            }
+            pool.adjust(round, 1, 0, 60);
+        }
+
+        assertEquals(10, pool.getTargetIdleCount());
+        assertEquals(10, pool.getIdleCount());
+        assertEquals(pool.getMissCount(), pool.getConnectCount());
+
+        // Demand stops, and the pool shrinks gradually.
+        int idle = pool.getIdleCount();
+        for (int round=20; round<60; round++) {
+            pool.adjust(round, 1, 0, 60);
+            assertTrue(pool.getIdleCount() <= idle);
+            idle = pool.getIdleCount();
+        }
+        assertEquals(0, idle);
+        assertTrue(pool.getConnectRate() < 0.01);
+    }
+
+    @Test
+    public void heldAcrossAdjust() {
+        ChannelPool<Integer> pool = new ChannelPool<Integer>(0, 100, false);
+
+        // Simulate 10 concurrent callers which always hold a channel, and
+        // which return and take channels between adjustments.
+        for (int i=0; i<10; i++) {
+            assertNull(pool.poll());
+            pool.connected();
+        }
+
+        for (int round=0; round<20; round++) {
+            for (int i=0; i<10; i++) {
+                pool.offer(i, round, true);
+                assertEquals(Integer.valueOf(i), pool.poll());
+            }
+            assertEquals(0, pool.getIdleCount());
+            pool.adjust(round, 1, 10, 60);
+        }
+
+        assertEquals(10, pool.getTargetIdleCount());
+
+        // Discarded channels no longer count as demand.
+        for (int i=0; i<10; i++) {
+            pool.discarded();
+        }
+        for (int round=20; round<60; round++) {
+            pool.adjust(round, 1, 10, 60);
+        }
+        assertEquals(0, pool.getTargetIdleCount());
+    }
+
+    @Test
+    public void preconnect() {
+        ChannelPool<Integer> pool = new ChannelPool<Integer>(3, 10, false);
+        assertEquals(3, pool.reserve());
+        assertEquals(0, pool.reserve());
+        assertEquals(3, pool.getPendingCount());
+
+        assertTrue(pool.preconnected(1, 0));
+        pool.preconnectFailed();
+        assertEquals(1, pool.getPendingCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getPreconnectCount());
+        assertEquals(1, pool.reserve());
+
+        List<Integer> idle = pool.close();
+        assertEquals(1, idle.size());
+        assertFalse(pool.preconnected(2, 0));
+        assertFalse(pool.offer(3, 0, false));
+        assertEquals(0, pool.reserve());
+    }
+
+    @Test
+    public void waitTimes() {
+        ChannelPool<Integer> pool = new ChannelPool<Integer>(0, 10, true);
+        assertTrue(pool.isWaitRecorded());
+        pool.waited(0);
+        pool.waited(2000000);
+        assertEquals(1000.0, pool.getMeanWait(), 0.1);
+        assertEquals(2000.0, pool.getMaxWait(), 0.1);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestDisposer {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestDisposer.class.getName());
+    }
+
+    @Test
+    public void frame() {
+        final int count = 100;
+        Object[] objects = new Object[count];
+        Disposer.Entry[] batch = new Disposer.Entry[count];
+        for (int i=0; i<count; i++) {
+            objects[i] = new Object();
+            VersionedIdentifier id = VersionedIdentifier.identify(objects[i]);
+            batch[i] = new Disposer.Entry(id, i - 50, Integer.MAX_VALUE - i, 0);
+        }
+
+        Disposer.Entry[] decoded = Disposer.decode(Disposer.encode(batch));
+        assertEquals(count, decoded.length);
+
+        // Decoded frame is sorted by identifier.
+        for (int i=1; i<count; i++) {
+            assertTrue(decoded[i - 1].compareTo(decoded[i]) < 0);
+        }
+
+        for (Disposer.Entry e : batch) {
+            boolean found = false;
+            for (Disposer.Entry d : decoded) {
+                if (d.mId == e.mId) {
+                    assertEquals(e.mLocalVersion, d.mLocalVersion);
+                    assertEquals(e.mRemoteVersion, d.mRemoteVersion);
+                    found = true;
+                    break;
+                }
+            }
+            assertTrue(found);
+        }
+    }
+
+    @Test
+    public void emptyFrame() {
+        assertEquals(0, Disposer.decode(Disposer.encode(new Disposer.Entry[0])).length);
+    }
+
+    @Test
+    public void lease() {
+        Disposer disposer = new Disposer();
+        assertEquals(Disposer.MIN_LEASE_SECONDS, disposer.getLeaseSeconds());
+
+        Object a = new Object();
+        Object b = new Object();
+        disposer.add(VersionedIdentifier.identify(a), 0);
+        disposer.add(VersionedIdentifier.identify(b), 1);
+        assertEquals(2, disposer.getPendingCount());
+
+        // Lease has not expired.
+        assertFalse(disposer.isFlushable(0));
+        assertNull(disposer.take(0));
+
+        // Only the first identifier has an expired lease.
+        Disposer.Entry[] batch = disposer.take(1);
+        assertEquals(1, batch.length);
+        assertEquals(1, disposer.getPendingCount());
+
+        // Only one flush at a time.
+        assertNull(disposer.take(10));
+
+        // Peer had to wait, so lease is lengthened.
+        disposer.sent(batch, 3);
+        assertEquals(1, disposer.getDisposedCount());
+        assertEquals(Disposer.MIN_LEASE_SECONDS * 2, disposer.getLeaseSeconds());
+
+        batch = disposer.take(10);
+        assertEquals(1, batch.length);
+
+        // Failed batch is put back.
+        assertTrue(disposer.failed(batch));
+        assertEquals(1, disposer.getPendingCount());
+
+        batch = disposer.take(10);
+        disposer.sent(batch, 0);
+        assertEquals(2, disposer.getDisposedCount());
+        assertEquals(0, disposer.getPendingCount());
+        assertEquals(Disposer.MIN_LEASE_SECONDS, disposer.getLeaseSeconds());
+    }
+
+    @Test
+    public void maxLease() {
+        Disposer disposer = new Disposer();
+        Object obj = new Object();
+        for (int i=0; i<10; i++) {
+            disposer.add(VersionedIdentifier.identify(obj), 0);
+            disposer.sent(disposer.take(100), 1);
+        }
+        assertEquals(Disposer.MAX_LEASE_SECONDS, disposer.getLeaseSeconds());
+    }
+
+    @Test
+    public void tooManyFailures() {
+        Disposer disposer = new Disposer();
+        Object obj = new Object();
+        disposer.add(VersionedIdentifier.identify(obj), 0);
+        assertTrue(disposer.failed(disposer.take(1)));
+        assertTrue(disposer.failed(disposer.take(1)));
+        assertFalse(disposer.failed(disposer.take(1)));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestBufferPool {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestBufferPool.class.getName());
+    }
+
+    @Test
+    public void reuse() {
+        BufferPool pool = new BufferPool();
+
+        byte[] a = pool.acquire(100);
+        assertEquals(100, a.length);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+
+        pool.release(a);
+        assertEquals(1, pool.getPooledCount());
+
+        // Different size is not satisfied by pooled buffer.
+        byte[] b = pool.acquire(200);
+        assertNotSame(a, b);
+        assertEquals(2, pool.getMissCount());
+
+        assertSame(a, pool.acquire(100));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getPooledCount());
+        assertEquals(1.0 / 3, pool.getHitRate(), 0.0001);
+
+        pool.release(null);
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    public void limit() {
+        BufferPool pool = new BufferPool(2);
+        pool.release(new byte[10]);
+        pool.release(new byte[10]);
+        pool.release(new byte[10]);
+        assertEquals(2, pool.getPooledCount());
+
+        pool = new BufferPool(0);
+        pool.release(new byte[10]);
+        assertEquals(0, pool.getPooledCount());
+        pool.acquire(10);
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void packetStreams() throws Exception {
+        BufferPool pool = new BufferPool();
+
+        PipedInputStream pin = new PipedInputStream();
+        PipedOutputStream pout = new PipedOutputStream(pin);
+
+        TestPacketOutputStream.Writer writer = new TestPacketOutputStream.Writer(pout, 100, pool);
+        assertEquals(1, pool.getMissCount());
+        writer.disconnect();
+        assertEquals(1, pool.getPooledCount());
+
+        writer = new TestPacketOutputStream.Writer(new PipedOutputStream(), 100, pool);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getPooledCount());
+    }
+}
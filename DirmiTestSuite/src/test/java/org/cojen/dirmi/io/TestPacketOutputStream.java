@@ -20,6 +20,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
 import java.util.Random;
 
 import org.junit.*;
@@ -142,10 +144,29 @@ public class TestPacketOutputStream {
         }
     }
 
+    @Test
+    public void randomBufferingGathered() throws Throwable {
+        long dataSeed = System.currentTimeMillis();
+        long sizeSeed = System.nanoTime();
+        try {
+            randomBuffering(dataSeed, sizeSeed, new GatheringPipedOutputStream(), 100000);
+        } catch (Throwable e) {
+            System.out.println("Data seed: " + dataSeed);
+            System.out.println("Size seed: " + sizeSeed);
+            throw e;
+        }
+    }
+
     public void randomBuffering(long dataSeed, long sizeSeed) throws Exception {
+        randomBuffering(dataSeed, sizeSeed, new PipedOutputStream(), 10000);
+    }
+
+    public void randomBuffering(long dataSeed, long sizeSeed,
+                                PipedOutputStream out, int maxSize)
+        throws Exception
+    {
         Random dataSource = new Random(dataSeed);
 
-        PipedOutputStream out = new PipedOutputStream();
         Reader reader = new Reader(out, dataSeed);
         Thread t = new Thread(reader);
         t.start();
@@ -161,7 +182,7 @@ public class TestPacketOutputStream {
                     pout.write(dataSource.nextInt());
                     total++;
                 } else {
-                    int size = sizeSource.nextInt(10000) + 1;
+                    int size = sizeSource.nextInt(maxSize) + 1;
                     byte[] data = new byte[size];
                     for (int j=0; j<size; j++) {
                         data[j] = (byte) dataSource.nextInt();
@@ -198,6 +219,10 @@ public class TestPacketOutputStream {
             super(out, size);
         }
 
+        Writer(OutputStream out, int size, BufferPool pool) {
+            super(out, size, pool);
+        }
+
         private Writer() {
         }
 
@@ -222,6 +247,19 @@ public class TestPacketOutputStream {
         }
     }
 
+    private static class GatheringPipedOutputStream extends PipedOutputStream
+        implements GatheringOutput
+    {
+        public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+            for (int i=0; i<length; i++) {
+                ByteBuffer buffer = buffers[offset + i];
+                write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                      buffer.remaining());
+                buffer.position(buffer.limit());
+            }
+        }
+    }
+
     private static class Reader extends PipedInputStream implements Runnable {
         private final Random mDataSource;
 
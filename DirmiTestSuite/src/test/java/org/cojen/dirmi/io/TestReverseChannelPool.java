@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.cojen.dirmi.RejectedException;
+
+import org.cojen.dirmi.util.ThreadPool;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestReverseChannelPool {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestReverseChannelPool.class.getName());
+    }
+
+    private ThreadPool mThreadPool;
+    private IOExecutor mExecutor;
+
+    @Before
+    public void setup() {
+        mThreadPool = new ThreadPool(10, true);
+        mExecutor = new IOExecutor(mThreadPool);
+    }
+
+    @After
+    public void teardown() {
+        mThreadPool.shutdown();
+    }
+
+    private Channel newChannel() throws IOException {
+        PipedInputStream in = new PipedInputStream();
+        PipedOutputStream out = new PipedOutputStream(new PipedInputStream());
+        return new PipedChannel(mExecutor, in, out, 100);
+    }
+
+    @Test
+    public void idleWithoutDemand() throws Exception {
+        ReverseChannelPool pool = new ReverseChannelPool();
+        assertNull(pool.poll());
+        assertNull(pool.adjust());
+        // A lone request doesn't warrant an idle channel.
+        assertEquals(0, pool.getTargetIdleCount());
+        assertNull(pool.fill());
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void sizedFromDemand() throws Exception {
+        ReverseChannelPool pool = new ReverseChannelPool();
+        for (int i=0; i<3; i++) {
+            assertNull(pool.poll());
+        }
+        assertNull(pool.adjust());
+        assertEquals(Math.min(3, ReverseChannelPool.MAX_IDLE), pool.getTargetIdleCount());
+
+        List<ReverseChannelPool.Filler> fillers = pool.fill();
+        assertEquals(pool.getTargetIdleCount(), fillers.size());
+        // Already requested.
+        assertNull(pool.fill());
+
+        for (ReverseChannelPool.Filler filler : fillers) {
+            filler.connected(newChannel());
+        }
+        assertEquals(fillers.size(), pool.getIdleCount());
+
+        assertNotNull(pool.poll());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(fillers.size() - 1, pool.getIdleCount());
+
+        // Target decays without demand, and surplus is returned.
+        int discarded = 0;
+        for (int i=0; i<3; i++) {
+            List<Channel> surplus = pool.adjust();
+            if (surplus != null) {
+                discarded += surplus.size();
+            }
+        }
+        assertEquals(0, pool.getTargetIdleCount());
+        assertEquals(fillers.size() - 1, discarded);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(discarded, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void claim() throws Exception {
+        ReverseChannelPool pool = new ReverseChannelPool();
+        pool.poll();
+        pool.poll();
+        pool.adjust();
+
+        List<ReverseChannelPool.Filler> fillers = pool.fill();
+        assertEquals(2, fillers.size());
+
+        Listener listener = new Listener();
+        assertTrue(pool.claim(listener));
+        assertTrue(pool.claim(new Listener()));
+        assertFalse(pool.claim(new Listener()));
+
+        Channel channel = newChannel();
+        fillers.get(0).connected(channel);
+        assertSame(channel, listener.mChannel);
+        assertEquals(0, pool.getIdleCount());
+
+        // Unclaimed filler is no longer pending once it fails.
+        ReverseChannelPool.Filler filler = pool.fill().get(0);
+        fillers.get(1).failed(new IOException());
+        filler.closed(new IOException());
+        assertEquals(2, pool.fill().size());
+    }
+
+    @Test
+    public void close() throws Exception {
+        ReverseChannelPool pool = new ReverseChannelPool();
+        pool.poll();
+        pool.poll();
+        pool.adjust();
+
+        List<ReverseChannelPool.Filler> fillers = pool.fill();
+        fillers.get(0).connected(newChannel());
+        assertEquals(1, pool.close().size());
+
+        Channel channel = newChannel();
+        fillers.get(1).connected(channel);
+        assertTrue(channel.isClosed());
+        assertEquals(0, pool.getIdleCount());
+        assertNull(pool.fill());
+    }
+
+    private static class Listener implements ChannelConnector.Listener {
+        volatile Channel mChannel;
+
+        public void connected(Channel channel) {
+            mChannel = channel;
+        }
+
+        public void rejected(RejectedException e) {
+        }
+
+        public void failed(IOException e) {
+        }
+
+        public void closed(IOException e) {
+        }
+    }
+}
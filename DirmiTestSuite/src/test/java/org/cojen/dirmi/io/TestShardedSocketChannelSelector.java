@@ -0,0 +1,354 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.io.IOException;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.cojen.dirmi.RejectedException;
+
+import org.cojen.dirmi.util.ThreadPool;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestShardedSocketChannelSelector {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestShardedSocketChannelSelector.class.getName());
+    }
+
+    private static final int SHARDS = 4;
+
+    private ThreadPool mThreadPool;
+    private ShardedSocketChannelSelector mSelector;
+    private ServerSocketChannel mServer;
+    private List<SocketChannel> mChannels;
+
+    @Before
+    public void setup() throws Exception {
+        mThreadPool = new ThreadPool(10, true);
+        mSelector = new ShardedSocketChannelSelector(new IOExecutor(mThreadPool), SHARDS);
+        mThreadPool.execute(new Runnable() {
+            public void run() {
+                try {
+                    mSelector.selectLoop();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mChannels = new ArrayList<SocketChannel>();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        for (SocketChannel channel : mChannels) {
+            channel.close();
+        }
+        mServer.close();
+        mSelector.close();
+        mThreadPool.shutdown();
+    }
+
+    /**
+     * Returns a connected pair of channels. The first is non-blocking, for
+     * use with the selector, and the second is its blocking peer.
+     */
+    private SocketChannel[] connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(mServer.socket().getLocalSocketAddress());
+        SocketChannel peer = mServer.accept();
+        channel.configureBlocking(false);
+        mChannels.add(channel);
+        mChannels.add(peer);
+        return new SocketChannel[] {channel, peer};
+    }
+
+    private Selector[] shardSelectors() throws Exception {
+        Field shardsField = ShardedSocketChannelSelector.class.getDeclaredField("mShards");
+        shardsField.setAccessible(true);
+        Object shards = shardsField.get(mSelector);
+        Selector[] selectors = new Selector[Array.getLength(shards)];
+        for (int i=0; i<selectors.length; i++) {
+            Object shard = Array.get(shards, i);
+            Field selectorField = shard.getClass().getDeclaredField("mSelector");
+            selectorField.setAccessible(true);
+            selectors[i] = (Selector) selectorField.get(shard);
+        }
+        return selectors;
+    }
+
+    /**
+     * Returns the only key for the channel, waiting for it to be registered.
+     */
+    private SelectionKey keyFor(SocketChannel channel) throws Exception {
+        Selector[] selectors = shardSelectors();
+        long end = System.currentTimeMillis() + 10000;
+        while (true) {
+            SelectionKey found = null;
+            for (Selector selector : selectors) {
+                SelectionKey key = channel.keyFor(selector);
+                if (key != null) {
+                    assertNull("Registered with more than one shard", found);
+                    found = key;
+                }
+            }
+            if (found != null) {
+                return found;
+            }
+            assertTrue("Not registered", System.currentTimeMillis() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void write(SocketChannel peer) throws IOException {
+        peer.write(ByteBuffer.wrap(new byte[1]));
+    }
+
+    private static void read(SocketChannel channel) throws IOException {
+        assertEquals(1, channel.read(ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void shardAssignment() throws Exception {
+        assertEquals(SHARDS, shardSelectors().length);
+
+        int count = 32;
+        SocketChannel[][] pairs = new SocketChannel[count][];
+        Listener[] listeners = new Listener[count];
+        for (int i=0; i<count; i++) {
+            pairs[i] = connect();
+            listeners[i] = new Listener();
+            mSelector.inputNotify(pairs[i][0], listeners[i]);
+        }
+
+        Set<Selector> used = new HashSet<Selector>();
+        for (int i=0; i<count; i++) {
+            write(pairs[i][1]);
+            assertEquals(1, listeners[i].waitForReady(1));
+            used.add(keyFor(pairs[i][0]).selector());
+        }
+
+        // Channels are spread over the shards.
+        assertTrue(used.size() > 1);
+
+        // Channel stays with its shard when armed again.
+        for (int i=0; i<count; i++) {
+            SelectionKey key = keyFor(pairs[i][0]);
+            read(pairs[i][0]);
+            mSelector.inputNotify(pairs[i][0], listeners[i]);
+            write(pairs[i][1]);
+            assertEquals(2, listeners[i].waitForReady(2));
+            assertSame(key, keyFor(pairs[i][0]));
+        }
+
+        for (Listener listener : listeners) {
+            assertEquals(0, listener.closedCount());
+            assertEquals(0, listener.rejectedCount());
+        }
+    }
+
+    @Test
+    public void interestToggling() throws Exception {
+        SocketChannel[] pair = connect();
+        SocketChannel channel = pair[0];
+
+        Listener listener = new Listener();
+        mSelector.inputNotify(channel, listener);
+        SelectionKey key = keyFor(channel);
+        waitForInterest(key, SelectionKey.OP_READ);
+
+        // Nothing to read yet.
+        Thread.sleep(100);
+        assertEquals(0, listener.readyCount());
+
+        for (int i=1; i<=10; i++) {
+            write(pair[1]);
+            assertEquals(i, listener.waitForReady(i));
+
+            // Key remains registered, but no longer selects for reads.
+            assertTrue(key.isValid());
+            assertEquals(0, key.interestOps());
+            assertSame(key, keyFor(channel));
+
+            read(channel);
+            mSelector.inputNotify(channel, listener);
+            assertEquals(SelectionKey.OP_READ, key.interestOps());
+        }
+
+        // Write interest is toggled independently of read interest.
+        Listener writeListener = new Listener();
+        mSelector.outputNotify(channel, writeListener);
+        assertEquals(1, writeListener.waitForReady(1));
+        waitForInterest(key, SelectionKey.OP_READ);
+        assertEquals(10, listener.readyCount());
+
+        write(pair[1]);
+        assertEquals(11, listener.waitForReady(11));
+        assertEquals(0, key.interestOps());
+        assertSame(key, keyFor(channel));
+    }
+
+    @Test
+    public void sameEventTwice() throws Exception {
+        SocketChannel[] pair = connect();
+
+        Listener first = new Listener();
+        Listener second = new Listener();
+        mSelector.inputNotify(pair[0], first);
+        mSelector.inputNotify(pair[0], second);
+
+        write(pair[1]);
+        assertEquals(1, first.waitForReady(1));
+        assertEquals(1, second.waitForReady(1));
+    }
+
+    @Test
+    public void closeWhileArmed() throws Exception {
+        SocketChannel[] pair = connect();
+        SocketChannel channel = pair[0];
+
+        Listener listener = new Listener();
+        mSelector.inputNotify(channel, listener);
+        SelectionKey key = keyFor(channel);
+        waitForInterest(key, SelectionKey.OP_READ);
+
+        channel.close();
+        assertFalse(key.isValid());
+
+        // Arming the cancelled key notifies all armed listeners.
+        Listener writeListener = new Listener();
+        mSelector.outputNotify(channel, writeListener);
+        assertEquals(1, listener.waitForClosed(1));
+        assertEquals(1, writeListener.waitForClosed(1));
+        assertEquals(0, listener.readyCount());
+        assertEquals(0, writeListener.readyCount());
+
+        // Once notified, listeners aren't notified again.
+        Listener another = new Listener();
+        mSelector.inputNotify(channel, another);
+        assertEquals(1, another.waitForClosed(1));
+        assertEquals(1, listener.closedCount());
+        assertEquals(1, writeListener.closedCount());
+    }
+
+    @Test
+    public void closeBeforeRegistered() throws Exception {
+        SocketChannel channel = connect()[0];
+        channel.close();
+
+        Listener listener = new Listener();
+        mSelector.inputNotify(channel, listener);
+        assertEquals(1, listener.waitForClosed(1));
+        assertEquals(0, listener.readyCount());
+    }
+
+    @Test
+    public void peerClosed() throws Exception {
+        SocketChannel[] pair = connect();
+
+        Listener listener = new Listener();
+        mSelector.inputNotify(pair[0], listener);
+        pair[1].close();
+
+        // End of stream is readable.
+        assertEquals(1, listener.waitForReady(1));
+        assertEquals(-1, pair[0].read(ByteBuffer.allocate(10)));
+    }
+
+    private static void waitForInterest(SelectionKey key, int ops) throws Exception {
+        long end = System.currentTimeMillis() + 10000;
+        while (key.interestOps() != ops) {
+            assertTrue("Interest not applied", System.currentTimeMillis() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    private static class Listener implements Channel.Listener {
+        private int mReady;
+        private int mRejected;
+        private int mClosed;
+
+        public synchronized void ready() {
+            mReady++;
+            notifyAll();
+        }
+
+        public synchronized void rejected(RejectedException cause) {
+            mRejected++;
+            notifyAll();
+        }
+
+        public synchronized void closed(IOException cause) {
+            mClosed++;
+            notifyAll();
+        }
+
+        synchronized int readyCount() {
+            return mReady;
+        }
+
+        synchronized int rejectedCount() {
+            return mRejected;
+        }
+
+        synchronized int closedCount() {
+            return mClosed;
+        }
+
+        synchronized int waitForReady(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            long remaining;
+            while (mReady < count && (remaining = end - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return mReady;
+        }
+
+        synchronized int waitForClosed(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            long remaining;
+            while (mClosed < count && (remaining = end - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return mClosed;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.io;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestTimeoutWheel {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestTimeoutWheel.class.getName());
+    }
+
+    private ScheduledExecutorService mExecutor;
+    private TimeoutWheel mWheel;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newScheduledThreadPool(2);
+        mWheel = new TimeoutWheel(new IOExecutor(mExecutor), 5, TimeUnit.MILLISECONDS, 16);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fire() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TimeoutWheel.Handle handle = mWheel.newHandle(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        long start = System.nanoTime();
+        assertTrue(handle.arm(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, mWheel.getArmedCount());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("" + elapsed, elapsed >= 45);
+
+        assertTrue(handle.hasFired());
+        assertEquals(0, mWheel.getArmedCount());
+
+        // Fired handle cannot be armed or disarmed until reset.
+        assertFalse(handle.arm(10, TimeUnit.MILLISECONDS));
+        assertFalse(handle.disarm());
+        handle.reset();
+        assertFalse(handle.hasFired());
+        assertTrue(handle.disarm());
+    }
+
+    @Test
+    public void disarm() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        TimeoutWheel.Handle handle = mWheel.newHandle(new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        });
+
+        for (int i=0; i<100; i++) {
+            assertTrue(handle.arm(20, TimeUnit.MILLISECONDS));
+            assertTrue(handle.disarm());
+        }
+        assertEquals(0, mWheel.getArmedCount());
+
+        Thread.sleep(100);
+        assertEquals(0, count.get());
+        assertFalse(handle.hasFired());
+    }
+
+    @Test
+    public void rearm() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TimeoutWheel.Handle handle = mWheel.newHandle(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        // Arming again replaces the deadline, beyond a full rotation.
+        assertTrue(handle.arm(10, TimeUnit.MILLISECONDS));
+        assertTrue(handle.arm(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mWheel.getArmedCount());
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void many() throws Exception {
+        final int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        Runnable action = new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+
+        for (int i=0; i<count; i++) {
+            mWheel.newHandle(action).arm(i % 100, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, mWheel.getArmedCount());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+import java.io.File;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestRingBufferHandler {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestRingBufferHandler.class.getName());
+    }
+
+    private File mFile;
+    private TracedMethodRegistry mRegistry;
+    private TraceToolbox mToolbox;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("dirmi", ".trace");
+        mRegistry = new TracedMethodRegistry();
+        mToolbox = new TraceToolbox(mRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private int register(String name) {
+        int mid = mRegistry.reserveMethod(false, false);
+        mRegistry.registerMethod(mid, new TracedMethod(mid, null, getClass(), name, null));
+        return mid;
+    }
+
+    @Test
+    public void callTree() throws Exception {
+        RingBufferHandler handler = new RingBufferHandler(mToolbox, mFile.getPath());
+
+        int outer = register("outer");
+        int inner = register("inner");
+
+        for (int i=0; i<10; i++) {
+            handler.enterMethod(outer, "arg");
+            handler.enterMethod(inner);
+            handler.exitMethod(inner);
+            handler.enterMethod(inner);
+            handler.exitMethod(inner, new Exception());
+            handler.exitMethod(outer);
+        }
+
+        // Calls from another thread are merged into the same tree.
+        final RingBufferHandler fh = handler;
+        final int fouter = outer;
+        Thread t = new Thread() {
+            public void run() {
+                fh.enterMethod(fouter);
+                fh.exitMethod(fouter);
+            }
+        };
+        t.start();
+        t.join();
+
+        handler.close();
+
+        TraceFileReader reader = new TraceFileReader(mFile);
+        assertEquals(62, reader.getEventCount());
+        assertEquals(0, reader.getDroppedCount());
+        assertEquals(2, reader.getThreadNames().size());
+
+        List<TraceFileReader.Node> roots = reader.getRoots();
+        assertEquals(1, roots.size());
+        TraceFileReader.Node root = roots.get(0);
+        assertEquals(outer, root.getMethodId());
+        assertTrue(root.getName().contains("outer"));
+        assertEquals(11, root.getCallCount());
+
+        List<TraceFileReader.Node> children = root.getChildren();
+        assertEquals(1, children.size());
+        TraceFileReader.Node child = children.get(0);
+        assertEquals(20, child.getCallCount());
+        assertEquals(10, child.getThrowCount());
+        assertTrue(root.getTotalTimeNanos() >= child.getTotalTimeNanos());
+
+        StringBuilder b = new StringBuilder();
+        reader.appendFolded(b);
+        for (String line : b.toString().split("\n")) {
+            assertTrue(line, line.matches("[^ ]+ \\d+"));
+        }
+    }
+
+    @Test
+    public void dropped() throws Exception {
+        RingBufferHandler handler = new RingBufferHandler
+            (mToolbox, "file=" + mFile.getPath() + ",buffer=16,interval=100000");
+
+        int mid = register("busy");
+
+        // Drain thread is idle for a long time, and so events are dropped.
+        Thread.sleep(100);
+        for (int i=0; i<100; i++) {
+            handler.enterMethod(mid);
+            handler.exitMethod(mid);
+        }
+
+        handler.close();
+
+        TraceFileReader reader = new TraceFileReader(mFile);
+        assertTrue(reader.getDroppedCount() > 0);
+        assertEquals(200, reader.getEventCount() + reader.getDroppedCount());
+    }
+}
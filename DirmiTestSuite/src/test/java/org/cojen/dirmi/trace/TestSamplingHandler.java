@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2011 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestSamplingHandler {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestSamplingHandler.class.getName());
+    }
+
+    @Test
+    public void fixedInterval() {
+        Recorder recorder = new Recorder();
+        SamplingHandler handler = new SamplingHandler(recorder, 10, 0);
+
+        for (int i=0; i<10000; i++) {
+            handler.enterMethod(1);
+            handler.enterMethod(2, "arg");
+            handler.exitMethod(2, new Exception());
+            handler.enterMethod(3);
+            handler.exitMethod(3, 100L);
+            handler.exitMethod(1);
+        }
+
+        int size = recorder.mEvents.size();
+        // Expect about 1000 sampled traces, each with 6 events.
+        assertEquals(0, size % 6);
+        assertTrue("" + size, size > 600 * 6 && size < 1400 * 6);
+
+        // Every sampled trace must be complete.
+        for (int i=0; i<size; i+=6) {
+            assertEquals("enter 1", recorder.mEvents.get(i));
+            assertEquals("enter 2", recorder.mEvents.get(i + 1));
+            assertEquals("exit 2", recorder.mEvents.get(i + 2));
+            assertEquals("enter 3", recorder.mEvents.get(i + 3));
+            assertEquals("exit 3", recorder.mEvents.get(i + 4));
+            assertEquals("exit 1", recorder.mEvents.get(i + 5));
+        }
+    }
+
+    @Test
+    public void everyCall() {
+        Recorder recorder = new Recorder();
+        SamplingHandler handler = new SamplingHandler(recorder, 1, 0);
+        for (int i=0; i<100; i++) {
+            handler.enterMethod(1);
+            handler.exitMethod(1);
+        }
+        assertEquals(200, recorder.mEvents.size());
+    }
+
+    @Test
+    public void budget() throws Exception {
+        Recorder recorder = new Recorder();
+        SamplingHandler handler = new SamplingHandler(recorder, 1, 1000);
+
+        long end = System.currentTimeMillis() + 2500;
+        while (System.currentTimeMillis() < end) {
+            for (int i=0; i<1000; i++) {
+                handler.enterMethod(1);
+                handler.exitMethod(1);
+            }
+        }
+
+        // Interval must grow to reduce the event rate.
+        assertTrue(handler.getInterval() > 1);
+    }
+
+    private static class Recorder extends NullHandler {
+        final List<String> mEvents = new ArrayList<String>();
+
+        Recorder() {
+            super(null);
+        }
+
+        @Override
+        public void enterMethod(int mid) {
+            mEvents.add("enter " + mid);
+        }
+
+        @Override
+        public void enterMethod(int mid, Object argument) {
+            mEvents.add("enter " + mid);
+        }
+
+        @Override
+        public void exitMethod(int mid) {
+            mEvents.add("exit " + mid);
+        }
+
+        @Override
+        public void exitMethod(int mid, long timeNanos) {
+            mEvents.add("exit " + mid);
+        }
+
+        @Override
+        public void exitMethod(int mid, Throwable t) {
+            mEvents.add("exit " + mid);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.dirmi.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestConcurrentCache {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestConcurrentCache.class.getName());
+    }
+
+    @Test
+    public void basic() {
+        ConcurrentCache<String, String> cache = ConcurrentCache.newSoftValueCache();
+
+        assertNull(cache.get("a"));
+        assertNull(cache.putIfAbsent("a", "1"));
+        assertEquals("1", cache.putIfAbsent("a", "2"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+
+        cache.putIfAbsent("b", "2");
+        cache.clear();
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void identityKeys() {
+        ConcurrentCache<String, String> cache = ConcurrentCache.newWeakIdentityCache();
+
+        String k1 = new String("key");
+        String k2 = new String("key");
+
+        assertNull(cache.putIfAbsent(k1, "1"));
+        assertNull(cache.putIfAbsent(k2, "2"));
+        assertEquals("1", cache.get(k1));
+        assertEquals("2", cache.get(k2));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void weakValues() throws Exception {
+        ConcurrentCache<String, Object> cache = ConcurrentCache.newWeakValueCache();
+
+        cache.putIfAbsent("a", new Object());
+
+        for (int i=0; i<100 && cache.get("a") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(cache.get("a"));
+
+        // Replaces cleared entry.
+        Object value = new Object();
+        assertNull(cache.putIfAbsent("a", value));
+        assertSame(value, cache.get("a"));
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        final ConcurrentCache<String, Object> cache = ConcurrentCache.newSoftValueCache();
+        final AtomicInteger created = new AtomicInteger();
+
+        final ConcurrentCache.Factory<String, Object> factory =
+            new ConcurrentCache.Factory<String, Object>()
+        {
+            public Object create(String key) {
+                created.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                return new Object();
+            }
+        };
+
+        final int count = 16;
+        final Object[] values = new Object[count];
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[count];
+        for (int i=0; i<count; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    values[slot] = cache.get("key", factory);
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, created.get());
+        for (Object value : values) {
+            assertNotNull(value);
+            assertSame(values[0], value);
+        }
+    }
+
+    @Test
+    public void factoryFailure() {
+        ConcurrentCache<String, String> cache = ConcurrentCache.newSoftValueCache();
+
+        try {
+            cache.get("a", new ConcurrentCache.Factory<String, String>() {
+                public String create(String key) {
+                    throw new IllegalArgumentException(key);
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("a", e.getMessage());
+        }
+
+        assertNull(cache.get("a"));
+
+        assertEquals("A", cache.get("a", new ConcurrentCache.Factory<String, String>() {
+            public String create(String key) {
+                return key.toUpperCase();
+            }
+        }));
+
+        assertEquals("A", cache.get("a"));
+    }
+
+    @Test
+    public void recursion() {
+        final ConcurrentCache<String, String> cache = ConcurrentCache.newSoftValueCache();
+
+        try {
+            cache.get("a", new ConcurrentCache.Factory<String, String>() {
+                public String create(String key) {
+                    return cache.get(key, this);
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestLatencyHistogram {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestLatencyHistogram.class.getName());
+    }
+
+    @Test
+    public void buckets() {
+        long last = -1;
+        for (long v = 0; v < 1000000; v += 7) {
+            int index = LatencyHistogram.bucketIndex(v);
+            assertTrue(v <= LatencyHistogram.highestValue(index));
+            if (index > 0) {
+                assertTrue(v > LatencyHistogram.highestValue(index - 1));
+            }
+            assertTrue(index >= last);
+            last = index;
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(50));
+
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i * 1000L);
+        }
+
+        assertEquals(10000, h.getCount());
+        assertEquals(10000000L, h.getMax());
+        assertEquals(5000500.0, h.getMean(), 0.1);
+
+        assertNear(5000000L, h.getPercentile(50));
+        assertNear(9000000L, h.getPercentile(90));
+        assertNear(9900000L, h.getPercentile(99));
+        assertEquals(h.getMax(), h.getPercentile(100));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void outliers() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(2, h.getCount());
+        assertEquals(0, h.getPercentile(0));
+        assertTrue(h.getPercentile(100) > 0);
+    }
+
+    @Test
+    public void registry() throws Exception {
+        MetricsRegistry.Key key = MetricsRegistry.key("Foo", "void bar()", false);
+        assertSame(key, MetricsRegistry.key("Foo", "void bar()", false));
+        assertNotSame(key, MetricsRegistry.key("Foo", "void bar()", true));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String prefix = "org.cojen.dirmi.test:type=Metrics";
+
+        MetricsRegistry parent = new MetricsRegistry();
+        parent.register(server, prefix);
+        MetricsRegistry child = parent.newChild("session", "1");
+
+        child.record(key, 2000, 10, 20, false);
+        child.record(key, 4000, 10, 20, true);
+
+        MethodMetrics m = child.get(key);
+        assertEquals(2, m.getCallCount());
+        assertEquals(1, m.getErrorCount());
+        assertEquals(20, m.getBytesIn());
+        assertEquals(40, m.getBytesOut());
+
+        MethodMetrics pm = parent.get(key);
+        assertEquals(2, pm.getCallCount());
+        assertEquals(1, parent.getMethodMetrics().size());
+
+        ObjectName pattern = new ObjectName(prefix + ",*");
+        assertEquals(2, server.queryNames(pattern, null).size());
+
+        m.reset();
+        assertEquals(0, m.getCallCount());
+        assertEquals(2, pm.getCallCount());
+
+        child.unregister();
+        assertEquals(1, server.queryNames(pattern, null).size());
+        parent.unregister();
+        assertEquals(0, server.queryNames(pattern, null).size());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected " + expected + ", actual " + actual,
+                   Math.abs(expected - actual) <= expected * 0.04);
+    }
+}
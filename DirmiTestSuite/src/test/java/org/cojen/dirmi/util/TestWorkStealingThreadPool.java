@@ -0,0 +1,252 @@
+/*
+ *  Copyright 2010 Brian S O'Neill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.dirmi.util;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestWorkStealingThreadPool {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(TestWorkStealingThreadPool.class.getName());
+    }
+
+    private WorkStealingThreadPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new WorkStealingThreadPool(10, true);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    @Test
+    public void executeMany() throws Exception {
+        final int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger rejected = new AtomicInteger();
+
+        Thread[] submitters = new Thread[4];
+        for (int i=0; i<submitters.length; i++) {
+            submitters[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j<count / 4; j++) {
+                        Runnable task = new Runnable() {
+                            public void run() {
+                                latch.countDown();
+                            }
+                        };
+                        while (true) {
+                            try {
+                                mPool.execute(task);
+                                break;
+                            } catch (RejectedExecutionException e) {
+                                rejected.incrementAndGet();
+                                Thread.yield();
+                            }
+                        }
+                    }
+                }
+            };
+            submitters[i].start();
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(mPool.getThreadCount() <= 10);
+    }
+
+    @Test
+    public void reuseThread() throws Exception {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        for (int i=0; i<10; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            mPool.execute(new Runnable() {
+                public void run() {
+                    threads.add(Thread.currentThread());
+                    latch.countDown();
+                }
+            });
+            latch.await();
+            waitForIdle();
+        }
+        assertEquals(1, mPool.getThreadCount());
+        for (Thread t : threads) {
+            assertSame(threads.get(0), t);
+        }
+    }
+
+    /**
+     * Waits for a thread to be pushed onto any of the pool's idle stacks.
+     */
+    private void waitForIdle() throws Exception {
+        Field field = WorkStealingThreadPool.class.getDeclaredField("mIdleStacks");
+        field.setAccessible(true);
+        AtomicReferenceArray<?> stacks = (AtomicReferenceArray<?>) field.get(mPool);
+        long end = System.currentTimeMillis() + 10000;
+        while (true) {
+            for (int i=0; i<stacks.length(); i++) {
+                if (stacks.get(i) != null) {
+                    return;
+                }
+            }
+            assertTrue("Thread not idle", System.currentTimeMillis() < end);
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void rejection() throws Exception {
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(10);
+
+        for (int i=0; i<10; i++) {
+            mPool.execute(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        block.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            });
+        }
+
+        started.await();
+
+        try {
+            mPool.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+
+        block.countDown();
+    }
+
+    @Test
+    public void scheduleOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(3);
+
+        for (final int delay : new int[] {300, 100, 200}) {
+            mPool.schedule(new Runnable() {
+                public void run() {
+                    order.add(delay);
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(100, (int) order.get(0));
+        assertEquals(200, (int) order.get(1));
+        assertEquals(300, (int) order.get(2));
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+        for (int i=0; i<100; i++) {
+            futures.add(mPool.schedule(new Runnable() {
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            }, 100 + i, TimeUnit.MILLISECONDS));
+        }
+
+        for (int i=0; i<100; i+=2) {
+            assertTrue(futures.get(i).cancel(false));
+        }
+
+        Thread.sleep(500);
+
+        assertEquals(50, runs.get());
+    }
+
+    @Test
+    public void fixedRate() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(5);
+
+        ScheduledFuture<?> future = mPool.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 10, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        future.cancel(false);
+    }
+
+    @Test
+    public void shutdown() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mPool.execute(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+
+        mPool.shutdown();
+        assertTrue(mPool.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(mPool.isTerminated());
+
+        try {
+            mPool.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+
+        try {
+            mPool.schedule(new Runnable() {
+                public void run() {
+                }
+            }, 1, TimeUnit.SECONDS);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+    }
+}